@@ -18,6 +18,8 @@ package com.facebook.buck.android;
 
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ResourceAwareStep;
+import com.facebook.buck.step.StepResources;
 import com.facebook.buck.util.AndroidPlatformTarget;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.util.Verbosity;
@@ -35,7 +37,13 @@ import java.util.Set;
 
 import javax.annotation.CheckForNull;
 
-public class DxStep extends ShellStep {
+public class DxStep extends ShellStep implements ResourceAwareStep {
+
+  /**
+   * Each invocation of {@code dx} is a separate JVM that keeps a single core busy. The {@code dx}
+   * script in the Android SDK defaults to {@code -Xmx1024M}.
+   */
+  private static final StepResources DX_RESOURCES = new StepResources(1, 1024L);
 
   /** Options to pass to {@code dx}. */
   public static enum Option {
@@ -151,4 +159,9 @@ public class DxStep extends ShellStep {
     return "dx";
   }
 
+  @Override
+  public StepResources getRequiredResources(ExecutionContext context) {
+    return DX_RESOURCES;
+  }
+
 }
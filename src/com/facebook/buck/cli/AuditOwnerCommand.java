@@ -20,13 +20,10 @@ import com.facebook.buck.json.BuildFileParseException;
 import com.facebook.buck.model.BuildTargetException;
 import com.facebook.buck.parser.PartialGraph;
 import com.facebook.buck.rules.BuildRule;
-import com.facebook.buck.rules.BuildRuleType;
 import com.facebook.buck.rules.DependencyGraph;
 import com.facebook.buck.util.Ansi;
-import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.SetMultimap;
@@ -116,68 +113,29 @@ public class AuditOwnerCommand extends AbstractCommandRunner<AuditOwnerOptions>
     }
 
     // Try to find owners for each valid and existing file.
-    Set<Path> inputsWithNoOwners = Sets.newHashSet(inputs);
+    OwnersIndex ownersIndex = new OwnersIndex(graph, projectFilesystem);
+    Set<Path> inputsWithNoOwners = Sets.newHashSet();
     SetMultimap<BuildRule, Path> owners = TreeMultimap.create();
-    for (BuildRule rule : graph.getNodes()) {
-      for (Path ruleInput : rule.getInputs()) {
-        if (inputs.contains(ruleInput)) {
-          inputsWithNoOwners.remove(ruleInput);
-          owners.put(rule, ruleInput);
-        }
+    for (Path input : inputs) {
+      ImmutableSet<BuildRule> rules = ownersIndex.getOwners(input);
+      if (rules.isEmpty()) {
+        inputsWithNoOwners.add(input);
+      }
+      for (BuildRule rule : rules) {
+        owners.put(rule, input);
       }
     }
 
-    // Try to guess owners for nonexistent files.
+    // Try to guess owners for nonexistent files, as every rule in the nearest build file.
     if (options.isGuessForDeletedEnabled()) {
-      guessOwnersForNonExistentFiles(graph, owners, nonExistentInputs);
-    }
-
-    return new OwnersReport(owners, inputsWithNoOwners, nonExistentInputs, nonFileInputs);
-  }
-
-  /**
-   * Guess target owners for deleted/missing files by finding first
-   * BUCK file and assuming that all targets in this file used
-   * missing file as input.
-   */
-  private void guessOwnersForNonExistentFiles(DependencyGraph graph,
-      SetMultimap<BuildRule, Path> owners, Set<String> nonExistentFiles) {
-
-    ProjectFilesystem projectFilesystem = getProjectFilesystem();
-    for (String nonExistentFile : nonExistentFiles) {
-      File file = projectFilesystem.getFileForRelativePath(nonExistentFile);
-      File buck = findBuckFileFor(file);
-      for (BuildRule rule : graph.getNodes()) {
-        if (rule.getType() == BuildRuleType.PROJECT_CONFIG) {
-          continue;
-        }
-        try {
-          File ruleBuck = rule.getBuildTarget().getBuildFile(projectFilesystem);
-          if (buck.getCanonicalFile().equals(ruleBuck.getCanonicalFile())) {
-            owners.put(rule, Paths.get(nonExistentFile));
-          }
-        } catch (IOException | BuildTargetException e) {
-          throw Throwables.propagate(e);
+      for (String nonExistentInput : nonExistentInputs) {
+        for (BuildRule rule : ownersIndex.guessOwnersOfMissingFile(nonExistentInput)) {
+          owners.put(rule, Paths.get(nonExistentInput));
         }
       }
     }
-  }
 
-  private File findBuckFileFor(File file) {
-    File dir = file;
-    if (!dir.isDirectory()) {
-      dir = dir.getParentFile();
-    }
-
-    File projectRoot = getProjectFilesystem().getProjectRoot();
-    while (dir != null && !dir.equals(projectRoot)) {
-      File buck = new File(dir, BuckConstant.BUILD_RULES_FILE_NAME);
-      if (buck.exists()) {
-        return buck;
-      }
-      dir = dir.getParentFile();
-    }
-    throw new RuntimeException("Failed to find BUCK file for " + file.getPath());
+    return new OwnersReport(owners, inputsWithNoOwners, nonExistentInputs, nonFileInputs);
   }
 
   private void printReport(AuditOwnerOptions options, OwnersReport report) {
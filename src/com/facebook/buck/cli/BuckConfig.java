@@ -29,6 +29,7 @@ import com.facebook.buck.rules.CassandraArtifactCache;
 import com.facebook.buck.rules.DirArtifactCache;
 import com.facebook.buck.rules.MultiArtifactCache;
 import com.facebook.buck.rules.NoopArtifactCache;
+import com.facebook.buck.step.StepResources;
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.HumanReadableException;
@@ -65,6 +66,7 @@ import java.io.StringReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
@@ -431,6 +433,65 @@ class BuckConfig {
     return Long.parseLong(getValue("test", "timeout").or("0"));
   }
 
+  /**
+   * @return whether the results of passing tests should be stored in and fetched from the
+   *     artifact cache, as set by {@code cache_results} in the {@code [test]} section of
+   *     {@code .buckconfig}. Off by default.
+   */
+  public boolean isTestResultCachingEnabled() {
+    return Boolean.parseBoolean(getValue("test", "cache_results").or("false"));
+  }
+
+  /**
+   * @return the number of JVMs across which the test classes of a single {@code java_test()} may
+   *     be split, as set by {@code shards} in the {@code [test]} section of {@code .buckconfig}.
+   *     1 by default, which runs all of them in one JVM.
+   */
+  public int getTestShardCount() {
+    int testShardCount = Integer.parseInt(getValue("test", "shards").or("1"));
+    if (testShardCount < 1) {
+      throw new HumanReadableException(
+          "shards in the [test] section of .buckconfig must be at least 1, but was %d.",
+          testShardCount);
+    }
+    return testShardCount;
+  }
+
+  /**
+   * @return the number of {@code java_test()} rules that may run, one after another, in the same
+   *     JVM, as set by {@code jvm_reuse_count} in the {@code [test]} section of
+   *     {@code .buckconfig}. 1 by default, which starts a new JVM for every rule.
+   */
+  public int getTestJvmReuseCount() {
+    int testJvmReuseCount = Integer.parseInt(getValue("test", "jvm_reuse_count").or("1"));
+    if (testJvmReuseCount < 1) {
+      throw new HumanReadableException(
+          "jvm_reuse_count in the [test] section of .buckconfig must be at least 1, but was %d.",
+          testJvmReuseCount);
+    }
+    return testJvmReuseCount;
+  }
+
+  /**
+   * @return the resources that {@link com.facebook.buck.step.ResourceAwareStep}s may use at once,
+   *     as set in the {@code [resources]} section of {@code .buckconfig}. By default, there is one
+   *     CPU slot per core and no limit on memory.
+   */
+  public StepResources getResourceLimits() {
+    StepResources machine = StepResources.forThisMachine();
+    try {
+      return new StepResources(
+          Integer.parseInt(
+              getValue("resources", "cpu_slots").or(String.valueOf(machine.getCpuSlots()))),
+          Long.parseLong(
+              getValue("resources", "memory_mb").or(String.valueOf(machine.getMemoryMegabytes()))));
+    } catch (IllegalArgumentException e) {
+      throw new HumanReadableException(
+          "Unable to determine resource limits from the [resources] section of .buckconfig: %s",
+          e.getMessage());
+    }
+  }
+
   public int getMaxTraces() {
     return Integer.parseInt(getValue("log", "max_traces").or(DEFAULT_MAX_TRACES));
   }
@@ -441,6 +502,25 @@ class BuckConfig {
     return ImmutableSet.copyOf(splitter.split(jarPathsString));
   }
 
+  /**
+   * @return whether {@code java_library()} rules that have been built before should only
+   *     recompile the sources that are affected by a change, as set by {@code incremental} in the
+   *     {@code [java]} section of {@code .buckconfig}. Off by default.
+   */
+  public boolean isIncrementalJavaCompilationEnabled() {
+    return Boolean.parseBoolean(getValue("java", "incremental").or("false"));
+  }
+
+  /**
+   * @return whether {@code java_library()} rules with only a few sources that are ready to be
+   *     compiled at the same time may be compiled by a single javac invocation, as set by
+   *     {@code batch_compilation} in the {@code [java]} section of {@code .buckconfig}. Off by
+   *     default.
+   */
+  public boolean isJavaCompilationBatchingEnabled() {
+    return Boolean.parseBoolean(getValue("java", "batch_compilation").or("false"));
+  }
+
   @VisibleForTesting
   DefaultJavaPackageFinder createDefaultJavaPackageFinder() {
     Optional<String> srcRootsOptional = getValue("java", "src_roots");
@@ -455,6 +535,37 @@ class BuckConfig {
     return DefaultJavaPackageFinder.createDefaultJavaPackageFinder(paths);
   }
 
+  /**
+   * @return how many tests with each label may run at once, as set by {@code label_concurrency} in
+   *     the {@code [test]} section of {@code .buckconfig}, which is a comma-separated list of
+   *     {@code label:count} pairs. Tests with labels that are not listed are not limited.
+   */
+  ImmutableMap<String, Integer> getTestConcurrencyByLabel() {
+    String labelConcurrency = getValue("test", "label_concurrency").or("");
+    ImmutableMap.Builder<String, Integer> result = ImmutableMap.builder();
+    for (String entry : Splitter.on(',').omitEmptyStrings().trimResults().split(labelConcurrency)) {
+      List<String> labelAndCount = Splitter.on(':').trimResults().splitToList(entry);
+      int count = 0;
+      if (labelAndCount.size() == 2) {
+        try {
+          count = Integer.parseInt(labelAndCount.get(1));
+        } catch (NumberFormatException e) {
+          // Reported below, along with every other malformed entry.
+          count = 0;
+        }
+      }
+      if (count < 1) {
+        throw new HumanReadableException(
+            "label_concurrency in the [test] section of .buckconfig must be a list of " +
+                "label:count pairs, with counts of at least 1, but contained '%s'.",
+            entry);
+      }
+      validateLabelName(labelAndCount.get(0));
+      result.put(labelAndCount.get(0), count);
+    }
+    return result.build();
+  }
+
   ImmutableSet<String> getDefaultExcludedLabels() {
     Optional<String> excludedRulesOptional = getValue("test", "excluded_labels");
     if (excludedRulesOptional.isPresent()) {
@@ -21,13 +21,15 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.rules.ArtifactCache;
 import com.facebook.buck.rules.BuildDependencies;
 import com.facebook.buck.rules.DependencyGraph;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ResourceScheduler;
 import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.concurrent.PriorityThreadPoolExecutor;
 import com.facebook.buck.util.environment.Platform;
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
@@ -40,7 +42,6 @@ import org.kohsuke.args4j.Option;
 
 import java.util.List;
 
-import static com.facebook.buck.util.concurrent.MoreExecutors.newMultiThreadExecutor;
 import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 
 public class BuildCommandOptions extends AbstractCommandOptions {
@@ -113,7 +114,6 @@ public class BuildCommandOptions extends AbstractCommandOptions {
   }
 
 
-  @VisibleForTesting
   int getNumThreads() {
     return numThreads;
   }
@@ -129,8 +129,14 @@ public class BuildCommandOptions extends AbstractCommandOptions {
     return listeningExecutorService;
   }
 
+  /**
+   * Rules whose deps have been built are queued on this executor by the length of their estimated
+   * critical path, as computed by {@link com.facebook.buck.rules.CriticalPathPrioritizer}, rather
+   * than in the order in which they became ready.
+   */
   public ListeningExecutorService createListeningExecutorService() {
-    return listeningDecorator(newMultiThreadExecutor(getClass().getSimpleName(), numThreads));
+    return listeningDecorator(
+        new PriorityThreadPoolExecutor(getClass().getSimpleName(), numThreads));
   }
 
   Build createBuild(BuckConfig buckConfig,
@@ -144,20 +150,29 @@ public class BuildCommandOptions extends AbstractCommandOptions {
     if (console.getVerbosity() == Verbosity.ALL) {
       console.getStdErr().printf("Creating a build with %d threads.\n", numThreads);
     }
+    ExecutionContext executionContext = ExecutionContext.builder()
+        .setProjectFilesystem(projectFilesystem)
+        .setConsole(console)
+        .setAndroidPlatformTarget(
+            Build.findAndroidPlatformTarget(graph, findAndroidSdkDir(), eventBus))
+        .setNdkRoot(findAndroidNdkDir(projectFilesystem))
+        .setTargetDevice(targetDevice)
+        .setDefaultTestTimeoutMillis(buckConfig.getDefaultTestTimeoutMillis())
+        .setTestShardCount(buckConfig.getTestShardCount())
+        .setTestJvmReuseCount(buckConfig.getTestJvmReuseCount())
+        .setCodeCoverageEnabled(isCodeCoverageEnabled())
+        .setDebugEnabled(isDebugEnabled())
+        .setIncrementalJavaCompilationEnabled(buckConfig.isIncrementalJavaCompilationEnabled())
+        .setJavaCompilationBatchingEnabled(buckConfig.isJavaCompilationBatchingEnabled())
+        .setEventBus(eventBus)
+        .setPlatform(platform)
+        .setResourceScheduler(new ResourceScheduler(buckConfig.getResourceLimits()))
+        .build();
     return new Build(graph,
-        findAndroidSdkDir(),
-        findAndroidNdkDir(projectFilesystem),
-        targetDevice,
-        projectFilesystem,
+        executionContext,
         artifactCache,
         getListeningExecutorService(),
         getBuckConfig().createDefaultJavaPackageFinder(),
-        console,
-        buckConfig.getDefaultTestTimeoutMillis(),
-        isCodeCoverageEnabled(),
-        isDebugEnabled(),
-        getBuildDependencies(),
-        eventBus,
-        platform);
+        getBuildDependencies());
   }
 }
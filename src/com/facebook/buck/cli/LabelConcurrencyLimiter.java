@@ -0,0 +1,194 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Limits how many tests with a given label may run at once, regardless of how many threads are
+ * free to run them. This lets heavyweight tests, such as integration tests that start servers or
+ * use a device, be run alongside everything else without overwhelming the machine.
+ * <p>
+ * A test that may not run yet waits in a queue, rather than on a thread, and is only started once
+ * every one of its labels is below its limit, so the threads that run tests are left free to run
+ * tests that are not limited. Tests that share a label are started in the order in which they
+ * were submitted.
+ */
+class LabelConcurrencyLimiter {
+
+  private final ImmutableMap<String, Integer> maxConcurrencyByLabel;
+
+  /** How many tests with each limited label are running. Guarded by {@code this}. */
+  private final Map<String, Integer> runningByLabel;
+
+  /** Tests that have been submitted but not started, oldest first. Guarded by {@code this}. */
+  private final Queue<PendingTest<?>> pendingTests;
+
+  /**
+   * @param maxConcurrencyByLabel how many tests with each label may run at once. Labels that are
+   *     not in the map are not limited.
+   */
+  LabelConcurrencyLimiter(Map<String, Integer> maxConcurrencyByLabel) {
+    for (Map.Entry<String, Integer> entry : maxConcurrencyByLabel.entrySet()) {
+      Preconditions.checkArgument(entry.getValue() >= 1,
+          "The concurrency of label %s must be at least 1, but was %s.",
+          entry.getKey(),
+          entry.getValue());
+    }
+    this.maxConcurrencyByLabel = ImmutableMap.copyOf(maxConcurrencyByLabel);
+    this.runningByLabel = Maps.newHashMap();
+    this.pendingTests = Lists.newLinkedList();
+  }
+
+  /** @return whether a test with the specified labels would ever have to wait to run. */
+  boolean isLimited(Set<String> labels) {
+    for (String label : labels) {
+      if (maxConcurrencyByLabel.containsKey(label)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Starts a test with the specified labels once it may run, without blocking. The test counts
+   * against the limit of each of its labels until the future that {@code start} returns is done.
+   * @param start starts the test, such as by submitting its steps to an executor, and must not
+   *     block.
+   * @return the result of the test.
+   */
+  <T> ListenableFuture<T> submit(Set<String> labels, Callable<ListenableFuture<T>> start) {
+    PendingTest<T> test = new PendingTest<>(limitedLabels(labels), start);
+    synchronized (this) {
+      pendingTests.add(test);
+    }
+    startTestsThatMayRun();
+    return Futures.dereference(test.future);
+  }
+
+  private ImmutableSet<String> limitedLabels(Set<String> labels) {
+    ImmutableSet.Builder<String> limitedLabels = ImmutableSet.builder();
+    for (String label : labels) {
+      if (maxConcurrencyByLabel.containsKey(label)) {
+        limitedLabels.add(label);
+      }
+    }
+    return limitedLabels.build();
+  }
+
+  private void startTestsThatMayRun() {
+    List<PendingTest<?>> testsToStart = Lists.newArrayList();
+    synchronized (this) {
+      // Once a test has to wait for a label, later tests with the same label wait behind it, so
+      // that a test with several limited labels is not overtaken forever.
+      Set<String> blockedLabels = Sets.newHashSet();
+      for (Iterator<PendingTest<?>> iter = pendingTests.iterator(); iter.hasNext(); ) {
+        PendingTest<?> test = iter.next();
+        if (mayRun(test.labels) && Sets.intersection(test.labels, blockedLabels).isEmpty()) {
+          iter.remove();
+          for (String label : test.labels) {
+            runningByLabel.put(label, getRunning(label) + 1);
+          }
+          testsToStart.add(test);
+        } else {
+          blockedLabels.addAll(test.labels);
+        }
+      }
+    }
+
+    // Outside the lock, as a test that finishes straight away releases its labels at once.
+    for (PendingTest<?> test : testsToStart) {
+      start(test);
+    }
+  }
+
+  private <T> void start(final PendingTest<T> test) {
+    ListenableFuture<T> result;
+    try {
+      result = test.start.call();
+    } catch (Exception e) {
+      release(test.labels);
+      test.future.setException(e);
+      return;
+    }
+
+    Futures.addCallback(result, new FutureCallback<T>() {
+      @Override
+      public void onSuccess(T value) {
+        release(test.labels);
+      }
+
+      @Override
+      public void onFailure(Throwable throwable) {
+        release(test.labels);
+      }
+    });
+    test.future.set(result);
+  }
+
+  private void release(Set<String> labels) {
+    synchronized (this) {
+      for (String label : labels) {
+        runningByLabel.put(label, getRunning(label) - 1);
+      }
+    }
+    startTestsThatMayRun();
+  }
+
+  private synchronized boolean mayRun(Set<String> labels) {
+    for (String label : labels) {
+      if (getRunning(label) >= maxConcurrencyByLabel.get(label)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private synchronized int getRunning(String label) {
+    Integer running = runningByLabel.get(label);
+    return running == null ? 0 : running;
+  }
+
+  /** A test that has been submitted, and the future that is set once it has been started. */
+  private static class PendingTest<T> {
+    private final ImmutableSet<String> labels;
+    private final Callable<ListenableFuture<T>> start;
+    private final SettableFuture<ListenableFuture<T>> future;
+
+    private PendingTest(ImmutableSet<String> labels, Callable<ListenableFuture<T>> start) {
+      this.labels = labels;
+      this.start = start;
+      this.future = SettableFuture.create();
+    }
+  }
+}
@@ -21,8 +21,10 @@ import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.listener.AbstractConsoleEventBusListener;
 import com.facebook.buck.event.listener.ChromeTraceBuildListener;
 import com.facebook.buck.event.listener.JavaUtilsLoggingBuildListener;
+import com.facebook.buck.event.listener.RuleDurationHistoryListener;
 import com.facebook.buck.event.listener.SimpleConsoleEventBusListener;
 import com.facebook.buck.event.listener.SuperConsoleEventBusListener;
+import com.facebook.buck.event.listener.TestDurationHistoryListener;
 import com.facebook.buck.httpserver.WebServer;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.rules.BuildRule;
@@ -497,6 +499,8 @@ public final class Main {
         ImmutableList.<BuckEventListener>builder()
             .add(new JavaUtilsLoggingBuildListener())
             .add(new ChromeTraceBuildListener(projectFilesystem, clock, config.getMaxTraces()))
+            .add(new RuleDurationHistoryListener(projectFilesystem))
+            .add(new TestDurationHistoryListener(projectFilesystem))
             .add(consoleEventBusListener);
 
     if (webServer.isPresent()) {
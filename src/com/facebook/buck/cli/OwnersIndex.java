@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleType;
+import com.facebook.buck.rules.DependencyGraph;
+import com.facebook.buck.rules.TestRule;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Maps files to the rules in a {@link DependencyGraph} that own them, and rules to the tests that
+ * depend on them. The index is built with a single pass over the graph, so that looking up the
+ * owners of many files, or the tests affected by many rules, does not visit every rule each time.
+ */
+public class OwnersIndex {
+
+  private final DependencyGraph graph;
+  private final ProjectFilesystem projectFilesystem;
+
+  /** Keyed by the path of an input, relative to the project root. */
+  private final ImmutableSetMultimap<Path, BuildRule> inputsToOwners;
+
+  /**
+   * Keyed by the directory of a build file, relative to the project root. Only needed to guess the
+   * owners of files that no longer exist, so it is not built until then.
+   */
+  private final Supplier<ImmutableSetMultimap<String, BuildRule>> basePathsToRules;
+
+  public OwnersIndex(final DependencyGraph graph, ProjectFilesystem projectFilesystem) {
+    this.graph = Preconditions.checkNotNull(graph);
+    this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
+
+    ImmutableSetMultimap.Builder<Path, BuildRule> inputsToOwners = ImmutableSetMultimap.builder();
+    for (BuildRule rule : graph.getNodes()) {
+      for (Path input : rule.getInputs()) {
+        inputsToOwners.put(input, rule);
+      }
+    }
+    this.inputsToOwners = inputsToOwners.build();
+
+    this.basePathsToRules = Suppliers.memoize(
+        new Supplier<ImmutableSetMultimap<String, BuildRule>>() {
+          @Override
+          public ImmutableSetMultimap<String, BuildRule> get() {
+            ImmutableSetMultimap.Builder<String, BuildRule> basePathsToRules =
+                ImmutableSetMultimap.builder();
+            for (BuildRule rule : graph.getNodes()) {
+              if (rule.getType() != BuildRuleType.PROJECT_CONFIG) {
+                basePathsToRules.put(rule.getBuildTarget().getBasePath(), rule);
+              }
+            }
+            return basePathsToRules.build();
+          }
+        });
+  }
+
+  /**
+   * @param input path relative to the project root.
+   * @return the rules that list {@code input} as one of their inputs.
+   */
+  public ImmutableSet<BuildRule> getOwners(Path input) {
+    return inputsToOwners.get(input);
+  }
+
+  /**
+   * Guesses the owners of a file that no longer exists, which cannot be found by its inputs, as
+   * every rule in the nearest build file above it.
+   * @param missingFile path relative to the project root.
+   */
+  public ImmutableSet<BuildRule> guessOwnersOfMissingFile(String missingFile) {
+    Path directory = Paths.get(missingFile).getParent();
+    while (directory != null) {
+      if (projectFilesystem.getFileForRelativePath(
+          directory.resolve(BuckConstant.BUILD_RULES_FILE_NAME).toString()).exists()) {
+        return basePathsToRules.get().get(directory.toString());
+      }
+      directory = directory.getParent();
+    }
+    return projectFilesystem.getFileForRelativePath(BuckConstant.BUILD_RULES_FILE_NAME).exists() ?
+        basePathsToRules.get().get("") :
+        ImmutableSet.<BuildRule>of();
+  }
+
+  /**
+   * @return the tests that depend on any of {@code changedRules}, directly or transitively,
+   *     including any of {@code changedRules} that are themselves tests.
+   */
+  public ImmutableSortedSet<TestRule> getAffectedTests(Iterable<? extends BuildRule> changedRules) {
+    ImmutableSortedSet.Builder<TestRule> affectedTests = ImmutableSortedSet.naturalOrder();
+    Set<BuildRule> visited = Sets.newHashSet();
+    Queue<BuildRule> toVisit = Lists.newLinkedList(changedRules);
+    while (!toVisit.isEmpty()) {
+      BuildRule rule = toVisit.remove();
+      if (!visited.add(rule)) {
+        continue;
+      }
+      if (rule instanceof TestRule) {
+        affectedTests.add((TestRule) rule);
+      }
+      for (BuildRule dependent : graph.getIncomingNodesFor(rule)) {
+        toVisit.add(dependent);
+      }
+    }
+    return affectedTests.build();
+  }
+}
@@ -16,7 +16,7 @@
 
 package com.facebook.buck.cli;
 
-import com.facebook.buck.graph.AbstractBottomUpTraversal;
+import com.facebook.buck.graph.AbstractParallelBottomUpTraversal;
 import com.facebook.buck.json.BuildFileParseException;
 import com.facebook.buck.model.BuildFileTree;
 import com.facebook.buck.model.BuildTarget;
@@ -30,12 +30,14 @@ import com.facebook.buck.rules.Buildable;
 import com.facebook.buck.rules.DependencyGraph;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.MorePaths;
+import com.facebook.buck.util.concurrent.MoreExecutors;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -51,6 +53,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nullable;
 
@@ -149,27 +152,36 @@ public class TargetsCommand extends AbstractCommandRunner<TargetsCommandOptions>
   SortedMap<String, BuildRule> getMatchingBuildRules(
       final DependencyGraph graph,
       final TargetsCommandPredicate predicate) {
-    // Traverse the DependencyGraph and select all of the rules that accepted by Predicate.
-    AbstractBottomUpTraversal<BuildRule, SortedMap<String, BuildRule>> traversal =
-        new AbstractBottomUpTraversal<BuildRule, SortedMap<String, BuildRule>>(graph) {
-
-      final SortedMap<String, BuildRule> matchingBuildRules = Maps.newTreeMap();
-
-      @Override
-      public void visit(BuildRule rule) {
-        if (predicate.apply(rule)) {
-          matchingBuildRules.put(rule.getFullyQualifiedName(), rule);
-        }
-      }
-
+    // Traverse the DependencyGraph and select all of the rules that accepted by Predicate. The
+    // predicate only looks at a rule and its deps, so independent rules can be checked in parallel.
+    AbstractParallelBottomUpTraversal<BuildRule, Boolean> traversal =
+        new AbstractParallelBottomUpTraversal<BuildRule, Boolean>(graph) {
       @Override
-      public SortedMap<String, BuildRule> getResult() {
-        return matchingBuildRules;
+      protected Boolean visit(BuildRule rule, ImmutableList<Boolean> depResults) {
+        return predicate.apply(rule);
       }
     };
 
-    traversal.traverse();
-    return traversal.getResult();
+    ExecutorService executor = MoreExecutors.newMultiThreadExecutor(
+        getClass().getSimpleName(),
+        Runtime.getRuntime().availableProcessors());
+    ImmutableMap<BuildRule, Boolean> results;
+    try {
+      results = traversal.traverse(executor);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HumanReadableException("Interrupted while finding matching targets.");
+    } finally {
+      executor.shutdownNow();
+    }
+
+    SortedMap<String, BuildRule> matchingBuildRules = Maps.newTreeMap();
+    for (Map.Entry<BuildRule, Boolean> result : results.entrySet()) {
+      if (result.getValue()) {
+        matchingBuildRules.put(result.getKey().getFullyQualifiedName(), result.getKey());
+      }
+    }
+    return matchingBuildRules;
   }
 
   @Override
@@ -355,7 +367,9 @@ public class TargetsCommand extends AbstractCommandRunner<TargetsCommandOptions>
         this.referencedInputs = MorePaths.asPaths(referencedPaths);
         BuildFileTree tree = new BuildFileTree(partialGraph.getTargets());
         basePathOfTargets = Sets.newHashSet();
-        dependentTargets = Sets.newHashSet();
+        // Rules are tested concurrently by getMatchingBuildRules(), once all of their deps have
+        // been tested.
+        dependentTargets = Sets.newSetFromMap(Maps.<BuildRule, Boolean>newConcurrentMap());
         for (Path input : referencedInputs) {
           basePathOfTargets.add(tree.getBasePathOfAncestorTarget(input.toString()));
         }
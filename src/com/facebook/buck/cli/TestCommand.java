@@ -18,9 +18,9 @@ package com.facebook.buck.cli;
 
 import com.facebook.buck.command.Build;
 import com.facebook.buck.graph.AbstractBottomUpTraversal;
+import com.facebook.buck.java.CodeCoverageInstrumentation;
 import com.facebook.buck.java.DefaultJavaPackageFinder;
 import com.facebook.buck.java.GenerateCodeCoverageReportStep;
-import com.facebook.buck.java.InstrumentStep;
 import com.facebook.buck.java.JUnitStep;
 import com.facebook.buck.java.JavaLibraryRule;
 import com.facebook.buck.java.JavaTestRule;
@@ -36,8 +36,10 @@ import com.facebook.buck.rules.BuildRuleSuccess;
 import com.facebook.buck.rules.BuildRuleType;
 import com.facebook.buck.rules.DependencyGraph;
 import com.facebook.buck.rules.IndividualTestEvent;
+import com.facebook.buck.rules.TestDurationHistory;
 import com.facebook.buck.rules.TestRule;
 import com.facebook.buck.rules.TestRunEvent;
+import com.facebook.buck.rules.TestStragglersEvent;
 import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
@@ -47,7 +49,9 @@ import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.test.TestCaseSummary;
 import com.facebook.buck.test.TestResultSummary;
 import com.facebook.buck.test.TestResults;
+import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.util.Verbosity;
 import com.google.common.annotations.VisibleForTesting;
@@ -55,7 +59,9 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -75,6 +81,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -92,6 +99,9 @@ import javax.xml.transform.stream.StreamResult;
 
 public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
 
+  /** The number of test rules, and of test classes, to list among the slowest tests of a run. */
+  private static final int NUM_STRAGGLERS_TO_REPORT = 5;
+
   public TestCommand(CommandRunnerParams params) {
     super(params);
   }
@@ -103,10 +113,10 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
 
   @Override
   int runCommandWithOptionsInternal(final TestCommandOptions options) throws IOException {
-    // If the user asked to run all of the tests, use a special method for that that is optimized to
-    // parse all of the build files and traverse the dependency graph to find all of the tests to
-    // run.
-    if (options.isRunAllTests()) {
+    // If the user asked to run all of the tests, or those affected by a change, use a special
+    // method for that that is optimized to parse all of the build files and traverse the
+    // dependency graph to find all of the tests to run.
+    if (options.isRunAllTests() || options.isRunAffectedTests()) {
       try {
         return runAllTests(options);
       } catch (BuildTargetException | BuildFileParseException e) {
@@ -143,26 +153,50 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
   }
 
   /**
-   * Returns the ShellCommand object that is supposed to instrument the class files that the list
-   * of tests is supposed to be testing. From TestRule objects, we derive the class file folders
-   * and generate a EMMA instr shell command object, which can run in a CommandRunner.
+   * Instruments the class files of each library under test whose instrumented classes are neither
+   * left over from a previous run nor in the {@link ArtifactCache}. Each library is instrumented on
+   * its own, in parallel with the others, and its instrumented classes are then stored in the
+   * cache.
+   * @throws StepFailedException if any library could not be instrumented.
+   * @throws InterruptedException if interrupted, in which case the instrumentation of the
+   *     libraries that have yet to finish is cancelled.
    */
-  private Step getInstrumentCommand(
-      ImmutableSet<JavaLibraryRule> rulesUnderTest, ProjectFilesystem projectFilesystem) {
-    ImmutableSet.Builder<Path> pathsToInstrumentedClasses = ImmutableSet.builder();
-
-    // Add all JAR files produced by java libraries that we are testing to -instrpath.
-    for (JavaLibraryRule path : rulesUnderTest) {
-      String pathToOutput = path.getPathToOutputFile();
-      if (pathToOutput == null) {
+  private void instrumentRulesUnderTest(
+      ImmutableSet<JavaLibraryRule> rulesUnderTest,
+      ArtifactCache artifactCache,
+      ExecutionContext executionContext,
+      StepRunner stepRunner) throws IOException, StepFailedException, InterruptedException {
+    final CodeCoverageInstrumentation instrumentation = new CodeCoverageInstrumentation(
+        executionContext.getProjectFilesystem(),
+        artifactCache);
+    List<ListenableFuture<Void>> instrumented = Lists.newArrayList();
+    for (final JavaLibraryRule rule : rulesUnderTest) {
+      if (rule.getPathToOutputFile() == null || instrumentation.isInstrumented(rule)) {
         continue;
       }
-      pathsToInstrumentedClasses.add(projectFilesystem.getPathRelativizer().apply(pathToOutput));
+      instrumented.add(stepRunner.runStepsAndYieldResult(
+          instrumentation.getInstrumentSteps(rule),
+          new Callable<Void>() {
+            @Override
+            public Void call() {
+              instrumentation.storeInstrumentedClasses(rule);
+              return null;
+            }
+          },
+          rule.getBuildTarget()));
     }
 
-    // Run EMMA instrumentation. This will instrument the classes we generated in the build command.
-    // TODO(user): Output instrumented class files in different folder and change junit classdir.
-    return new InstrumentStep("overwrite", pathsToInstrumentedClasses.build());
+    ListenableFuture<List<Void>> allInstrumented = Futures.allAsList(instrumented);
+    try {
+      allInstrumented.get();
+    } catch (InterruptedException e) {
+      // Stop instrumenting the libraries that have yet to finish.
+      allInstrumented.cancel(/* mayInterruptIfRunning */ true);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), StepFailedException.class);
+      throw Throwables.propagate(e.getCause());
+    }
   }
 
   /**
@@ -171,21 +205,41 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
    * files tested during the test run.
    */
   private Step getReportCommand(
+      Iterable<TestRule> tests,
       ImmutableSet<JavaLibraryRule> rulesUnderTest,
       Optional<DefaultJavaPackageFinder> defaultJavaPackageFinderOptional,
       ProjectFilesystem projectFilesystem) {
     ImmutableSet.Builder<String> srcDirectories = ImmutableSet.builder();
+    ImmutableSet.Builder<Path> inputFiles = ImmutableSet.builder();
 
-    // Add all source directories of java libraries that we are testing to -sourcepath.
+    // Add all source directories of java libraries that we are testing to -sourcepath, and the
+    // metadata of their instrumented classes to -input.
     for (JavaLibraryRule rule : rulesUnderTest) {
       ImmutableSet<String> sourceFolderPath =
           getPathToSourceFolders(rule, defaultJavaPackageFinderOptional, projectFilesystem);
       if (!sourceFolderPath.isEmpty()) {
         srcDirectories.addAll(sourceFolderPath);
       }
+      inputFiles.add(CodeCoverageInstrumentation.getPathToMetadataFile(rule.getBuildTarget()));
+    }
+
+    // Add the coverage data written by the JVM of each test.
+    for (TestRule test : tests) {
+      inputFiles.add(JUnitStep.getPathToCoverageDataFile(
+          test.getPathToTestOutputDirectory().toString()));
+    }
+
+    // A library with nothing to instrument has no metadata, and a test that did not run has no
+    // coverage data.
+    ImmutableSet.Builder<Path> existingInputFiles = ImmutableSet.builder();
+    for (Path inputFile : inputFiles.build()) {
+      if (projectFilesystem.exists(inputFile.toString())) {
+        existingInputFiles.add(inputFile);
+      }
     }
 
     return new GenerateCodeCoverageReportStep(srcDirectories.build(),
+        existingInputFiles.build(),
         JUnitStep.EMMA_OUTPUT_DIR);
   }
 
@@ -263,6 +317,14 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
       BuildTargetException, BuildFileParseException {
     Logging.setLoggingLevelForVerbosity(console.getVerbosity());
 
+    Optional<ImmutableSet<Path>> changedFiles = Optional.absent();
+    if (options.isRunAffectedTests()) {
+      changedFiles = getChangedFiles(options);
+      if (!changedFiles.isPresent()) {
+        return 1;
+      }
+    }
+
     // Create artifact cache to initialize Cassandra connection, if appropriate.
     ArtifactCache artifactCache = getArtifactCache();
 
@@ -282,11 +344,35 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
         options.getDefaultIncludes(),
         getParser(),
         getBuckEventBus());
+    DependencyGraph testGraph = partialGraph.getDependencyGraph();
+    Iterable<BuildTarget> testTargets = partialGraph.getTargets();
+
+    // Narrow the tests down to those that depend on the rules that own the changed files, and only
+    // build what they need.
+    if (changedFiles.isPresent()) {
+      ImmutableSortedSet<TestRule> affectedTests = getTestsAffectedByChangedFiles(
+          new OwnersIndex(testGraph, getProjectFilesystem()),
+          changedFiles.get(),
+          getProjectFilesystem());
+      if (affectedTests.isEmpty()) {
+        getStdErr().println("No tests are affected by the changed files.");
+      }
+      testTargets = Iterables.transform(affectedTests, new Function<TestRule, BuildTarget>() {
+        @Override
+        public BuildTarget apply(TestRule testRule) {
+          return testRule.getBuildTarget();
+        }
+      });
+      testGraph = getParser().parseBuildFilesForTargets(
+          testTargets,
+          options.getDefaultIncludes(),
+          getBuckEventBus());
+    }
 
-    final DependencyGraph graph = partialGraph.getDependencyGraph();
+    final DependencyGraph graph = testGraph;
 
     // Look up all of the test rules in the dependency graph.
-    Iterable<TestRule> testRules = Iterables.transform(partialGraph.getTargets(),
+    Iterable<TestRule> testRules = Iterables.transform(testTargets,
         new Function<BuildTarget, TestRule>() {
       @Override public TestRule apply(BuildTarget buildTarget) {
         return (TestRule)graph.findBuildRuleByTarget(buildTarget);
@@ -316,6 +402,62 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
         options);
   }
 
+  /**
+   * @return the files given by {@code --changed}, plus those that differ from the revision given
+   *     by {@code --changed-since}, or absent if the latter could not be listed.
+   */
+  private Optional<ImmutableSet<Path>> getChangedFiles(TestCommandOptions options)
+      throws IOException {
+    ImmutableSet.Builder<Path> changedFiles = ImmutableSet.builder();
+    for (String changedFile : options.getChangedFiles()) {
+      changedFiles.add(Paths.get(changedFile).normalize());
+    }
+
+    Optional<String> revision = options.getChangedSinceRevision();
+    if (revision.isPresent()) {
+      // --relative lists the files relative to the project root, even if it is not the root of
+      // the repository. Uncommitted changes to tracked files are included.
+      Process process = new ProcessBuilder(
+          "git", "diff", "--name-only", "--relative", revision.get(), "--")
+          .directory(getProjectFilesystem().getProjectRoot())
+          .start();
+      ProcessExecutor.Result result = new ProcessExecutor(console).execute(process);
+      if (result.getExitCode() != 0) {
+        console.printBuildFailure(
+            String.format("Failed to list the files that changed since %s.", revision.get()));
+        return Optional.absent();
+      }
+      for (String changedFile : Splitter.on('\n').trimResults().omitEmptyStrings()
+          .split(Strings.nullToEmpty(result.getStdout()))) {
+        changedFiles.add(Paths.get(changedFile));
+      }
+    }
+
+    return Optional.of(changedFiles.build());
+  }
+
+  /**
+   * A changed file affects the rules that list it as an input. A build file affects every rule in
+   * it, as does a file that no longer exists, which can no longer be found by its inputs.
+   * @param changedFiles paths relative to the project root.
+   * @return the tests that depend on the affected rules, or are affected themselves.
+   */
+  @VisibleForTesting
+  static ImmutableSortedSet<TestRule> getTestsAffectedByChangedFiles(
+      OwnersIndex ownersIndex,
+      Iterable<Path> changedFiles,
+      ProjectFilesystem projectFilesystem) {
+    Set<BuildRule> changedRules = Sets.newHashSet();
+    for (Path changedFile : changedFiles) {
+      changedRules.addAll(ownersIndex.getOwners(changedFile));
+      if (changedFile.endsWith(BuckConstant.BUILD_RULES_FILE_NAME) ||
+          !projectFilesystem.getFileForRelativePath(changedFile.toString()).exists()) {
+        changedRules.addAll(ownersIndex.guessOwnersOfMissingFile(changedFile.toString()));
+      }
+    }
+    return ownersIndex.getAffectedTests(changedRules);
+  }
+
   @VisibleForTesting
   static Iterable<TestRule> getCandidateRulesByIncludedLabels(
       DependencyGraph graph, final ImmutableSet<String> includedLabels) {
@@ -399,13 +541,18 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
         try {
           stepRunner.runStep(
               new MakeCleanDirectoryStep(JUnitStep.EMMA_OUTPUT_DIR));
-          stepRunner.runStep(
-              getInstrumentCommand(
-                  rulesUnderTest,
-                  executionContext.getProjectFilesystem()));
+          instrumentRulesUnderTest(
+              rulesUnderTest,
+              buildContext.getArtifactCache(),
+              executionContext,
+              stepRunner);
         } catch (StepFailedException e) {
           console.printBuildFailureWithoutStacktrace(e);
           return 1;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new HumanReadableException(e,
+              "Interrupted while instrumenting the libraries under test for code coverage.");
         }
       }
     } else {
@@ -444,12 +591,32 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
 
     TestRuleKeyFileHelper testRuleKeyFileHelper = new TestRuleKeyFileHelper(
         executionContext.getProjectFilesystem());
-    for (TestRule test : tests) {
+    boolean isTestResultCachingEnabled =
+        options.getBuckConfig().isTestResultCachingEnabled() &&
+        TestResultsCacheHelper.isCacheable(executionContext);
+    TestResultsCacheHelper testResultsCacheHelper = new TestResultsCacheHelper(
+        executionContext.getProjectFilesystem(),
+        buildContext.getArtifactCache());
+
+    LabelConcurrencyLimiter labelConcurrencyLimiter =
+        new LabelConcurrencyLimiter(options.getBuckConfig().getTestConcurrencyByLabel());
+
+    // Start the tests that took longest last time first, so that a slow test does not start after
+    // all of the fast ones and leave the other threads idle while it finishes.
+    TestDurationHistory testDurationHistory =
+        TestDurationHistory.forProject(executionContext.getProjectFilesystem());
+    for (TestRule test : testDurationHistory.sortLongestFirst(tests)) {
       List<Step> steps;
 
-      // Determine whether the test needs to be executed.
+      // Determine whether the test needs to be executed. Results that are not up to date locally
+      // may still have been cached by a passing run elsewhere.
       boolean isTestRunRequired =
           isTestRunRequiredForTest(test, executionContext, testRuleKeyFileHelper);
+      if (isTestRunRequired &&
+          isTestResultCachingEnabled &&
+          testResultsCacheHelper.fetchTestResults(test, executionContext)) {
+        isTestRunRequired = false;
+      }
       if (isTestRunRequired) {
         getBuckEventBus().post(IndividualTestEvent.started(
             options.getArgumentsFormattedAsBuildTargets()));
@@ -466,12 +633,29 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
 
       // Always run the commands, even if the list of commands as empty. There may be zero commands
       // because the rule is cached, but its results must still be processed.
-      ListenableFuture<TestResults> testResults =
-          stepRunner.runStepsAndYieldResult(steps,
-              getCachingStatusTransformingCallable(
-                  isTestRunRequired,
-                  test.interpretTestResults(executionContext)),
-              test.getBuildTarget());
+      Callable<TestResults> interpretTestResults = getCachingStatusTransformingCallable(
+          isTestRunRequired,
+          test.interpretTestResults(executionContext));
+      if (isTestRunRequired && isTestResultCachingEnabled) {
+        interpretTestResults = getStoringCallable(
+            test,
+            executionContext,
+            testResultsCacheHelper,
+            interpretTestResults);
+      }
+      ListenableFuture<TestResults> testResults;
+      if (labelConcurrencyLimiter.isLimited(test.getLabels())) {
+        testResults = runStepsWithinLabelConcurrency(
+            test,
+            steps,
+            interpretTestResults,
+            stepRunner,
+            labelConcurrencyLimiter);
+      } else {
+        testResults = stepRunner.runStepsAndYieldResult(steps,
+            interpretTestResults,
+            test.getBuildTarget());
+      }
       Futures.addCallback(testResults, onTestFinishedCallback);
       results.add(testResults);
     }
@@ -489,6 +673,10 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
       return 1;
     }
 
+    getBuckEventBus().post(TestStragglersEvent.create(
+        completedResults,
+        options.getNumThreads(),
+        NUM_STRAGGLERS_TO_REPORT));
     getBuckEventBus().post(TestRunEvent.finished(
         options.getArgumentsFormattedAsBuildTargets(), completedResults));
 
@@ -506,8 +694,11 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
       try {
         Optional<DefaultJavaPackageFinder> defaultJavaPackageFinderOptional =
             options.getJavaPackageFinder();
-        stepRunner.runStep(
-            getReportCommand(rulesUnderTest, defaultJavaPackageFinderOptional, getProjectFilesystem()));
+        stepRunner.runStep(getReportCommand(
+            tests,
+            rulesUnderTest,
+            defaultJavaPackageFinderOptional,
+            getProjectFilesystem()));
       } catch (StepFailedException e) {
         console.printBuildFailureWithoutStacktrace(e);
         return 1;
@@ -524,6 +715,30 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     return failures ? 1 : 0;
   }
 
+  /**
+   * Like {@link StepRunner#runStepsAndYieldResult(List, Callable, BuildTarget)}, but the steps are
+   * not submitted until {@code labelConcurrencyLimiter} lets a test with the labels of
+   * {@code test} run, so no thread is held up waiting for it.
+   */
+  private ListenableFuture<TestResults> runStepsWithinLabelConcurrency(
+      final TestRule test,
+      final List<Step> steps,
+      final Callable<TestResults> interpretTestResults,
+      final StepRunner stepRunner,
+      LabelConcurrencyLimiter labelConcurrencyLimiter) {
+    return labelConcurrencyLimiter.submit(
+        test.getLabels(),
+        new Callable<ListenableFuture<TestResults>>() {
+          @Override
+          public ListenableFuture<TestResults> call() {
+            return stepRunner.runStepsAndYieldResult(
+                steps,
+                interpretTestResults,
+                test.getBuildTarget());
+          }
+        });
+  }
+
   private Callable<TestResults> getCachingStatusTransformingCallable(
       boolean isTestRunRequired,
       final Callable<TestResults> originalCallable) {
@@ -546,6 +761,27 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     };
   }
 
+  /**
+   * @return a {@link Callable} that, once the test has been run, stores its results in the cache
+   *     if it passed.
+   */
+  private Callable<TestResults> getStoringCallable(
+      final TestRule test,
+      final ExecutionContext executionContext,
+      final TestResultsCacheHelper testResultsCacheHelper,
+      final Callable<TestResults> originalCallable) {
+    return new Callable<TestResults>() {
+      @Override
+      public TestResults call() throws Exception {
+        TestResults testResults = originalCallable.call();
+        if (testResults.isSuccess() && !testResults.getTestCases().isEmpty()) {
+          testResultsCacheHelper.storeTestResults(test, executionContext);
+        }
+        return testResults;
+      }
+    };
+  }
+
   @VisibleForTesting
   static boolean isTestRunRequiredForTest(
       TestRule test,
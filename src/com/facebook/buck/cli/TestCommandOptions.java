@@ -57,6 +57,20 @@ public class TestCommandOptions extends BuildCommandOptions {
       handler = StringSetOptionHandler.class)
   private Supplier<ImmutableSet<String>> excludedSet;
 
+  @Option(
+      name = "--changed",
+      usage = "Only run the tests that are affected by these files, " +
+          "--changed F1 F2 ... FN --other_option.",
+      handler = StringSetOptionHandler.class)
+  private Supplier<ImmutableSet<String>> changedFiles;
+
+  @Option(
+      name = "--changed-since",
+      usage = "Only run the tests that are affected by the files that differ from this git " +
+          "revision.")
+  @Nullable
+  private String changedSinceRevision = null;
+
   @AdditionalOptions
   private TargetDeviceOptions targetDeviceOptions;
 
@@ -126,6 +140,23 @@ public class TestCommandOptions extends BuildCommandOptions {
     return excludedLabelsSupplier.get();
   }
 
+  /**
+   * @return whether only the tests that are affected by the files given by {@code --changed} and
+   *     {@code --changed-since} should be run.
+   */
+  public boolean isRunAffectedTests() {
+    return !getChangedFiles().isEmpty() || changedSinceRevision != null;
+  }
+
+  /** @return the files given by {@code --changed}, relative to the project root. */
+  public ImmutableSet<String> getChangedFiles() {
+    return changedFiles.get();
+  }
+
+  public Optional<String> getChangedSinceRevision() {
+    return Optional.fromNullable(changedSinceRevision);
+  }
+
   public Optional<TargetDevice> getTargetDeviceOptional() {
     return targetDeviceOptions.getTargetDeviceOptional();
   }
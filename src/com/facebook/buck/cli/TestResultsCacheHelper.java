@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.CacheResult;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.TestRule;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.zip.Unzip;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Stores the results of passing tests in the {@link ArtifactCache}, so that a test that has
+ * already passed on another machine, or in another checkout, does not have to be run again.
+ * <p>
+ * The results are the contents of the test's output directory, which holds the XML from which
+ * {@link TestRule#interpretTestResults(ExecutionContext)} reads them. They are stored under a key
+ * derived from the {@link RuleKey} of the test and from the JVM and OS that ran it, so a result is
+ * only reused by a machine that would be expected to produce the same one.
+ */
+public class TestResultsCacheHelper {
+
+  private final ProjectFilesystem projectFilesystem;
+  private final ArtifactCache artifactCache;
+
+  public TestResultsCacheHelper(ProjectFilesystem projectFilesystem, ArtifactCache artifactCache) {
+    this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
+    this.artifactCache = Preconditions.checkNotNull(artifactCache);
+  }
+
+  /**
+   * Tests that are being debugged, measured for code coverage, or run against a device must
+   * actually run, so their results are neither fetched nor stored.
+   */
+  public static boolean isCacheable(ExecutionContext executionContext) {
+    return !executionContext.isDebugEnabled() &&
+        !executionContext.isCodeCoverageEnabled() &&
+        !executionContext.getTargetDeviceOptional().isPresent();
+  }
+
+  @VisibleForTesting
+  static RuleKey getTestResultsKey(TestRule test, ExecutionContext executionContext)
+      throws IOException {
+    RuleKey ruleKey = Preconditions.checkNotNull(test.getRuleKey());
+    Hasher hasher = Hashing.sha1().newHasher()
+        .putString("test_results", Charsets.UTF_8)
+        .putString(ruleKey.toString(), Charsets.UTF_8)
+        .putLong(executionContext.getDefaultTestTimeoutMillis())
+        .putString(executionContext.getPlatform().name(), Charsets.UTF_8);
+    for (String property : ImmutableList.of("java.version", "java.vendor", "os.name", "os.arch")) {
+      hasher.putByte((byte) 0).putString(System.getProperty(property, ""), Charsets.UTF_8);
+    }
+    return new RuleKey(hasher.hash().toString());
+  }
+
+  /**
+   * Replaces the contents of the output directory of {@code test} with the results of a passing
+   * run that were stored in the cache, if there are any.
+   * @return whether the cached results were fetched. If not, the test must be run.
+   */
+  public boolean fetchTestResults(TestRule test, ExecutionContext executionContext) {
+    File zipFile = null;
+    try {
+      zipFile = File.createTempFile(
+          test.getFullyQualifiedName().replace('/', '_'), "_test_results.zip");
+      CacheResult cacheResult =
+          artifactCache.fetch(getTestResultsKey(test, executionContext), zipFile);
+      if (!cacheResult.isSuccess()) {
+        return false;
+      }
+
+      // The results of the previous run are only discarded once the cached ones are in hand.
+      projectFilesystem.rmdir(test.getPathToTestOutputDirectory());
+      Unzip.extractZipFile(zipFile.getAbsolutePath(),
+          projectFilesystem.getRootPath().toAbsolutePath().toString(),
+          /* overwriteExistingFiles */ true);
+      return test.hasTestResultFiles(executionContext);
+    } catch (IOException e) {
+      // The test will be run, which replaces whatever was left in its output directory.
+      return false;
+    } finally {
+      if (zipFile != null) {
+        zipFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Stores the contents of the output directory of {@code test}, which must have just passed. If
+   * any internal errors occur, they are ignored, as with {@link ArtifactCache#store}.
+   */
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  public void storeTestResults(TestRule test, ExecutionContext executionContext) {
+    if (!artifactCache.isStoreSupported()) {
+      return;
+    }
+
+    final Path projectRoot = projectFilesystem.getRootPath().toAbsolutePath();
+    final ImmutableList.Builder<Path> outputFiles = ImmutableList.builder();
+    try {
+      projectFilesystem.walkFileTree(
+          projectFilesystem.resolve(test.getPathToTestOutputDirectory()),
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+              outputFiles.add(projectRoot.relativize(file));
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    } catch (IOException e) {
+      return;
+    }
+    ImmutableList<Path> pathsToIncludeInZip = outputFiles.build();
+    if (pathsToIncludeInZip.isEmpty()) {
+      return;
+    }
+
+    File zipFile = null;
+    try {
+      zipFile = File.createTempFile(
+          test.getFullyQualifiedName().replace('/', '_'), "_test_results.zip");
+      projectFilesystem.createZip(pathsToIncludeInZip, zipFile);
+      artifactCache.store(getTestResultsKey(test, executionContext), zipFile);
+    } catch (IOException e) {
+      // The results will simply not be cached.
+    } finally {
+      if (zipFile != null) {
+        zipFile.delete();
+      }
+    }
+  }
+}
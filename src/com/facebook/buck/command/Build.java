@@ -29,17 +29,15 @@ import com.facebook.buck.rules.BuildDependencies;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleSuccess;
 import com.facebook.buck.rules.Builder;
+import com.facebook.buck.rules.CriticalPathPrioritizer;
 import com.facebook.buck.rules.DependencyGraph;
 import com.facebook.buck.rules.JavaPackageFinder;
+import com.facebook.buck.rules.RuleDurationHistory;
 import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.StepFailedException;
 import com.facebook.buck.step.StepRunner;
-import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.util.AndroidPlatformTarget;
-import com.facebook.buck.util.Console;
-import com.facebook.buck.util.ProjectFilesystem;
-import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -71,41 +69,20 @@ public class Build {
   private BuildContext buildContext;
 
   /**
-   * @param androidSdkDir where the user's Android SDK is installed.
+   * @param executionContext the context in which the steps of the build run, which also carries
+   *     the options of the build, such as how tests are sharded and how Java is compiled. Its
+   *     {@link AndroidPlatformTarget} should come from {@link #findAndroidPlatformTarget}.
    * @param buildDependencies How to include dependencies when building rules.
    */
   public Build(
       DependencyGraph dependencyGraph,
-      Optional<File> androidSdkDir,
-      Optional<File> ndkRoot,
-      Optional<TargetDevice> targetDevice,
-      ProjectFilesystem projectFilesystem,
+      ExecutionContext executionContext,
       ArtifactCache artifactCache,
       ListeningExecutorService listeningExecutorService,
       JavaPackageFinder javaPackageFinder,
-      Console console,
-      long defaultTestTimeoutMillis,
-      boolean isCodeCoverageEnabled,
-      boolean isDebugEnabled,
-      BuildDependencies buildDependencies,
-      BuckEventBus eventBus,
-      Platform platform) {
+      BuildDependencies buildDependencies) {
     this.dependencyGraph = Preconditions.checkNotNull(dependencyGraph);
-
-    Optional<AndroidPlatformTarget> androidPlatformTarget = findAndroidPlatformTarget(
-        dependencyGraph, androidSdkDir, eventBus);
-    this.executionContext = ExecutionContext.builder()
-        .setProjectFilesystem(projectFilesystem)
-        .setConsole(console)
-        .setAndroidPlatformTarget(androidPlatformTarget)
-        .setNdkRoot(ndkRoot)
-        .setTargetDevice(targetDevice)
-        .setDefaultTestTimeoutMillis(defaultTestTimeoutMillis)
-        .setCodeCoverageEnabled(isCodeCoverageEnabled)
-        .setDebugEnabled(isDebugEnabled)
-        .setEventBus(eventBus)
-        .setPlatform(platform)
-        .build();
+    this.executionContext = Preconditions.checkNotNull(executionContext);
     this.artifactCache = Preconditions.checkNotNull(artifactCache);
     this.stepRunner = new DefaultStepRunner(executionContext, listeningExecutorService);
     this.javaPackageFinder = Preconditions.checkNotNull(javaPackageFinder);
@@ -214,6 +191,11 @@ public class Build {
         .setAndroidBootclasspathForAndroidPlatformTarget(
             executionContext.getAndroidPlatformTargetOptional())
         .setBuildDependencies(buildDependencies)
+        .setJavaCompilationBatchingEnabled(executionContext.isJavaCompilationBatchingEnabled())
+        .setCriticalPathPrioritizer(CriticalPathPrioritizer.create(
+            dependencyGraph,
+            RuleDurationHistory.forProject(executionContext.getProjectFilesystem())
+                .getDurations()))
         .setConsole(executionContext.getConsole())
         .build();
 
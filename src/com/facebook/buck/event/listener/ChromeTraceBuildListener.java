@@ -23,6 +23,7 @@ import com.facebook.buck.cli.UninstallEvent;
 import com.facebook.buck.event.BuckEvent;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.ChromeTraceEvent;
+import com.facebook.buck.java.AnnotationProcessingEvent;
 import com.facebook.buck.parser.ParseEvent;
 import com.facebook.buck.rules.ArtifactCacheConnectEvent;
 import com.facebook.buck.rules.ArtifactCacheEvent;
@@ -242,6 +243,28 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         finished);
   }
 
+  @Subscribe
+  public void annotationProcessingStarted(AnnotationProcessingEvent.Started started) {
+    writeChromeTraceEvent("buck",
+        "annotation_processing",
+        ChromeTraceEvent.Phase.BEGIN,
+        ImmutableMap.<String, String>of(
+            "rule", started.getBuildRule(),
+            "processor", started.getProcessorName(),
+            "operation", started.getOperation().toString(),
+            "round", Integer.toString(started.getRound())),
+        started);
+  }
+
+  @Subscribe
+  public void annotationProcessingFinished(AnnotationProcessingEvent.Finished finished) {
+    writeChromeTraceEvent("buck",
+        "annotation_processing",
+        ChromeTraceEvent.Phase.END,
+        ImmutableMap.<String, String>of(),
+        finished);
+  }
+
   @Subscribe
   public void installStarted(InstallEvent.Started started) {
     writeChromeTraceEvent("buck",
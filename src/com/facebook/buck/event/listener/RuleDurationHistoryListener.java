@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.event.BuckEventListener;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleSuccess;
+import com.facebook.buck.rules.RuleDurationHistory;
+import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records how long each rule that was built locally took to build in the
+ * {@link RuleDurationHistory}, so that future builds can schedule rules on the critical path first.
+ * Rules that were fetched from the cache or whose rule keys were unchanged are not recorded, as
+ * their durations say nothing about how long it takes to build them.
+ */
+public class RuleDurationHistoryListener implements BuckEventListener {
+
+  private final ProjectFilesystem projectFilesystem;
+  private final RuleDurationHistory history;
+  private final ConcurrentMap<BuildRule, Long> startTimestamps;
+  private final AtomicBoolean isHistoryModified;
+
+  public RuleDurationHistoryListener(ProjectFilesystem projectFilesystem) {
+    this(projectFilesystem, RuleDurationHistory.forProject(projectFilesystem));
+  }
+
+  @VisibleForTesting
+  RuleDurationHistoryListener(ProjectFilesystem projectFilesystem, RuleDurationHistory history) {
+    this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
+    this.history = Preconditions.checkNotNull(history);
+    this.startTimestamps = Maps.newConcurrentMap();
+    this.isHistoryModified = new AtomicBoolean(false);
+  }
+
+  @Subscribe
+  public void ruleStarted(BuildRuleEvent.Started started) {
+    startTimestamps.put(started.getBuildRule(), started.getTimestamp());
+  }
+
+  @Subscribe
+  public void ruleFinished(BuildRuleEvent.Finished finished) {
+    Long startTimestamp = startTimestamps.remove(finished.getBuildRule());
+    Optional<BuildRuleSuccess.Type> successType = finished.getSuccessType();
+    if (startTimestamp == null ||
+        !successType.isPresent() ||
+        successType.get() != BuildRuleSuccess.Type.BUILT_LOCALLY) {
+      return;
+    }
+
+    history.recordDuration(finished.getBuildRule().getFullyQualifiedName(),
+        Math.max(finished.getTimestamp() - startTimestamp, 0));
+    isHistoryModified.set(true);
+  }
+
+  @Override
+  public void outputTrace() {
+    // Commands that do not build anything, such as `buck clean`, should not rewrite the history.
+    if (!isHistoryModified.get()) {
+      return;
+    }
+
+    try {
+      history.save(projectFilesystem);
+    } catch (IOException e) {
+      throw new HumanReadableException(e, "Unable to write rule duration history.");
+    }
+  }
+}
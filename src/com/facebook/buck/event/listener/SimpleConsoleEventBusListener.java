@@ -20,7 +20,9 @@ import com.facebook.buck.event.LogEvent;
 import com.facebook.buck.parser.ParseEvent;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.IndividualTestEvent;
+import com.facebook.buck.rules.TestMethodEvent;
 import com.facebook.buck.rules.TestRunEvent;
+import com.facebook.buck.rules.TestStragglersEvent;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
 import com.google.common.base.Joiner;
@@ -113,6 +115,20 @@ public class SimpleConsoleEventBusListener extends AbstractConsoleEventBusListen
     printLines(lines);
   }
 
+  @Subscribe
+  public void testMethodFinished(TestMethodEvent.Finished event) {
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    testFormatter.reportFailedTestMethod(lines, event.getResult());
+    printLines(lines);
+  }
+
+  @Subscribe
+  public void testStragglers(TestStragglersEvent event) {
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    testFormatter.reportStragglers(lines, event);
+    printLines(lines);
+  }
+
   private void printLines(ImmutableList.Builder<String> lines) {
     // Print through the {@code DirtyPrintStreamDecorator} so printing from the simple console
     // is considered to dirty stderr and stdout and so it gets synchronized to avoid interlacing
@@ -21,7 +21,9 @@ import com.facebook.buck.event.LogEvent;
 import com.facebook.buck.rules.ArtifactCacheEvent;
 import com.facebook.buck.rules.BuildRuleEvent;
 import com.facebook.buck.rules.IndividualTestEvent;
+import com.facebook.buck.rules.TestMethodEvent;
 import com.facebook.buck.rules.TestRunEvent;
+import com.facebook.buck.rules.TestStragglersEvent;
 import com.facebook.buck.step.StepEvent;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
@@ -299,6 +301,26 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     console.getStdErr().println(Joiner.on('\n').join(builder.build()));
   }
 
+  @Subscribe
+  public void testMethodFinished(TestMethodEvent.Finished event) {
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    testFormatter.reportFailedTestMethod(builder, event.getResult());
+    ImmutableList<String> lines = builder.build();
+    if (!lines.isEmpty()) {
+      console.getStdErr().println(Joiner.on('\n').join(lines));
+    }
+  }
+
+  @Subscribe
+  public void testStragglers(TestStragglersEvent event) {
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    testFormatter.reportStragglers(builder, event);
+    ImmutableList<String> lines = builder.build();
+    if (!lines.isEmpty()) {
+      console.getStdErr().println(Joiner.on('\n').join(lines));
+    }
+  }
+
   @Subscribe
   public void logEvent(LogEvent event) {
     logEvents.add(event);
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.event.BuckEventListener;
+import com.facebook.buck.rules.IndividualTestEvent;
+import com.facebook.buck.rules.TestDurationHistory;
+import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.eventbus.Subscribe;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records how long each test rule, and each of its test classes, took to run in the
+ * {@link TestDurationHistory}, so that future test runs can start the slowest tests first.
+ */
+public class TestDurationHistoryListener implements BuckEventListener {
+
+  private final ProjectFilesystem projectFilesystem;
+  private final TestDurationHistory history;
+  private final AtomicBoolean isHistoryModified;
+
+  public TestDurationHistoryListener(ProjectFilesystem projectFilesystem) {
+    this(projectFilesystem, TestDurationHistory.forProject(projectFilesystem));
+  }
+
+  @VisibleForTesting
+  TestDurationHistoryListener(ProjectFilesystem projectFilesystem, TestDurationHistory history) {
+    this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
+    this.history = Preconditions.checkNotNull(history);
+    this.isHistoryModified = new AtomicBoolean(false);
+  }
+
+  @Subscribe
+  public void testResultsAvailable(IndividualTestEvent.Finished finished) {
+    if (history.recordResults(finished.getResults())) {
+      isHistoryModified.set(true);
+    }
+  }
+
+  @Override
+  public void outputTrace() {
+    // Commands that do not run tests should not rewrite the history.
+    if (!isHistoryModified.get()) {
+      return;
+    }
+
+    try {
+      history.save(projectFilesystem);
+    } catch (IOException e) {
+      throw new HumanReadableException(e, "Unable to write test duration history.");
+    }
+  }
+}
@@ -16,10 +16,12 @@
 
 package com.facebook.buck.event.listener;
 
+import com.facebook.buck.rules.TestStragglersEvent;
 import com.facebook.buck.test.TestCaseSummary;
 import com.facebook.buck.test.TestResultSummary;
 import com.facebook.buck.test.TestResults;
 import com.facebook.buck.util.Ansi;
+import com.facebook.buck.util.TimeFormat;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ArrayListMultimap;
@@ -27,6 +29,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ListMultimap;
 
 import java.util.List;
+import java.util.Map;
 
 public class TestResultFormatter {
 
@@ -85,6 +88,46 @@ public class TestResultFormatter {
     }
   }
 
+  /**
+   * Reports a test method that has failed while the rest of its test rule is still running. The
+   * stack trace and output of the test are reported with the rest of the results of the rule.
+   */
+  public void reportFailedTestMethod(ImmutableList.Builder<String> addTo,
+      TestResultSummary testResult) {
+    if (testResult.isSuccess()) {
+      return;
+    }
+    addTo.add(ansi.asHighlightedFailureText(String.format("FAIL %s#%s: %s",
+        testResult.getTestCaseName(),
+        testResult.getTestName(),
+        testResult.getMessage())));
+  }
+
+  /**
+   * Lists the slowest test rules and test classes of a test run, and how long the run would take
+   * if the tests were started longest-first.
+   */
+  public void reportStragglers(ImmutableList.Builder<String> addTo, TestStragglersEvent event) {
+    if (event.getSlowestTargets().size() < 2) {
+      return;
+    }
+
+    addTo.add(String.format("SLOWEST TESTS (%.1fs in total, at best %.1fs on %d threads)",
+        event.getTotalMillis() / 1000.0,
+        event.getProjectedCriticalPathMillis() / 1000.0,
+        event.getThreadCount()));
+    for (Map.Entry<String, Long> target : event.getSlowestTargets().entrySet()) {
+      addTo.add(String.format("%s %s",
+          TimeFormat.formatForConsole(target.getValue(), ansi),
+          target.getKey()));
+    }
+    for (Map.Entry<String, Long> testClass : event.getSlowestClasses().entrySet()) {
+      addTo.add(String.format("%s   %s",
+          TimeFormat.formatForConsole(testClass.getValue(), ansi),
+          testClass.getKey()));
+    }
+  }
+
   public void runComplete(ImmutableList.Builder<String> addTo, List<TestResults> completedResults) {
     // Print whether each test succeeded or failed.
     boolean isAllTestsPassed = true;
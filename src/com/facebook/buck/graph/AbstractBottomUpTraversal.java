@@ -19,8 +19,10 @@ package com.facebook.buck.graph;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 
@@ -36,10 +38,14 @@ public abstract class AbstractBottomUpTraversal<T, V> {
 
   private final Queue<T> nodesToExplore;
 
+  /** The number of deps that have yet to be visited, for nodes that have some visited deps. */
+  private final Map<T, Integer> unvisitedDepCounts;
+
   public AbstractBottomUpTraversal(TraversableGraph<T> graph) {
     this.graph = Preconditions.checkNotNull(graph);
     this.visitedNodes = Sets.newHashSet();
     this.nodesToExplore = Lists.newLinkedList();
+    this.unvisitedDepCounts = Maps.newHashMap();
   }
 
   public final void traverse() {
@@ -56,17 +62,17 @@ public abstract class AbstractBottomUpTraversal<T, V> {
       visitedNodes.add(node);
 
       // Only add a node to the set of nodes to be explored if all the nodes it depends on have
-      // been visited already.
+      // been visited already. Counting down, rather than checking every dep of the candidate each
+      // time one of them is visited, keeps the traversal linear in the number of edges.
       for (T exploreCandidate : graph.getIncomingNodesFor(node)) {
-        boolean hasUnexploredDependency = false;
-        for (T dep : graph.getOutgoingNodesFor(exploreCandidate)) {
-          if (!visitedNodes.contains(dep)) {
-            hasUnexploredDependency = true;
-            break;
-          }
+        Integer unvisitedDepCount = unvisitedDepCounts.remove(exploreCandidate);
+        if (unvisitedDepCount == null) {
+          unvisitedDepCount = Iterables.size(graph.getOutgoingNodesFor(exploreCandidate));
         }
-        if (!hasUnexploredDependency) {
+        if (--unvisitedDepCount == 0) {
           nodesToExplore.add(exploreCandidate);
+        } else {
+          unvisitedDepCounts.put(exploreCandidate, unvisitedDepCount);
         }
       }
     }
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Like {@link AbstractBottomUpTraversal}, but visits nodes on the threads of an {@link Executor}.
+ * A node is visited as soon as all of the nodes to which it has an outgoing edge have been visited,
+ * so independent parts of the graph are visited concurrently.
+ * <p>
+ * Each visit is given the results of visiting the node's deps, in the order in which the graph
+ * returns them, and {@link #traverse(Executor)} returns the results in the order in which the graph
+ * returns its nodes. The results are therefore the same regardless of the order in which the
+ * threads happen to run, provided that {@link #visit(Object, ImmutableList)} only depends on its
+ * arguments.
+ * @param <T> the type of node in the graph
+ * @param <V> the result of visiting a node, which must not be {@code null}
+ */
+public abstract class AbstractParallelBottomUpTraversal<T, V> {
+
+  private final CompactDirectedGraph<T> graph;
+
+  public AbstractParallelBottomUpTraversal(MutableDirectedGraph<T> graph) {
+    this(CompactDirectedGraph.copyOf(graph));
+  }
+
+  public AbstractParallelBottomUpTraversal(DefaultImmutableDirectedAcyclicGraph<T> graph) {
+    this(graph.getNodes(), graph);
+  }
+
+  /**
+   * {@link TraversableGraph} does not expose its nodes, and a cycle need not have a path to or from
+   * a node that it does expose, so the caller must list all of them for the graph to be checked.
+   * @param nodes every node in {@code graph}.
+   * @param graph the graph to traverse, which must be acyclic.
+   */
+  public AbstractParallelBottomUpTraversal(Iterable<T> nodes, TraversableGraph<T> graph) {
+    this(CompactDirectedGraph.copyOf(nodes, graph));
+  }
+
+  /**
+   * @param graph the graph to traverse, which must be acyclic.
+   */
+  public AbstractParallelBottomUpTraversal(CompactDirectedGraph<T> graph) {
+    this.graph = Preconditions.checkNotNull(graph);
+    Preconditions.checkArgument(graph.isAcyclic(),
+        "A bottom-up traversal requires an acyclic graph.");
+  }
+
+  /**
+   * Visits every node in the graph, and blocks until all of them have been visited.
+   * @return the result of visiting each node, keyed by node.
+   * @throws RuntimeException if a visit throws, in which case no more nodes are visited.
+   */
+  public final ImmutableMap<T, V> traverse(Executor executor) throws InterruptedException {
+    Preconditions.checkNotNull(executor);
+    Traversal traversal = new Traversal(executor);
+    return traversal.run();
+  }
+
+  /**
+   * Called on a thread of the {@link Executor} passed to {@link #traverse(Executor)}. Different
+   * nodes may be visited at the same time, so any state shared between visits must be thread-safe.
+   * @param depResults the results of visiting the nodes to which {@code node} has an outgoing edge.
+   * @return the result of visiting {@code node}, which must not be {@code null}.
+   */
+  protected abstract V visit(T node, ImmutableList<V> depResults);
+
+  /** The state of a single call to {@link #traverse(Executor)}. */
+  private class Traversal {
+    private final Executor executor;
+    private final AtomicIntegerArray unvisitedDepCounts;
+    private final AtomicReferenceArray<V> results;
+    private final AtomicInteger unvisitedNodeCount;
+    private final SettableFuture<Void> isComplete;
+
+    private Traversal(Executor executor) {
+      int nodeCount = graph.getNodeCount();
+      this.executor = executor;
+      this.unvisitedDepCounts = new AtomicIntegerArray(nodeCount);
+      this.results = new AtomicReferenceArray<V>(nodeCount);
+      this.unvisitedNodeCount = new AtomicInteger(nodeCount);
+      this.isComplete = SettableFuture.create();
+    }
+
+    private ImmutableMap<T, V> run() throws InterruptedException {
+      int nodeCount = graph.getNodeCount();
+      if (nodeCount == 0) {
+        return ImmutableMap.of();
+      }
+
+      for (int node = 0; node < nodeCount; node++) {
+        unvisitedDepCounts.set(node, graph.getOutgoingEdgeCount(node));
+      }
+      for (int node = 0; node < nodeCount; node++) {
+        if (graph.getOutgoingEdgeCount(node) == 0) {
+          schedule(node);
+        }
+      }
+
+      try {
+        isComplete.get();
+      } catch (InterruptedException e) {
+        // Stop the visits that have yet to start.
+        isComplete.cancel(/* mayInterruptIfRunning */ false);
+        throw e;
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
+
+      ImmutableMap.Builder<T, V> builder = ImmutableMap.builder();
+      for (int node = 0; node < nodeCount; node++) {
+        builder.put(graph.getNode(node), results.get(node));
+      }
+      return builder.build();
+    }
+
+    private void schedule(final int node) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (isComplete.isDone()) {
+            return;
+          }
+
+          try {
+            visitAndScheduleDependents(node);
+          } catch (Throwable t) {
+            isComplete.setException(t);
+          }
+        }
+      });
+    }
+
+    private void visitAndScheduleDependents(int node) {
+      int depCount = graph.getOutgoingEdgeCount(node);
+      ImmutableList.Builder<V> depResults = ImmutableList.builder();
+      for (int edge = 0; edge < depCount; edge++) {
+        depResults.add(results.get(graph.getOutgoingNodeIndex(node, edge)));
+      }
+
+      T value = graph.getNode(node);
+      V result = visit(value, depResults.build());
+      results.set(node, Preconditions.checkNotNull(result,
+          "Visiting %s returned null.",
+          value));
+
+      for (int edge = 0; edge < graph.getIncomingEdgeCount(node); edge++) {
+        int dependent = graph.getIncomingNodeIndex(node, edge);
+        if (unvisitedDepCounts.decrementAndGet(dependent) == 0) {
+          schedule(dependent);
+        }
+      }
+
+      if (unvisitedNodeCount.decrementAndGet() == 0) {
+        isComplete.set(null);
+      }
+    }
+  }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * An immutable directed graph whose nodes are numbered from {@code 0} to
+ * {@code getNodeCount() - 1}, and whose edges are stored in compressed sparse row form: the
+ * outgoing (and, separately, incoming) edges of every node are laid out next to each other in a
+ * single {@code int[]}, with a second {@code int[]} holding the offset at which the edges of each
+ * node start.
+ * <p>
+ * For large graphs, this uses a fraction of the memory of a graph backed by multimaps, and the
+ * index-based accessors ({@link #getOutgoingNodeIndex(int, int)} and friends) let traversals run
+ * without allocating or hashing anything per node or per edge. The {@link TraversableGraph}
+ * methods are still available for code that works with the nodes themselves.
+ * <p>
+ * Like {@link MutableDirectedGraph}, this graph is not required to be acyclic.
+ * @param <T> the type of object stored as nodes in this graph
+ */
+public final class CompactDirectedGraph<T> implements TraversableGraph<T> {
+
+  private final ImmutableList<T> nodes;
+  private final ImmutableMap<T, Integer> indexes;
+  private final int[] outgoingOffsets;
+  private final int[] outgoingEdges;
+  private final int[] incomingOffsets;
+  private final int[] incomingEdges;
+
+  private CompactDirectedGraph(
+      ImmutableList<T> nodes,
+      ImmutableMap<T, Integer> indexes,
+      int[] outgoingOffsets,
+      int[] outgoingEdges,
+      int[] incomingOffsets,
+      int[] incomingEdges) {
+    this.nodes = nodes;
+    this.indexes = indexes;
+    this.outgoingOffsets = outgoingOffsets;
+    this.outgoingEdges = outgoingEdges;
+    this.incomingOffsets = incomingOffsets;
+    this.incomingEdges = incomingEdges;
+  }
+
+  /**
+   * Creates a compact copy of the subgraph of {@code graph} that is made up of {@code nodes}. Nodes
+   * are numbered in the order in which {@code nodes} returns them, which makes the numbering, and
+   * everything derived from it, deterministic for a given iteration order.
+   * @throws IllegalArgumentException if an edge leads to a node that is not in {@code nodes}.
+   */
+  public static <T> CompactDirectedGraph<T> copyOf(Iterable<T> nodes, TraversableGraph<T> graph) {
+    Preconditions.checkNotNull(graph);
+    ImmutableList<T> nodeList = ImmutableList.copyOf(ImmutableSet.copyOf(nodes));
+    int nodeCount = nodeList.size();
+
+    ImmutableMap.Builder<T, Integer> indexesBuilder = ImmutableMap.builder();
+    for (int i = 0; i < nodeCount; i++) {
+      indexesBuilder.put(nodeList.get(i), i);
+    }
+    ImmutableMap<T, Integer> indexes = indexesBuilder.build();
+
+    // First pass: count the edges so that the offsets can be computed.
+    int[] outgoingOffsets = new int[nodeCount + 1];
+    int[] incomingOffsets = new int[nodeCount + 1];
+    for (int source = 0; source < nodeCount; source++) {
+      for (T sinkNode : graph.getOutgoingNodesFor(nodeList.get(source))) {
+        int sink = getIndexOrThrow(indexes, sinkNode);
+        outgoingOffsets[source + 1]++;
+        incomingOffsets[sink + 1]++;
+      }
+    }
+    for (int i = 0; i < nodeCount; i++) {
+      outgoingOffsets[i + 1] += outgoingOffsets[i];
+      incomingOffsets[i + 1] += incomingOffsets[i];
+    }
+
+    // Second pass: fill in the edges. Outgoing edges are added in the order in which the source
+    // graph returns them, and incoming edges in the order of their sources.
+    int edgeCount = outgoingOffsets[nodeCount];
+    int[] outgoingEdges = new int[edgeCount];
+    int[] incomingEdges = new int[edgeCount];
+    int[] incomingPositions = Arrays.copyOf(incomingOffsets, nodeCount);
+    for (int source = 0; source < nodeCount; source++) {
+      int position = outgoingOffsets[source];
+      for (T sinkNode : graph.getOutgoingNodesFor(nodeList.get(source))) {
+        int sink = indexes.get(sinkNode);
+        outgoingEdges[position++] = sink;
+        incomingEdges[incomingPositions[sink]++] = source;
+      }
+    }
+
+    return new CompactDirectedGraph<T>(
+        nodeList,
+        indexes,
+        outgoingOffsets,
+        outgoingEdges,
+        incomingOffsets,
+        incomingEdges);
+  }
+
+  public static <T> CompactDirectedGraph<T> copyOf(MutableDirectedGraph<T> graph) {
+    return copyOf(graph.getNodes(), graph);
+  }
+
+  public static <T> CompactDirectedGraph<T> copyOf(DefaultImmutableDirectedAcyclicGraph<T> graph) {
+    return copyOf(graph.getNodes(), graph);
+  }
+
+  private static <T> int getIndexOrThrow(ImmutableMap<T, Integer> indexes, T node) {
+    Integer index = indexes.get(node);
+    Preconditions.checkArgument(index != null,
+        "%s is the sink of an edge, but it is not a node in the graph.",
+        node);
+    return index;
+  }
+
+  public int getNodeCount() {
+    return nodes.size();
+  }
+
+  public int getEdgeCount() {
+    return outgoingEdges.length;
+  }
+
+  /** @return the nodes of this graph, in the order of their indexes. */
+  public ImmutableList<T> getNodes() {
+    return nodes;
+  }
+
+  public T getNode(int index) {
+    return nodes.get(index);
+  }
+
+  /** @return the index of {@code node}, or {@code -1} if it is not in this graph. */
+  public int getIndex(T node) {
+    Integer index = indexes.get(node);
+    return index == null ? -1 : index;
+  }
+
+  public int getOutgoingEdgeCount(int node) {
+    return outgoingOffsets[node + 1] - outgoingOffsets[node];
+  }
+
+  /** @return the index of the sink of the {@code edge}th outgoing edge of {@code node}. */
+  public int getOutgoingNodeIndex(int node, int edge) {
+    Preconditions.checkElementIndex(edge, getOutgoingEdgeCount(node));
+    return outgoingEdges[outgoingOffsets[node] + edge];
+  }
+
+  public int getIncomingEdgeCount(int node) {
+    return incomingOffsets[node + 1] - incomingOffsets[node];
+  }
+
+  /** @return the index of the source of the {@code edge}th incoming edge of {@code node}. */
+  public int getIncomingNodeIndex(int node, int edge) {
+    Preconditions.checkElementIndex(edge, getIncomingEdgeCount(node));
+    return incomingEdges[incomingOffsets[node] + edge];
+  }
+
+  @Override
+  public Iterable<T> getNodesWithNoIncomingEdges() {
+    ImmutableList.Builder<T> builder = ImmutableList.builder();
+    for (int node = 0; node < nodes.size(); node++) {
+      if (getIncomingEdgeCount(node) == 0) {
+        builder.add(nodes.get(node));
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public Iterable<T> getNodesWithNoOutgoingEdges() {
+    ImmutableList.Builder<T> builder = ImmutableList.builder();
+    for (int node = 0; node < nodes.size(); node++) {
+      if (getOutgoingEdgeCount(node) == 0) {
+        builder.add(nodes.get(node));
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public Iterable<T> getIncomingNodesFor(T sink) {
+    int index = getIndex(sink);
+    if (index == -1) {
+      return ImmutableList.of();
+    }
+    return new NodeSlice(incomingEdges, incomingOffsets[index], incomingOffsets[index + 1]);
+  }
+
+  @Override
+  public Iterable<T> getOutgoingNodesFor(T source) {
+    int index = getIndex(source);
+    if (index == -1) {
+      return ImmutableList.of();
+    }
+    return new NodeSlice(outgoingEdges, outgoingOffsets[index], outgoingOffsets[index + 1]);
+  }
+
+  /**
+   * Orders the nodes so that every node comes after all of the nodes to which it has an outgoing
+   * edge, which is the order in which {@link AbstractBottomUpTraversal} visits them.
+   * @return the indexes of the nodes in that order, or an array that is shorter than
+   *     {@link #getNodeCount()} if the graph has a cycle, as no node in a cycle can be ordered.
+   */
+  public int[] getBottomUpOrder() {
+    int nodeCount = nodes.size();
+    int[] order = new int[nodeCount];
+    int[] unvisitedDeps = new int[nodeCount];
+    int tail = 0;
+    for (int node = 0; node < nodeCount; node++) {
+      unvisitedDeps[node] = getOutgoingEdgeCount(node);
+      if (unvisitedDeps[node] == 0) {
+        order[tail++] = node;
+      }
+    }
+
+    // The order array doubles as the queue of nodes whose deps have all been visited.
+    for (int head = 0; head < tail; head++) {
+      int node = order[head];
+      for (int i = incomingOffsets[node]; i < incomingOffsets[node + 1]; i++) {
+        int dependent = incomingEdges[i];
+        if (--unvisitedDeps[dependent] == 0) {
+          order[tail++] = dependent;
+        }
+      }
+    }
+
+    return tail == nodeCount ? order : Arrays.copyOf(order, tail);
+  }
+
+  public boolean isAcyclic() {
+    return getBottomUpOrder().length == nodes.size();
+  }
+
+  /**
+   * @return every cycle in the graph, where a cycle is a strongly connected component with more
+   *     than one node, or a single node with an edge to itself.
+   */
+  public ImmutableSet<ImmutableSet<T>> findCycles() {
+    ImmutableSet.Builder<ImmutableSet<T>> cycles = ImmutableSet.builder();
+    if (isAcyclic()) {
+      return cycles.build();
+    }
+
+    // An iterative version of Tarjan's algorithm, so that deep graphs cannot overflow the stack:
+    // http://en.wikipedia.org/wiki/Tarjan%E2%80%99s_strongly_connected_components_algorithm
+    int nodeCount = nodes.size();
+    int[] discoveryIndexes = new int[nodeCount];
+    Arrays.fill(discoveryIndexes, -1);
+    int[] lowlinks = new int[nodeCount];
+    boolean[] isOnStack = new boolean[nodeCount];
+    int[] componentStack = new int[nodeCount];
+    int componentStackSize = 0;
+    // For every node on the call stack, the position of the next outgoing edge to explore.
+    int[] callStack = new int[nodeCount];
+    int[] nextEdges = new int[nodeCount];
+    int nextDiscoveryIndex = 0;
+
+    for (int root = 0; root < nodeCount; root++) {
+      if (discoveryIndexes[root] != -1) {
+        continue;
+      }
+
+      int callStackSize = 0;
+      callStack[callStackSize++] = root;
+      nextEdges[root] = outgoingOffsets[root];
+      discoveryIndexes[root] = lowlinks[root] = nextDiscoveryIndex++;
+      componentStack[componentStackSize++] = root;
+      isOnStack[root] = true;
+
+      while (callStackSize > 0) {
+        int node = callStack[callStackSize - 1];
+        if (nextEdges[node] < outgoingOffsets[node + 1]) {
+          int sink = outgoingEdges[nextEdges[node]++];
+          if (discoveryIndexes[sink] == -1) {
+            callStack[callStackSize++] = sink;
+            nextEdges[sink] = outgoingOffsets[sink];
+            discoveryIndexes[sink] = lowlinks[sink] = nextDiscoveryIndex++;
+            componentStack[componentStackSize++] = sink;
+            isOnStack[sink] = true;
+          } else if (isOnStack[sink]) {
+            lowlinks[node] = Math.min(lowlinks[node], discoveryIndexes[sink]);
+          }
+          continue;
+        }
+
+        // All of the edges of node have been explored, so return from it.
+        callStackSize--;
+        if (callStackSize > 0) {
+          int caller = callStack[callStackSize - 1];
+          lowlinks[caller] = Math.min(lowlinks[caller], lowlinks[node]);
+        }
+
+        if (lowlinks[node] == discoveryIndexes[node]) {
+          ImmutableSet.Builder<T> component = ImmutableSet.builder();
+          int componentSize = 0;
+          int member;
+          do {
+            member = componentStack[--componentStackSize];
+            isOnStack[member] = false;
+            component.add(nodes.get(member));
+            componentSize++;
+          } while (member != node);
+
+          if (componentSize > 1 || hasEdgeToItself(node)) {
+            cycles.add(component.build());
+          }
+        }
+      }
+    }
+
+    return cycles.build();
+  }
+
+  private boolean hasEdgeToItself(int node) {
+    for (int i = outgoingOffsets[node]; i < outgoingOffsets[node + 1]; i++) {
+      if (outgoingEdges[i] == node) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** An unmodifiable view of the nodes whose indexes are in a range of an edge array. */
+  private class NodeSlice extends AbstractList<T> {
+    private final int[] edges;
+    private final int start;
+    private final int end;
+
+    private NodeSlice(int[] edges, int start, int end) {
+      this.edges = edges;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public T get(int index) {
+      Preconditions.checkElementIndex(index, end - start);
+      return nodes.get(edges[start + index]);
+    }
+
+    @Override
+    public int size() {
+      return end - start;
+    }
+  }
+}
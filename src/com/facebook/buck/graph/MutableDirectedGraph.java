@@ -16,24 +16,15 @@
 
 package com.facebook.buck.graph;
 
-import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import java.util.Collections;
-import java.util.Deque;
-import java.util.Map;
 import java.util.Set;
 
-import javax.annotation.Nullable;
-
 /**
  * Represents a directed graph with unweighted edges. For a given source and sink node pair, there
  * is at most one directed edge connecting them in the graph.
@@ -170,43 +161,15 @@ public final class MutableDirectedGraph<T> implements TraversableGraph<T> {
   }
 
   public boolean isAcyclic() {
-    return findCycles().isEmpty();
-  }
-
-  public ImmutableSet<ImmutableSet<T>> findCycles() {
-    Set<Set<T>> cycles = Sets.filter(tarjan(), new Predicate<Set<T>>() {
-      @Override
-      public boolean apply(@Nullable Set<T> stronglyConnectedComponent) {
-        return stronglyConnectedComponent.size() > 1;
-      }
-    });
-    Iterable<ImmutableSet<T>> immutableCycles = Iterables.transform(cycles, new Function<Set<T>, ImmutableSet<T>>() {
-      @Override
-      public ImmutableSet<T> apply(Set<T> cycle) {
-        return ImmutableSet.copyOf(cycle);
-      }
-    });
-
-    // Tarjan's algorithm (as pseudo-coded on Wikipedia) does not appear to account for single-node
-    // cycles. Therefore, we must check for them exclusively.
-    ImmutableSet.Builder<ImmutableSet<T>> builder = ImmutableSet.builder();
-    builder.addAll(immutableCycles);
-    for (T node : nodes) {
-      if (containsEdge(node, node)) {
-        builder.add(ImmutableSet.of(node));
-      }
-    }
-    return builder.build();
+    return CompactDirectedGraph.copyOf(this).isAcyclic();
   }
 
   /**
-   * Implementation of
-   * http://en.wikipedia.org/wiki/Tarjan%E2%80%99s_strongly_connected_components_algorithm
-   * used to find cycles in the graph.
+   * @return every cycle in the graph, where a cycle is a strongly connected component with more
+   *     than one node, or a single node with an edge to itself.
    */
-  private Set<Set<T>> tarjan() {
-    Tarjan<T> tarjan = new Tarjan<T>(this);
-    return tarjan.findStronglyConnectedComponents();
+  public ImmutableSet<ImmutableSet<T>> findCycles() {
+    return CompactDirectedGraph.copyOf(this).findCycles();
   }
 
   @Override
@@ -230,63 +193,4 @@ public final class MutableDirectedGraph<T> implements TraversableGraph<T> {
   ImmutableSetMultimap<T, T> createImmutableCopyOfIncomingEdges() {
     return ImmutableSetMultimap.copyOf(incomingEdges);
   }
-
-  private static class Tarjan<S> {
-    private final MutableDirectedGraph<S> graph;
-    private final Map<S, Integer> indexes;
-    private final Map<S, Integer> lowlinks;
-    private final Deque<S> nodeStack;
-    private final Set<Set<S>> stronglyConnectedComponents;
-    private int index;
-
-    private Tarjan(MutableDirectedGraph<S> graph) {
-      this.graph = graph;
-      this.indexes = Maps.newHashMap();
-      this.lowlinks = Maps.newHashMap();
-      this.nodeStack = Lists.newLinkedList();
-      this.stronglyConnectedComponents = Sets.newHashSet();
-      this.index = 0;
-    }
-
-    public Set<Set<S>> findStronglyConnectedComponents() {
-      for (S node : graph.nodes) {
-        if (!indexes.containsKey(node)) {
-          doStrongConnect(node);
-        }
-      }
-      return stronglyConnectedComponents;
-    }
-
-    private void doStrongConnect(final S node) {
-      // Set the depth index for node to the smallest unused index.
-      indexes.put(node, index);
-      lowlinks.put(node, index);
-      index++;
-      nodeStack.push(node);
-
-      // Consider successors of node.
-      for (S sink : graph.getOutgoingNodesFor(node)) {
-        if (!indexes.containsKey(sink)) {
-          doStrongConnect(sink);
-          int lowlink = Math.min(lowlinks.get(node), lowlinks.get(sink));
-          lowlinks.put(node, lowlink);
-        } else if (nodeStack.contains(sink)) {
-          // TODO(mbolin): contains() is O(N), consider maintaining an index so it is O(1)?
-          int lowlink = Math.min(lowlinks.get(node), indexes.get(sink));
-          lowlinks.put(node, lowlink);
-        }
-      }
-
-      // If node is a root node, then pop the stack and generate a strongly connected component.
-      if (lowlinks.get(node).equals(indexes.get(node))) {
-        Set<S> stronglyConnectedComponent = Sets.newHashSet();
-        S componentElement;
-        do {
-          componentElement = nodeStack.pop();
-          stronglyConnectedComponent.add(componentElement);
-        } while (componentElement != node);
-        stronglyConnectedComponents.add(stronglyConnectedComponent);
-      }
-    }
-  }
 }
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.graph;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 
@@ -26,6 +27,10 @@ public class TopologicalSort {
   public static <T> ImmutableList<T> sort(
       TraversableGraph<T> graph,
       final Predicate<T> inclusionPredicate) {
+    if (graph instanceof CompactDirectedGraph) {
+      return sort((CompactDirectedGraph<T>) graph, inclusionPredicate);
+    }
+
     AbstractBottomUpTraversal<T, ImmutableList<T>> traversal =
         new AbstractBottomUpTraversal<T, ImmutableList<T>>(graph) {
 
@@ -47,4 +52,20 @@ public class TopologicalSort {
     traversal.traverse();
     return traversal.getResult();
   }
+
+  private static <T> ImmutableList<T> sort(
+      CompactDirectedGraph<T> graph,
+      Predicate<T> inclusionPredicate) {
+    int[] order = graph.getBottomUpOrder();
+    Preconditions.checkState(order.length == graph.getNodeCount(),
+        "Cannot sort a graph that contains a cycle.");
+    ImmutableList.Builder<T> builder = ImmutableList.builder();
+    for (int index : order) {
+      T node = graph.getNode(index);
+      if (inclusionPredicate.apply(node)) {
+        builder.add(node);
+      }
+    }
+    return builder.build();
+  }
 }
@@ -21,6 +21,7 @@ import com.facebook.buck.parser.ParseEvent;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRuleEvent;
 import com.facebook.buck.rules.IndividualTestEvent;
+import com.facebook.buck.rules.TestMethodEvent;
 import com.facebook.buck.rules.TestRunEvent;
 import com.google.common.base.Preconditions;
 import com.google.common.eventbus.Subscribe;
@@ -92,4 +93,14 @@ public class WebServerBuckEventListener implements BuckEventListener {
     streamingWebSocketServlet.tellClients(event);
   }
 
+  @Subscribe
+  public void testMethodStarted(TestMethodEvent.Started event) {
+    streamingWebSocketServlet.tellClients(event);
+  }
+
+  @Subscribe
+  public void testMethodFinished(TestMethodEvent.Finished event) {
+    streamingWebSocketServlet.tellClients(event);
+  }
+
 }
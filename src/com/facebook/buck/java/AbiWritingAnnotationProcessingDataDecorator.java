@@ -20,6 +20,7 @@ import com.facebook.buck.java.abi.AbiWriterProtocol;
 import com.facebook.buck.rules.AnnotationProcessingData;
 import com.facebook.buck.rules.RuleKey;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSortedSet;
 
@@ -43,8 +44,20 @@ public class AbiWritingAnnotationProcessingDataDecorator
 
   private final File outputFile;
 
+  private final Optional<File> summariesFile;
+
   public AbiWritingAnnotationProcessingDataDecorator(File outputFile) {
+    this(outputFile, Optional.<File>absent());
+  }
+
+  /**
+   * @param summariesFile where to write the summary of each type that contributes to the ABI key,
+   *     if anywhere.
+   */
+  public AbiWritingAnnotationProcessingDataDecorator(File outputFile,
+      Optional<File> summariesFile) {
     this.outputFile = Preconditions.checkNotNull(outputFile);
+    this.summariesFile = Preconditions.checkNotNull(summariesFile);
   }
 
   @Override
@@ -74,10 +87,14 @@ public class AbiWritingAnnotationProcessingDataDecorator
 
       @Override
       public ImmutableSortedSet<String> getParameters() {
-        return ImmutableSortedSet.<String>naturalOrder()
+        ImmutableSortedSet.Builder<String> parameters = ImmutableSortedSet.<String>naturalOrder()
             .addAll(delegate.getParameters())
-            .add(AbiWriterProtocol.PARAM_ABI_OUTPUT_FILE + "=" + outputFile.getAbsolutePath())
-            .build();
+            .add(AbiWriterProtocol.PARAM_ABI_OUTPUT_FILE + "=" + outputFile.getAbsolutePath());
+        if (summariesFile.isPresent()) {
+          parameters.add(AbiWriterProtocol.PARAM_ABI_SUMMARIES_FILE + "=" +
+              summariesFile.get().getAbsolutePath());
+        }
+        return parameters.build();
       }
 
       @Override
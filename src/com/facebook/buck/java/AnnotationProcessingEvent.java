@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.event.LeafEvent;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Brackets each call that javac makes to an annotation processor, so that the time that a
+ * compilation spends in annotation processing can be told apart from the rest of it.
+ */
+@SuppressWarnings("PMD.OverrideBothEqualsAndHashcode")
+public abstract class AnnotationProcessingEvent extends AbstractBuckEvent implements LeafEvent {
+
+  public static enum Operation {
+    INIT,
+    PROCESS,
+  }
+
+  private final String buildRule;
+  private final String processorName;
+  private final Operation operation;
+  private final int round;
+
+  protected AnnotationProcessingEvent(
+      String buildRule,
+      String processorName,
+      Operation operation,
+      int round) {
+    this.buildRule = Preconditions.checkNotNull(buildRule);
+    this.processorName = Preconditions.checkNotNull(processorName);
+    this.operation = Preconditions.checkNotNull(operation);
+    this.round = round;
+  }
+
+  public String getBuildRule() {
+    return buildRule;
+  }
+
+  public String getProcessorName() {
+    return processorName;
+  }
+
+  public Operation getOperation() {
+    return operation;
+  }
+
+  /** @return the round of annotation processing, counting from 0, or 0 for {@code INIT}. */
+  public int getRound() {
+    return round;
+  }
+
+  @Override
+  public String getCategory() {
+    return "annotation_processing";
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format("%s %s %s %d", buildRule, processorName, operation, round);
+  }
+
+  @Override
+  public boolean eventsArePair(BuckEvent event) {
+    if (!(event instanceof AnnotationProcessingEvent)) {
+      return false;
+    }
+
+    AnnotationProcessingEvent that = (AnnotationProcessingEvent) event;
+
+    return Objects.equal(getBuildRule(), that.getBuildRule()) &&
+        Objects.equal(getProcessorName(), that.getProcessorName()) &&
+        getOperation() == that.getOperation() &&
+        getRound() == that.getRound();
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(getBuildRule(), getProcessorName(), getOperation(), getRound());
+  }
+
+  public static Started started(
+      String buildRule,
+      String processorName,
+      Operation operation,
+      int round) {
+    return new Started(buildRule, processorName, operation, round);
+  }
+
+  public static Finished finished(Started started) {
+    return new Finished(started.getBuildRule(),
+        started.getProcessorName(),
+        started.getOperation(),
+        started.getRound());
+  }
+
+  public static class Started extends AnnotationProcessingEvent {
+    protected Started(String buildRule, String processorName, Operation operation, int round) {
+      super(buildRule, processorName, operation, round);
+    }
+
+    @Override
+    protected String getEventName() {
+      return "AnnotationProcessingStarted";
+    }
+  }
+
+  public static class Finished extends AnnotationProcessingEvent {
+    protected Finished(String buildRule, String processorName, Operation operation, int round) {
+      super(buildRule, processorName, operation, round);
+    }
+
+    @Override
+    protected String getEventName() {
+      return "AnnotationProcessingFinished";
+    }
+  }
+}
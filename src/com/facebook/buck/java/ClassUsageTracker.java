@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.SetMultimap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.ForwardingJavaFileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Records which classes javac reads from each entry of its classpath. javac lists every class in
+ * a package when it looks for a class in that package, but only reads the class files of the
+ * classes that the sources being compiled actually depend on, so the classpath entries that it
+ * reads from are exactly those that the compilation needs.
+ */
+class ClassUsageTracker {
+
+  /** Keyed by the absolute, normalized path to each classpath entry. */
+  private final ImmutableMap<Path, String> classpathEntries;
+
+  /** Guarded by {@code this}. */
+  private final SetMultimap<String, String> classesReadByClasspathEntry;
+
+  /**
+   * @param classpathEntries the classpath entries that are to be tracked, keyed by their absolute
+   *     paths. Classes that are read from anywhere else are ignored.
+   */
+  ClassUsageTracker(Map<Path, String> classpathEntries) {
+    ImmutableMap.Builder<Path, String> builder = ImmutableMap.builder();
+    for (Map.Entry<Path, String> entry : classpathEntries.entrySet()) {
+      builder.put(entry.getKey().toAbsolutePath().normalize(), entry.getValue());
+    }
+    this.classpathEntries = builder.build();
+    this.classesReadByClasspathEntry = LinkedHashMultimap.create();
+  }
+
+  /**
+   * @return a file manager that forwards to {@code fileManager}, recording every class file that
+   *     javac reads from the classpath.
+   */
+  JavaFileManager wrapFileManager(JavaFileManager fileManager) {
+    return new TrackingFileManager(Preconditions.checkNotNull(fileManager));
+  }
+
+  /**
+   * @return the binary names of the classes that have been read, keyed by the classpath entry that
+   *     they were read from.
+   */
+  synchronized ImmutableSetMultimap<String, String> getClassesReadByClasspathEntry() {
+    return ImmutableSetMultimap.copyOf(classesReadByClasspathEntry);
+  }
+
+  private synchronized void recordRead(String classpathEntry, String binaryName) {
+    classesReadByClasspathEntry.put(classpathEntry, binaryName);
+  }
+
+  /**
+   * Works out which classpath entry a class file was listed from. The file objects of a
+   * {@link javax.tools.StandardJavaFileManager} have a {@code jar:} URI when they are in a jar, and
+   * a {@code file:} URI when they are in a directory.
+   */
+  private Optional<String> findClasspathEntry(URI uri, String binaryName) {
+    Path root;
+    if ("jar".equals(uri.getScheme())) {
+      String jarAndEntry = uri.getRawSchemeSpecificPart();
+      int separator = jarAndEntry.indexOf("!/");
+      if (separator == -1) {
+        return Optional.absent();
+      }
+      root = Paths.get(URI.create(jarAndEntry.substring(0, separator)));
+    } else if ("file".equals(uri.getScheme())) {
+      // A class in package a.b is in a/b/ under the root of its classpath entry.
+      root = Paths.get(uri);
+      for (int i = binaryName.split("\\.").length; i > 0 && root != null; i--) {
+        root = root.getParent();
+      }
+      if (root == null) {
+        return Optional.absent();
+      }
+    } else {
+      return Optional.absent();
+    }
+    return Optional.fromNullable(classpathEntries.get(root.toAbsolutePath().normalize()));
+  }
+
+  private class TrackingFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+
+    private TrackingFileManager(JavaFileManager fileManager) {
+      super(fileManager);
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(
+        Location location,
+        String packageName,
+        Set<JavaFileObject.Kind> kinds,
+        boolean recurse) throws IOException {
+      Iterable<JavaFileObject> files = super.list(location, packageName, kinds, recurse);
+      if (location != StandardLocation.CLASS_PATH) {
+        return files;
+      }
+
+      List<JavaFileObject> trackedFiles = Lists.newArrayList();
+      for (JavaFileObject file : files) {
+        trackedFiles.add(file.getKind() == JavaFileObject.Kind.CLASS ?
+            new TrackedJavaFileObject(location, file) :
+            file);
+      }
+      return trackedFiles;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+      return super.inferBinaryName(location, unwrap(file));
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+      return super.isSameFile(unwrap(a), unwrap(b));
+    }
+
+    /** The underlying file manager only accepts file objects that it created itself. */
+    private FileObject unwrap(FileObject file) {
+      return file instanceof TrackedJavaFileObject ? ((TrackedJavaFileObject) file).getDelegate() :
+          file;
+    }
+
+    private JavaFileObject unwrap(JavaFileObject file) {
+      return file instanceof TrackedJavaFileObject ? ((TrackedJavaFileObject) file).getDelegate() :
+          file;
+    }
+
+    private class TrackedJavaFileObject extends ForwardingJavaFileObject<JavaFileObject> {
+      private final Location location;
+
+      private TrackedJavaFileObject(Location location, JavaFileObject file) {
+        super(file);
+        this.location = location;
+      }
+
+      private JavaFileObject getDelegate() {
+        return fileObject;
+      }
+
+      @Override
+      public InputStream openInputStream() throws IOException {
+        String binaryName = fileManager.inferBinaryName(location, fileObject);
+        if (binaryName != null) {
+          Optional<String> classpathEntry = findClasspathEntry(fileObject.toUri(), binaryName);
+          if (classpathEntry.isPresent()) {
+            recordRead(classpathEntry.get(), binaryName);
+          }
+        }
+        return super.openInputStream();
+      }
+    }
+  }
+}
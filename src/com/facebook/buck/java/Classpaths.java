@@ -43,14 +43,21 @@ public class Classpaths {
    * A's classpath.
    */
   public static ImmutableSetMultimap<JavaLibraryRule, String> getClasspathEntries(Set<BuildRule> deps) {
-    final ImmutableSetMultimap.Builder<JavaLibraryRule, String> classpathEntries =
-        ImmutableSetMultimap.builder();
+    return getTransitiveClasspath(deps).getEntries();
+  }
+
+  /**
+   * Like {@link #getClasspathEntries(Set)}, but shares the classpaths of {@code deps} rather than
+   * copying them.
+   */
+  public static TransitiveClasspath getTransitiveClasspath(Set<BuildRule> deps) {
+    TransitiveClasspath.Builder classpath = TransitiveClasspath.builder();
     for (BuildRule dep : deps) {
       if (dep instanceof JavaLibraryRule) {
         JavaLibraryRule libraryRule = (JavaLibraryRule)dep;
-        classpathEntries.putAll(libraryRule.getTransitiveClasspathEntries());
+        classpath.addAll(libraryRule.getTransitiveClasspath());
       }
     }
-    return classpathEntries.build();
+    return classpath.build();
   }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.CacheResult;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
+import com.facebook.buck.step.fs.WriteFileStep;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.zip.Unzip;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+/**
+ * Instruments the classes of each {@link JavaLibraryRule} under test for code coverage on its own,
+ * into a directory of its own rather than over the output of the rule. The instrumented classes of
+ * a library whose {@link RuleKey} has not changed are therefore reused by the next coverage run,
+ * and they are stored in the {@link ArtifactCache}, so that a library that has been instrumented
+ * elsewhere does not have to be instrumented again.
+ * <p>
+ * The directory holds the instrumented classes, which {@link JavaTestRule} puts ahead of the
+ * output of the library on the classpath of its tests, the EMMA metadata for those classes, and a
+ * file that records the key that they were instrumented for. The key file is written last, so
+ * the directory is only trusted if the instrumentation finished.
+ */
+public class CodeCoverageInstrumentation {
+
+  private static final String INSTRUMENTED_CLASSES_DIR = "classes";
+  private static final String METADATA_FILE = "coverage.em";
+  private static final String KEY_FILE = ".instrumentation_key";
+
+  private final ProjectFilesystem projectFilesystem;
+  private final ArtifactCache artifactCache;
+
+  public CodeCoverageInstrumentation(
+      ProjectFilesystem projectFilesystem,
+      ArtifactCache artifactCache) {
+    this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
+    this.artifactCache = Preconditions.checkNotNull(artifactCache);
+  }
+
+  @VisibleForTesting
+  static Path getPathToOutputDirectory(BuildTarget target) {
+    return Paths.get(String.format("%s/%s__emma_instr_%s__",
+        BuckConstant.GEN_DIR,
+        target.getBasePathWithSlash(),
+        target.getShortName()));
+  }
+
+  /** @return the directory to put ahead of the output of the library on the classpath. */
+  public static Path getPathToInstrumentedClasses(BuildTarget target) {
+    return getPathToOutputDirectory(target).resolve(INSTRUMENTED_CLASSES_DIR);
+  }
+
+  /** @return the EMMA metadata file, which does not exist if there was nothing to instrument. */
+  public static Path getPathToMetadataFile(BuildTarget target) {
+    return getPathToOutputDirectory(target).resolve(METADATA_FILE);
+  }
+
+  /**
+   * The instrumented classes only depend on the classes of the library, which its {@link RuleKey}
+   * accounts for, and on the version of EMMA.
+   */
+  @VisibleForTesting
+  static RuleKey getInstrumentationKey(JavaLibraryRule library) throws IOException {
+    RuleKey ruleKey = Preconditions.checkNotNull(library.getRuleKey());
+    return new RuleKey(Hashing.sha1().newHasher()
+        .putString("emma_instr", Charsets.UTF_8)
+        .putString(ruleKey.toString(), Charsets.UTF_8)
+        .putString(JUnitStep.PATH_TO_EMMA_JAR, Charsets.UTF_8)
+        .hash()
+        .toString());
+  }
+
+  /**
+   * @return whether the instrumented classes of {@code library} are up to date, either because
+   *     they were left by a previous run, or because they have just been fetched from the cache.
+   *     If not, the steps from {@link #getInstrumentSteps(JavaLibraryRule)} must be run.
+   */
+  public boolean isInstrumented(JavaLibraryRule library) throws IOException {
+    BuildTarget target = library.getBuildTarget();
+    RuleKey key = getInstrumentationKey(library);
+    Path keyFile = getPathToOutputDirectory(target).resolve(KEY_FILE);
+    if (Optional.of(key.toString()).equals(projectFilesystem.readFirstLine(keyFile))) {
+      return true;
+    }
+
+    File zipFile = File.createTempFile(target.getShortName(), "_emma_instr.zip");
+    try {
+      CacheResult cacheResult = artifactCache.fetch(key, zipFile);
+      if (!cacheResult.isSuccess()) {
+        return false;
+      }
+
+      projectFilesystem.rmdir(getPathToOutputDirectory(target));
+      Unzip.extractZipFile(zipFile.getAbsolutePath(),
+          projectFilesystem.getRootPath().toAbsolutePath().toString(),
+          /* overwriteExistingFiles */ true);
+      return Optional.of(key.toString()).equals(projectFilesystem.readFirstLine(keyFile));
+    } catch (IOException e) {
+      // The library will be instrumented, which replaces whatever was extracted.
+      return false;
+    } finally {
+      zipFile.delete();
+    }
+  }
+
+  /** @return the steps that instrument the classes of {@code library}. */
+  public List<Step> getInstrumentSteps(JavaLibraryRule library) throws IOException {
+    BuildTarget target = library.getBuildTarget();
+    Path outputDirectory = getPathToOutputDirectory(target);
+    String pathToOutput = Preconditions.checkNotNull(library.getPathToOutputFile(),
+        "%s has no classes to instrument.",
+        target);
+    return ImmutableList.of(
+        new MakeCleanDirectoryStep(outputDirectory),
+        new InstrumentStep(
+            "copy",
+            ImmutableSet.of(Paths.get(pathToOutput)),
+            getPathToInstrumentedClasses(target),
+            getPathToMetadataFile(target)),
+        new WriteFileStep(
+            getInstrumentationKey(library).toString(),
+            outputDirectory.resolve(KEY_FILE)));
+  }
+
+  /**
+   * Stores the instrumented classes of {@code library}, which must have just been instrumented. If
+   * any internal errors occur, they are ignored, as with {@link ArtifactCache#store}.
+   */
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  public void storeInstrumentedClasses(JavaLibraryRule library) {
+    if (!artifactCache.isStoreSupported()) {
+      return;
+    }
+
+    final Path projectRoot = projectFilesystem.getRootPath().toAbsolutePath();
+    final ImmutableList.Builder<Path> outputFiles = ImmutableList.builder();
+    File zipFile = null;
+    try {
+      projectFilesystem.walkFileTree(
+          projectFilesystem.resolve(getPathToOutputDirectory(library.getBuildTarget())),
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+              outputFiles.add(projectRoot.relativize(file));
+              return FileVisitResult.CONTINUE;
+            }
+          });
+
+      zipFile = File.createTempFile(
+          library.getBuildTarget().getShortName(), "_emma_instr.zip");
+      projectFilesystem.createZip(outputFiles.build(), zipFile);
+      artifactCache.store(getInstrumentationKey(library), zipFile);
+    } catch (IOException e) {
+      // The instrumented classes will simply not be cached.
+    } finally {
+      if (zipFile != null) {
+        zipFile.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.java.classes.ClasspathTraversal;
+import com.facebook.buck.java.classes.DefaultClasspathTraverser;
+import com.facebook.buck.java.classes.FileLike;
+import com.facebook.buck.java.classes.FileLikes;
+import com.facebook.buck.step.AbstractExecutionStep;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.ZipOutputStreams;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.ByteStreams;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+/**
+ * {@link com.facebook.buck.step.Step} that writes an ABI jar: a jar with the same {@code .class}
+ * files as a directory or jar of classes, stripped of everything that javac does not need in
+ * order to compile code against them. Method bodies, debug information, static initializers and
+ * private members are removed, and resources are left out.
+ * <p>
+ * The classes in an ABI jar cannot be loaded, so it must only ever be put on the classpath of
+ * javac, never on the classpath of a running program.
+ */
+public class CreateAbiJarStep extends AbstractExecutionStep {
+
+  /** The same fixed time is given to every entry so that the jar only depends on its classes. */
+  private static final long ENTRY_TIME = 0L;
+
+  private final Path pathToJarOrClassesDirectory;
+  private final Path pathToAbiJar;
+
+  public CreateAbiJarStep(Path pathToJarOrClassesDirectory, Path pathToAbiJar) {
+    super("abi_jar " + pathToJarOrClassesDirectory + " > " + pathToAbiJar);
+    this.pathToJarOrClassesDirectory = Preconditions.checkNotNull(pathToJarOrClassesDirectory);
+    this.pathToAbiJar = Preconditions.checkNotNull(pathToAbiJar);
+  }
+
+  @Override
+  public int execute(ExecutionContext context) {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+
+    // Sorted, so that the same classes always produce the same jar.
+    final ImmutableSortedMap.Builder<String, byte[]> abiClasses =
+        ImmutableSortedMap.naturalOrder();
+    ClasspathTraversal traversal = new ClasspathTraversal(
+        Collections.singleton(filesystem.resolve(pathToJarOrClassesDirectory))) {
+      @Override
+      public void visit(FileLike fileLike) throws IOException {
+        if (!FileLikes.isClassFile(fileLike)) {
+          return;
+        }
+
+        try (InputStream input = fileLike.getInput()) {
+          abiClasses.put(fileLike.getRelativePath(), stripToAbi(ByteStreams.toByteArray(input)));
+        }
+      }
+    };
+
+    try {
+      new DefaultClasspathTraverser().traverse(traversal);
+    } catch (IOException e) {
+      context.logError(e, "Error reading classes from %s.", pathToJarOrClassesDirectory);
+      return 1;
+    }
+
+    try (CustomZipOutputStream abiJar =
+             ZipOutputStreams.newOutputStream(filesystem.resolve(pathToAbiJar).toFile())) {
+      for (Map.Entry<String, byte[]> abiClass : abiClasses.build().entrySet()) {
+        ZipEntry entry = new ZipEntry(abiClass.getKey());
+        entry.setTime(ENTRY_TIME);
+        abiJar.putNextEntry(entry);
+        abiJar.write(abiClass.getValue());
+        abiJar.closeEntry();
+      }
+    } catch (IOException e) {
+      context.logError(e, "Error writing ABI jar %s.", pathToAbiJar);
+      return 1;
+    }
+
+    return 0;
+  }
+
+  /**
+   * @param classFile the contents of a {@code .class} file.
+   * @return the contents of the same class, with only what javac needs to compile against it, or
+   *     the class unchanged if its class file version is too new to be read.
+   */
+  @VisibleForTesting
+  static byte[] stripToAbi(byte[] classFile) {
+    ClassReader reader;
+    try {
+      reader = new ClassReader(classFile);
+    } catch (IllegalArgumentException e) {
+      // ASM rejects class file versions that it does not know. The full class is still a valid,
+      // if larger, stand-in for its ABI.
+      return classFile;
+    }
+    ClassWriter writer = new ClassWriter(0);
+    reader.accept(new AbiClassVisitor(writer),
+        ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    return writer.toByteArray();
+  }
+
+  /**
+   * Drops the members of a class that cannot be referenced from outside of it. Constant values of
+   * fields are kept, because javac inlines them into the code that refers to them.
+   */
+  private static class AbiClassVisitor extends ClassVisitor {
+
+    private AbiClassVisitor(ClassVisitor delegate) {
+      super(Opcodes.ASM4, delegate);
+    }
+
+    @Override
+    public FieldVisitor visitField(
+        int access,
+        String name,
+        String desc,
+        String signature,
+        Object value) {
+      if ((access & Opcodes.ACC_PRIVATE) != 0) {
+        return null;
+      }
+      return super.visitField(access, name, desc, signature, value);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(
+        int access,
+        String name,
+        String desc,
+        String signature,
+        String[] exceptions) {
+      if ((access & Opcodes.ACC_PRIVATE) != 0 || "<clinit>".equals(name)) {
+        return null;
+      }
+      return super.visitMethod(access, name, desc, signature, exceptions);
+    }
+  }
+}
@@ -68,6 +68,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
@@ -81,6 +82,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -124,8 +126,12 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
 
   private final Supplier<ImmutableSetMultimap<JavaLibraryRule, String>> outputClasspathEntriesSupplier;
 
-  private final Supplier<ImmutableSetMultimap<JavaLibraryRule, String>>
-      transitiveClasspathEntriesSupplier;
+  /**
+   * Shares the classpaths of this rule's deps, rather than copying them, so that a graph of
+   * thousands of rules does not hold a copy of the classpath of every rule for each of its
+   * dependents.
+   */
+  private final Supplier<TransitiveClasspath> transitiveClasspathSupplier;
 
   private final Supplier<ImmutableSetMultimap<JavaLibraryRule, String>>
       declaredClasspathEntriesSupplier;
@@ -135,6 +141,13 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
   @Nullable
   private JavaLibraryRule.Data buildOutput;
 
+  /**
+   * The ABI key of this rule as of the local build that is in progress, once it is known, so that
+   * rules that depend on this one can read it before {@link #buildOutput} is set.
+   */
+  @Nullable
+  private volatile Sha1HashCode abiKeyOfBuildInProgress;
+
   /**
    * Function for opening a JAR and returning all symbols that can be referenced from inside of that
    * jar.
@@ -231,34 +244,25 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
           }
         });
 
-    transitiveClasspathEntriesSupplier =
-        Suppliers.memoize(new Supplier<ImmutableSetMultimap<JavaLibraryRule, String>>() {
+    transitiveClasspathSupplier =
+        Suppliers.memoize(new Supplier<TransitiveClasspath>() {
           @Override
-          public ImmutableSetMultimap<JavaLibraryRule, String> get() {
-            final ImmutableSetMultimap.Builder<JavaLibraryRule, String> classpathEntries =
-                ImmutableSetMultimap.builder();
-            ImmutableSetMultimap<JavaLibraryRule, String> classpathEntriesForDeps =
-                Classpaths.getClasspathEntries(getDeps());
-
-            ImmutableSetMultimap<JavaLibraryRule, String> classpathEntriesForExportedsDeps =
-                Classpaths.getClasspathEntries(getExportedDeps());
-
-            classpathEntries.putAll(classpathEntriesForDeps);
+          public TransitiveClasspath get() {
+            TransitiveClasspath.Builder classpath = TransitiveClasspath.builder();
+            classpath.addAll(Classpaths.getTransitiveClasspath(getDeps()));
 
             // If we have any exported deps, add an entry mapping ourselves to to their classpaths,
             // so when suggesting libraries to add we know that adding this library would pull in
             // it's deps.
-            if (!classpathEntriesForExportedsDeps.isEmpty()) {
-              classpathEntries.putAll(DefaultJavaLibraryRule.this,
-                  classpathEntriesForExportedsDeps.values());
-            }
+            classpath.putAll(DefaultJavaLibraryRule.this,
+                Classpaths.getTransitiveClasspath(getExportedDeps()));
 
             // Only add ourselves to the classpath if there's a jar to be built.
             if (outputJar.isPresent()) {
-              classpathEntries.putAll(DefaultJavaLibraryRule.this, getPathToOutputFile());
+              classpath.put(DefaultJavaLibraryRule.this, getPathToOutputFile());
             }
 
-            return classpathEntries.build();
+            return classpath.build();
           }
         });
 
@@ -286,6 +290,9 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
    * @param declaredClasspathEntries Classpaths of all declared dependencies.
    * @param javacOptions options to use when compiling code.
    * @param suggestBuildRules Function to convert from missing symbols to the suggested rules.
+   * @param isIncrementalCompilationSupported whether the sources may be compiled incrementally.
+   * @param isJavaCompilationBatchingEnabled whether the sources may be compiled together with those
+   *     of other rules.
    * @param commands List of steps to add to.
    * @return a {@link Supplier} that will return the ABI for this rule after javac is executed.
    */
@@ -296,6 +303,8 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
       JavacOptions javacOptions,
       BuildDependencies buildDependencies,
       Optional<JavacInMemoryStep.SuggestBuildRules> suggestBuildRules,
+      boolean isIncrementalCompilationSupported,
+      boolean isJavaCompilationBatchingEnabled,
       ImmutableList.Builder<Step> commands) {
     // Make sure that this directory exists because ABI information will be written here.
     Step mkdir = new MakeCleanDirectoryStep(getPathToAbiOutputDir());
@@ -303,16 +312,36 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
 
     // Only run javac if there are .java files to compile.
     if (!getJavaSrcs().isEmpty()) {
-      final JavacInMemoryStep javac = new JavacInMemoryStep(
-          outputDirectory,
-          getJavaSrcs(),
-          transitiveClasspathEntries,
-          declaredClasspathEntries,
-          javacOptions,
-          Optional.of(getPathToAbiOutputFile()),
-          Optional.of(getFullyQualifiedName()),
-          buildDependencies,
-          suggestBuildRules);
+      final JavacInMemoryStep javac;
+      if (isIncrementalCompilationSupported) {
+        javac = new IncrementalJavacStep(
+            outputDirectory,
+            getJavaSrcs(),
+            transitiveClasspathEntries,
+            declaredClasspathEntries,
+            javacOptions,
+            Optional.of(getPathToAbiOutputFile()),
+            Optional.of(getFullyQualifiedName()),
+            buildDependencies,
+            suggestBuildRules,
+            getIncrementalStateDir(getBuildTarget()),
+            getAbiKeyForDeps());
+      } else {
+        javac = new JavacInMemoryStep(
+            outputDirectory,
+            getJavaSrcs(),
+            transitiveClasspathEntries,
+            declaredClasspathEntries,
+            javacOptions,
+            Optional.of(getPathToAbiOutputFile()),
+            Optional.of(getFullyQualifiedName()),
+            buildDependencies,
+            suggestBuildRules);
+      }
+      if (isJavaCompilationBatchingEnabled) {
+        // Lets a step that is ready to compile wait for this one to join its batch.
+        JavacBatcher.getInstance().expect(javac);
+      }
       commands.add(javac);
 
       // Create a supplier that extracts the ABI key from javac after it executes.
@@ -350,7 +379,10 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
   }
 
   private String getPathToAbiOutputDir() {
-    BuildTarget target = getBuildTarget();
+    return getAbiOutputDirPath(getBuildTarget());
+  }
+
+  private static String getAbiOutputDirPath(BuildTarget target) {
     return String.format(
         "%s/%slib__%s__abi",
         BuckConstant.GEN_DIR,
@@ -358,6 +390,53 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
         target.getShortName());
   }
 
+  @VisibleForTesting
+  static String getAbiJarPath(BuildTarget target) {
+    return String.format(
+        "%s/%s-abi.jar",
+        getAbiOutputDirPath(target),
+        target.getShortName());
+  }
+
+  /**
+   * @return the path to a jar that holds the same classes as the output jar, stripped down to what
+   *     javac needs to compile against them, if there is an output jar.
+   * @see CreateAbiJarStep
+   */
+  public Optional<String> getPathToAbiJar() {
+    if (outputJar.isPresent()) {
+      return Optional.of(getAbiJarPath(getBuildTarget()));
+    } else {
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * Replaces the output jar of every {@link DefaultJavaLibraryRule} in {@code classpathEntries},
+   * other than this one, with its ABI jar. Compiling against ABI jars rather than output jars means
+   * that javac reads less from disk.
+   */
+  private ImmutableSetMultimap<JavaLibraryRule, String> replaceOutputJarsWithAbiJars(
+      ImmutableSetMultimap<JavaLibraryRule, String> classpathEntries) {
+    Map<String, String> abiJars = Maps.newHashMap();
+    for (JavaLibraryRule rule : classpathEntries.keySet()) {
+      if (rule != this && rule instanceof DefaultJavaLibraryRule) {
+        Optional<String> abiJar = ((DefaultJavaLibraryRule) rule).getPathToAbiJar();
+        if (abiJar.isPresent()) {
+          abiJars.put(rule.getPathToOutputFile(), abiJar.get());
+        }
+      }
+    }
+
+    ImmutableSetMultimap.Builder<JavaLibraryRule, String> abiClasspathEntries =
+        ImmutableSetMultimap.builder();
+    for (Map.Entry<JavaLibraryRule, String> entry : classpathEntries.entries()) {
+      String abiJar = abiJars.get(entry.getValue());
+      abiClasspathEntries.put(entry.getKey(), abiJar != null ? abiJar : entry.getValue());
+    }
+    return abiClasspathEntries.build();
+  }
+
   private String getPathToAbiOutputFile() {
     return String.format("%s/abi", getPathToAbiOutputDir());
   }
@@ -389,6 +468,18 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
         target.getShortName());
   }
 
+  /**
+   * @return directory path relative to the project root where {@link IncrementalJavacStep} keeps
+   *     what it knows about the last compilation of this rule.
+   */
+  private static String getIncrementalStateDir(BuildTarget target) {
+    return String.format(
+        "%s/%slib__%s__incremental",
+        BuckConstant.BIN_DIR,
+        target.getBasePathWithSlash(),
+        target.getShortName());
+  }
+
   /**
    * Finds all deps that implement JavaLibraryRule and hash their ABI keys together.
    */
@@ -438,7 +529,9 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
         .set("exportedDeps", exportedDeps)
         .set("srcs", srcs)
         .setSourcePaths("resources", resources)
-        .set("proguard", proguardConfig);
+        .set("proguard", proguardConfig)
+        // Outputs from before ABI jars were written must not be mistaken for up-to-date ones.
+        .set("abiJar", true);
     javacOptions.appendToRuleKey(builder);
     return builder;
   }
@@ -460,7 +553,12 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
 
   @Override
   public ImmutableSetMultimap<JavaLibraryRule, String> getTransitiveClasspathEntries() {
-    return transitiveClasspathEntriesSupplier.get();
+    return transitiveClasspathSupplier.get().getEntries();
+  }
+
+  @Override
+  public TransitiveClasspath getTransitiveClasspath() {
+    return transitiveClasspathSupplier.get();
   }
 
   @Override
@@ -520,9 +618,9 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
     }
 
     ImmutableSetMultimap<JavaLibraryRule, String> transitiveClasspathEntries =
-        getTransitiveClasspathEntries();
+        replaceOutputJarsWithAbiJars(getTransitiveClasspathEntries());
     ImmutableSetMultimap<JavaLibraryRule, String> declaredClasspathEntries =
-        getDeclaredClasspathEntries();
+        replaceOutputJarsWithAbiJars(getDeclaredClasspathEntries());
 
     // If this rule depends on AndroidResourceRules, then we need to include the compiled R.java
     // files on the classpath when compiling this rule.
@@ -559,6 +657,18 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
     String outputDirectory = getClassesDir(getBuildTarget());
     commands.add(new MakeCleanDirectoryStep(outputDirectory));
 
+    // Annotation processors can generate code from any source, and the ids in R.java are constants
+    // that javac inlines, so neither can be compiled incrementally.
+    boolean isIncrementalCompilationSupported =
+        javacOptions.getAnnotationProcessingData().isEmpty() &&
+        !dependsOnAndroidResourceRules &&
+        Iterables.all(getJavaSrcs(), new Predicate<String>() {
+          @Override
+          public boolean apply(String src) {
+            return src.endsWith(".java");
+          }
+        });
+
     Optional<JavacInMemoryStep.SuggestBuildRules> suggestBuildRule =
         createSuggestBuildFunction(context,
             transitiveClasspathEntries,
@@ -566,26 +676,26 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
             JAR_RESOLVER);
 
     // This adds the javac command, along with any supporting commands.
-    Supplier<Sha1HashCode> abiKeySupplier = createCommandsForJavac(
+    final Supplier<Sha1HashCode> abiKeySupplier = createCommandsForJavac(
         outputDirectory,
         ImmutableSet.copyOf(transitiveClasspathEntries.values()),
         ImmutableSet.copyOf(declaredClasspathEntries.values()),
         javacOptions,
         context.getBuildDependencies(),
         suggestBuildRule,
+        isIncrementalCompilationSupported,
+        context.isJavaCompilationBatchingEnabled(),
         commands);
 
 
     // If there are resources, then link them to the appropriate place in the classes directory.
     addResourceCommands(context, commands, outputDirectory, context.getJavaPackageFinder());
 
+    // The ABI jar is what rules that depend on this one compile against.
     if (outputJar.isPresent()) {
-      commands.add(new MakeCleanDirectoryStep(getOutputJarDirPath(getBuildTarget())));
-      commands.add(new JarDirectoryStep(
-          outputJar.get(),
-          Collections.singleton(outputDirectory),
-          /* mainClass */ null,
-          /* manifestFile */ null));
+      Path abiJar = Paths.get(getAbiJarPath(getBuildTarget()));
+      commands.add(new CreateAbiJarStep(Paths.get(outputDirectory), abiJar));
+      buildableContext.recordArtifact(abiJar);
     }
 
     Preconditions.checkNotNull(abiKeySupplier,
@@ -594,9 +704,38 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
 
     addStepsToRecordAbiToDisk(commands, abiKeySupplier, buildableContext);
 
+    // Rules that depend on this one can compile against its ABI jar while the output jar is built.
+    commands.add(new AbstractExecutionStep("marking ABI ready") {
+      @Override
+      public int execute(ExecutionContext context) {
+        abiKeyOfBuildInProgress = abiKeySupplier.get();
+        markAbiReady();
+        return 0;
+      }
+    });
+
+    if (outputJar.isPresent()) {
+      commands.add(new MakeCleanDirectoryStep(getOutputJarDirPath(getBuildTarget())));
+      commands.add(new JarDirectoryStep(
+          outputJar.get(),
+          Collections.singleton(outputDirectory),
+          /* mainClass */ null,
+          /* manifestFile */ null));
+    }
+
     return commands.build();
   }
 
+  /**
+   * A rule that runs annotation processors needs the output jars of the rules that provide them,
+   * but otherwise, javac only reads the ABI jars of deps, and the ABI keys of deps are known as
+   * soon as their ABI jars are.
+   */
+  @Override
+  protected boolean canBuildAgainstAbisOfDeps(BuildContext context) {
+    return javacOptions.getAnnotationProcessingData().isEmpty();
+  }
+
   /**
    * Assuming the build has completed successfully, the ABI should have been computed, and it should
    * be stored for subsequent builds.
@@ -747,6 +886,10 @@ public class DefaultJavaLibraryRule extends DoNotUseAbstractBuildable
 
   @Override
   public Sha1HashCode getAbiKey() {
+    Sha1HashCode abiKeyOfBuildInProgress = this.abiKeyOfBuildInProgress;
+    if (buildOutput == null && abiKeyOfBuildInProgress != null) {
+      return abiKeyOfBuildInProgress;
+    }
     return getBuildOutput().getAbiKey();
   }
 
@@ -23,6 +23,8 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Set;
 
 public class GenerateCodeCoverageReportStep extends ShellStep {
@@ -35,10 +37,27 @@ public class GenerateCodeCoverageReportStep extends ShellStep {
       ImmutableSet.of("html", "xml", "txt");
 
   private final Set<String> srcDirectories;
+  private final Set<Path> inputFiles;
   private final String outputDirectory;
 
   public GenerateCodeCoverageReportStep(Set<String> srcDirectories, String outputDirectory) {
+    this(srcDirectories,
+        ImmutableSet.of(
+            Paths.get(String.format("%s/coverage.ec", JUnitStep.EMMA_OUTPUT_DIR)),
+            Paths.get(String.format("%s/coverage.em", JUnitStep.EMMA_OUTPUT_DIR))),
+        outputDirectory);
+  }
+
+  /**
+   * @param inputFiles the EMMA metadata of the instrumented classes, and the coverage data written
+   *     by each JVM that ran tests, all of which EMMA merges into a single report.
+   */
+  public GenerateCodeCoverageReportStep(
+      Set<String> srcDirectories,
+      Set<Path> inputFiles,
+      String outputDirectory) {
     this.srcDirectories = ImmutableSet.copyOf(srcDirectories);
+    this.inputFiles = ImmutableSet.copyOf(inputFiles);
     this.outputDirectory = outputDirectory;
   }
 
@@ -84,11 +103,9 @@ public class GenerateCodeCoverageReportStep extends ShellStep {
     }
 
     // Specify the paths to the runtime code coverage data and the metadata files.
-    // coverage.ec: EMMA runtime code coverage data.
-    // coverage.em: EMMA metadata.
-    args.add("-input",
-        String.format("%s/coverage.ec,%s/coverage.em",
-            JUnitStep.EMMA_OUTPUT_DIR, JUnitStep.EMMA_OUTPUT_DIR));
+    // *.ec: EMMA runtime code coverage data.
+    // *.em: EMMA metadata.
+    args.add("-input", Joiner.on(",").join(inputFiles));
 
     // Specify the source path so we can see from source file which lines of code are tested.
     String sourcepathArg = Joiner.on(",").join(srcDirectories);
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.util.MoreFiles;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.RemappingClassAdapter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * What {@link IncrementalJavacStep} knows about the last successful compilation of a rule: the hash
+ * of each source, the classes that each source compiled to, what each of those classes exposes to
+ * and uses from other classes, and the summaries from which the ABI key of the rule is computed.
+ * A copy of the classes themselves is kept alongside, because the output directory of the rule is
+ * cleaned before every build.
+ */
+class IncrementalCompilationState {
+
+  private static final String STATE_FILE = "state.json";
+  private static final String CLASSES_DIRECTORY = "classes";
+
+  private static final String KEY = "key";
+  private static final String SOURCES = "sources";
+  private static final String HASH = "hash";
+  private static final String CLASSES = "classes";
+  private static final String ABI = "abi";
+  private static final String CONSTANTS = "constants";
+  private static final String SUPERTYPES = "supertypes";
+  private static final String REFERENCES = "references";
+  private static final String ABI_SUMMARIES = "abiSummaries";
+
+  private final String key;
+
+  /** Keyed by source path. */
+  private final Map<String, String> sourceHashes;
+
+  /** Keyed by source path, then by internal class name, such as {@code com/example/Foo$1}. */
+  private final Map<String, Map<String, ClassInfo>> classesBySource;
+
+  /** Keyed by qualified type name. */
+  private final SortedMap<String, String> abiSummaries;
+
+  IncrementalCompilationState(String key) {
+    this.key = Preconditions.checkNotNull(key);
+    this.sourceHashes = Maps.newTreeMap();
+    this.classesBySource = Maps.newTreeMap();
+    this.abiSummaries = Maps.newTreeMap();
+  }
+
+  /**
+   * @return the state saved in {@code stateDirectory} by {@link #save(Path, Path)}, if there is
+   *     one, it can be read, and it was saved with the same {@code key}.
+   */
+  @SuppressWarnings("unchecked")
+  static Optional<IncrementalCompilationState> load(Path stateDirectory, String key) {
+    Path stateFile = stateDirectory.resolve(STATE_FILE);
+    if (!Files.isRegularFile(stateFile)) {
+      return Optional.absent();
+    }
+
+    try {
+      Map<String, Object> json = new ObjectMapper().readValue(stateFile.toFile(), Map.class);
+      if (!key.equals(json.get(KEY))) {
+        return Optional.absent();
+      }
+
+      IncrementalCompilationState state = new IncrementalCompilationState(key);
+      Map<String, Map<String, Object>> sources =
+          (Map<String, Map<String, Object>>) json.get(SOURCES);
+      for (Map.Entry<String, Map<String, Object>> source : sources.entrySet()) {
+        Map<String, ClassInfo> classes = Maps.newTreeMap();
+        Map<String, Map<String, Object>> classesJson =
+            (Map<String, Map<String, Object>>) source.getValue().get(CLASSES);
+        for (Map.Entry<String, Map<String, Object>> classJson : classesJson.entrySet()) {
+          classes.put(classJson.getKey(), ClassInfo.fromJson(classJson.getValue()));
+        }
+        state.putSource(source.getKey(), (String) source.getValue().get(HASH), classes);
+      }
+      state.abiSummaries.putAll((Map<String, String>) json.get(ABI_SUMMARIES));
+      return Optional.of(state);
+    } catch (IOException | RuntimeException e) {
+      // A state that cannot be read is as good as no state at all.
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * Deletes the state saved in {@code stateDirectory}, so that the next build starts from scratch.
+   */
+  static void delete(Path stateDirectory) throws IOException {
+    Files.deleteIfExists(stateDirectory.resolve(STATE_FILE));
+  }
+
+  /**
+   * Saves this state to {@code stateDirectory}, along with a copy of the classes of
+   * {@code sourcesToCopy}, which are read from {@code classesDirectory}.
+   */
+  void save(Path stateDirectory, Path classesDirectory, Collection<String> sourcesToCopy)
+      throws IOException {
+    // Without a state file, the copied classes are never read, so they can be written safely.
+    delete(stateDirectory);
+
+    Path copiedClassesDirectory = stateDirectory.resolve(CLASSES_DIRECTORY);
+    for (String source : sourcesToCopy) {
+      for (String className : getClasses(source)) {
+        Path classFile = getClassFile(copiedClassesDirectory, className);
+        Files.createDirectories(classFile.getParent());
+        Files.copy(getClassFile(classesDirectory, className),
+            classFile,
+            StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+
+    Map<String, Object> sources = Maps.newTreeMap();
+    for (Map.Entry<String, Map<String, ClassInfo>> source : classesBySource.entrySet()) {
+      Map<String, Object> classes = Maps.newTreeMap();
+      for (Map.Entry<String, ClassInfo> classInfo : source.getValue().entrySet()) {
+        classes.put(classInfo.getKey(), classInfo.getValue().toJson());
+      }
+      sources.put(source.getKey(), ImmutableMap.of(
+          HASH, sourceHashes.get(source.getKey()),
+          CLASSES, classes));
+    }
+
+    new ObjectMapper().writeValue(stateDirectory.resolve(STATE_FILE).toFile(), ImmutableMap.of(
+        KEY, key,
+        SOURCES, sources,
+        ABI_SUMMARIES, abiSummaries));
+  }
+
+  /**
+   * Deletes the copies of all classes that have been saved in {@code stateDirectory}.
+   */
+  static void deleteClasses(Path stateDirectory) throws IOException {
+    MoreFiles.rmdir(stateDirectory.resolve(CLASSES_DIRECTORY));
+  }
+
+  /**
+   * Copies the saved classes of {@code source} from {@code stateDirectory} to
+   * {@code classesDirectory}.
+   */
+  void restoreClasses(String source, Path stateDirectory, Path classesDirectory)
+      throws IOException {
+    Path copiedClassesDirectory = stateDirectory.resolve(CLASSES_DIRECTORY);
+    for (String className : getClasses(source)) {
+      Path classFile = getClassFile(classesDirectory, className);
+      Files.createDirectories(classFile.getParent());
+      Files.copy(getClassFile(copiedClassesDirectory, className), classFile);
+    }
+  }
+
+  static Path getClassFile(Path classesDirectory, String className) {
+    return classesDirectory.resolve(className + ".class");
+  }
+
+  Set<String> getSources() {
+    return sourceHashes.keySet();
+  }
+
+  Optional<String> getSourceHash(String source) {
+    return Optional.fromNullable(sourceHashes.get(source));
+  }
+
+  Set<String> getClasses(String source) {
+    Map<String, ClassInfo> classes = classesBySource.get(source);
+    return classes == null ? ImmutableSet.<String>of() : classes.keySet();
+  }
+
+  Map<String, ClassInfo> getClassInfos(String source) {
+    Map<String, ClassInfo> classes = classesBySource.get(source);
+    return classes == null ? ImmutableMap.<String, ClassInfo>of() : classes;
+  }
+
+  /**
+   * Records that {@code source}, whose contents hash to {@code hash}, compiled to {@code classes},
+   * replacing whatever was recorded about it before.
+   */
+  void putSource(String source, String hash, Map<String, ClassInfo> classes) {
+    sourceHashes.put(source, hash);
+    classesBySource.put(source, ImmutableMap.copyOf(classes));
+  }
+
+  SortedMap<String, String> getAbiSummaries() {
+    return abiSummaries;
+  }
+
+  /**
+   * Replaces the ABI summaries of the types that {@code sources} compiled to with
+   * {@code summaries}.
+   */
+  void replaceAbiSummaries(Iterable<String> sources, Map<String, String> summaries) {
+    for (String source : sources) {
+      for (String className : getClasses(source)) {
+        abiSummaries.remove(className.replace('/', '.'));
+      }
+    }
+    abiSummaries.putAll(summaries);
+  }
+
+  /**
+   * @return the sources other than {@code excludedSources} that compiled to a class which uses one
+   *     of {@code classNames}, or which is a subtype of a class that does.
+   */
+  ImmutableSortedSet<String> findSourcesThatUse(
+      Set<String> classNames,
+      Set<String> excludedSources) {
+    // A class that inherits a member of a changed class exposes the change as well.
+    Set<String> affected = Sets.newHashSet(classNames);
+    boolean isChanged = true;
+    while (isChanged) {
+      isChanged = false;
+      for (Map<String, ClassInfo> classes : classesBySource.values()) {
+        for (Map.Entry<String, ClassInfo> classInfo : classes.entrySet()) {
+          if (!affected.contains(classInfo.getKey()) &&
+              !Sets.intersection(classInfo.getValue().getSupertypes(), affected).isEmpty()) {
+            affected.add(classInfo.getKey());
+            isChanged = true;
+          }
+        }
+      }
+    }
+
+    ImmutableSortedSet.Builder<String> sources = ImmutableSortedSet.naturalOrder();
+    for (Map.Entry<String, Map<String, ClassInfo>> source : classesBySource.entrySet()) {
+      if (excludedSources.contains(source.getKey())) {
+        continue;
+      }
+      for (ClassInfo classInfo : source.getValue().values()) {
+        if (!Sets.intersection(classInfo.getReferences(), affected).isEmpty()) {
+          sources.add(source.getKey());
+          break;
+        }
+      }
+    }
+    return sources.build();
+  }
+
+  /**
+   * What one class exposes to, and uses from, other classes.
+   */
+  static class ClassInfo {
+    private final String abiHash;
+    private final String constantsHash;
+    private final ImmutableSortedSet<String> supertypes;
+    private final ImmutableSortedSet<String> references;
+
+    @VisibleForTesting
+    ClassInfo(
+        String abiHash,
+        String constantsHash,
+        Set<String> supertypes,
+        Set<String> references) {
+      this.abiHash = Preconditions.checkNotNull(abiHash);
+      this.constantsHash = Preconditions.checkNotNull(constantsHash);
+      this.supertypes = ImmutableSortedSet.copyOf(supertypes);
+      this.references = ImmutableSortedSet.copyOf(references);
+    }
+
+    /**
+     * @return what {@code classFile} exposes to and uses from other classes, or absent if its
+     *     class file version is too new to be read.
+     */
+    static Optional<ClassInfo> analyze(byte[] classFile) {
+      ClassReader reader;
+      try {
+        reader = new ClassReader(classFile);
+      } catch (IllegalArgumentException e) {
+        return Optional.absent();
+      }
+
+      final SortedSet<String> supertypes = Sets.newTreeSet();
+      final SortedSet<String> constants = Sets.newTreeSet();
+      final SortedSet<String> references = Sets.newTreeSet();
+
+      // Every class name in the class file, whether in its constant pool, in a descriptor, in a
+      // generic signature or in an annotation, passes through the remapper.
+      Remapper recordingRemapper = new Remapper() {
+        @Override
+        public String map(String typeName) {
+          references.add(typeName);
+          return typeName;
+        }
+      };
+      ClassVisitor recordingVisitor = new ClassVisitor(Opcodes.ASM4, new ClassWriter(0)) {
+        @Override
+        public void visit(
+            int version,
+            int access,
+            String name,
+            String signature,
+            String superName,
+            String[] interfaces) {
+          if (superName != null) {
+            supertypes.add(superName);
+          }
+          if (interfaces != null) {
+            supertypes.addAll(ImmutableSet.copyOf(interfaces));
+          }
+          super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public FieldVisitor visitField(
+            int access,
+            String name,
+            String desc,
+            String signature,
+            Object value) {
+          // Constants are inlined into the classes that use them, which therefore do not refer to
+          // the class that declares them. Private constants can only be used from the same source.
+          if (value != null && (access & Opcodes.ACC_PRIVATE) == 0) {
+            constants.add(name + ":" + desc + "=" + value);
+          }
+          return super.visitField(access, name, desc, signature, value);
+        }
+      };
+      reader.accept(new RemappingClassAdapter(recordingVisitor, recordingRemapper),
+          ClassReader.SKIP_FRAMES);
+      references.remove(reader.getClassName());
+
+      return Optional.of(new ClassInfo(
+          Hashing.sha1().hashBytes(CreateAbiJarStep.stripToAbi(classFile)).toString(),
+          Hashing.sha1().hashUnencodedChars(constants.toString()).toString(),
+          supertypes,
+          references));
+    }
+
+    String getAbiHash() {
+      return abiHash;
+    }
+
+    String getConstantsHash() {
+      return constantsHash;
+    }
+
+    ImmutableSortedSet<String> getSupertypes() {
+      return supertypes;
+    }
+
+    ImmutableSortedSet<String> getReferences() {
+      return references;
+    }
+
+    private Map<String, Object> toJson() {
+      return ImmutableMap.<String, Object>of(
+          ABI, abiHash,
+          CONSTANTS, constantsHash,
+          SUPERTYPES, supertypes,
+          REFERENCES, references);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ClassInfo fromJson(Map<String, Object> json) {
+      return new ClassInfo(
+          (String) json.get(ABI),
+          (String) json.get(CONSTANTS),
+          ImmutableSet.copyOf((List<String>) json.get(SUPERTYPES)),
+          ImmutableSet.copyOf((List<String>) json.get(REFERENCES)));
+    }
+  }
+}
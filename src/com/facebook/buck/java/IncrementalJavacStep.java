@@ -0,0 +1,404 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.java.IncrementalCompilationState.ClassInfo;
+import com.facebook.buck.java.abi.AbiWriterProtocol;
+import com.facebook.buck.rules.BuildDependencies;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.util.MoreFiles;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+
+/**
+ * A {@link JavacInMemoryStep} that, when
+ * {@link ExecutionContext#isIncrementalJavaCompilationEnabled()} is set, only recompiles the
+ * sources that have changed since it last succeeded, plus the sources that use a class whose
+ * signature has changed. Everything else is restored from a copy of the
+ * classes of the previous compilation, so the classes, and therefore the jar, end up the same as
+ * those of a compilation from scratch. The ABI key is computed from the summaries of every type,
+ * whether recompiled or not, so it is the same too.
+ * <p>
+ * Some changes cannot be handled incrementally, and cause every source to be recompiled:
+ * <ul>
+ *   <li>adding or removing sources, or adding or removing classes from a source, because a new
+ *       class can change what an existing name resolves to;
+ *   <li>changing a constant, because javac inlines constants into the classes that use them;
+ *   <li>changing the options or classpath of the compilation, including the ABI of any dep.
+ * </ul>
+ * <p>
+ * Annotation processors can generate sources from anything they see, so this step must not be used
+ * by rules that run them.
+ */
+public class IncrementalJavacStep extends JavacInMemoryStep {
+
+  /** Increment this whenever the contents of the state change. */
+  private static final int STATE_VERSION = 1;
+
+  private static final String ABI_SUMMARIES_FILE = "abi_summaries";
+
+  private final String pathToStateDirectory;
+  private final Sha1HashCode abiKeyForDeps;
+
+  /**
+   * The source of every class written by the current compilation, keyed by internal class name.
+   * Absent if a class was written for something other than a source of this step.
+   */
+  private final Map<String, Optional<String>> sourcesByClassName;
+
+  /** The absolute path of each source, as javac sees it, mapped to the path passed to this step. */
+  private final Map<Path, String> sourcesByAbsolutePath;
+
+  public IncrementalJavacStep(
+      String outputDirectory,
+      Set<String> javaSourceFilePaths,
+      Set<String> transitiveClasspathEntries,
+      Set<String> declaredClasspathEntries,
+      JavacOptions javacOptions,
+      Optional<String> pathToOutputAbiFile,
+      Optional<String> invokingRule,
+      BuildDependencies buildDependencies,
+      Optional<SuggestBuildRules> suggestBuildRules,
+      String pathToStateDirectory,
+      Sha1HashCode abiKeyForDeps) {
+    super(outputDirectory,
+        javaSourceFilePaths,
+        transitiveClasspathEntries,
+        declaredClasspathEntries,
+        javacOptions,
+        pathToOutputAbiFile,
+        invokingRule,
+        buildDependencies,
+        suggestBuildRules);
+    Preconditions.checkArgument(pathToOutputAbiFile.isPresent(),
+        "The ABI key of an incremental compilation is computed from the ABI summaries.");
+    this.pathToStateDirectory = Preconditions.checkNotNull(pathToStateDirectory);
+    this.abiKeyForDeps = Preconditions.checkNotNull(abiKeyForDeps);
+    this.sourcesByClassName = Maps.newHashMap();
+    this.sourcesByAbsolutePath = Maps.newHashMap();
+  }
+
+  @Override
+  protected int buildWithClasspath(ExecutionContext context, Set<String> buildClasspathEntries) {
+    if (!context.isIncrementalJavaCompilationEnabled()) {
+      return super.buildWithClasspath(context, buildClasspathEntries);
+    }
+
+    try {
+      return buildIncrementally(context, buildClasspathEntries);
+    } catch (IOException e) {
+      e.printStackTrace(context.getStdErr());
+      return 1;
+    }
+  }
+
+  @Override
+  protected boolean canBeBatched(ExecutionContext context) {
+    return !context.isIncrementalJavaCompilationEnabled() && super.canBeBatched(context);
+  }
+
+  @Override
+  protected Optional<String> getPathToAbiSummariesFile() {
+    return Optional.of(pathToStateDirectory + "/" + ABI_SUMMARIES_FILE);
+  }
+
+  @Override
+  protected JavaFileManager decorateFileManager(StandardJavaFileManager fileManager) {
+    return new ForwardingJavaFileManager<StandardJavaFileManager>(fileManager) {
+      @Override
+      public JavaFileObject getJavaFileForOutput(
+          Location location,
+          String className,
+          JavaFileObject.Kind kind,
+          FileObject sibling) throws IOException {
+        if (kind == JavaFileObject.Kind.CLASS) {
+          recordClass(className, sibling);
+        }
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+      }
+    };
+  }
+
+  private synchronized void recordClass(String className, FileObject sibling) {
+    String source = null;
+    if (sibling != null) {
+      URI uri = sibling.toUri();
+      if ("file".equals(uri.getScheme())) {
+        source = sourcesByAbsolutePath.get(Paths.get(uri).normalize());
+      }
+    }
+    sourcesByClassName.put(className.replace('.', '/'), Optional.fromNullable(source));
+  }
+
+  private int buildIncrementally(ExecutionContext context, Set<String> buildClasspathEntries)
+      throws IOException {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    Path stateDirectory = filesystem.getFileForRelativePath(pathToStateDirectory).toPath();
+    Path classesDirectory = filesystem.getFileForRelativePath(getOutputDirectory()).toPath();
+    Files.createDirectories(stateDirectory);
+
+    ImmutableMap.Builder<String, String> sourceHashes = ImmutableMap.builder();
+    synchronized (this) {
+      sourcesByAbsolutePath.clear();
+      for (String source : getSrcs()) {
+        File file = filesystem.getFileForRelativePath(source);
+        sourcesByAbsolutePath.put(file.toPath().toAbsolutePath().normalize(), source);
+        sourceHashes.put(source, com.google.common.io.Files.hash(file, Hashing.sha1()).toString());
+      }
+    }
+
+    String key = computeKey(context, buildClasspathEntries);
+    Optional<IncrementalCompilationState> state =
+        IncrementalCompilationState.load(stateDirectory, key);
+    if (state.isPresent() && state.get().getSources().equals(getSrcs())) {
+      Optional<Integer> exitCode = buildFromState(context,
+          buildClasspathEntries,
+          state.get(),
+          sourceHashes.build(),
+          stateDirectory,
+          classesDirectory);
+      if (exitCode.isPresent()) {
+        return exitCode.get();
+      }
+    }
+
+    return buildFromScratch(context,
+        buildClasspathEntries,
+        new IncrementalCompilationState(key),
+        sourceHashes.build(),
+        stateDirectory,
+        classesDirectory);
+  }
+
+  /**
+   * Everything that can make the classes compiled from the same sources differ.
+   */
+  private String computeKey(ExecutionContext context, Set<String> buildClasspathEntries) {
+    Hasher hasher = Hashing.sha1().newHasher()
+        .putInt(STATE_VERSION)
+        .putString(System.getProperty("java.version"), Charsets.UTF_8)
+        .putString(abiKeyForDeps.getHash(), Charsets.UTF_8);
+    for (String option : getOptions(context, buildClasspathEntries)) {
+      hasher.putByte((byte) 0).putString(option, Charsets.UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  private int buildFromScratch(
+      ExecutionContext context,
+      Set<String> buildClasspathEntries,
+      IncrementalCompilationState state,
+      ImmutableMap<String, String> sourceHashes,
+      Path stateDirectory,
+      Path classesDirectory) throws IOException {
+    // If the compilation fails, then there is nothing to build on next time.
+    IncrementalCompilationState.delete(stateDirectory);
+    IncrementalCompilationState.deleteClasses(stateDirectory);
+    cleanDirectory(classesDirectory);
+
+    int exitCode = compile(context, buildClasspathEntries, getSrcs());
+    if (exitCode != 0) {
+      return exitCode;
+    }
+
+    Optional<Map<String, Map<String, ClassInfo>>> classes =
+        analyzeClasses(getSrcs(), classesDirectory);
+    if (!classes.isPresent()) {
+      // The next compilation will have to start from scratch as well.
+      return 0;
+    }
+
+    for (String source : getSrcs()) {
+      state.putSource(source, sourceHashes.get(source), classes.get().get(source));
+    }
+    state.replaceAbiSummaries(getSrcs(), readAbiSummaries(context));
+    state.save(stateDirectory, classesDirectory, getSrcs());
+    return 0;
+  }
+
+  /**
+   * @return the exit code of the compilation, or absent if it cannot be done incrementally.
+   */
+  private Optional<Integer> buildFromState(
+      ExecutionContext context,
+      Set<String> buildClasspathEntries,
+      IncrementalCompilationState state,
+      ImmutableMap<String, String> sourceHashes,
+      Path stateDirectory,
+      Path classesDirectory) throws IOException {
+    Set<String> changedSources = Sets.newTreeSet();
+    for (String source : getSrcs()) {
+      if (!state.getSourceHash(source).equals(Optional.of(sourceHashes.get(source)))) {
+        changedSources.add(source);
+      }
+    }
+
+    cleanDirectory(classesDirectory);
+    for (String source : Sets.difference(getSrcs(), changedSources)) {
+      state.restoreClasses(source, stateDirectory, classesDirectory);
+    }
+
+    // The classes of the sources that are not recompiled are found in the output directory.
+    ImmutableSet<String> classpathWithOutputDirectory = ImmutableSet.<String>builder()
+        .add(getOutputDirectory())
+        .addAll(buildClasspathEntries)
+        .build();
+
+    Set<String> compiledSources = Sets.newTreeSet();
+    Set<String> sourcesToCompile = changedSources;
+    while (!sourcesToCompile.isEmpty()) {
+      int exitCode = compile(context, classpathWithOutputDirectory, sourcesToCompile);
+      if (exitCode != 0) {
+        return Optional.of(exitCode);
+      }
+      compiledSources.addAll(sourcesToCompile);
+
+      Optional<Map<String, Map<String, ClassInfo>>> classes =
+          analyzeClasses(sourcesToCompile, classesDirectory);
+      if (!classes.isPresent()) {
+        return Optional.absent();
+      }
+
+      Set<String> classesWithChangedAbi = Sets.newHashSet();
+      for (String source : sourcesToCompile) {
+        Map<String, ClassInfo> oldClasses = state.getClassInfos(source);
+        Map<String, ClassInfo> newClasses = classes.get().get(source);
+        if (!oldClasses.keySet().equals(newClasses.keySet())) {
+          return Optional.absent();
+        }
+        for (Map.Entry<String, ClassInfo> newClass : newClasses.entrySet()) {
+          ClassInfo oldClass = oldClasses.get(newClass.getKey());
+          if (!oldClass.getConstantsHash().equals(newClass.getValue().getConstantsHash())) {
+            return Optional.absent();
+          }
+          if (!oldClass.getAbiHash().equals(newClass.getValue().getAbiHash())) {
+            classesWithChangedAbi.add(newClass.getKey());
+          }
+        }
+      }
+
+      state.replaceAbiSummaries(sourcesToCompile, readAbiSummaries(context));
+      for (String source : sourcesToCompile) {
+        state.putSource(source, sourceHashes.get(source), classes.get().get(source));
+      }
+
+      sourcesToCompile = state.findSourcesThatUse(classesWithChangedAbi, compiledSources);
+      for (String source : sourcesToCompile) {
+        for (String className : state.getClasses(source)) {
+          Files.delete(IncrementalCompilationState.getClassFile(classesDirectory, className));
+        }
+      }
+    }
+
+    // Each compilation only wrote the ABI key of the sources that it compiled.
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    filesystem.writeContentsToPath(
+        AbiWriterProtocol.computeAbiKey(ImmutableSortedSet.copyOf(
+            state.getAbiSummaries().values())),
+        Paths.get(getPathToOutputAbiFile().get()));
+    int exitCode = readAbiKey(context);
+    if (exitCode == 0) {
+      state.save(stateDirectory, classesDirectory, compiledSources);
+    }
+    return Optional.of(exitCode);
+  }
+
+  private int compile(
+      ExecutionContext context,
+      Set<String> buildClasspathEntries,
+      Set<String> sourceFilePaths) throws IOException {
+    // The summaries file is only written if the ABI writer runs.
+    Files.deleteIfExists(context.getProjectFilesystem()
+        .getFileForRelativePath(getPathToAbiSummariesFile().get()).toPath());
+    synchronized (this) {
+      sourcesByClassName.clear();
+    }
+    return buildWithClasspath(context, buildClasspathEntries, sourceFilePaths);
+  }
+
+  /**
+   * @return the classes that each of {@code sources} compiled to, or absent if some of them cannot
+   *     be analyzed.
+   */
+  private Optional<Map<String, Map<String, ClassInfo>>> analyzeClasses(
+      Set<String> sources,
+      Path classesDirectory) throws IOException {
+    Map<String, Map<String, ClassInfo>> classesBySource = Maps.newHashMap();
+    for (String source : sources) {
+      classesBySource.put(source, Maps.<String, ClassInfo>newTreeMap());
+    }
+
+    Map<String, Optional<String>> compiledClasses;
+    synchronized (this) {
+      compiledClasses = ImmutableMap.copyOf(sourcesByClassName);
+    }
+    for (Map.Entry<String, Optional<String>> compiledClass : compiledClasses.entrySet()) {
+      Optional<String> source = compiledClass.getValue();
+      if (!source.isPresent() || !sources.contains(source.get())) {
+        return Optional.absent();
+      }
+
+      Path classFile =
+          IncrementalCompilationState.getClassFile(classesDirectory, compiledClass.getKey());
+      Optional<ClassInfo> classInfo = ClassInfo.analyze(Files.readAllBytes(classFile));
+      if (!classInfo.isPresent()) {
+        return Optional.absent();
+      }
+      classesBySource.get(source.get()).put(compiledClass.getKey(), classInfo.get());
+    }
+    return Optional.of(classesBySource);
+  }
+
+  private Map<String, String> readAbiSummaries(ExecutionContext context) throws IOException {
+    File summariesFile =
+        context.getProjectFilesystem().getFileForRelativePath(getPathToAbiSummariesFile().get());
+    if (!summariesFile.isFile()) {
+      return ImmutableMap.of();
+    }
+    return AbiWriterProtocol.readSummaries(summariesFile);
+  }
+
+  private static void cleanDirectory(Path directory) throws IOException {
+    MoreFiles.rmdir(directory);
+    Files.createDirectories(directory);
+  }
+}
@@ -19,20 +19,43 @@ package com.facebook.buck.java;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Set;
 
 public class InstrumentStep extends ShellStep {
 
   private final String mode;
   private final Set<Path> instrumentDirectories;
+  private final Optional<Path> outputDirectory;
+  private final Path metadataFile;
 
   public InstrumentStep(String mode, Set<Path> instrumentDirectories) {
     this.mode = mode;
     this.instrumentDirectories = ImmutableSet.copyOf(instrumentDirectories);
+    this.outputDirectory = Optional.absent();
+    this.metadataFile = Paths.get(String.format("%s/coverage.em", JUnitStep.EMMA_OUTPUT_DIR));
+  }
+
+  /**
+   * @param outputDirectory where the instrumented classes are written, for modes such as
+   *     {@code copy} that do not overwrite the classes in {@code instrumentDirectories}.
+   * @param metadataFile where EMMA writes the metadata for the instrumented classes.
+   */
+  public InstrumentStep(
+      String mode,
+      Set<Path> instrumentDirectories,
+      Path outputDirectory,
+      Path metadataFile) {
+    this.mode = mode;
+    this.instrumentDirectories = ImmutableSet.copyOf(instrumentDirectories);
+    this.outputDirectory = Optional.of(outputDirectory);
+    this.metadataFile = Preconditions.checkNotNull(metadataFile);
   }
 
   @Override
@@ -52,8 +75,12 @@ public class InstrumentStep extends ShellStep {
 
     args.add("-outmode", mode);
 
+    if (outputDirectory.isPresent()) {
+      args.add("-outdir", outputDirectory.get().toString());
+    }
+
     // Specify the output path to the EMMA metadata file.
-    args.add("-outfile", String.format("%s/coverage.em", JUnitStep.EMMA_OUTPUT_DIR));
+    args.add("-outfile", metadataFile.toString());
 
     // Create a comma-delimited string of instrumentation directories.
     String pathsToInstrument = Joiner.on(",").join(instrumentDirectories);
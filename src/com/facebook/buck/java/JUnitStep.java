@@ -18,21 +18,31 @@ package com.facebook.buck.java;
 
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ResourceAwareStep;
+import com.facebook.buck.step.StepResources;
 import com.facebook.buck.util.AndroidPlatformTarget;
 import com.facebook.buck.util.BuckConstant;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-public class JUnitStep extends ShellStep {
+public class JUnitStep extends ShellStep implements ResourceAwareStep {
 
   public static final String EMMA_OUTPUT_DIR =
       String.format("%s/emma", BuckConstant.GEN_DIR);
@@ -49,6 +59,10 @@ public class JUnitStep extends ShellStep {
 
   private static final String EMMA_COVERAGE_OUT_FILE = "emma.coverage.out.file";
 
+  private static final String EMMA_COVERAGE_DATA_FILE_NAME = "coverage.ec";
+
+  private static final Pattern MAX_HEAP_SIZE_PATTERN = Pattern.compile("-Xmx(\\d+)([kKmMgG]?)");
+
   private final Set<String> classpathEntries;
 
   private final Set<String> testClassNames;
@@ -63,6 +77,9 @@ public class JUnitStep extends ShellStep {
 
   private final String testRunnerClassesDirectory;
 
+  /** The receiver of the test events of the JVM that is running, if any. */
+  private Optional<TestEventStreamReceiver> testEventReceiver = Optional.absent();
+
   /**
    * @param classpathEntries contains the entries that will be listed first in the classpath when
    *     running JUnit. Entries for the bootclasspath for Android will be appended to this list, as
@@ -117,9 +134,12 @@ public class JUnitStep extends ShellStep {
     args.add("java");
 
     // Add the output property for EMMA so if the classes are instrumented, coverage.ec will be
-    // placed in the EMMA output folder.
+    // placed in the test output folder. Each JVM writes a file of its own, rather than all of them
+    // merging their data into one shared file, and the report merges them all at the end.
     if (isCodeCoverageEnabled) {
-      args.add(String.format("-D%s=%s/coverage.ec", EMMA_COVERAGE_OUT_FILE, EMMA_OUTPUT_DIR));
+      args.add(String.format("-D%s=%s",
+          EMMA_COVERAGE_OUT_FILE,
+          getPathToCoverageDataFile(directoryForTestResults)));
     }
 
     if (isDebugEnabled) {
@@ -139,21 +159,8 @@ public class JUnitStep extends ShellStep {
       args.add("-verbose");
     }
 
-    // Build up the -classpath argument, starting with the classpath entries the client specified.
-    List<String> classpath = Lists.newArrayList(classpathEntries);
-
-    // Add EMMA to the classpath.
-    if (isCodeCoverageEnabled) {
-      classpath.add(PATH_TO_EMMA_JAR);
-    }
-
-    // Next, add the bootclasspath entries specific to the Android platform being targeted.
-    if (context.getAndroidPlatformTargetOptional().isPresent()) {
-      AndroidPlatformTarget androidPlatformTarget = context.getAndroidPlatformTarget();
-      for (Path bootclasspathEntry : androidPlatformTarget.getBootclasspathEntries()) {
-        classpath.add(bootclasspathEntry.toString());
-      }
-    }
+    // Build up the -classpath argument, starting with the classpath of the tests.
+    List<String> classpath = getTestClasspath(context);
 
     // Finally, include an entry for the test runner.
     classpath.add(testRunnerClassesDirectory);
@@ -181,6 +188,162 @@ public class JUnitStep extends ShellStep {
     return args.build();
   }
 
+  /**
+   * @return the classpath entries the client specified, followed by EMMA, if needed, and by the
+   *     bootclasspath entries specific to the Android platform being targeted.
+   */
+  private List<String> getTestClasspath(ExecutionContext context) {
+    List<String> classpath = Lists.newArrayList(classpathEntries);
+
+    if (isCodeCoverageEnabled) {
+      classpath.add(PATH_TO_EMMA_JAR);
+    }
+
+    if (context.getAndroidPlatformTargetOptional().isPresent()) {
+      AndroidPlatformTarget androidPlatformTarget = context.getAndroidPlatformTarget();
+      for (Path bootclasspathEntry : androidPlatformTarget.getBootclasspathEntries()) {
+        classpath.add(bootclasspathEntry.toString());
+      }
+    }
+    return classpath;
+  }
+
+  /**
+   * @return the EMMA coverage data written by the tests that write their results to
+   *     {@code directoryForTestResults}, when code coverage is enabled.
+   */
+  public static Path getPathToCoverageDataFile(String directoryForTestResults) {
+    return Paths.get(directoryForTestResults, EMMA_COVERAGE_DATA_FILE_NAME);
+  }
+
+  /**
+   * Runs the tests in a JVM from the {@link JUnitWorkerPool} when JVMs may be reused, and in a new
+   * JVM otherwise. Should the pooled JVM fail to start or exit before all of the tests have run,
+   * the test classes whose results have not been written are run in a new JVM instead.
+   */
+  @Override
+  public int execute(final ExecutionContext context) {
+    // EMMA writes its coverage data, and the debugger suspends the JVM, when the JVM exits.
+    if (context.getTestJvmReuseCount() <= 1 || isCodeCoverageEnabled || isDebugEnabled) {
+      return executeInNewJvm(context);
+    }
+
+    ImmutableList.Builder<String> jvmArgs = ImmutableList.<String>builder().addAll(vmArgs);
+    if (context.getVerbosity().shouldUseVerbosityFlagIfAvailable()) {
+      jvmArgs.add("-verbose");
+    }
+
+    final Set<String> finishedTestClassNames = Sets.newHashSet();
+    try {
+      return JUnitWorkerPool.getInstance().runTests(
+          context.getProjectDirectoryRoot(),
+          getEnvironmentVariables(context),
+          jvmArgs.build(),
+          testRunnerClassesDirectory,
+          context.getTestJvmReuseCount(),
+          directoryForTestResults,
+          context.getDefaultTestTimeoutMillis(),
+          getTestClasspath(context),
+          testClassNames,
+          new JUnitWorkerPool.Listener() {
+            @Override
+            public void testClassFinished(String testClassName) {
+              finishedTestClassNames.add(testClassName);
+            }
+
+            @Override
+            public void testEventReceived(String record) {
+              TestEventStreamReceiver.post(record, context.getBuckEventBus());
+            }
+          },
+          context.getStdErr());
+    } catch (InterruptedIOException e) {
+      // The JVM has been destroyed, and the tests are not to be run anywhere else.
+      context.getStdErr().println(e.getMessage());
+      return 1;
+    } catch (IOException e) {
+      Set<String> remainingTestClassNames =
+          Sets.difference(testClassNames, finishedTestClassNames).immutableCopy();
+      if (remainingTestClassNames.isEmpty()) {
+        return 0;
+      }
+      JUnitStep remainingTests = new JUnitStep(
+          classpathEntries,
+          remainingTestClassNames,
+          vmArgs,
+          directoryForTestResults,
+          isCodeCoverageEnabled,
+          isDebugEnabled,
+          testRunnerClassesDirectory);
+      return remainingTests.executeInNewJvm(context);
+    }
+  }
+
+  /**
+   * Runs the tests in a new JVM, which streams the start and finish of each test to the
+   * {@link com.facebook.buck.event.BuckEventBus} as it goes.
+   */
+  private int executeInNewJvm(ExecutionContext context) {
+    try (TestEventStreamReceiver receiver =
+             new TestEventStreamReceiver(context.getBuckEventBus())) {
+      testEventReceiver = Optional.of(receiver);
+      return super.execute(context);
+    } catch (IOException e) {
+      // Without a receiver, the results are only reported once the JVM has exited.
+      return super.execute(context);
+    } finally {
+      testEventReceiver = Optional.absent();
+    }
+  }
+
+  @Override
+  public ImmutableMap<String, String> getEnvironmentVariables(ExecutionContext context) {
+    if (testEventReceiver.isPresent()) {
+      return ImmutableMap.of(
+          TestEventStreamReceiver.PORT_ENVIRONMENT_VARIABLE,
+          String.valueOf(testEventReceiver.get().getPort()),
+          TestEventStreamReceiver.SECRET_ENVIRONMENT_VARIABLE,
+          testEventReceiver.get().getSecret());
+    }
+    return ImmutableMap.of();
+  }
+
+  /**
+   * Tests run in a single forked JVM, so they need one core and, if the test specifies one with
+   * {@code -Xmx}, the maximum heap size of that JVM.
+   */
+  @Override
+  public StepResources getRequiredResources(ExecutionContext context) {
+    return new StepResources(1, getMaxHeapSizeMegabytes(vmArgs));
+  }
+
+  @VisibleForTesting
+  static long getMaxHeapSizeMegabytes(List<String> vmArgs) {
+    long maxHeapSizeMegabytes = 0L;
+    for (String vmArg : vmArgs) {
+      Matcher matcher = MAX_HEAP_SIZE_PATTERN.matcher(vmArg);
+      if (!matcher.matches()) {
+        continue;
+      }
+      long size = Long.parseLong(matcher.group(1));
+      switch (matcher.group(2).toLowerCase()) {
+        case "g":
+          maxHeapSizeMegabytes = size * 1024;
+          break;
+        case "m":
+          maxHeapSizeMegabytes = size;
+          break;
+        case "k":
+          maxHeapSizeMegabytes = size / 1024;
+          break;
+        default:
+          maxHeapSizeMegabytes = size / (1024 * 1024);
+          break;
+      }
+    }
+    return maxHeapSizeMegabytes;
+  }
+
   private void warnUser(ExecutionContext context, String message) {
     context.getStdErr().println(context.getAnsi().asWarningText(message));
   }
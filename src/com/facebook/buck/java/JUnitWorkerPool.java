@@ -0,0 +1,384 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.util.LoopbackSecret;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps JVMs that run {@code com.facebook.buck.junit.JUnitRunnerServer} alive between test rules,
+ * so that each test rule does not have to pay for starting a JVM, and for warming it up, before
+ * its tests can run. Each JVM runs one test rule at a time, loading the classes of each rule
+ * afresh, and exits once it has run as many test rules as it was started with.
+ * <p>
+ * JVMs are only reused for test rules that would start them with exactly the same JVM arguments,
+ * environment and working directory, so that JVM arguments such as {@code -Xmx} and {@code -D}, and
+ * environment variables, have the same effect as if every rule had a JVM of its own.
+ */
+public class JUnitWorkerPool {
+
+  private static final JUnitWorkerPool INSTANCE =
+      new JUnitWorkerPool(Runtime.getRuntime().availableProcessors());
+
+  @VisibleForTesting
+  static final String JUNIT_RUNNER_SERVER_CLASS_NAME = "com.facebook.buck.junit.JUnitRunnerServer";
+
+  // These must match the protocol of JUnitRunnerServer, which cannot be referenced from here.
+  private static final String PORT_PREFIX = "JUnitRunnerServer listening on port ";
+  private static final String RESULT = "RESULT ";
+  private static final String DONE = "DONE";
+  private static final String FAILED = "FAILED ";
+  private static final String SECRET_ENVIRONMENT_VARIABLE = "BUCK_JUNIT_RUNNER_SERVER_SECRET";
+
+  /** How long an idle JVM waits for a test rule to run before it exits. */
+  private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  /** How often a thread that is waiting for a JVM checks whether it has been interrupted. */
+  private static final int INTERRUPT_POLL_INTERVAL_MILLIS = 1000;
+
+  /** At most this many idle JVMs, and the memory they hold on to, are kept. */
+  private final int maxIdleWorkers;
+
+  /** Most recently used first. Guarded by {@code this}. */
+  private final Deque<Worker> idleWorkers;
+
+  /** Told about each test class as soon as its results have been written. */
+  public interface Listener {
+    void testClassFinished(String testClassName);
+
+    /**
+     * @param record a record streamed by the test runner as a test starts or finishes, which can
+     *     be passed to {@link TestEventStreamReceiver#post}.
+     */
+    void testEventReceived(String record);
+  }
+
+  @VisibleForTesting
+  JUnitWorkerPool(int maxIdleWorkers) {
+    Preconditions.checkArgument(maxIdleWorkers >= 0);
+    this.maxIdleWorkers = maxIdleWorkers;
+    this.idleWorkers = Lists.newLinkedList();
+  }
+
+  public static JUnitWorkerPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Runs the specified test classes in a pooled JVM, starting a new one if there is no idle JVM
+   * with the same JVM arguments, environment and working directory.
+   * @param workingDirectory the working directory of the JVM.
+   * @param environment the environment variables to set for the JVM, in addition to those of Buck.
+   * @param jvmArgs the arguments with which to start the JVM, such as {@code -Xmx}.
+   * @param testRunnerClassesDirectory the classes of the test runner. They are also added to the
+   *     end of {@code classpath}.
+   * @param maxJobsPerWorker the number of test rules that a JVM runs before it exits.
+   * @param classpath the classpath of the tests, which must include JUnit.
+   * @return 0 if the results of every test class were written, or 1 if the tests could not be
+   *     run, in which case the reason is printed to {@code stdErr}.
+   * @throws IOException if the JVM could not be started or exited while running the tests. The
+   *     results of the test classes that {@code listener} was told about have been written.
+   * @throws InterruptedIOException if the thread was interrupted while the tests ran, in which case
+   *     the JVM has been destroyed.
+   */
+  public int runTests(
+      File workingDirectory,
+      ImmutableMap<String, String> environment,
+      List<String> jvmArgs,
+      String testRunnerClassesDirectory,
+      int maxJobsPerWorker,
+      String directoryForTestResults,
+      long defaultTestTimeoutMillis,
+      Iterable<String> classpath,
+      Iterable<String> testClassNames,
+      Listener listener,
+      PrintStream stdErr) throws IOException {
+    Preconditions.checkArgument(maxJobsPerWorker >= 1);
+    Preconditions.checkNotNull(listener);
+    ImmutableList<String> command = ImmutableList.<String>builder()
+        .add("java")
+        .addAll(jvmArgs)
+        .add("-classpath", testRunnerClassesDirectory)
+        .add(JUNIT_RUNNER_SERVER_CLASS_NAME)
+        .add(String.valueOf(maxJobsPerWorker))
+        .add(String.valueOf(IDLE_TIMEOUT_MILLIS))
+        .build();
+
+    Worker worker = acquireWorker(workingDirectory, environment, command, maxJobsPerWorker);
+    boolean isReusable = false;
+    try {
+      worker.send(directoryForTestResults);
+      worker.send(String.valueOf(defaultTestTimeoutMillis));
+      worker.send(Joiner.on(File.pathSeparator).join(ImmutableList.<String>builder()
+          .addAll(classpath)
+          .add(testRunnerClassesDirectory)
+          .build()));
+      for (String testClassName : testClassNames) {
+        worker.send(testClassName);
+      }
+      worker.send("");
+      worker.flush();
+
+      while (true) {
+        String reply = worker.receive();
+        if (reply.startsWith(RESULT)) {
+          listener.testClassFinished(reply.substring(RESULT.length()));
+        } else if (reply.equals(DONE)) {
+          isReusable = true;
+          return 0;
+        } else if (reply.startsWith(FAILED)) {
+          stdErr.println(reply.substring(FAILED.length()));
+          return 1;
+        } else if (TestEventStreamReceiver.isRecord(reply)) {
+          listener.testEventReceived(reply);
+        } else {
+          throw new IOException("Unexpected reply from JUnit worker: " + reply);
+        }
+      }
+    } finally {
+      releaseWorker(worker, isReusable);
+    }
+  }
+
+  private Worker acquireWorker(
+      File workingDirectory,
+      ImmutableMap<String, String> environment,
+      List<String> command,
+      int maxJobs) throws IOException {
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      for (Iterator<Worker> iter = idleWorkers.iterator(); iter.hasNext(); ) {
+        Worker idle = iter.next();
+        // Give up on JVMs that are close to timing out, rather than race them.
+        if (now - idle.lastUsedMillis > IDLE_TIMEOUT_MILLIS / 2) {
+          iter.remove();
+          idle.destroy();
+        } else if (idle.workingDirectory.equals(workingDirectory) &&
+            idle.environment.equals(environment) &&
+            idle.command.equals(command)) {
+          iter.remove();
+          return idle;
+        }
+      }
+    }
+    return Worker.start(workingDirectory, environment, command, maxJobs);
+  }
+
+  private void releaseWorker(Worker worker, boolean isReusable) {
+    worker.jobsRemaining--;
+    if (!isReusable || worker.jobsRemaining <= 0) {
+      // The JVM exits by itself once it has run all of its jobs, or after a job fails.
+      worker.destroy();
+      return;
+    }
+
+    worker.lastUsedMillis = System.currentTimeMillis();
+    Worker evicted = null;
+    synchronized (this) {
+      idleWorkers.addFirst(worker);
+      if (idleWorkers.size() > maxIdleWorkers) {
+        evicted = idleWorkers.removeLast();
+      }
+    }
+    if (evicted != null) {
+      evicted.destroy();
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getIdleWorkerCount() {
+    return idleWorkers.size();
+  }
+
+  /** A JVM running {@code JUnitRunnerServer}, and the connection over which it is sent jobs. */
+  private static class Worker {
+    private final File workingDirectory;
+    private final ImmutableMap<String, String> environment;
+    /** Includes the JVM arguments. */
+    private final List<String> command;
+    private final Process process;
+    private final Socket socket;
+    private final InputStream input;
+    /** The bytes of a reply that have been read before a read timed out. */
+    private final ByteArrayOutputStream partialReply;
+    private final Writer writer;
+    private int jobsRemaining;
+    private long lastUsedMillis;
+
+    private Worker(
+        File workingDirectory,
+        ImmutableMap<String, String> environment,
+        List<String> command,
+        Process process,
+        Socket socket,
+        int jobsRemaining) throws IOException {
+      this.workingDirectory = workingDirectory;
+      this.environment = environment;
+      this.command = command;
+      this.process = process;
+      this.socket = socket;
+      // Reads give up every so often, so that a thread waiting for a JVM that never replies can
+      // still be interrupted. See receive().
+      socket.setSoTimeout(INTERRUPT_POLL_INTERVAL_MILLIS);
+      this.input = new BufferedInputStream(socket.getInputStream());
+      this.partialReply = new ByteArrayOutputStream();
+      this.writer = new BufferedWriter(
+          new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+      this.jobsRemaining = jobsRemaining;
+    }
+
+    private static Worker start(
+        File workingDirectory,
+        ImmutableMap<String, String> environment,
+        List<String> command,
+        int maxJobs) throws IOException {
+      // Only a connection that sends the secret is sent tests, so that another user who connects
+      // to the port first cannot run code in this JVM, or be sent the paths of the tests.
+      String secret = LoopbackSecret.generate();
+      ProcessBuilder processBuilder = new ProcessBuilder(command).directory(workingDirectory);
+      processBuilder.environment().putAll(environment);
+      processBuilder.environment().put(SECRET_ENVIRONMENT_VARIABLE, secret);
+      Process process = processBuilder.start();
+      try {
+        BufferedReader stdout = new BufferedReader(
+            new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        int port = readPort(stdout);
+
+        // Output from the tests themselves is captured by the test runner, so anything else that
+        // the JVM prints is of no interest, but it must still be read so that the JVM does not
+        // block on a full pipe.
+        discardInBackground(process.getInputStream());
+        discardInBackground(process.getErrorStream());
+
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        Worker worker =
+            new Worker(workingDirectory, environment, command, process, socket, maxJobs);
+        worker.send(secret);
+        return worker;
+      } catch (IOException e) {
+        process.destroy();
+        throw e;
+      }
+    }
+
+    /** Skips over anything that the JVM prints before the port, such as {@code -verbose} output. */
+    private static int readPort(BufferedReader stdout) throws IOException {
+      for (String line = stdout.readLine(); line != null; line = stdout.readLine()) {
+        if (line.startsWith(PORT_PREFIX)) {
+          try {
+            return Integer.parseInt(line.substring(PORT_PREFIX.length()).trim());
+          } catch (NumberFormatException e) {
+            throw new IOException("Unexpected port from JUnit worker: " + line, e);
+          }
+        }
+      }
+      throw new IOException("JUnit worker exited before it was ready to run tests.");
+    }
+
+    private static void discardInBackground(final InputStream stream) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        @SuppressWarnings("PMD.EmptyCatchBlock")
+        public void run() {
+          try {
+            ByteStreams.copy(stream, ByteStreams.nullOutputStream());
+          } catch (IOException e) {
+            // The JVM has exited or been destroyed.
+          }
+        }
+      }, JUnitWorkerPool.class.getSimpleName());
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private void send(String line) throws IOException {
+      writer.write(line);
+      writer.write('\n');
+    }
+
+    private void flush() throws IOException {
+      writer.flush();
+    }
+
+    /**
+     * Unlike {@link BufferedReader#readLine()}, which loses what it has read of a line when a read
+     * times out, this keeps the start of a reply in {@link #partialReply} until the rest arrives.
+     */
+    private String receive() throws IOException {
+      while (true) {
+        int b;
+        try {
+          b = input.read();
+        } catch (SocketTimeoutException e) {
+          if (Thread.currentThread().isInterrupted()) {
+            // The tests may never finish, so the JVM is destroyed rather than waited for.
+            destroy();
+            throw new InterruptedIOException("Interrupted while running tests in a JUnit worker.");
+          }
+          continue;
+        }
+
+        if (b == -1) {
+          throw new IOException("JUnit worker exited while running tests.");
+        } else if (b == '\n') {
+          String reply = new String(partialReply.toByteArray(), StandardCharsets.UTF_8);
+          partialReply.reset();
+          return reply;
+        }
+        partialReply.write(b);
+      }
+    }
+
+    @SuppressWarnings("PMD.EmptyCatchBlock")
+    private void destroy() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // The JVM is being thrown away, so there is nothing to be done.
+      }
+      process.destroy();
+    }
+  }
+}
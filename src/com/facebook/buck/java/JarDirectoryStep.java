@@ -25,6 +25,7 @@ import com.facebook.buck.step.Step;
 import com.facebook.buck.util.DirectoryTraversal;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.IndexedZipFile;
 import com.facebook.buck.zip.ZipOutputStreams;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
@@ -40,7 +41,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Enumeration;
 import java.util.Map;
 import java.util.Set;
 import java.util.jar.Attributes;
@@ -49,7 +49,6 @@ import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.logging.Level;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import javax.annotation.Nullable;
 
@@ -58,6 +57,9 @@ import javax.annotation.Nullable;
  */
 public class JarDirectoryStep implements Step {
 
+  /** Bit 0 of the general purpose bit flag of a zip entry. */
+  private static final int ENCRYPTED_FLAG = 1;
+
   /** Where to write the new JAR file. */
   private final String pathToOutputFile;
 
@@ -191,9 +193,8 @@ public class JarDirectoryStep implements Step {
       Manifest manifest,
       Set<String> alreadyAddedEntries,
       BuckEventBus eventBus) throws IOException {
-    try (ZipFile zip = new ZipFile(file)) {
-      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
-        ZipEntry entry = entries.nextElement();
+    try (IndexedZipFile zip = IndexedZipFile.open(file)) {
+      for (IndexedZipFile.Entry entry : zip.getEntries()) {
         String entryName = entry.getName();
 
         if (entryName.equals(JarFile.MANIFEST_NAME)) {
@@ -211,13 +212,22 @@ public class JarDirectoryStep implements Step {
         if (!isDuplicateAllowed(entryName) && !alreadyAddedEntries.add(entryName)) {
           // Duplicate entries. Skip.
           eventBus.post(LogEvent.create(
-              determineSeverity(entry), "Duplicate found when adding file to jar: %s", entryName));
+              determineSeverity(entryName),
+              "Duplicate found when adding file to jar: %s",
+              entryName));
+          continue;
+        }
+
+        if (canCopyRaw(entry)) {
+          // Copying the compressed bytes as they are is much cheaper than inflating and deflating
+          // them again, which matters for jars that merge hundreds of megabytes of dependencies.
+          jar.putRawEntry(entry.toZipEntry(), zip.getCompressedData(entry));
           continue;
         }
 
         // Reinitialize the compressed field to -1 as the ZipEntry(String) constructor would.
         // See https://github.com/spearce/buck/commit/8338c1c3d4a546f577eed0c9941d9f1c2ba0a1b7.
-        ZipEntry newEntry = new ZipEntry(entry);
+        ZipEntry newEntry = entry.toZipEntry();
         newEntry.setCompressedSize(-1);
 
         jar.putNextEntry(newEntry);
@@ -228,11 +238,21 @@ public class JarDirectoryStep implements Step {
     }
   }
 
-  private Level determineSeverity(ZipEntry entry) {
-    return entry.isDirectory() ? Level.FINE : Level.INFO;
+  /**
+   * Encrypted entries, and entries compressed with anything other than deflate, cannot be described
+   * by the headers that {@link CustomZipOutputStream} writes.
+   */
+  private static boolean canCopyRaw(IndexedZipFile.Entry entry) {
+    return (entry.getFlags() & ENCRYPTED_FLAG) == 0 &&
+        (entry.getMethod() == ZipEntry.STORED || entry.getMethod() == ZipEntry.DEFLATED);
+  }
+
+  private Level determineSeverity(String entryName) {
+    return entryName.endsWith("/") ? Level.FINE : Level.INFO;
   }
 
-  private Manifest readManifest(ZipFile zip, ZipEntry manifestMfEntry) throws IOException {
+  private Manifest readManifest(IndexedZipFile zip, IndexedZipFile.Entry manifestMfEntry)
+      throws IOException {
     try (
         ByteArrayOutputStream output = new ByteArrayOutputStream((int) manifestMfEntry.getSize());
         InputStream stream = zip.getInputStream(manifestMfEntry);
@@ -264,7 +284,7 @@ public class JarDirectoryStep implements Step {
           if (!isDuplicateAllowed(entryName) && !alreadyAddedEntries.add(entryName)) {
             if (!entryName.endsWith("/")) {
               eventBus.post(LogEvent.create(
-                  determineSeverity(entry),
+                  determineSeverity(entryName),
                   "Duplicate found when adding directory to jar: %s", relativePath));
             }
               return;
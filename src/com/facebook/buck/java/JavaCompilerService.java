@@ -0,0 +1,318 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Keeps the system {@link JavaCompiler} and a pool of its {@link StandardJavaFileManager}s alive
+ * for the lifetime of the process, which, when Buck runs as a daemon, spans many builds.
+ * <p>
+ * A file manager opens and indexes every jar on the classpath the first time a compilation looks
+ * in it, and keeps the index for as long as the file manager is open. Handing the same file
+ * managers to one compilation after another means that a jar that is on the classpath of
+ * thousands of {@code java_library} rules, such as a third-party library, is indexed once rather
+ * than once per rule.
+ * <p>
+ * A file manager is only reused if none of the jars it has been given has changed since, as
+ * judged by a {@link JarStamp}. Otherwise, it could serve classes from a jar that has since been
+ * rebuilt. Each compilation must also call {@link #setLocations(StandardJavaFileManager, List)}.
+ */
+public class JavaCompilerService {
+
+  private static final JavaCompilerService INSTANCE =
+      new JavaCompilerService(Runtime.getRuntime().availableProcessors());
+
+  /** The javac options that set the locations of a {@link StandardJavaFileManager}. */
+  private static final ImmutableMap<String, StandardLocation> LOCATION_OPTIONS =
+      ImmutableMap.<String, StandardLocation>builder()
+          .put("-d", StandardLocation.CLASS_OUTPUT)
+          .put("-s", StandardLocation.SOURCE_OUTPUT)
+          .put("-classpath", StandardLocation.CLASS_PATH)
+          .put("-sourcepath", StandardLocation.SOURCE_PATH)
+          .put("-bootclasspath", StandardLocation.PLATFORM_CLASS_PATH)
+          .put("-processorpath", StandardLocation.ANNOTATION_PROCESSOR_PATH)
+          .build();
+
+  /** At most this many idle file managers, and the jars they hold open, are kept. */
+  private final int maxIdleFileManagers;
+
+  /** Most recently used first. Guarded by {@code this}. */
+  private final Deque<FileManagerLease> idleFileManagers;
+
+  @Nullable
+  private JavaCompiler compiler;
+
+  @VisibleForTesting
+  JavaCompilerService(int maxIdleFileManagers) {
+    Preconditions.checkArgument(maxIdleFileManagers >= 0);
+    this.maxIdleFileManagers = maxIdleFileManagers;
+    this.idleFileManagers = Lists.newLinkedList();
+  }
+
+  public static JavaCompilerService getInstance() {
+    return INSTANCE;
+  }
+
+  public synchronized JavaCompiler getCompiler() {
+    if (compiler == null) {
+      compiler = ToolProvider.getSystemJavaCompiler();
+      Preconditions.checkNotNull(compiler,
+          "If using JRE instead of JDK, ToolProvider.getSystemJavaCompiler() may be null.");
+    }
+    return compiler;
+  }
+
+  /**
+   * @param classpath the classpath entries of the compilation that will use the file manager.
+   * @return a file manager that the caller has exclusive use of until it closes the lease.
+   */
+  public FileManagerLease acquireFileManager(Iterable<File> classpath) {
+    FileManagerLease lease = null;
+    synchronized (this) {
+      for (Iterator<FileManagerLease> iter = idleFileManagers.iterator(); iter.hasNext(); ) {
+        FileManagerLease idle = iter.next();
+        iter.remove();
+        if (idle.isUpToDate()) {
+          lease = idle;
+          break;
+        }
+        idle.closeQuietly();
+      }
+    }
+
+    if (lease == null) {
+      lease = new FileManagerLease(getCompiler().getStandardFileManager(null, null, null));
+    }
+    lease.recordJars(classpath);
+    return lease;
+  }
+
+  private void release(FileManagerLease lease) {
+    try {
+      lease.fileManager.flush();
+    } catch (IOException e) {
+      lease.closeQuietly();
+      return;
+    }
+
+    FileManagerLease evicted = null;
+    synchronized (this) {
+      idleFileManagers.addFirst(lease);
+      if (idleFileManagers.size() > maxIdleFileManagers) {
+        evicted = idleFileManagers.removeLast();
+      }
+    }
+    if (evicted != null) {
+      evicted.closeQuietly();
+    }
+  }
+
+  /**
+   * Points {@code fileManager} at the locations given by {@code options}, such as {@code -d} and
+   * {@code -classpath}, and resets every other location that javac has an option for to its
+   * default.
+   * <p>
+   * A {@link StandardJavaFileManager} only reads these options from the first compilation that
+   * uses it, so without this, a pooled file manager would read from and write to the locations of
+   * whichever compilation used it first.
+   */
+  public static void setLocations(StandardJavaFileManager fileManager, List<String> options)
+      throws IOException {
+    Map<StandardLocation, Iterable<File>> locations = Maps.newHashMap();
+    for (StandardLocation location : LOCATION_OPTIONS.values()) {
+      locations.put(location, null);
+    }
+
+    for (Iterator<String> iter = options.iterator(); iter.hasNext(); ) {
+      StandardLocation location = LOCATION_OPTIONS.get(iter.next());
+      if (location != null && iter.hasNext()) {
+        ImmutableList.Builder<File> path = ImmutableList.builder();
+        for (String element : Splitter.on(File.pathSeparatorChar).omitEmptyStrings()
+            .split(iter.next())) {
+          path.add(new File(element));
+        }
+        locations.put(location, path.build());
+      }
+    }
+
+    for (Map.Entry<StandardLocation, Iterable<File>> location : locations.entrySet()) {
+      fileManager.setLocation(location.getKey(), location.getValue());
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getIdleFileManagerCount() {
+    return idleFileManagers.size();
+  }
+
+  /**
+   * Exclusive use of a pooled {@link StandardJavaFileManager}. Closing the lease returns the file
+   * manager to the pool.
+   */
+  public class FileManagerLease implements AutoCloseable {
+    private final StandardJavaFileManager fileManager;
+
+    /** Every jar that has been given to the file manager. */
+    private final Map<File, JarStamp> jarStamps;
+
+    private FileManagerLease(StandardJavaFileManager fileManager) {
+      this.fileManager = Preconditions.checkNotNull(fileManager);
+      this.jarStamps = Maps.newHashMap();
+    }
+
+    public StandardJavaFileManager getFileManager() {
+      return fileManager;
+    }
+
+    private void recordJars(Iterable<File> classpath) {
+      for (File entry : classpath) {
+        // Directories are listed afresh by every compilation, so they cannot go stale.
+        if (entry.isFile() && !jarStamps.containsKey(entry)) {
+          jarStamps.put(entry, new JarStamp(entry));
+        }
+      }
+    }
+
+    private boolean isUpToDate() {
+      for (JarStamp jarStamp : jarStamps.values()) {
+        if (!jarStamp.isUpToDate()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @SuppressWarnings("PMD.EmptyCatchBlock")
+    private void closeQuietly() {
+      try {
+        fileManager.close();
+      } catch (IOException e) {
+        // The file manager is being thrown away, so there is nothing to be done.
+      }
+    }
+
+    @Override
+    public void close() {
+      release(this);
+    }
+  }
+
+  /**
+   * Identifies the contents of a jar without reading all of it. A jar whose size and modification
+   * time are unchanged is assumed to be unchanged, unless it was modified so shortly before it was
+   * stamped that it could have been rewritten within the resolution of the file system's
+   * modification times. For such jars, the central directory, which holds the CRC-32 of every
+   * entry, is hashed as well.
+   */
+  @VisibleForTesting
+  static class JarStamp {
+    /** Coarser than the modification time resolution of any file system that Buck runs on. */
+    private static final long MODIFICATION_TIME_RESOLUTION_MILLIS = 2000L;
+
+    /** The end of central directory record is 22 bytes, plus a comment of up to 64KB. */
+    private static final int MAX_END_OF_CENTRAL_DIRECTORY_SIZE = 22 + 0xFFFF;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private final File jar;
+    private final long length;
+    private final long lastModified;
+
+    /** Absent if the jar was not modified recently enough to need it. */
+    private final Optional<HashCode> centralDirectoryHash;
+
+    @VisibleForTesting
+    JarStamp(File jar) {
+      this.jar = Preconditions.checkNotNull(jar);
+      // Both are 0 if the jar no longer exists.
+      this.length = jar.length();
+      this.lastModified = jar.lastModified();
+      this.centralDirectoryHash =
+          System.currentTimeMillis() - lastModified < MODIFICATION_TIME_RESOLUTION_MILLIS ?
+              Optional.of(hashCentralDirectory(jar)) :
+              Optional.<HashCode>absent();
+    }
+
+    @VisibleForTesting
+    boolean isUpToDate() {
+      if (jar.length() != length || jar.lastModified() != lastModified || lastModified == 0) {
+        return false;
+      }
+      return !centralDirectoryHash.isPresent() ||
+          centralDirectoryHash.get().equals(hashCentralDirectory(jar));
+    }
+
+    /**
+     * @return a hash of the central directory, or of the whole jar if the central directory cannot
+     *     be found. A jar that cannot be read gets a different hash every time.
+     */
+    private static HashCode hashCentralDirectory(File jar) {
+      try (RandomAccessFile file = new RandomAccessFile(jar, "r")) {
+        int tailLength = (int) Math.min(file.length(), MAX_END_OF_CENTRAL_DIRECTORY_SIZE);
+        byte[] tail = new byte[tailLength];
+        file.seek(file.length() - tailLength);
+        file.readFully(tail);
+
+        ByteBuffer buffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = tailLength - 22;
+        while (offset >= 0 && buffer.getInt(offset) != END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+          offset--;
+        }
+
+        if (offset >= 0) {
+          long centralDirectorySize = buffer.getInt(offset + 12) & 0xFFFFFFFFL;
+          long centralDirectoryOffset = buffer.getInt(offset + 16) & 0xFFFFFFFFL;
+          if (centralDirectoryOffset + centralDirectorySize <= file.length()) {
+            byte[] centralDirectory = new byte[(int) centralDirectorySize];
+            file.seek(centralDirectoryOffset);
+            file.readFully(centralDirectory);
+            return Hashing.murmur3_128().hashBytes(centralDirectory);
+          }
+        }
+        return Files.hash(jar, Hashing.murmur3_128());
+      } catch (IOException e) {
+        return Hashing.murmur3_128().hashLong(System.nanoTime());
+      }
+    }
+  }
+}
@@ -32,6 +32,12 @@ public interface JavaLibraryRule extends Buildable, BuildRule, HasClasspathEntri
   @Override
   public ImmutableSetMultimap<JavaLibraryRule, String> getTransitiveClasspathEntries();
 
+  /**
+   * @return the same entries as {@link #getTransitiveClasspathEntries()}, but shared with the
+   *     classpaths of this rule's deps rather than copied from them.
+   */
+  public TransitiveClasspath getTransitiveClasspath();
+
   /**
    * @return The set of entries to pass to {@code javac}'s {@code -classpath} flag in order to
    *     compile the {@code srcs} associated with this rule.  This set only contains the classpath
@@ -29,6 +29,7 @@ import com.facebook.buck.rules.BuildRuleType;
 import com.facebook.buck.rules.LabelsAttributeBuilder;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.TestDurationHistory;
 import com.facebook.buck.rules.TestRule;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
@@ -178,14 +179,51 @@ public class JavaTestRule extends DefaultJavaLibraryRule implements TestRule {
       classpathEntries = ImmutableSet.copyOf(getTransitiveClasspathEntries().values());
     }
 
-    Step junit = new JUnitStep(
-        classpathEntries,
-        testClassNames,
-        amendVmArgs(vmArgs, executionContext.getTargetDeviceOptional()),
-        pathToTestOutput.toString(),
-        executionContext.isCodeCoverageEnabled(),
-        executionContext.isDebugEnabled());
-    steps.add(junit);
+    // The instrumented classes of the libraries under test take precedence over their originals.
+    if (executionContext.isCodeCoverageEnabled()) {
+      ImmutableSet.Builder<String> classpathEntriesBuilder = ImmutableSet.builder();
+      for (JavaLibraryRule library : getSourceUnderTest()) {
+        classpathEntriesBuilder.add(
+            CodeCoverageInstrumentation.getPathToInstrumentedClasses(library.getBuildTarget())
+                .toString());
+      }
+      classpathEntries = classpathEntriesBuilder.addAll(classpathEntries).build();
+    }
+
+    List<String> amendedVmArgs = amendVmArgs(vmArgs, executionContext.getTargetDeviceOptional());
+
+    // Shards would all write to the same coverage file, and could not all listen on the debugger's
+    // port, so tests are only split when neither is enabled.
+    int shardCount = executionContext.getTestShardCount();
+    if (shardCount > 1 &&
+        testClassNames.size() > 1 &&
+        !executionContext.isCodeCoverageEnabled() &&
+        !executionContext.isDebugEnabled()) {
+      ImmutableList.Builder<JUnitStep> shards = ImmutableList.builder();
+      for (Set<String> shard : ShardedJUnitStep.partition(
+          testClassNames,
+          TestDurationHistory.forProject(executionContext.getProjectFilesystem())
+              .getClassDurations(),
+          shardCount)) {
+        shards.add(new JUnitStep(
+            classpathEntries,
+            shard,
+            amendedVmArgs,
+            pathToTestOutput.toString(),
+            /* isCodeCoverageEnabled */ false,
+            /* isDebugEnabled */ false));
+      }
+      steps.add(new ShardedJUnitStep(shards.build()));
+    } else {
+      Step junit = new JUnitStep(
+          classpathEntries,
+          testClassNames,
+          amendedVmArgs,
+          pathToTestOutput.toString(),
+          executionContext.isCodeCoverageEnabled(),
+          executionContext.isDebugEnabled());
+      steps.add(junit);
+    }
 
     return steps.build();
   }
@@ -0,0 +1,532 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.event.LogEvent;
+import com.facebook.buck.java.IncrementalCompilationState.ClassInfo;
+import com.facebook.buck.java.abi.AbiWriterProtocol;
+import com.facebook.buck.step.ExecutionContext;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Compiles the sources of {@link JavacInMemoryStep}s that are executing at the same time with a
+ * single javac invocation, which saves the fixed cost of an invocation for each of them. As a step
+ * only executes once the rule that it belongs to is ready to be built, steps that are executing at
+ * the same time belong to rules that do not depend on each other.
+ * <p>
+ * Only steps that would pass javac the same options, apart from where to write their classes and
+ * ABI key, are compiled together. Each class is written to the output directory of the step whose
+ * source it came from, and the ABI key of each step is computed from the summaries of its own
+ * types, so both are the same as if the step had been compiled on its own. If the steps do not
+ * compile together, or if the source of one step resolves a symbol that is declared in the
+ * source of another, which it could not have done had it been compiled on its own, then every
+ * step is left to compile on its own.
+ * <p>
+ * A step only waits for others to join its batch while a rule that has been expected with
+ * {@link #expect(JavacInMemoryStep)} may yet join it, so a rule that is built on its own is not
+ * held up.
+ */
+class JavacBatcher {
+
+  private static final JavacBatcher INSTANCE =
+      new JavacBatcher(/* windowMillis */ 50L, /* maxBatchSize */ 32);
+
+  private static final String ABI_OUTPUT_FILE_OPTION =
+      "-A" + AbiWriterProtocol.PARAM_ABI_OUTPUT_FILE + "=";
+
+  /**
+   * How long a step that has been expected may take to start executing before it is assumed that
+   * it never will, because a step before it failed.
+   */
+  private static final long EXPECTATION_TIMEOUT_MILLIS = 5000L;
+
+  /** How long the first step of a batch waits for other steps to join it. */
+  private final long windowMillis;
+
+  private final int maxBatchSize;
+
+  /** Keyed by the options that every step in the batch shares. Guarded by {@code this}. */
+  private final Map<ImmutableList<String>, Batch> openBatches;
+
+  /**
+   * Steps of rules that are being built but that have yet to execute, with the time, from
+   * {@link System#nanoTime()}, at which they were expected. Guarded by {@code this}.
+   */
+  private final Map<JavacInMemoryStep, Long> expectedSteps;
+
+  @VisibleForTesting
+  JavacBatcher(long windowMillis, int maxBatchSize) {
+    Preconditions.checkArgument(windowMillis >= 0);
+    Preconditions.checkArgument(maxBatchSize > 1);
+    this.windowMillis = windowMillis;
+    this.maxBatchSize = maxBatchSize;
+    this.openBatches = Maps.newHashMap();
+    this.expectedSteps = Maps.newHashMap();
+  }
+
+  static JavacBatcher getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Records that {@code step} belongs to a rule that has started to build, and so will shortly
+   * execute and may join a batch.
+   */
+  synchronized void expect(JavacInMemoryStep step) {
+    removeExpiredExpectations();
+    expectedSteps.put(step, System.nanoTime());
+  }
+
+  /**
+   * Records that {@code step} has executed, whether or not it was compiled by this batcher.
+   */
+  synchronized void forget(JavacInMemoryStep step) {
+    expectedSteps.remove(step);
+  }
+
+  /**
+   * Compiles {@code step} together with the other steps that join its batch, blocking until the
+   * batch has been compiled.
+   * @param classpathEntries the classpath that {@code step} would be compiled against on its own.
+   * @return the exit code of {@code step}, or absent if it could not be compiled as part of a
+   *     batch, in which case it must be compiled on its own.
+   */
+  Optional<Integer> compile(
+      JavacInMemoryStep step,
+      ExecutionContext context,
+      Set<String> classpathEntries) {
+    Member member = new Member(step, context);
+    ImmutableList<String> sharedOptions =
+        getSharedOptions(step.getOptions(context, classpathEntries));
+
+    // The options of the steps that are expected are computed without holding the lock, as that
+    // means reading their classpaths, so that other steps are not held up in the meantime.
+    ImmutableList<JavacInMemoryStep> stepsExpected;
+    synchronized (this) {
+      expectedSteps.remove(step);
+      removeExpiredExpectations();
+      stepsExpected = ImmutableList.copyOf(expectedSteps.keySet());
+    }
+    boolean isJoinExpected = isJoinExpected(context, sharedOptions, stepsExpected);
+
+    Batch batch;
+    boolean isFirstMember = false;
+    synchronized (this) {
+      batch = openBatches.get(sharedOptions);
+      if (batch == null) {
+        batch = new Batch(sharedOptions, classpathEntries);
+        openBatches.put(sharedOptions, batch);
+        isFirstMember = true;
+      }
+      batch.members.add(member);
+      // Once no other step can join the batch, there is no point in waiting for one.
+      if (batch.members.size() >= maxBatchSize || !isJoinExpected) {
+        openBatches.remove(sharedOptions);
+        batch.isFull.countDown();
+      }
+    }
+
+    try {
+      if (isFirstMember) {
+        // The first member compiles the batch once it is full, or once it has waited long enough.
+        batch.isFull.await(windowMillis, TimeUnit.MILLISECONDS);
+        ImmutableList<Member> members;
+        synchronized (this) {
+          if (openBatches.get(sharedOptions) == batch) {
+            openBatches.remove(sharedOptions);
+          }
+          members = ImmutableList.copyOf(batch.members);
+        }
+        compileBatch(context, batch, members);
+      }
+      return member.exitCode.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Optional.absent();
+    } catch (ExecutionException e) {
+      // Only ever completed with a value.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return whether one of {@code stepsExpected}, which have yet to execute, would join the batch
+   *     of steps with {@code sharedOptions}.
+   */
+  private static boolean isJoinExpected(
+      ExecutionContext context,
+      ImmutableList<String> sharedOptions,
+      List<JavacInMemoryStep> stepsExpected) {
+    for (JavacInMemoryStep expectedStep : stepsExpected) {
+      if (expectedStep.canBeBatched(context) &&
+          sharedOptions.equals(getSharedOptions(
+              expectedStep.getOptions(context, expectedStep.getClasspathEntries())))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @GuardedBy("this")
+  private void removeExpiredExpectations() {
+    long now = System.nanoTime();
+    for (Iterator<Long> iter = expectedSteps.values().iterator(); iter.hasNext(); ) {
+      if (TimeUnit.NANOSECONDS.toMillis(now - iter.next()) > EXPECTATION_TIMEOUT_MILLIS) {
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * @return {@code options} without the options that may differ between steps that are compiled
+   *     together: the output directory and the ABI key file.
+   */
+  @VisibleForTesting
+  static ImmutableList<String> getSharedOptions(List<String> options) {
+    ImmutableList.Builder<String> sharedOptions = ImmutableList.builder();
+    for (Iterator<String> iter = options.iterator(); iter.hasNext(); ) {
+      String option = iter.next();
+      if ("-d".equals(option) && iter.hasNext()) {
+        iter.next();
+      } else if (!option.startsWith(ABI_OUTPUT_FILE_OPTION)) {
+        sharedOptions.add(option);
+      }
+    }
+    return sharedOptions.build();
+  }
+
+  private void compileBatch(ExecutionContext context, Batch batch, List<Member> members) {
+    try {
+      if (members.size() > 1) {
+        Optional<Map<Member, Integer>> exitCodes = compileTogether(context, batch, members);
+        if (exitCodes.isPresent()) {
+          for (Member member : members) {
+            member.exitCode.set(Optional.of(exitCodes.get().get(member)));
+          }
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      // Each member will report what goes wrong when it is compiled on its own, so this is not an
+      // error of the build.
+      context.getBuckEventBus().post(LogEvent.fine(
+          "Compiling %d java libraries together failed, so each is compiled on its own: %s",
+          members.size(),
+          e));
+    } finally {
+      for (Member member : members) {
+        member.exitCode.set(Optional.<Integer>absent());
+      }
+    }
+  }
+
+  private Optional<Map<Member, Integer>> compileTogether(
+      ExecutionContext context,
+      Batch batch,
+      List<Member> members) throws IOException {
+    Function<String, Path> pathRelativizer = context.getProjectFilesystem().getPathRelativizer();
+    Map<Path, Member> membersBySource = Maps.newHashMap();
+    List<File> sources = Lists.newArrayList();
+    for (Member member : members) {
+      for (String source : member.step.getSrcs()) {
+        Path path = pathRelativizer.apply(source).toAbsolutePath().normalize();
+        if (membersBySource.put(path, member) != null) {
+          return Optional.absent();
+        }
+        sources.add(path.toFile());
+      }
+    }
+
+    List<File> classpath = Lists.newArrayList();
+    for (String entry : batch.classpathEntries) {
+      classpath.add(pathRelativizer.apply(entry).toFile());
+    }
+
+    File summariesFile = File.createTempFile("abi_summaries", null);
+    File sourceReferencesFile = File.createTempFile("source_references", null);
+    Map<String, Member> membersByClassName = Maps.newHashMap();
+    Map<String, File> classFiles = Maps.newHashMap();
+    boolean isCompiledTogether = false;
+    try {
+      ImmutableList<String> options = ImmutableList.<String>builder()
+          .addAll(batch.sharedOptions)
+          .add("-d", pathRelativizer.apply(members.get(0).step.getOutputDirectory()).toString())
+          .add("-A" + AbiWriterProtocol.PARAM_ABI_SUMMARIES_FILE + "=" +
+              summariesFile.getAbsolutePath())
+          .add("-A" + AbiWriterProtocol.PARAM_SOURCE_REFERENCES_FILE + "=" +
+              sourceReferencesFile.getAbsolutePath())
+          .build();
+
+      // Diagnostics are not printed, just as they are not when a step that compiles on its own
+      // succeeds, and a step that fails to compile in a batch reports its own errors when it is
+      // compiled on its own. Anything else that javac prints is shown to every member.
+      StringWriter compilerOutput = new StringWriter();
+
+      boolean isSuccess;
+      JavaCompilerService compilerService = JavaCompilerService.getInstance();
+      JavaCompiler compiler = compilerService.getCompiler();
+      try (JavaCompilerService.FileManagerLease fileManagerLease =
+               compilerService.acquireFileManager(classpath)) {
+        StandardJavaFileManager fileManager = fileManagerLease.getFileManager();
+        JavaCompilerService.setLocations(fileManager, options);
+        isSuccess = compiler.getTask(
+            compilerOutput,
+            new RoutingFileManager(
+                fileManager,
+                pathRelativizer,
+                membersBySource,
+                membersByClassName,
+                classFiles),
+            new DiagnosticCollector<JavaFileObject>(),
+            options,
+            /* classes */ null,
+            fileManager.getJavaFileObjectsFromFiles(sources)).call();
+      }
+
+      if (!isSuccess ||
+          !isEachMemberSelfContained(membersByClassName, classFiles) ||
+          !isEachMemberSourceSelfContained(membersBySource, sourceReferencesFile)) {
+        return Optional.absent();
+      }
+
+      // The ABI key of a member is computed from the summaries of its own top-level types, whose
+      // binary names are their qualified names.
+      Map<Member, SortedSet<String>> summariesByMember = Maps.newHashMap();
+      for (Member member : members) {
+        summariesByMember.put(member, Sets.<String>newTreeSet());
+      }
+      for (Map.Entry<String, String> summary :
+          AbiWriterProtocol.readSummaries(summariesFile).entrySet()) {
+        Member member = membersByClassName.get(summary.getKey());
+        if (member == null) {
+          return Optional.absent();
+        }
+        summariesByMember.get(member).add(summary.getValue());
+      }
+
+      ImmutableMap.Builder<Member, Integer> exitCodes = ImmutableMap.builder();
+      for (Member member : members) {
+        File abiKeyFile = pathRelativizer.apply(member.step.getPathToOutputAbiFile().get())
+            .toFile();
+        Files.write(AbiWriterProtocol.computeAbiKey(summariesByMember.get(member)),
+            abiKeyFile,
+            Charsets.UTF_8);
+        exitCodes.put(member, member.step.readAbiKey(member.context));
+        member.context.getStdErr().print(compilerOutput);
+      }
+      isCompiledTogether = true;
+      return Optional.<Map<Member, Integer>>of(exitCodes.build());
+    } finally {
+      // Whether the batch was given up on or failed part way through, each member is compiled on
+      // its own, so none of the classes of the batch may be left behind in its output directory.
+      if (!isCompiledTogether) {
+        deleteClassFiles(classFiles);
+      }
+      for (File file : ImmutableList.of(summariesFile, sourceReferencesFile)) {
+        if (!file.delete()) {
+          file.deleteOnExit();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return whether no class of a member uses a class of another member, which it could not have
+   *     done had it been compiled on its own.
+   */
+  private boolean isEachMemberSelfContained(
+      Map<String, Member> membersByClassName,
+      Map<String, File> classFiles) throws IOException {
+    for (Map.Entry<String, File> classFile : classFiles.entrySet()) {
+      Optional<ClassInfo> classInfo = ClassInfo.analyze(Files.toByteArray(classFile.getValue()));
+      if (!classInfo.isPresent()) {
+        return false;
+      }
+      Member member = membersByClassName.get(classFile.getKey());
+      for (String reference : classInfo.get().getReferences()) {
+        Member owner = membersByClassName.get(reference.replace('/', '.'));
+        if (owner != null && owner != member) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return whether every source of every member was analyzed, and no symbol that the source of a
+   *     member resolves is declared in the source of another member. This catches what the class
+   *     files do not show, such as unused imports, inlined constants and annotations that are only
+   *     retained in source.
+   */
+  private static boolean isEachMemberSourceSelfContained(
+      Map<Path, Member> membersBySource,
+      File sourceReferencesFile) throws IOException {
+    Map<Path, Set<Path>> referencesBySource = Maps.newHashMap();
+    for (Map.Entry<String, SortedSet<String>> entry :
+        AbiWriterProtocol.readSourceReferences(sourceReferencesFile).entrySet()) {
+      Set<Path> references = Sets.newHashSet();
+      for (String reference : entry.getValue()) {
+        references.add(toPath(reference));
+      }
+      referencesBySource.put(toPath(entry.getKey()), references);
+    }
+
+    for (Map.Entry<Path, Member> source : membersBySource.entrySet()) {
+      Set<Path> references = referencesBySource.get(source.getKey());
+      if (references == null) {
+        // Without a record of what the source resolved, assume the worst.
+        return false;
+      }
+      for (Path reference : references) {
+        Member owner = membersBySource.get(reference);
+        if (owner != null && owner != source.getValue()) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static Path toPath(String uri) {
+    return Paths.get(URI.create(uri)).toAbsolutePath().normalize();
+  }
+
+  private static void deleteClassFiles(Map<String, File> classFiles) throws IOException {
+    for (File classFile : classFiles.values()) {
+      if (classFile.exists() && !classFile.delete()) {
+        throw new IOException("Could not delete " + classFile);
+      }
+    }
+  }
+
+  private static class Member {
+    private final JavacInMemoryStep step;
+    private final ExecutionContext context;
+    private final SettableFuture<Optional<Integer>> exitCode;
+
+    private Member(JavacInMemoryStep step, ExecutionContext context) {
+      this.step = Preconditions.checkNotNull(step);
+      this.context = Preconditions.checkNotNull(context);
+      this.exitCode = SettableFuture.create();
+    }
+  }
+
+  private static class Batch {
+    private final ImmutableList<String> sharedOptions;
+    private final ImmutableList<String> classpathEntries;
+
+    /** Guarded by the {@link JavacBatcher}. */
+    private final List<Member> members;
+
+    private final CountDownLatch isFull;
+
+    private Batch(ImmutableList<String> sharedOptions, Set<String> classpathEntries) {
+      this.sharedOptions = Preconditions.checkNotNull(sharedOptions);
+      this.classpathEntries = ImmutableList.copyOf(classpathEntries);
+      this.members = Lists.newArrayList();
+      this.isFull = new CountDownLatch(1);
+    }
+  }
+
+  /**
+   * Writes each class to the output directory of the member whose source it was compiled from,
+   * and records which member each class belongs to.
+   */
+  private static class RoutingFileManager
+      extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    private final Function<String, Path> pathRelativizer;
+    private final Map<Path, Member> membersBySource;
+    private final Map<String, Member> membersByClassName;
+    private final Map<String, File> classFiles;
+
+    private RoutingFileManager(
+        StandardJavaFileManager fileManager,
+        Function<String, Path> pathRelativizer,
+        Map<Path, Member> membersBySource,
+        Map<String, Member> membersByClassName,
+        Map<String, File> classFiles) {
+      super(fileManager);
+      this.pathRelativizer = pathRelativizer;
+      this.membersBySource = membersBySource;
+      this.membersByClassName = membersByClassName;
+      this.classFiles = classFiles;
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(
+        Location location,
+        String className,
+        JavaFileObject.Kind kind,
+        FileObject sibling) throws IOException {
+      if (location != StandardLocation.CLASS_OUTPUT || kind != JavaFileObject.Kind.CLASS) {
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+      }
+
+      Member member = null;
+      if (sibling != null && "file".equals(sibling.toUri().getScheme())) {
+        member = membersBySource.get(
+            new File(sibling.toUri()).toPath().toAbsolutePath().normalize());
+      }
+      if (member == null) {
+        throw new IOException("Cannot tell which java library " + className + " belongs to.");
+      }
+
+      File classFile = pathRelativizer.apply(member.step.getOutputDirectory())
+          .resolve(className.replace('.', File.separatorChar) + ".class")
+          .toFile();
+      membersByClassName.put(className, member);
+      classFiles.put(className, classFile);
+      return Iterables.getOnlyElement(fileManager.getJavaFileObjects(classFile));
+    }
+  }
+}
@@ -22,6 +22,7 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.util.CapturingPrintStream;
 import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.zip.IndexedZipFile;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
@@ -33,7 +34,11 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.Closer;
 import com.google.common.io.Files;
 
 import java.io.File;
@@ -41,22 +46,21 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.nio.file.Path;
-import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import javax.annotation.Nullable;
+import javax.annotation.processing.Processor;
 import javax.tools.Diagnostic;
 import javax.tools.DiagnosticCollector;
+import javax.tools.ForwardingJavaFileManager;
 import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.StandardJavaFileManager;
-import javax.tools.ToolProvider;
+import javax.tools.StandardLocation;
 
 /**
  * Command used to compile java libraries with a variety of ways to handle dependencies.
@@ -66,9 +70,9 @@ import javax.tools.ToolProvider;
  * If {@code buildDependencies} is set to {@link BuildDependencies#TRANSITIVE}, this class will
  * invoke javac using {@code transitiveClasspathEntries} for the classpath.
  * If {@code buildDependencies} is set to {@link BuildDependencies#WARN_ON_TRANSITIVE}, this class
- * will first compile using {@code declaredClasspathEntries}, and should that fail fall back to
- * {@code transitiveClasspathEntries} but warn the developer about which dependencies were in
- * the transitive classpath but not in the declared classpath.
+ * will compile using {@code transitiveClasspathEntries}, but warn the developer about which
+ * dependencies javac read classes from that were in the transitive classpath but not in the
+ * declared classpath.
  */
 public class JavacInMemoryStep implements Step {
 
@@ -80,9 +84,6 @@ public class JavacInMemoryStep implements Step {
 
   private final Optional<String> pathToOutputAbiFile;
 
-  @Nullable
-  private File abiKeyFile;
-
   @Nullable
   private Sha1HashCode abiKey;
 
@@ -101,27 +102,15 @@ public class JavacInMemoryStep implements Step {
    */
   private AtomicBoolean isExecuted = new AtomicBoolean(false);
 
-  private static final Pattern IMPORT_FAILURE =
-      Pattern.compile("import ([\\w\\.\\*]*);");
-
-  private static final Pattern PACKAGE_FAILURE =
-      Pattern.compile(".*?package ([\\w\\.\\*]*) does not exist");
-
-  private static final Pattern ACCESS_FAILURE =
-      Pattern.compile(".*?error: cannot access ([\\w\\.\\*]*)");
-
-  private static final Pattern CLASS_NOT_FOUND =
-      Pattern.compile(".*?class file for ([\\w\\.\\*]*) not found");
-
-  private static final Pattern CLASS_SYMBOL_NOT_FOUND =
-      Pattern.compile(".*?symbol:\\s*class\\s*([\\w\\.\\*]*)");
+  /**
+   * The binary names of the classes that javac has read from each classpath entry, over every
+   * compilation since this step last started to execute.
+   */
+  private final SetMultimap<String, String> classesReadByClasspathEntry =
+      LinkedHashMultimap.create();
 
-  private static final ImmutableList<Pattern> MISSING_IMPORT_PATTERNS =
-      ImmutableList.of(IMPORT_FAILURE,
-          PACKAGE_FAILURE,
-          ACCESS_FAILURE,
-          CLASS_NOT_FOUND,
-          CLASS_SYMBOL_NOT_FOUND);
+  /** Steps with more sources than this gain little from being compiled with others. */
+  private static final int MAX_SOURCES_TO_BATCH = 10;
 
   private static final String LINE_SEPARATOR = System.getProperty("line.separator");
 
@@ -167,8 +156,12 @@ public class JavacInMemoryStep implements Step {
     ProjectFilesystem filesystem = context.getProjectFilesystem();
     AnnotationProcessingDataDecorator decorator;
     if (pathToOutputAbiFile.isPresent()) {
-      abiKeyFile = filesystem.getFileForRelativePath(pathToOutputAbiFile.get());
-      decorator = new AbiWritingAnnotationProcessingDataDecorator(abiKeyFile);
+      File abiKeyFile = filesystem.getFileForRelativePath(pathToOutputAbiFile.get());
+      Optional<String> pathToAbiSummariesFile = getPathToAbiSummariesFile();
+      decorator = new AbiWritingAnnotationProcessingDataDecorator(abiKeyFile,
+          pathToAbiSummariesFile.isPresent() ?
+              Optional.of(filesystem.getFileForRelativePath(pathToAbiSummariesFile.get())) :
+              Optional.<File>absent());
     } else {
       decorator = AnnotationProcessingDataDecorators.identity();
     }
@@ -199,14 +192,24 @@ public class JavacInMemoryStep implements Step {
 
   @Override
   public final int execute(ExecutionContext context) {
+    classesReadByClasspathEntry.clear();
     try {
       return executeBuild(context);
     } finally {
+      JavacBatcher.getInstance().forget(this);
       isExecuted.set(true);
     }
   }
 
   public int executeBuild(ExecutionContext context) {
+    if (context.isJavaCompilationBatchingEnabled() && canBeBatched(context)) {
+      Optional<Integer> exitCode =
+          JavacBatcher.getInstance().compile(this, context, getClasspathEntries());
+      if (exitCode.isPresent()) {
+        return exitCode.get();
+      }
+    }
+
     // Build up the compilation task.
     if (buildDependencies == BuildDependencies.FIRST_ORDER_ONLY) {
       return buildWithClasspath(context,
@@ -218,6 +221,11 @@ public class JavacInMemoryStep implements Step {
     }
   }
 
+  /**
+   * Compiles against the declared classpath and, only if that fails, against the transitive
+   * classpath. If the second compilation succeeds, the classes that javac read from entries that
+   * are not on the declared classpath are reported as missing, along with the deps to add for them.
+   */
   private int tryBuildWithFirstOrderDeps(ExecutionContext context) {
     CapturingPrintStream stdout = new CapturingPrintStream();
     CapturingPrintStream stderr = new CapturingPrintStream();
@@ -225,54 +233,67 @@ public class JavacInMemoryStep implements Step {
 
     int declaredDepsResult = buildWithClasspath(firstOrderContext,
         ImmutableSet.copyOf(declaredClasspathEntries));
+    if (declaredDepsResult == 0) {
+      context.getStdOut().print(stdout.getContentsAsString(Charsets.UTF_8));
+      context.getStdErr().print(stderr.getContentsAsString(Charsets.UTF_8));
+      return declaredDepsResult;
+    }
 
-    String firstOrderStdout = stdout.getContentsAsString(Charsets.UTF_8);
-    String firstOrderStderr = stderr.getContentsAsString(Charsets.UTF_8);
-
-    if (declaredDepsResult != 0) {
-      int transitiveResult = buildWithClasspath(context,
-          ImmutableSet.copyOf(transitiveClasspathEntries));
-      if (transitiveResult == 0) {
-        ImmutableSet<String> failedImports = findFailedImports(firstOrderStderr);
-        ImmutableList.Builder<String> errorMessage = ImmutableList.builder();
-
-        errorMessage.add(String.format("Rule %s builds with its transitive " +
-            "dependencies but not with its first order dependencies.", invokingRule.or("")));
-        errorMessage.add("The following packages were missing:");
-        errorMessage.add(Joiner.on(LINE_SEPARATOR).join(failedImports));
-        if (suggestBuildRules.isPresent()) {
-          errorMessage.add("Try adding the following deps:");
-          errorMessage.add(Joiner.on(LINE_SEPARATOR)
-              .join(suggestBuildRules.get().suggest(context.getProjectFilesystem(),
-                  failedImports)));
-        }
-        errorMessage.add("");
-        errorMessage.add("");
-        context.getStdErr().println(Joiner.on("\n").join(errorMessage.build()));
+    // Only the classes read by the compilation against the transitive classpath are of interest.
+    classesReadByClasspathEntry.clear();
+    int transitiveResult = buildWithClasspath(context,
+        ImmutableSet.copyOf(transitiveClasspathEntries));
+    if (transitiveResult != 0) {
+      return transitiveResult;
+    }
+
+    ImmutableSortedSet.Builder<String> missingClasses = ImmutableSortedSet.naturalOrder();
+    for (Map.Entry<String, String> classRead : classesReadByClasspathEntry.entries()) {
+      if (!declaredClasspathEntries.contains(classRead.getKey())) {
+        // Nested classes are in the same jar as their top-level class, which is what is imported.
+        missingClasses.add(Splitter.on('$').split(classRead.getValue()).iterator().next());
       }
+    }
+    ImmutableSet<String> failedImports = missingClasses.build();
+    if (failedImports.isEmpty()) {
       return transitiveResult;
-    } else {
-      context.getStdOut().print(firstOrderStdout);
-      context.getStdErr().print(firstOrderStderr);
     }
 
-    return declaredDepsResult;
+    ImmutableList.Builder<String> errorMessage = ImmutableList.builder();
+    errorMessage.add(String.format("Rule %s builds with its transitive " +
+        "dependencies but not with its first order dependencies.", invokingRule.or("")));
+    errorMessage.add("The following classes were missing:");
+    errorMessage.add(Joiner.on(LINE_SEPARATOR).join(failedImports));
+    if (suggestBuildRules.isPresent()) {
+      errorMessage.add("Try adding the following deps:");
+      errorMessage.add(Joiner.on(LINE_SEPARATOR)
+          .join(suggestBuildRules.get().suggest(context.getProjectFilesystem(),
+              failedImports)));
+    }
+    errorMessage.add("");
+    errorMessage.add("");
+    context.getStdErr().println(Joiner.on("\n").join(errorMessage.build()));
+    return transitiveResult;
   }
 
-  @VisibleForTesting
-  static ImmutableSet<String> findFailedImports(String output) {
-    Iterable<String> lines = Splitter.on(LINE_SEPARATOR).split(output);
-    ImmutableSortedSet.Builder<String> failedImports = ImmutableSortedSet.naturalOrder();
-    for (String line : lines) {
-      for (Pattern missingImportPattern : MISSING_IMPORT_PATTERNS) {
-        Matcher lineMatch = missingImportPattern.matcher(line);
-        if (lineMatch.matches()) {
-          failedImports.add(lineMatch.group(1));
-          break;
-        }
+  /**
+   * @return whether this step may be compiled by the same javac invocation as other steps, as
+   *     described by {@link JavacBatcher}. Steps that need to see exactly what javac reads or
+   *     writes cannot be.
+   */
+  protected boolean canBeBatched(ExecutionContext context) {
+    if (!pathToOutputAbiFile.isPresent() ||
+        buildDependencies == BuildDependencies.WARN_ON_TRANSITIVE ||
+        javaSourceFilePaths.size() > MAX_SOURCES_TO_BATCH ||
+        !javacOptions.getAnnotationProcessingData().isEmpty()) {
+      return false;
+    }
+    for (String path : javaSourceFilePaths) {
+      if (!path.endsWith(".java")) {
+        return false;
       }
     }
-    return failedImports.build();
+    return true;
   }
 
   /**
@@ -287,46 +308,153 @@ public class JavacInMemoryStep implements Step {
   }
 
   protected int buildWithClasspath(ExecutionContext context, Set<String> buildClasspathEntries) {
-    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-    Preconditions.checkNotNull(compiler,
-        "If using JRE instead of JDK, ToolProvider.getSystemJavaCompiler() may be null.");
-    StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
-    Iterable<? extends JavaFileObject> compilationUnits;
+    return buildWithClasspath(context, buildClasspathEntries, javaSourceFilePaths);
+  }
+
+  /**
+   * Compiles {@code sourceFilePaths}, which may be only some of the srcs of this step, against
+   * {@code buildClasspathEntries}.
+   */
+  protected final int buildWithClasspath(
+      ExecutionContext context,
+      Set<String> buildClasspathEntries,
+      Set<String> sourceFilePaths) {
+    JavaCompilerService compilerService = JavaCompilerService.getInstance();
+    JavaCompiler compiler = compilerService.getCompiler();
+    Function<String, Path> pathRelativizer = context.getProjectFilesystem().getPathRelativizer();
+    ImmutableList.Builder<File> classpath = ImmutableList.builder();
+    Map<Path, String> classpathEntriesByPath = Maps.newHashMap();
+    for (String entry : buildClasspathEntries) {
+      Path path = pathRelativizer.apply(entry);
+      classpath.add(path.toFile());
+      classpathEntriesByPath.put(path, entry);
+    }
+    ClassUsageTracker classUsageTracker = new ClassUsageTracker(classpathEntriesByPath);
+
+    int result;
+    try (JavaCompilerService.FileManagerLease fileManagerLease =
+             compilerService.acquireFileManager(classpath.build())) {
+      result = buildWithClasspath(context,
+          buildClasspathEntries,
+          sourceFilePaths,
+          compiler,
+          fileManagerLease.getFileManager(),
+          classUsageTracker);
+    }
+
+    classesReadByClasspathEntry.putAll(classUsageTracker.getClassesReadByClasspathEntry());
+    return result;
+  }
+
+  private int buildWithClasspath(
+      ExecutionContext context,
+      Set<String> buildClasspathEntries,
+      Set<String> sourceFilePaths,
+      JavaCompiler compiler,
+      StandardJavaFileManager fileManager,
+      ClassUsageTracker classUsageTracker) {
+    // The entries of a .src.zip are read by javac as it needs them, so the zips stay open until it
+    // has finished.
+    Closer sourceZips = Closer.create();
+    try {
+      Iterable<? extends JavaFileObject> compilationUnits;
+      try {
+        compilationUnits = createCompilationUnits(
+            sourceFilePaths,
+            fileManager,
+            context.getProjectFilesystem().getPathRelativizer(),
+            sourceZips);
+      } catch (IOException e) {
+        e.printStackTrace(context.getStdErr());
+        return 1;
+      }
+
+      return compile(
+          context,
+          buildClasspathEntries,
+          compiler,
+          fileManager,
+          classUsageTracker,
+          compilationUnits);
+    } finally {
+      try {
+        sourceZips.close();
+      } catch (IOException e) {
+        e.printStackTrace(context.getStdErr());
+      }
+    }
+  }
+
+  private int compile(
+      ExecutionContext context,
+      Set<String> buildClasspathEntries,
+      JavaCompiler compiler,
+      StandardJavaFileManager fileManager,
+      ClassUsageTracker classUsageTracker,
+      Iterable<? extends JavaFileObject> compilationUnits) {
+    List<String> options = getOptions(context, buildClasspathEntries);
     try {
-      compilationUnits = createCompilationUnits(
-          fileManager, context.getProjectFilesystem().getPathRelativizer());
+      JavaCompilerService.setLocations(fileManager, options);
     } catch (IOException e) {
       e.printStackTrace(context.getStdErr());
       return 1;
     }
 
     DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
-    List<String> options = getOptions(context, buildClasspathEntries);
     List<String> classNamesForAnnotationProcessing = ImmutableList.of();
     Writer compilerOutputWriter = new PrintWriter(context.getStdErr());
-    JavaCompiler.CompilationTask compilationTask = compiler.getTask(
-        compilerOutputWriter,
-        fileManager,
-        diagnostics,
-        options,
-        classNamesForAnnotationProcessing,
-        compilationUnits);
+    JavaFileManager taskFileManager =
+        classUsageTracker.wrapFileManager(decorateFileManager(fileManager));
 
     // Invoke the compilation and inspect the result.
-    boolean isSuccess = compilationTask.call();
-    if (isSuccess) {
-      if (abiKeyFile != null) {
-        try {
-          String firstLine = Files.readFirstLine(abiKeyFile, Charsets.UTF_8);
-          if (firstLine != null) {
-            abiKey = new Sha1HashCode(firstLine);
-          }
-        } catch (IOException e) {
-          e.printStackTrace(context.getStdErr());
-          return 1;
+    boolean isSuccess;
+    Optional<String> processorPath = getOptionValue(options, "-processorpath");
+    if (processorPath.isPresent()) {
+      // Load the annotation processors from a class loader that is shared with every other
+      // compilation that has the same processor path, rather than leaving javac to create one.
+      try (ProcessorClassLoaderCache.Lease processorClassLoader =
+               ProcessorClassLoaderCache.getInstance().acquire(
+                   splitPath(processorPath.get()),
+                   compiler.getClass().getClassLoader())) {
+        Optional<String> processorNames = getOptionValue(options, "-processor");
+        ImmutableList<Processor> processors = processorClassLoader.loadProcessors(
+            processorNames.isPresent() ?
+                Optional.<List<String>>of(Splitter.on(',').splitToList(processorNames.get())) :
+                Optional.<List<String>>absent());
+
+        JavaCompiler.CompilationTask compilationTask = compiler.getTask(
+            compilerOutputWriter,
+            new ProcessorClassLoaderFileManager(taskFileManager,
+                processorClassLoader.getClassLoader()),
+            diagnostics,
+            options,
+            classNamesForAnnotationProcessing,
+            compilationUnits);
+        ImmutableList.Builder<Processor> timedProcessors = ImmutableList.builder();
+        for (Processor processor : processors) {
+          timedProcessors.add(new TimedAnnotationProcessor(processor,
+              context.getBuckEventBus(),
+              invokingRule.or("")));
         }
+        compilationTask.setProcessors(timedProcessors.build());
+        isSuccess = compilationTask.call();
+      } catch (IOException e) {
+        context.getStdErr().println(e.getMessage());
+        return 1;
       }
-      return 0;
+    } else {
+      JavaCompiler.CompilationTask compilationTask = compiler.getTask(
+          compilerOutputWriter,
+          taskFileManager,
+          diagnostics,
+          options,
+          classNamesForAnnotationProcessing,
+          compilationUnits);
+      isSuccess = compilationTask.call();
+    }
+
+    if (isSuccess) {
+      return readAbiKey(context);
     } else {
       if (context.getVerbosity().shouldPrintStandardInformation()) {
         int numErrors = 0;
@@ -350,11 +478,52 @@ public class JavacInMemoryStep implements Step {
     }
   }
 
+  private static Optional<String> getOptionValue(List<String> options, String option) {
+    int index = options.lastIndexOf(option);
+    return index >= 0 && index + 1 < options.size() ?
+        Optional.of(options.get(index + 1)) :
+        Optional.<String>absent();
+  }
+
+  private static ImmutableList<File> splitPath(String path) {
+    ImmutableList.Builder<File> files = ImmutableList.builder();
+    for (String element : Splitter.on(File.pathSeparatorChar).omitEmptyStrings().split(path)) {
+      files.add(new File(element));
+    }
+    return files.build();
+  }
+
+  /**
+   * Hands javac the cached processor class loader in place of the one that it would otherwise
+   * create, which javac would also close at the end of the compilation.
+   */
+  private static class ProcessorClassLoaderFileManager
+      extends ForwardingJavaFileManager<JavaFileManager> {
+    private final ClassLoader processorClassLoader;
+
+    private ProcessorClassLoaderFileManager(
+        JavaFileManager fileManager,
+        ClassLoader processorClassLoader) {
+      super(fileManager);
+      this.processorClassLoader = processorClassLoader;
+    }
+
+    @Override
+    public ClassLoader getClassLoader(Location location) {
+      if (location == StandardLocation.ANNOTATION_PROCESSOR_PATH) {
+        return processorClassLoader;
+      }
+      return super.getClassLoader(location);
+    }
+  }
+
   private Iterable<? extends JavaFileObject> createCompilationUnits(
+      Set<String> sourceFilePaths,
       StandardJavaFileManager fileManager,
-      Function<String, Path> pathRelativizer) throws IOException {
+      Function<String, Path> pathRelativizer,
+      Closer closer) throws IOException {
     List<JavaFileObject> compilationUnits = Lists.newArrayList();
-    for (String path : javaSourceFilePaths) {
+    for (String path : sourceFilePaths) {
       if (path.endsWith(".java")) {
         // For an ordinary .java file, create a corresponding JavaFileObject.
         Iterable<? extends JavaFileObject> javaFileObjects = fileManager.getJavaFileObjects(
@@ -362,22 +531,63 @@ public class JavacInMemoryStep implements Step {
         compilationUnits.add(Iterables.getOnlyElement(javaFileObjects));
       } else if (path.endsWith(".src.zip")) {
         // For a Zip of .java files, create a JavaFileObject for each .java entry.
-        ZipFile zipFile = new ZipFile(pathRelativizer.apply(path).toFile());
-        for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
-             entries.hasMoreElements();
-            ) {
-          ZipEntry entry = entries.nextElement();
-          if (!entry.getName().endsWith(".java")) {
-            continue;
+        IndexedZipFile zipFile =
+            closer.register(IndexedZipFile.open(pathRelativizer.apply(path).toFile()));
+        for (IndexedZipFile.Entry entry : zipFile.getEntries()) {
+          if (entry.getName().endsWith(".java")) {
+            compilationUnits.add(new ZipEntryJavaFileObject(zipFile, entry));
           }
-
-          compilationUnits.add(new ZipEntryJavaFileObject(zipFile, entry));
         }
       }
     }
     return compilationUnits;
   }
 
+  /**
+   * Reads the ABI key that was last written to the ABI key file.
+   * @return the exit code of this step.
+   */
+  protected int readAbiKey(ExecutionContext context) {
+    if (pathToOutputAbiFile.isPresent()) {
+      File abiKeyFile =
+          context.getProjectFilesystem().getFileForRelativePath(pathToOutputAbiFile.get());
+      try {
+        String firstLine = Files.readFirstLine(abiKeyFile, Charsets.UTF_8);
+        if (firstLine != null) {
+          abiKey = new Sha1HashCode(firstLine);
+        }
+      } catch (IOException e) {
+        e.printStackTrace(context.getStdErr());
+        return 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Subclasses can override this method to observe or redirect what javac reads and writes.
+   */
+  protected JavaFileManager decorateFileManager(StandardJavaFileManager fileManager) {
+    return fileManager;
+  }
+
+  /**
+   * Subclasses can override this method to have the summary of every type that contributes to the
+   * ABI key written to a file, as read by
+   * {@link com.facebook.buck.java.abi.AbiWriterProtocol#readSummaries(File)}.
+   */
+  protected Optional<String> getPathToAbiSummariesFile() {
+    return Optional.absent();
+  }
+
+  protected String getOutputDirectory() {
+    return outputDirectory;
+  }
+
+  protected Optional<String> getPathToOutputAbiFile() {
+    return pathToOutputAbiFile;
+  }
+
   @Override
   public String getDescription(ExecutionContext context) {
     StringBuilder builder = new StringBuilder("javac ");
@@ -393,7 +603,6 @@ public class JavacInMemoryStep implements Step {
     return "javac";
   }
 
-  @VisibleForTesting
   Set<String> getSrcs() {
     return javaSourceFilePaths;
   }
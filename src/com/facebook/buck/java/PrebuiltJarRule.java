@@ -70,8 +70,7 @@ public class PrebuiltJarRule extends DoNotUseAbstractBuildable
   private final String binaryJar;
   private final Optional<String> sourceJar;
   private final Optional<String> javadocUrl;
-  private final Supplier<ImmutableSetMultimap<JavaLibraryRule, String>>
-      transitiveClasspathEntriesSupplier;
+  private final Supplier<TransitiveClasspath> transitiveClasspathSupplier;
 
   private final Supplier<ImmutableSetMultimap<JavaLibraryRule, String>>
       declaredClasspathEntriesSupplier;
@@ -88,15 +87,14 @@ public class PrebuiltJarRule extends DoNotUseAbstractBuildable
     this.sourceJar = Preconditions.checkNotNull(sourceJar);
     this.javadocUrl = Preconditions.checkNotNull(javadocUrl);
 
-    transitiveClasspathEntriesSupplier =
-        Suppliers.memoize(new Supplier<ImmutableSetMultimap<JavaLibraryRule, String>>() {
+    transitiveClasspathSupplier =
+        Suppliers.memoize(new Supplier<TransitiveClasspath>() {
           @Override
-          public ImmutableSetMultimap<JavaLibraryRule, String> get() {
-            ImmutableSetMultimap.Builder<JavaLibraryRule, String> classpathEntries =
-                ImmutableSetMultimap.builder();
-            classpathEntries.put(PrebuiltJarRule.this, getBinaryJar());
-            classpathEntries.putAll(Classpaths.getClasspathEntries(getDeps()));
-            return classpathEntries.build();
+          public TransitiveClasspath get() {
+            return TransitiveClasspath.builder()
+                .put(PrebuiltJarRule.this, getBinaryJar())
+                .addAll(Classpaths.getTransitiveClasspath(getDeps()))
+                .build();
           }
         });
 
@@ -171,7 +169,12 @@ public class PrebuiltJarRule extends DoNotUseAbstractBuildable
 
   @Override
   public ImmutableSetMultimap<JavaLibraryRule, String> getTransitiveClasspathEntries() {
-    return transitiveClasspathEntriesSupplier.get();
+    return transitiveClasspathSupplier.get().getEntries();
+  }
+
+  @Override
+  public TransitiveClasspath getTransitiveClasspath() {
+    return transitiveClasspathSupplier.get();
   }
 
   @Override
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import javax.annotation.Nullable;
+import javax.annotation.processing.Processor;
+
+/**
+ * Keeps the class loaders of annotation processors alive for the lifetime of the process, which,
+ * when Buck runs as a daemon, spans many builds.
+ * <p>
+ * Left to itself, javac creates a new class loader for the processor path of every compilation, so
+ * every {@code java_library} that uses annotation processors, which includes every one that
+ * writes an ABI key, loads and verifies the processor classes afresh, and they never get as far as
+ * being compiled by the JIT. Compilations with the same processor path share a class loader
+ * instead, for as long as none of the jars or directories on the path has changed.
+ * <p>
+ * A class loader is closed once it has been evicted, either because its processor path changed or
+ * because too many others have been used more recently, and no compilation is still using it.
+ */
+public class ProcessorClassLoaderCache {
+
+  private static final ProcessorClassLoaderCache INSTANCE = new ProcessorClassLoaderCache(16);
+
+  private static final String PROCESSOR_SERVICE =
+      "META-INF/services/" + Processor.class.getName();
+
+  /** At most this many class loaders, and the jars they hold open, are kept. */
+  private final int maxClassLoaders;
+
+  /** Keyed by processor path, least recently used first. Guarded by {@code this}. */
+  private final LinkedHashMap<ImmutableList<File>, CachedClassLoader> classLoaders;
+
+  @VisibleForTesting
+  ProcessorClassLoaderCache(int maxClassLoaders) {
+    Preconditions.checkArgument(maxClassLoaders > 0);
+    this.maxClassLoaders = maxClassLoaders;
+    this.classLoaders = new LinkedHashMap<>(16, 0.75f, /* accessOrder */ true);
+  }
+
+  public static ProcessorClassLoaderCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param processorPath the {@code -processorpath} of the compilation.
+   * @param parent the class loader that loaded javac, which processors must share types with.
+   * @return a class loader for {@code processorPath} that stays open until the lease is closed.
+   */
+  public Lease acquire(List<File> processorPath, @Nullable ClassLoader parent) {
+    ImmutableList<File> key = ImmutableList.copyOf(processorPath);
+    List<CachedClassLoader> evicted = Lists.newArrayList();
+    CachedClassLoader classLoader;
+    synchronized (this) {
+      classLoader = classLoaders.get(key);
+      if (classLoader != null && !classLoader.isUpToDate(parent)) {
+        classLoaders.remove(key);
+        evicted.add(classLoader);
+        classLoader = null;
+      }
+
+      if (classLoader == null) {
+        classLoader = new CachedClassLoader(key, parent);
+        classLoaders.put(key, classLoader);
+        for (Iterator<CachedClassLoader> iter = classLoaders.values().iterator();
+             classLoaders.size() > maxClassLoaders; ) {
+          evicted.add(iter.next());
+          iter.remove();
+        }
+      }
+      classLoader.leaseCount++;
+    }
+
+    for (CachedClassLoader evictedClassLoader : evicted) {
+      release(evictedClassLoader, /* isEvicted */ true);
+    }
+    return new Lease(classLoader);
+  }
+
+  private void release(CachedClassLoader classLoader, boolean isEvicted) {
+    synchronized (this) {
+      if (!isEvicted) {
+        classLoader.leaseCount--;
+      }
+      if (classLoader.leaseCount > 0 ||
+          classLoaders.get(classLoader.processorPath) == classLoader) {
+        return;
+      }
+    }
+    classLoader.closeQuietly();
+  }
+
+  @VisibleForTesting
+  synchronized int getClassLoaderCount() {
+    return classLoaders.size();
+  }
+
+  /**
+   * Shared use of a cached class loader. Closing the lease allows the class loader to be closed
+   * once it has been evicted.
+   */
+  public class Lease implements AutoCloseable {
+    private final CachedClassLoader classLoader;
+    private boolean isClosed;
+
+    private Lease(CachedClassLoader classLoader) {
+      this.classLoader = classLoader;
+      this.isClosed = false;
+    }
+
+    /**
+     * @return the class loader, which must not be used once the lease has been closed. It cannot
+     *     be closed by javac, which closes the processor class loaders that it is given.
+     */
+    public ClassLoader getClassLoader() {
+      Preconditions.checkState(!isClosed);
+      return classLoader.unclosableClassLoader;
+    }
+
+    /**
+     * Creates new instances of the annotation processors, in the same way as javac: by name if
+     * {@code names} is present, as given by {@code -processor}, and otherwise by looking them up
+     * as services.
+     * @throws IOException if a processor cannot be found or instantiated.
+     */
+    public ImmutableList<Processor> loadProcessors(Optional<List<String>> names)
+        throws IOException {
+      Preconditions.checkState(!isClosed);
+      ImmutableList.Builder<Processor> processors = ImmutableList.builder();
+      try {
+        if (names.isPresent()) {
+          for (String name : names.get()) {
+            processors.add(Class.forName(name, true, classLoader.urlClassLoader)
+                .asSubclass(Processor.class)
+                .newInstance());
+          }
+        } else {
+          for (Processor processor :
+              ServiceLoader.load(Processor.class, classLoader.urlClassLoader)) {
+            processors.add(processor);
+          }
+        }
+      } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+        throw new IOException("Could not load annotation processor: " + e, e);
+      } catch (ServiceConfigurationError e) {
+        throw new IOException("Could not load annotation processors from " +
+            PROCESSOR_SERVICE + ": " + e, e);
+      }
+      return processors.build();
+    }
+
+    @Override
+    public void close() {
+      if (!isClosed) {
+        isClosed = true;
+        release(classLoader, /* isEvicted */ false);
+      }
+    }
+  }
+
+  private static class CachedClassLoader {
+    private final ImmutableList<File> processorPath;
+    @Nullable
+    private final ClassLoader parent;
+    private final URLClassLoader urlClassLoader;
+
+    /** Delegates to {@link #urlClassLoader}, without exposing its {@code close()} method. */
+    private final ClassLoader unclosableClassLoader;
+
+    private final ImmutableMap<File, JavaCompilerService.JarStamp> jarStamps;
+
+    /** Hashes of the directories on the processor path, or absent for those that are missing. */
+    private final ImmutableMap<File, Optional<HashCode>> directoryHashes;
+
+    /** Guarded by the enclosing {@link ProcessorClassLoaderCache}. */
+    private int leaseCount;
+
+    private CachedClassLoader(ImmutableList<File> processorPath, @Nullable ClassLoader parent) {
+      this.processorPath = processorPath;
+      this.parent = parent;
+      Map<File, JavaCompilerService.JarStamp> jarStamps = Maps.newHashMap();
+      Map<File, Optional<HashCode>> directoryHashes = Maps.newHashMap();
+      List<URL> urls = Lists.newArrayList();
+      for (File entry : processorPath) {
+        if (entry.isFile()) {
+          jarStamps.put(entry, new JavaCompilerService.JarStamp(entry));
+        } else {
+          directoryHashes.put(entry, hashDirectory(entry));
+        }
+        try {
+          urls.add(entry.toURI().toURL());
+        } catch (MalformedURLException e) {
+          throw new IllegalArgumentException(e);
+        }
+      }
+      this.jarStamps = ImmutableMap.copyOf(jarStamps);
+      this.directoryHashes = ImmutableMap.copyOf(directoryHashes);
+      this.urlClassLoader = new URLClassLoader(urls.toArray(new URL[urls.size()]), parent);
+      this.unclosableClassLoader = new ClassLoader(urlClassLoader) {};
+      this.leaseCount = 0;
+    }
+
+    private boolean isUpToDate(@Nullable ClassLoader parent) {
+      if (this.parent != parent) {
+        return false;
+      }
+      for (JavaCompilerService.JarStamp jarStamp : jarStamps.values()) {
+        if (!jarStamp.isUpToDate()) {
+          return false;
+        }
+      }
+      for (Map.Entry<File, Optional<HashCode>> directoryHash : directoryHashes.entrySet()) {
+        File directory = directoryHash.getKey();
+        if (directory.isFile() || !directoryHash.getValue().equals(hashDirectory(directory))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * A directory cannot be stamped as cheaply as a jar, but the processor directories in use are
+     * small, so the name, size and modification time of every file in it are hashed.
+     */
+    private static Optional<HashCode> hashDirectory(File directory) {
+      if (!directory.isDirectory()) {
+        return Optional.absent();
+      }
+      Hasher hasher = Hashing.murmur3_128().newHasher();
+      hashDirectory(directory, "", hasher);
+      return Optional.of(hasher.hash());
+    }
+
+    private static void hashDirectory(File directory, String prefix, Hasher hasher) {
+      File[] children = directory.listFiles();
+      if (children == null) {
+        return;
+      }
+      Arrays.sort(children);
+      for (File child : children) {
+        String name = prefix + child.getName();
+        if (child.isDirectory()) {
+          hashDirectory(child, name + "/", hasher);
+        } else {
+          hasher.putUnencodedChars(name)
+              .putLong(child.length())
+              .putLong(child.lastModified());
+        }
+      }
+    }
+
+    @SuppressWarnings("PMD.EmptyCatchBlock")
+    private void closeQuietly() {
+      try {
+        urlClassLoader.close();
+      } catch (IOException e) {
+        // The class loader is being thrown away, so there is nothing to be done.
+      }
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static com.facebook.buck.util.concurrent.MoreExecutors.newMultiThreadExecutor;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+
+import com.facebook.buck.step.DefaultStepRunner;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepFailedException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs the test classes of a single test rule in several JVMs at once, one {@link JUnitStep} per
+ * shard. Every shard writes the results of its classes to the same directory, one XML file per
+ * class, so the results are read back as though a single JVM had run all of the classes.
+ * <p>
+ * This step does not reserve any resources itself: each shard is a {@link JUnitStep} that waits
+ * for its own core, so a sharded test never runs more JVMs than the machine has room for.
+ */
+public class ShardedJUnitStep implements Step {
+
+  private final ImmutableList<JUnitStep> shards;
+
+  public ShardedJUnitStep(List<JUnitStep> shards) {
+    Preconditions.checkArgument(!shards.isEmpty(), "There must be at least one shard.");
+    this.shards = ImmutableList.copyOf(shards);
+  }
+
+  @VisibleForTesting
+  ImmutableList<JUnitStep> getShards() {
+    return shards;
+  }
+
+  @Override
+  public int execute(ExecutionContext context) {
+    DefaultStepRunner stepRunner = new DefaultStepRunner(context,
+        listeningDecorator(newMultiThreadExecutor(getClass().getSimpleName(), shards.size())));
+    try {
+      stepRunner.runStepsInParallelAndWait(ImmutableList.<Step>copyOf(shards));
+      return 0;
+    } catch (StepFailedException e) {
+      if (e.getCause() instanceof InterruptedException ||
+          e.getCause() instanceof InterruptedIOException) {
+        // The tests are being cancelled, so the interruption is kept for the caller to see.
+        Thread.currentThread().interrupt();
+      }
+      context.logError(e, "Running the tests in %d shards failed.", shards.size());
+      return 1;
+    } finally {
+      stepRunner.getListeningExecutorService().shutdownNow();
+    }
+  }
+
+  @Override
+  public String getShortName() {
+    return "junit";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    List<String> descriptions = Lists.newArrayListWithCapacity(shards.size());
+    for (JUnitStep shard : shards) {
+      descriptions.add(shard.getDescription(context));
+    }
+    return Joiner.on('\n').join(descriptions);
+  }
+
+  /**
+   * Splits {@code testClassNames} into at most {@code shardCount} shards whose expected running
+   * times are as even as possible. The longest classes are placed first, each in whichever shard
+   * is expected to finish soonest.
+   * @param durations how long each class took when it last ran, in milliseconds. Classes that
+   *     have no duration are assumed to take as long as the average class that does.
+   * @return the non-empty shards, ordered by the name of their first class.
+   */
+  public static ImmutableList<ImmutableSortedSet<String>> partition(
+      Set<String> testClassNames,
+      Map<String, Long> durations,
+      int shardCount) {
+    Preconditions.checkArgument(shardCount >= 1, "There must be at least one shard.");
+
+    long totalKnownDuration = 0;
+    int knownDurationCount = 0;
+    for (String testClassName : testClassNames) {
+      Long duration = durations.get(testClassName);
+      if (duration != null) {
+        totalKnownDuration += duration;
+        knownDurationCount++;
+      }
+    }
+    long defaultDuration = knownDurationCount == 0 ?
+        1L :
+        Math.max(1L, totalKnownDuration / knownDurationCount);
+
+    final Map<String, Long> expectedDurations = Maps.newHashMap();
+    for (String testClassName : testClassNames) {
+      Long duration = durations.get(testClassName);
+      expectedDurations.put(testClassName, duration == null ? defaultDuration : duration);
+    }
+
+    List<String> longestFirst = Lists.newArrayList(testClassNames);
+    Collections.sort(longestFirst, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        int byDuration = expectedDurations.get(b).compareTo(expectedDurations.get(a));
+        return byDuration != 0 ? byDuration : a.compareTo(b);
+      }
+    });
+
+    int actualShardCount = Math.min(shardCount, longestFirst.size());
+    List<ImmutableSortedSet.Builder<String>> shards = Lists.newArrayList();
+    long[] shardDurations = new long[actualShardCount];
+    for (int i = 0; i < actualShardCount; i++) {
+      shards.add(ImmutableSortedSet.<String>naturalOrder());
+    }
+    for (String testClassName : longestFirst) {
+      int shortestShard = 0;
+      for (int i = 1; i < actualShardCount; i++) {
+        if (shardDurations[i] < shardDurations[shortestShard]) {
+          shortestShard = i;
+        }
+      }
+      shards.get(shortestShard).add(testClassName);
+      shardDurations[shortestShard] += expectedDurations.get(testClassName);
+    }
+
+    List<ImmutableSortedSet<String>> result = Lists.newArrayList();
+    for (ImmutableSortedSet.Builder<String> shard : shards) {
+      result.add(shard.build());
+    }
+    return Ordering.natural().onResultOf(
+        new Function<ImmutableSortedSet<String>, String>() {
+          @Override
+          public String apply(ImmutableSortedSet<String> shard) {
+            return shard.first();
+          }
+        }).immutableSortedCopy(result);
+  }
+}
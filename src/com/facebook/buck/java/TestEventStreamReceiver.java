@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.rules.TestMethodEvent;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.util.LoopbackSecret;
+import com.facebook.buck.util.Threads;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Posts the records that {@code com.facebook.buck.junit.TestEventStreamListener} streams as each
+ * test starts and finishes to the {@link BuckEventBus}, as {@link TestMethodEvent}s.
+ * <p>
+ * A forked JVM connects to the port of a receiver, which it is given through the
+ * {@link #PORT_ENVIRONMENT_VARIABLE} environment variable, and first sends the
+ * {@link LoopbackSecret} that it is given through {@link #SECRET_ENVIRONMENT_VARIABLE}. Records
+ * from a connection that does not send it are ignored. A JVM from the {@link JUnitWorkerPool}
+ * sends its records over the connection that it was sent the tests on instead, so they are passed
+ * to {@link #post(String, BuckEventBus)} directly.
+ */
+class TestEventStreamReceiver implements AutoCloseable {
+
+  // These must match TestEventStreamListener, which cannot be referenced from here.
+  static final String PORT_ENVIRONMENT_VARIABLE = "BUCK_TEST_EVENT_PORT";
+  static final String SECRET_ENVIRONMENT_VARIABLE = "BUCK_TEST_EVENT_SECRET";
+  private static final String TEST_STARTED = "TEST_STARTED";
+  private static final String TEST_FINISHED = "TEST_FINISHED";
+
+  /** How long to wait for the last records of a JVM that has exited to be posted. */
+  private static final long CLOSE_TIMEOUT_MILLIS = 1000L;
+
+  private final ServerSocket serverSocket;
+  private final String secret;
+  private final Thread thread;
+
+  /** The local port of the connection that {@link #close()} makes, or -1 if it has not made it. */
+  private volatile int wakeUpPort = -1;
+
+  /** Starts listening for a single JVM to connect and stream its records. */
+  TestEventStreamReceiver(final BuckEventBus eventBus) throws IOException {
+    Preconditions.checkNotNull(eventBus);
+    this.serverSocket = new ServerSocket(
+        /* port */ 0,
+        // Room for the JVM and for the connection that close() uses to wake the thread.
+        /* backlog */ 2,
+        InetAddress.getLoopbackAddress());
+    this.secret = LoopbackSecret.generate();
+    this.thread = Threads.namedThread(TestEventStreamReceiver.class.getSimpleName(),
+        new Runnable() {
+          @Override
+          @SuppressWarnings("PMD.EmptyCatchBlock")
+          public void run() {
+            try {
+              while (true) {
+                try (Socket socket = serverSocket.accept()) {
+                  if (socket.getPort() == wakeUpPort) {
+                    return;
+                  } else if (LoopbackSecret.isSentBy(socket, secret)) {
+                    receive(socket, eventBus);
+                    return;
+                  }
+                } catch (SocketTimeoutException e) {
+                  // The connection did not send the secret in time, so wait for another one.
+                }
+              }
+            } catch (IOException e) {
+              // The JVM never connected, or went away. Either way, its results are still written
+              // as XML, so nothing is lost but progress reporting.
+            }
+          }
+        });
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  String getSecret() {
+    return secret;
+  }
+
+  private static void receive(Socket socket, BuckEventBus eventBus) throws IOException {
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      post(line, eventBus);
+    }
+  }
+
+  /**
+   * Waits for the records of a JVM that has exited to be posted, and stops listening. Must only be
+   * called once the JVM has exited.
+   */
+  @Override
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  public void close() {
+    // If the thread has yet to accept a connection, either the JVM's connection is queued, and is
+    // accepted ahead of this one, or the JVM never connected, and this one ends the wait for it.
+    // Closing the server socket instead could throw away the records of a JVM that was queued.
+    try (Socket wakeUp = new Socket()) {
+      wakeUp.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), /* port */ 0));
+      wakeUpPort = wakeUp.getLocalPort();
+      wakeUp.connect(serverSocket.getLocalSocketAddress(), (int) CLOSE_TIMEOUT_MILLIS);
+    } catch (IOException e) {
+      // The thread is no longer accepting connections.
+    }
+
+    try {
+      thread.join(CLOSE_TIMEOUT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      try {
+        serverSocket.close();
+      } catch (IOException e) {
+        // Nothing is listening any more, which is all that is wanted.
+      }
+    }
+  }
+
+  static boolean isRecord(String line) {
+    return line.startsWith(TEST_STARTED + '\t') || line.startsWith(TEST_FINISHED + '\t');
+  }
+
+  /** Posts the event for {@code record}, unless it is not a well-formed record. */
+  static void post(String record, BuckEventBus eventBus) {
+    Optional<TestMethodEvent> event = parse(record);
+    if (event.isPresent()) {
+      eventBus.post(event.get());
+    }
+  }
+
+  @VisibleForTesting
+  static Optional<TestMethodEvent> parse(String record) {
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    for (String field : Splitter.on('\t').split(record)) {
+      builder.add(unescape(field));
+    }
+    List<String> fields = builder.build();
+
+    if (fields.size() == 3 && TEST_STARTED.equals(fields.get(0))) {
+      return Optional.<TestMethodEvent>of(TestMethodEvent.started(fields.get(1), fields.get(2)));
+    } else if (fields.size() == 7 && TEST_FINISHED.equals(fields.get(0))) {
+      long time;
+      try {
+        time = Long.parseLong(fields.get(4));
+      } catch (NumberFormatException e) {
+        return Optional.absent();
+      }
+      return Optional.<TestMethodEvent>of(TestMethodEvent.finished(new TestResultSummary(
+          fields.get(1),
+          fields.get(2),
+          Boolean.parseBoolean(fields.get(3)),
+          time,
+          Strings.emptyToNull(fields.get(5)),
+          Strings.emptyToNull(fields.get(6)),
+          // The output of the test is only reported with the rest of its results.
+          /* stdOut */ null,
+          /* stdErr */ null)));
+    }
+    return Optional.absent();
+  }
+
+  private static String unescape(String field) {
+    if (field.indexOf('\\') < 0) {
+      return field;
+    }
+
+    StringBuilder out = new StringBuilder(field.length());
+    for (int i = 0; i < field.length(); i++) {
+      char c = field.charAt(i);
+      if (c != '\\' || i + 1 == field.length()) {
+        out.append(c);
+        continue;
+      }
+      char escaped = field.charAt(++i);
+      switch (escaped) {
+        case 't':
+          out.append('\t');
+          break;
+        case 'n':
+          out.append('\n');
+          break;
+        case 'r':
+          out.append('\r');
+          break;
+        default:
+          out.append(escaped);
+          break;
+      }
+    }
+    return out.toString();
+  }
+}
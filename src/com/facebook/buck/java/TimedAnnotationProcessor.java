@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.google.common.base.Preconditions;
+
+import java.util.Set;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Passes every call on to an annotation processor, and posts an {@link AnnotationProcessingEvent}
+ * before and after each call that does the processor's work.
+ */
+class TimedAnnotationProcessor implements Processor {
+
+  private final Processor delegate;
+  private final BuckEventBus eventBus;
+  private final String buildRule;
+  private int round;
+
+  TimedAnnotationProcessor(Processor delegate, BuckEventBus eventBus, String buildRule) {
+    this.delegate = Preconditions.checkNotNull(delegate);
+    this.eventBus = Preconditions.checkNotNull(eventBus);
+    this.buildRule = Preconditions.checkNotNull(buildRule);
+    this.round = 0;
+  }
+
+  @Override
+  public Set<String> getSupportedOptions() {
+    return delegate.getSupportedOptions();
+  }
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return delegate.getSupportedAnnotationTypes();
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return delegate.getSupportedSourceVersion();
+  }
+
+  @Override
+  public void init(ProcessingEnvironment processingEnv) {
+    AnnotationProcessingEvent.Started started = AnnotationProcessingEvent.started(buildRule,
+        delegate.getClass().getName(),
+        AnnotationProcessingEvent.Operation.INIT,
+        /* round */ 0);
+    eventBus.post(started);
+    try {
+      delegate.init(processingEnv);
+    } finally {
+      eventBus.post(AnnotationProcessingEvent.finished(started));
+    }
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    AnnotationProcessingEvent.Started started = AnnotationProcessingEvent.started(buildRule,
+        delegate.getClass().getName(),
+        AnnotationProcessingEvent.Operation.PROCESS,
+        round++);
+    eventBus.post(started);
+    try {
+      return delegate.process(annotations, roundEnv);
+    } finally {
+      eventBus.post(AnnotationProcessingEvent.finished(started));
+    }
+  }
+
+  @Override
+  public Iterable<? extends Completion> getCompletions(
+      Element element,
+      AnnotationMirror annotation,
+      ExecutableElement member,
+      String userText) {
+    return delegate.getCompletions(element, annotation, member, userText);
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+
+import java.lang.ref.SoftReference;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * The classpath entries of a {@link JavaLibraryRule} and of its transitive dependencies, stored as
+ * the rule's own entries plus references to the {@link TransitiveClasspath}s of its deps, rather
+ * than as a copy of every entry. A rule that is depended on by thousands of rules therefore has its
+ * classpath stored once, rather than once per dependent, so the classpaths of a graph of {@code n}
+ * rules take up {@code O(n + e)} space rather than {@code O(n^2)}.
+ * <p>
+ * {@link #getEntries()} flattens the classpath into the same multimap that copying the entries of
+ * each dep into an {@link ImmutableSetMultimap.Builder}, in order, would have produced. The result
+ * is kept through a soft reference, so that the several callers that ask for the classpath of the
+ * same rule flatten it once, but the flattened classpaths of every rule in the graph do not have to
+ * fit in memory at the same time.
+ */
+public class TransitiveClasspath {
+
+  private static final TransitiveClasspath EMPTY =
+      new TransitiveClasspath(ImmutableList.<Part>of());
+
+  private final ImmutableList<Part> parts;
+
+  @Nullable
+  private volatile SoftReference<ImmutableSetMultimap<JavaLibraryRule, String>> entriesReference;
+
+  private TransitiveClasspath(ImmutableList<Part> parts) {
+    this.parts = Preconditions.checkNotNull(parts);
+  }
+
+  public static TransitiveClasspath of() {
+    return EMPTY;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the entries of this classpath, in the order in which they were added, with each
+   *     classpath that is shared by more than one of its deps only added once.
+   */
+  public ImmutableSetMultimap<JavaLibraryRule, String> getEntries() {
+    SoftReference<ImmutableSetMultimap<JavaLibraryRule, String>> reference = entriesReference;
+    ImmutableSetMultimap<JavaLibraryRule, String> entries =
+        reference == null ? null : reference.get();
+    if (entries == null) {
+      // Racing threads flatten the same classpath, so either result may be kept.
+      entries = flatten();
+      entriesReference = new SoftReference<>(entries);
+    }
+    return entries;
+  }
+
+  private ImmutableSetMultimap<JavaLibraryRule, String> flatten() {
+    ImmutableSetMultimap.Builder<JavaLibraryRule, String> entries = ImmutableSetMultimap.builder();
+
+    // Every entry of a classpath that has already been added, under the same rule, has already been
+    // added to entries, so it can be skipped. This is done iteratively, including for classpaths
+    // added under a single rule, so that long chains of deps cannot overflow the stack.
+    Set<TransitiveClasspath> visited = Sets.newIdentityHashSet();
+    SetMultimap<JavaLibraryRule, TransitiveClasspath> visitedUnderRule = HashMultimap.create();
+    Deque<Frame> toVisit = Lists.newLinkedList();
+    visited.add(this);
+    toVisit.push(new Frame(null, parts.iterator()));
+    while (!toVisit.isEmpty()) {
+      Frame frame = toVisit.peek();
+      if (!frame.parts.hasNext()) {
+        toVisit.pop();
+        continue;
+      }
+
+      Part part = frame.parts.next();
+      // A classpath that is added under a single rule puts everything within it under that rule.
+      JavaLibraryRule rule = frame.rule == null ? part.rule : frame.rule;
+      if (part.entry != null) {
+        entries.put(rule, part.entry);
+      } else if (rule == null ? visited.add(part.classpath) :
+          visitedUnderRule.put(rule, part.classpath)) {
+        toVisit.push(new Frame(rule, part.classpath.parts.iterator()));
+      }
+    }
+
+    return entries.build();
+  }
+
+  /** The parts of a classpath that are left to visit, and the rule to put all of them under. */
+  private static class Frame {
+    @Nullable private final JavaLibraryRule rule;
+    private final Iterator<Part> parts;
+
+    private Frame(@Nullable JavaLibraryRule rule, Iterator<Part> parts) {
+      this.rule = rule;
+      this.parts = parts;
+    }
+  }
+
+  /**
+   * One of: the whole of another classpath; a single entry; or every entry of another classpath,
+   * but under a single rule.
+   */
+  private static class Part {
+    @Nullable private final JavaLibraryRule rule;
+    @Nullable private final String entry;
+    @Nullable private final TransitiveClasspath classpath;
+
+    private Part(
+        @Nullable JavaLibraryRule rule,
+        @Nullable String entry,
+        @Nullable TransitiveClasspath classpath) {
+      this.rule = rule;
+      this.entry = entry;
+      this.classpath = classpath;
+    }
+  }
+
+  public static class Builder {
+    private final ImmutableList.Builder<Part> parts = ImmutableList.builder();
+
+    private Builder() {}
+
+    /** Adds every entry of {@code classpath}, without copying them. */
+    public Builder addAll(TransitiveClasspath classpath) {
+      Preconditions.checkNotNull(classpath);
+      if (!classpath.parts.isEmpty()) {
+        parts.add(new Part(null, null, classpath));
+      }
+      return this;
+    }
+
+    public Builder put(JavaLibraryRule rule, String entry) {
+      parts.add(new Part(Preconditions.checkNotNull(rule), Preconditions.checkNotNull(entry), null));
+      return this;
+    }
+
+    /**
+     * Adds every entry of {@code classpath}, regardless of the rule it belongs to, under
+     * {@code rule}, without copying them.
+     */
+    public Builder putAll(JavaLibraryRule rule, TransitiveClasspath classpath) {
+      Preconditions.checkNotNull(rule);
+      Preconditions.checkNotNull(classpath);
+      if (!classpath.parts.isEmpty()) {
+        parts.add(new Part(rule, null, classpath));
+      }
+      return this;
+    }
+
+    public TransitiveClasspath build() {
+      ImmutableList<Part> builtParts = parts.build();
+      return builtParts.isEmpty() ? EMPTY : new TransitiveClasspath(builtParts);
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.java;
 
+import com.facebook.buck.zip.IndexedZipFile;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.io.CharStreams;
@@ -25,8 +26,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import javax.annotation.concurrent.GuardedBy;
 import javax.tools.JavaCompiler;
@@ -35,24 +34,24 @@ import javax.tools.SimpleJavaFileObject;
 
 class ZipEntryJavaFileObject extends SimpleJavaFileObject {
 
-  private final ZipFile zipFile;
-  private final ZipEntry zipEntry;
+  private final IndexedZipFile zipFile;
+  private final IndexedZipFile.Entry zipEntry;
 
   @GuardedBy("this")
   private String contents;
 
-  public ZipEntryJavaFileObject(ZipFile zipFile, ZipEntry zipEntry) {
+  public ZipEntryJavaFileObject(IndexedZipFile zipFile, IndexedZipFile.Entry zipEntry) {
     super(createURIFromEntry(zipEntry), JavaFileObject.Kind.SOURCE);
     this.zipFile = Preconditions.checkNotNull(zipFile);
     this.zipEntry = Preconditions.checkNotNull(zipEntry);
   }
 
   /**
-   * Creates a canonical URI that represents the {@link ZipEntry}. This URI starts with
+   * Creates a canonical URI that represents the {@link IndexedZipFile.Entry}. This URI starts with
    * {@code "string:///"} because {@link JavaCompiler} does not seem to tolerate URIs that start
    * with {@code "jar:///"}, even though that would be more appropriate.
    */
-  private static URI createURIFromEntry(ZipEntry entry) {
+  private static URI createURIFromEntry(IndexedZipFile.Entry entry) {
     try {
       return new URI("string:///" + entry.getName());
     } catch (URISyntaxException e) {
@@ -61,8 +60,8 @@ class ZipEntryJavaFileObject extends SimpleJavaFileObject {
   }
 
   /**
-   * Returns the contents of the {@link ZipEntry} as a string. Ensures that the entry is read at
-   * most once.
+   * Returns the contents of the {@link IndexedZipFile.Entry} as a string. Ensures that the entry is
+   * read at most once.
    */
   private synchronized String getContentsAsString() {
     if (contents != null) {
@@ -16,6 +16,26 @@
 
 package com.facebook.buck.java.abi;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
 /**
  * Shared information between {@link AbiWriter} and its callers.
  */
@@ -29,8 +49,180 @@ public class AbiWriterProtocol {
   public static final String PARAM_ABI_OUTPUT_FILE =
       "buck.output_abi_file";
 
+  /**
+   * If set, the summary of each type that contributes to the ABI key is written to this file, as
+   * read by {@link #readSummaries(File)}, so that the key can be recomputed when only some of the
+   * types are compiled again.
+   */
+  public static final String PARAM_ABI_SUMMARIES_FILE =
+      "buck.output_abi_summaries_file";
+
+  /**
+   * If set, each compilation unit that javac analyzes is recorded in this file, along with the
+   * other compilation units in the same compilation that declare a symbol that it uses, as read by
+   * {@link #readSourceReferences(File)}.
+   */
+  public static final String PARAM_SOURCE_REFERENCES_FILE =
+      "buck.output_source_references_file";
+
   /**
    * The integrity of this value is verified by {@link com.facebook.buck.java.abi.AbiWriterTest}.
    */
   public static final String EMPTY_ABI_KEY = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+
+  /**
+   * Creates a SHA-1 hash from the summaries of the types that make up an ABI.
+   */
+  public static String computeAbiKey(SortedSet<String> summaries) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("sha-1");
+
+      for (String summary : summaries) {
+        // "2" is the number of bytes in a java character
+        ByteBuffer buffer =
+            ByteBuffer.allocate(summary.length() * 2).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int i = 0; i < summary.length(); i++) {
+          buffer.putChar(summary.charAt(i));
+        }
+        digest.update(buffer.array());
+      }
+      byte[] sha1Bytes = digest.digest();
+
+      // This isn't a particularly fast operation. A quick test indicates that it's approximately
+      // 3-4 times slower than "new BigInteger(1, sha1Bytes).toString(16)". It does, however, ensure
+      // that the resulting string is always 40 characters long and padded with 0 if necessary.
+      // To give an indication of speed, on my i7 mbp, 100k string generations takes ~450ms compared
+      // to ~150ms. In short, the speed hit isn't going to be the end of the world for our use case.
+      return String.format("%040x", new BigInteger(1, sha1Bytes));
+    } catch (NoSuchAlgorithmException e) {
+      // Note: if we get this we're on a broken JRE and we're not having fun.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes one line per type: its qualified name, a tab, and its summary, with backslashes, tabs
+   * and line breaks in the summary escaped.
+   */
+  public static void writeSummaries(Map<String, String> summariesByType, File file)
+      throws IOException {
+    try (Writer out = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+      for (Map.Entry<String, String> entry : summariesByType.entrySet()) {
+        out.write(entry.getKey());
+        out.write('\t');
+        out.write(escape(entry.getValue()));
+        out.write('\n');
+      }
+    }
+  }
+
+  /**
+   * @return the summaries written by {@link #writeSummaries(Map, File)}, keyed by qualified type
+   *     name.
+   */
+  public static SortedMap<String, String> readSummaries(File file) throws IOException {
+    SortedMap<String, String> summariesByType = new TreeMap<>();
+    try (BufferedReader in = new BufferedReader(
+        new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        int tab = line.indexOf('\t');
+        if (tab < 0) {
+          throw new IOException("Malformed ABI summary in " + file + ": " + line);
+        }
+        summariesByType.put(line.substring(0, tab), unescape(line.substring(tab + 1)));
+      }
+    }
+    return summariesByType;
+  }
+
+  /**
+   * Appends a line holding the URI of {@code source} followed by the URIs of the sources that it
+   * refers to, separated by tabs. URIs cannot contain tabs or line breaks, so need no escaping.
+   */
+  public static void appendSourceReferences(
+      String source,
+      Iterable<String> referencedSources,
+      File file) throws IOException {
+    try (Writer out = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(file, /* append */ true), "UTF-8"))) {
+      out.write(source);
+      for (String referencedSource : referencedSources) {
+        out.write('\t');
+        out.write(referencedSource);
+      }
+      out.write('\n');
+    }
+  }
+
+  /**
+   * @return the sources referred to by each source that was analyzed, keyed by the URI of the
+   *     source, as written by {@link #appendSourceReferences(String, Iterable, File)}.
+   */
+  public static SortedMap<String, SortedSet<String>> readSourceReferences(File file)
+      throws IOException {
+    SortedMap<String, SortedSet<String>> referencesBySource = new TreeMap<>();
+    try (BufferedReader in = new BufferedReader(
+        new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        String[] sources = line.split("\t");
+        SortedSet<String> references = referencesBySource.get(sources[0]);
+        if (references == null) {
+          references = new TreeSet<>();
+          referencesBySource.put(sources[0], references);
+        }
+        for (int i = 1; i < sources.length; i++) {
+          references.add(sources[i]);
+        }
+      }
+    }
+    return referencesBySource;
+  }
+
+  private static String escape(String summary) {
+    StringBuilder escaped = new StringBuilder(summary.length());
+    for (int i = 0; i < summary.length(); i++) {
+      char c = summary.charAt(i);
+      switch (c) {
+        case '\\':
+          escaped.append("\\\\");
+          break;
+        case '\t':
+          escaped.append("\\t");
+          break;
+        case '\n':
+          escaped.append("\\n");
+          break;
+        case '\r':
+          escaped.append("\\r");
+          break;
+        default:
+          escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  private static String unescape(String escaped) {
+    StringBuilder summary = new StringBuilder(escaped.length());
+    for (int i = 0; i < escaped.length(); i++) {
+      char c = escaped.charAt(i);
+      if (c != '\\' || i + 1 == escaped.length()) {
+        summary.append(c);
+        continue;
+      }
+      char next = escaped.charAt(++i);
+      if (next == 't') {
+        summary.append('\t');
+      } else if (next == 'n') {
+        summary.append('\n');
+      } else if (next == 'r') {
+        summary.append('\r');
+      } else {
+        summary.append(next);
+      }
+    }
+    return summary.toString();
+  }
 }
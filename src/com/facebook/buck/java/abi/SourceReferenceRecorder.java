@@ -0,0 +1,185 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java.abi;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.ImportTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Records, for each compilation unit that javac analyzes, which of the other compilation units
+ * being compiled with it declare a symbol that it resolves. Unlike the references in the class
+ * files that are generated, this includes the symbols that leave no trace in a class file, such as
+ * unused imports, inlined constants and annotations that are only retained in source.
+ */
+class SourceReferenceRecorder implements TaskListener {
+
+  private final Trees trees;
+  private final File outputFile;
+
+  /** Compilation units whose imports have been scanned. */
+  private final Set<CompilationUnitTree> unitsWithScannedImports = new HashSet<>();
+
+  /**
+   * The source of each top-level type that is being compiled, keyed by its qualified name. This is
+   * recorded before analysis, as javac forgets the tree of a type once it has generated its class
+   * file, and may replace the type's element between rounds of annotation processing.
+   */
+  private final Map<String, String> sourcesByTopLevelType = new HashMap<>();
+
+  private SourceReferenceRecorder(Trees trees, File outputFile) {
+    this.trees = trees;
+    this.outputFile = outputFile;
+  }
+
+  /**
+   * Starts recording the references of the compilation in which {@code processingEnv} is running
+   * to {@code outputFile}. Nothing is recorded by a version of javac that does not let an annotation
+   * processor listen to its task.
+   *
+   * @return the recorder, which must be told the root elements of each round of processing.
+   */
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  static SourceReferenceRecorder register(ProcessingEnvironment processingEnv, File outputFile) {
+    SourceReferenceRecorder recorder =
+        new SourceReferenceRecorder(Trees.instance(processingEnv), outputFile);
+    try {
+      // Looked up reflectively because both methods were only added to JavacTask in Java 8.
+      Object task = JavacTask.class.getMethod("instance", ProcessingEnvironment.class)
+          .invoke(null, processingEnv);
+      JavacTask.class.getMethod("addTaskListener", TaskListener.class).invoke(task, recorder);
+    } catch (ReflectiveOperationException | IllegalArgumentException e) {
+      // Leave the caller to assume the worst.
+    }
+    return recorder;
+  }
+
+  /** Records the sources of {@code rootElements}, from a round of annotation processing. */
+  void recordSources(Iterable<? extends Element> rootElements) {
+    for (Element element : rootElements) {
+      TreePath path = trees.getPath(element);
+      if (element instanceof TypeElement && path != null) {
+        sourcesByTopLevelType.put(
+            ((TypeElement) element).getQualifiedName().toString(),
+            path.getCompilationUnit().getSourceFile().toUri().toString());
+      }
+    }
+  }
+
+  @Override
+  public void started(TaskEvent event) {
+    // Symbols are only resolved once analysis has finished.
+  }
+
+  @Override
+  public void finished(TaskEvent event) {
+    if (event.getKind() != TaskEvent.Kind.ANALYZE) {
+      return;
+    }
+
+    CompilationUnitTree unit = event.getCompilationUnit();
+    String source = unit.getSourceFile().toUri().toString();
+    Set<String> referencedSources = new TreeSet<>();
+    ReferenceScanner scanner = new ReferenceScanner(source);
+
+    // Imports are resolved before any type in the unit is analyzed.
+    if (unitsWithScannedImports.add(unit)) {
+      TreePath unitPath = new TreePath(unit);
+      for (ImportTree importTree : unit.getImports()) {
+        scanner.scan(new TreePath(unitPath, importTree), referencedSources);
+      }
+    }
+
+    // Each top-level type is analyzed separately, so only the one that has just been analyzed is
+    // scanned: the symbols of the others may not have been resolved yet.
+    if (event.getTypeElement() != null) {
+      TreePath typePath = trees.getPath(event.getTypeElement());
+      if (typePath != null) {
+        scanner.scan(typePath, referencedSources);
+      }
+    }
+
+    try {
+      AbiWriterProtocol.appendSourceReferences(source, referencedSources, outputFile);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private String getSourceOfTopLevelType(Element element) {
+    Element topLevelType = element;
+    while (topLevelType.getEnclosingElement() != null &&
+        !(topLevelType.getEnclosingElement() instanceof PackageElement)) {
+      topLevelType = topLevelType.getEnclosingElement();
+    }
+    if (!(topLevelType instanceof TypeElement)) {
+      return null;
+    }
+    return sourcesByTopLevelType.get(((TypeElement) topLevelType).getQualifiedName().toString());
+  }
+
+  private class ReferenceScanner extends TreePathScanner<Void, Set<String>> {
+    private final String source;
+
+    private ReferenceScanner(String source) {
+      this.source = source;
+    }
+
+    @Override
+    public Void visitIdentifier(IdentifierTree tree, Set<String> referencedSources) {
+      record(referencedSources);
+      return super.visitIdentifier(tree, referencedSources);
+    }
+
+    @Override
+    public Void visitMemberSelect(MemberSelectTree tree, Set<String> referencedSources) {
+      record(referencedSources);
+      return super.visitMemberSelect(tree, referencedSources);
+    }
+
+    private void record(Set<String> referencedSources) {
+      Element element = trees.getElement(getCurrentPath());
+      if (element == null || element instanceof PackageElement) {
+        return;
+      }
+      String referencedSource = getSourceOfTopLevelType(element);
+      if (referencedSource != null && !referencedSource.equals(source)) {
+        referencedSources.add(referencedSource);
+      }
+    }
+  }
+}
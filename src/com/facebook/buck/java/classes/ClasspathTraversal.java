@@ -17,7 +17,7 @@
 package com.facebook.buck.java.classes;
 
 import com.facebook.buck.util.DirectoryTraversal;
-import com.facebook.buck.util.ZipFileTraversal;
+import com.facebook.buck.zip.IndexedZipFile;
 import com.google.common.base.Preconditions;
 import com.google.common.hash.HashCode;
 import com.google.common.io.Files;
@@ -28,8 +28,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.Collection;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * Traversal strategy for traversing a set of paths that themselves are traversed.  The provided
@@ -87,21 +85,21 @@ public abstract class ClasspathTraversal {
 
     @Override
     public void traverse(final ClasspathTraversal traversal) throws IOException {
-      ZipFileTraversal impl = new ZipFileTraversal(file) {
-        @Override
-        public void visit(ZipFile zipFile, ZipEntry zipEntry) throws IOException {
-          traversal.visit(new FileLikeInZip(file, zipFile, zipEntry));
+      // Entries can only be read while the jar is open, so visitors must read them as they are
+      // visited.
+      try (IndexedZipFile zipFile = IndexedZipFile.open(file)) {
+        for (IndexedZipFile.Entry entry : zipFile.getEntries()) {
+          traversal.visit(new FileLikeInZip(file, zipFile, entry));
         }
-      };
-      impl.traverse();
+      }
     }
 
     private static class FileLikeInZip extends AbstractFileLike {
       private final File container;
-      private final ZipFile zipFile;
-      private final ZipEntry entry;
+      private final IndexedZipFile zipFile;
+      private final IndexedZipFile.Entry entry;
 
-      public FileLikeInZip(File container, ZipFile zipFile, ZipEntry entry) {
+      public FileLikeInZip(File container, IndexedZipFile zipFile, IndexedZipFile.Entry entry) {
         this.container = container;
         this.zipFile = zipFile;
         this.entry = entry;
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.junit;
 
+import com.facebook.buck.util.concurrent.MoreExecutors;
+
 import org.junit.Test;
 import org.junit.runner.Description;
 import org.junit.runner.Result;
@@ -27,35 +29,58 @@ import org.junit.runner.notification.StoppedByUserException;
 import org.junit.runners.ParentRunner;
 import org.junit.runners.model.TestClass;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * {@link RunNotifier} that sets a timer when a test starts. The default timeout specified in
- * {@code .buckconfig} is the length of the timer. When the timer goes off, it checks if the test
- * has finished. If it has not finished, the test is flagged as a failure, and all future updates to
- * the test status are ignored.
+ * {@code .buckconfig} is the length of the timer. If the test has not finished when the timer goes
+ * off, the test is flagged as a failure, and all future updates to the test status are ignored.
+ * The timer is cancelled as soon as the test finishes.
  */
 class DelegateRunNotifier extends RunNotifier {
 
+  /**
+   * Shared by every notifier in the JVM, so that a test class does not have to start a thread of
+   * its own to time its tests out. Its thread only fires the timers, never runs the tests.
+   */
+  private static final ScheduledExecutorService timeoutScheduler =
+      MoreExecutors.newSingleDaemonThreadScheduledExecutor(
+          DelegateRunNotifier.class.getSimpleName());
+
   private final Runner runner;
   private final RunNotifier delegate;
   private final Set<Description> finishedTests;
   private final long defaultTestTimeoutMillis;
-  private final Timer timer;
+  private final Runnable onTestExceededTimeout;
+
+  /** The timers of the tests that have started but not finished. Guarded by finishedTests. */
+  private final Map<Description, Future<?>> pendingTimeouts;
 
   /** Flag that will be set if a test exceeds {@link #defaultTestTimeoutMillis}. */
   private final AtomicBoolean hasTestThatExceededTimeout;
 
-  DelegateRunNotifier(Runner runner, RunNotifier delegate, long defaultTestTimeoutMillis) {
+  /**
+   * @param onTestExceededTimeout run, on the thread of the timer, as soon as a test has been
+   *     flagged as having exceeded {@code defaultTestTimeoutMillis}.
+   */
+  DelegateRunNotifier(
+      Runner runner,
+      RunNotifier delegate,
+      long defaultTestTimeoutMillis,
+      Runnable onTestExceededTimeout) {
     this.runner = runner;
     this.delegate = delegate;
     this.finishedTests = new HashSet<Description>();
     this.defaultTestTimeoutMillis = defaultTestTimeoutMillis;
-    this.timer = new Timer();
+    this.onTestExceededTimeout = onTestExceededTimeout;
+    this.pendingTimeouts = new HashMap<Description, Future<?>>();
     this.hasTestThatExceededTimeout = new AtomicBoolean(false);
 
     // Because our fireTestRunFinished() does not seem to get invoked, we listen for the
@@ -68,16 +93,26 @@ class DelegateRunNotifier extends RunNotifier {
     });
   }
 
+  /** Stops the thread of {@link #timeoutScheduler}, cancelling any timers that are pending. */
+  static void shutDown() {
+    timeoutScheduler.shutdownNow();
+  }
+
   /** Performs any cleanup that we need to do as a result of the test run being complete. */
   private void onTestRunFinished() {
-    timer.cancel();
+    synchronized (finishedTests) {
+      for (Future<?> timeout : pendingTimeouts.values()) {
+        timeout.cancel(/* mayInterruptIfRunning */ false);
+      }
+      pendingTimeouts.clear();
+    }
   }
 
   /**
-   * Method that can be polled to see whether a test has exceeded its default timeout. If a test
-   * hangs forever, then the Runner will never start the next test, even if it was the last test and
-   * we invoked fireTestFinished() on the Runner's RunNotifier. For this reason, an external process
-   * should monitor the state of this method and cancel the Runner, if appropriate.
+   * Whether a test has exceeded its default timeout. If a test hangs forever, then the Runner will
+   * never start the next test, even if it was the last test and we invoked fireTestFinished() on
+   * the Runner's RunNotifier. For this reason, whoever is waiting for the Runner should cancel it
+   * once it is told that a test has exceeded its timeout, if appropriate.
    */
   public boolean hasTestThatExceededTimeout() {
     return hasTestThatExceededTimeout.get();
@@ -129,7 +164,7 @@ class DelegateRunNotifier extends RunNotifier {
     }
 
     // Schedule a timer that verifies that the test completed within the specified timeout.
-    TimerTask task = new TimerTask() {
+    Runnable task = new Runnable() {
       @Override
       public void run() {
         synchronized (finishedTests) {
@@ -153,9 +188,14 @@ class DelegateRunNotifier extends RunNotifier {
           onTestRunFinished();
           hasTestThatExceededTimeout.set(true);
         }
+        onTestExceededTimeout.run();
       }
     };
-    timer.schedule(task, defaultTestTimeoutMillis);
+    synchronized (finishedTests) {
+      pendingTimeouts.put(
+          description,
+          timeoutScheduler.schedule(task, defaultTestTimeoutMillis, TimeUnit.MILLISECONDS));
+    }
   }
 
   private TestClass getTestClass(Description description) {
@@ -201,6 +241,11 @@ class DelegateRunNotifier extends RunNotifier {
       if (!finishedTests.contains(description)) {
         delegate.fireTestFinished(description);
         finishedTests.add(description);
+
+        Future<?> timeout = pendingTimeouts.remove(description);
+        if (timeout != null) {
+          timeout.cancel(/* mayInterruptIfRunning */ false);
+        }
       }
     }
   }
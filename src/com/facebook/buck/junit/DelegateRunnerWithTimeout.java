@@ -20,10 +20,11 @@ import com.facebook.buck.util.concurrent.MoreExecutors;
 
 import org.junit.runner.Description;
 import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunNotifier;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 
 /**
  * {@link Runner} that composes a {@link Runner} that enforces a default timeout when running a
@@ -55,6 +56,11 @@ class DelegateRunnerWithTimeout extends Runner {
     this.defaultTestTimeoutMillis = defaultTestTimeoutMillis;
   }
 
+  /** Stops the thread of {@link #executor}, interrupting any test that is still running on it. */
+  static void shutDown() {
+    executor.shutdownNow();
+  }
+
   /**
    * @return the description from the original {@link Runner} wrapped by this {@link Runner}.
    */
@@ -70,39 +76,64 @@ class DelegateRunnerWithTimeout extends Runner {
    */
   @Override
   public void run(RunNotifier notifier) {
+    // A test that timed out is still running on the thread of the executor, so no more tests can be
+    // run on it.
+    if (executor.isShutdown()) {
+      Description description = getDescription();
+      notifier.fireTestStarted(description);
+      notifier.fireTestFailure(new Failure(description, new Exception(
+          "Not run because an earlier test timed out and is still running.")));
+      notifier.fireTestFinished(description);
+      return;
+    }
+
+    // Counted down either when the Runner is complete or as soon as one of its tests has exceeded
+    // the default timeout, whichever happens first.
+    final CountDownLatch isDone = new CountDownLatch(1);
     final DelegateRunNotifier wrapper = new DelegateRunNotifier(
-        delegate, notifier, defaultTestTimeoutMillis);
+        delegate,
+        notifier,
+        defaultTestTimeoutMillis,
+        new Runnable() {
+          @Override
+          public void run() {
+            isDone.countDown();
+          }
+        });
 
     // We run the Runner in an Executor so that we can tear it down if we need to.
-    Future<?> future = executor.submit(new Runnable() {
+    executor.submit(new Runnable() {
       @Override
       public void run() {
-        delegate.run(wrapper);
+        try {
+          delegate.run(wrapper);
+        } finally {
+          isDone.countDown();
+        }
       }
     });
 
-    // We poll the Executor to see if the Runner is complete. In the event that a test has exceeded
-    // the default timeout, we cancel the Runner to protect against the case where the test hangs
-    // forever.
+    boolean isInterrupted = false;
     while (true) {
-      if (future.isDone()) {
-        // Normal termination: hooray!
-        return;
-      } else if (wrapper.hasTestThatExceededTimeout()) {
-        // The test results that have been reported to the RunNotifier should still be output, but
-        // there may be tests that did not have a chance to run. Unfortunately, we have no way to
-        // tell the Runner to cancel only the runaway test.
-        executor.shutdownNow();
-        return;
-      } else {
-        // Tests are still running, so wait and try again.
-        try {
-          Thread.sleep(/* milliseconds */ 250L);
-        } catch (InterruptedException e) {
-          // Blargh, continue.
-        }
+      try {
+        isDone.await();
+        break;
+      } catch (InterruptedException e) {
+        // The Runner must not be abandoned while it may still be reporting results.
+        isInterrupted = true;
       }
     }
+    if (isInterrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (wrapper.hasTestThatExceededTimeout()) {
+      // The test results that have been reported to the RunNotifier should still be output, but
+      // there may be tests that did not have a chance to run. Unfortunately, we have no way to
+      // tell the Runner to cancel only the runaway test, so we cancel it to protect against the
+      // case where the test hangs forever.
+      executor.shutdownNow();
+    }
   }
 
 }
@@ -30,10 +30,15 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -62,13 +67,29 @@ public final class JUnitRunner {
   private final List<String> testClassNames;
   private final long defaultTestTimeoutMillis;
 
+  /** Where to stream a record as each test starts and finishes, or {@code null}. */
+  private final Writer testEventWriter;
+
   public JUnitRunner(
       File outputDirectory,
       List<String> testClassNames,
       long defaultTestTimeoutMillis) {
+    this(outputDirectory, testClassNames, defaultTestTimeoutMillis, /* testEventWriter */ null);
+  }
+
+  /**
+   * @param testEventWriter if not {@code null}, a record is written to it as each test starts and
+   *     finishes. See {@link TestEventStreamListener}.
+   */
+  public JUnitRunner(
+      File outputDirectory,
+      List<String> testClassNames,
+      long defaultTestTimeoutMillis,
+      Writer testEventWriter) {
     this.outputDirectory = outputDirectory;
     this.testClassNames = testClassNames;
     this.defaultTestTimeoutMillis = defaultTestTimeoutMillis;
+    this.testEventWriter = testEventWriter;
   }
 
   public void run() throws Throwable {
@@ -89,12 +110,25 @@ public final class JUnitRunner {
         Request request = Request.runner(suite);
 
         jUnitCore.addListener(TestResult.createSingleTestResultRunListener(results));
+        if (testEventWriter != null) {
+          jUnitCore.addListener(new TestEventStreamListener(testEventWriter));
+        }
         jUnitCore.run(request);
       }
       writeResult(className, results);
     }
   }
 
+  /**
+   * Stops the threads that the runners loaded by the class loader of this class share, so that
+   * nothing keeps the class loader, and the tests that it loaded, alive once they have run. No
+   * more tests can be run by that class loader afterwards.
+   */
+  public static void shutDown() {
+    DelegateRunnerWithTimeout.shutDown();
+    DelegateRunNotifier.shutDown();
+  }
+
   private boolean isTestClass(Class<?> klass) {
     return klass.getConstructors().length <= 1;
   }
@@ -246,12 +280,36 @@ public final class JUnitRunner {
     // Each argument other than the first one should be a class name to run.
     List<String> testClassNames = Arrays.asList(args).subList(2, args.length);
 
+    // If Buck is listening for test events, stream them to it as the tests run.
+    Writer testEventWriter = null;
+    String testEventPort = System.getenv(TestEventStreamListener.PORT_ENVIRONMENT_VARIABLE);
+    String testEventSecret = System.getenv(TestEventStreamListener.SECRET_ENVIRONMENT_VARIABLE);
+    if (testEventPort != null && testEventSecret != null) {
+      try {
+        Socket socket = new Socket(
+            InetAddress.getLoopbackAddress(),
+            Integer.parseInt(testEventPort));
+        testEventWriter = new BufferedWriter(
+            new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+        // Buck ignores the records of a connection that does not start with the secret.
+        testEventWriter.write(testEventSecret + '\n');
+      } catch (IOException | NumberFormatException e) {
+        // The events are only used to report progress, so run the tests regardless.
+        System.err.printf("Unable to stream test events to port %s: %s\n", testEventPort, e);
+      }
+    }
+
     // Run the tests.
     new JUnitRunner(outputDirectory,
         testClassNames,
-        defaultTestTimeoutMillis)
+        defaultTestTimeoutMillis,
+        testEventWriter)
     .run();
 
+    if (testEventWriter != null) {
+      testEventWriter.close();
+    }
+
     // Explicitly exit to force the test runner to complete even if tests have sloppily left behind
     // non-daemon threads that would have otherwise forced the process to wait and eventually
     // timeout.
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.junit;
+
+import com.facebook.buck.util.LoopbackSecret;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs one {@link JUnitRunner} job after another in a single, long-lived JVM, so that the cost of
+ * starting a JVM and warming it up is paid once rather than once per test rule.
+ * <p>
+ * On startup, the server prints {@link #PORT_PREFIX} and the port on which it is listening to
+ * stdout. It serves a single connection, which must first send the secret that the server was given
+ * through the {@link #SECRET_ENVIRONMENT_VARIABLE} environment variable, followed by a line break.
+ * Any other user can connect to a loopback port, so a connection that does not send the secret is
+ * closed without being read any further. Over the connection, the server is sent jobs, one at a
+ * time. A job is a series of lines:
+ * <ul>
+ *   <li>the directory to which the results should be written
+ *   <li>the default timeout in milliseconds (0 for no timeout)
+ *   <li>the classpath of the tests
+ *   <li>the fully-qualified names of the test classes, one per line
+ *   <li>an empty line
+ * </ul>
+ * As soon as the results of a test class have been written, the server replies with
+ * {@link #RESULT} and the name of the class. Once all of them have been written, it replies with
+ * {@link #DONE}, or with {@link #FAILED} and a message if the job could not be run. While the tests
+ * run, the records of {@link TestEventStreamListener} are sent over the same connection.
+ * <p>
+ * Each job is run by a new class loader that can only see the JDK and the classpath of the job, so
+ * no job sees the classes, or the static state, of another. Anything else that a job changes, such
+ * as system properties or threads that it leaves running, is seen by the jobs after it, so the
+ * server exits after a fixed number of jobs, after a job that fails, and when it has not been sent
+ * a job for a while.
+ * <p>
+ * IMPORTANT! Like {@link JUnitRunner}, this class limits itself to types that are available in
+ * both the JDK and Android Java API.
+ */
+public final class JUnitRunnerServer {
+
+  public static final String PORT_PREFIX = "JUnitRunnerServer listening on port ";
+  public static final String RESULT = "RESULT ";
+  public static final String DONE = "DONE";
+  public static final String FAILED = "FAILED ";
+  public static final String SECRET_ENVIRONMENT_VARIABLE = "BUCK_JUNIT_RUNNER_SERVER_SECRET";
+
+  private final BufferedReader reader;
+  private final Writer writer;
+
+  private JUnitRunnerServer(Socket socket) throws IOException {
+    this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+    this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+  }
+
+  /**
+   * Runs up to {@code maxJobs} jobs, stopping early if a job fails or the connection is closed.
+   */
+  private void serve(int maxJobs) throws IOException {
+    for (int jobCount = 0; jobCount < maxJobs; jobCount++) {
+      String outputDirectory = reader.readLine();
+      if (outputDirectory == null) {
+        // Buck has no more jobs for this JVM.
+        return;
+      }
+
+      long defaultTestTimeoutMillis = Long.parseLong(readRequiredLine());
+      String classpath = readRequiredLine();
+      List<String> testClassNames = new ArrayList<>();
+      for (String line = readRequiredLine(); !line.isEmpty(); line = readRequiredLine()) {
+        testClassNames.add(line);
+      }
+
+      if (!runJob(new File(outputDirectory), defaultTestTimeoutMillis, classpath, testClassNames)) {
+        return;
+      }
+    }
+  }
+
+  private String readRequiredLine() throws IOException {
+    String line = reader.readLine();
+    if (line == null) {
+      throw new EOFException("The connection was closed in the middle of a job.");
+    }
+    return line;
+  }
+
+  /**
+   * @return whether the job ran to completion, in which case the JVM may be used for another job.
+   */
+  private boolean runJob(
+      File outputDirectory,
+      long defaultTestTimeoutMillis,
+      String classpath,
+      List<String> testClassNames) throws IOException {
+    if (!outputDirectory.exists()) {
+      reply(FAILED + "The output directory did not exist: " + outputDirectory);
+      return false;
+    }
+
+    // The parent of the system class loader can only see the JDK, so the test runner, JUnit, and
+    // the tests are all loaded from the classpath of the job.
+    URLClassLoader classLoader = new URLClassLoader(
+        toUrls(classpath),
+        ClassLoader.getSystemClassLoader().getParent());
+    Thread currentThread = Thread.currentThread();
+    ClassLoader originalContextClassLoader = currentThread.getContextClassLoader();
+    currentThread.setContextClassLoader(classLoader);
+    Class<?> runnerClass = null;
+    try {
+      runnerClass = classLoader.loadClass(JUnitRunner.class.getName());
+      Constructor<?> constructor =
+          runnerClass.getConstructor(File.class, List.class, long.class, Writer.class);
+      Method run = runnerClass.getMethod("run");
+      for (String testClassName : testClassNames) {
+        Object runner = constructor.newInstance(
+            outputDirectory,
+            Collections.singletonList(testClassName),
+            defaultTestTimeoutMillis,
+            writer);
+        run.invoke(runner);
+        reply(RESULT + testClassName);
+      }
+      reply(DONE);
+      return true;
+    } catch (InvocationTargetException e) {
+      reply(FAILED + describe(e.getCause()));
+      return false;
+    } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+      reply(FAILED + describe(e));
+      return false;
+    } finally {
+      if (runnerClass != null) {
+        shutDown(runnerClass);
+      }
+      currentThread.setContextClassLoader(originalContextClassLoader);
+      // Closes the jars on the classpath, so that the next job reads them afresh.
+      classLoader.close();
+    }
+  }
+
+  /**
+   * Stops the threads that the test runner of a job started, which would otherwise keep its class
+   * loader, and every class that the job loaded, alive for as long as this JVM runs.
+   */
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  private static void shutDown(Class<?> runnerClass) {
+    try {
+      runnerClass.getMethod("shutDown").invoke(/* static */ null);
+    } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+      // The job has already been replied to, and the JVM exits after a fixed number of jobs, so
+      // at worst the threads are left behind until then.
+    }
+  }
+
+  private static URL[] toUrls(String classpath) throws MalformedURLException {
+    List<URL> urls = new ArrayList<>();
+    for (String entry : classpath.split(File.pathSeparator)) {
+      if (!entry.isEmpty()) {
+        urls.add(new File(entry).toURI().toURL());
+      }
+    }
+    return urls.toArray(new URL[urls.size()]);
+  }
+
+  /** @return a one-line description of {@code throwable}, as replies are one line each. */
+  private static String describe(Throwable throwable) {
+    return String.valueOf(throwable).replace('\n', ' ').replace('\r', ' ');
+  }
+
+  private void reply(String line) throws IOException {
+    // A single write, so that replies are not interleaved with the records of the tests.
+    writer.write(line + '\n');
+    writer.flush();
+  }
+
+  /**
+   * Accepts connections until one sends {@code secret}. Like any other connection, this gives up
+   * once the server has waited too long for it.
+   */
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  private static Socket acceptAuthenticated(ServerSocket serverSocket, String secret)
+      throws IOException {
+    while (true) {
+      Socket socket = serverSocket.accept();
+      try {
+        if (LoopbackSecret.isSentBy(socket, secret)) {
+          return socket;
+        }
+      } catch (IOException e) {
+        // The connection went away, or was too slow to send anything.
+      }
+      socket.close();
+    }
+  }
+
+  /**
+   * Expected arguments are:
+   * <ul>
+   *   <li>(int) the maximum number of jobs to run before exiting
+   *   <li>(int) how long to wait for a job, in milliseconds, before exiting
+   * </ul>
+   */
+  public static void main(String... args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Must specify the maximum number of jobs and the idle timeout.");
+      System.exit(1);
+    }
+
+    String secret = System.getenv(SECRET_ENVIRONMENT_VARIABLE);
+    if (secret == null || secret.isEmpty()) {
+      System.err.println("Must specify the secret in " + SECRET_ENVIRONMENT_VARIABLE + ".");
+      System.exit(1);
+    }
+
+    int maxJobs = Integer.parseInt(args[0]);
+    int idleTimeoutMillis = Integer.parseInt(args[1]);
+
+    try (ServerSocket serverSocket =
+             new ServerSocket(/* port */ 0, /* backlog */ 1, InetAddress.getLoopbackAddress())) {
+      serverSocket.setSoTimeout(idleTimeoutMillis);
+      System.out.println(PORT_PREFIX + serverSocket.getLocalPort());
+      System.out.flush();
+
+      try (Socket socket = acceptAuthenticated(serverSocket, secret)) {
+        socket.setSoTimeout(idleTimeoutMillis);
+        new JUnitRunnerServer(socket).serve(maxJobs);
+      }
+    } catch (IOException e) {
+      // Either Buck went away or it stopped sending jobs. Either way, Buck no longer needs this
+      // JVM, so there is nobody to report the error to.
+      System.err.println(e);
+    }
+
+    // As with JUnitRunner, exit explicitly in case the tests have left non-daemon threads behind.
+    System.exit(0);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.junit;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams a record to Buck as each test starts and finishes, so that Buck can report progress and
+ * failures while the tests are still running, rather than once the results have been written.
+ * Each record is a single line of tab-separated fields:
+ * <pre>
+ * TEST_STARTED  test class  test method
+ * TEST_FINISHED test class  test method  success  time in milliseconds  message  stacktrace
+ * </pre>
+ * Backslashes, tabs, and line breaks within a field are escaped with a backslash, and a missing
+ * message or stacktrace is written as an empty field.
+ * <p>
+ * Buck only uses these records for reporting, so if they cannot be written, the tests carry on,
+ * and their results are still written as XML by {@link JUnitRunner}.
+ * <p>
+ * IMPORTANT! This class limits itself to types that are available in both the JDK and Android Java
+ * API. See {@link JUnitRunner}.
+ */
+final class TestEventStreamListener extends RunListener {
+
+  /** The name of the environment variable that tells a forked runner where to stream records. */
+  static final String PORT_ENVIRONMENT_VARIABLE = "BUCK_TEST_EVENT_PORT";
+
+  /** The name of the environment variable with the secret that must be sent before any record. */
+  static final String SECRET_ENVIRONMENT_VARIABLE = "BUCK_TEST_EVENT_SECRET";
+
+  static final String TEST_STARTED = "TEST_STARTED";
+  static final String TEST_FINISHED = "TEST_FINISHED";
+
+  private final Writer writer;
+  private volatile boolean isBroken;
+
+  // Tests in a class are run one at a time, but not necessarily on the same thread.
+  private volatile long startTime;
+  private volatile Failure failure;
+
+  TestEventStreamListener(Writer writer) {
+    this.writer = writer;
+  }
+
+  @Override
+  public void testStarted(Description description) {
+    startTime = System.currentTimeMillis();
+    failure = null;
+    write(TEST_STARTED, description.getClassName(), description.getMethodName());
+  }
+
+  @Override
+  public void testFailure(Failure failure) {
+    this.failure = failure;
+  }
+
+  @Override
+  public void testAssumptionFailure(Failure failure) {
+    // Like the XML results, a test whose assumptions do not hold is reported as a failure.
+    this.failure = failure;
+  }
+
+  @Override
+  public void testFinished(Description description) {
+    Failure failure = this.failure;
+    write(TEST_FINISHED,
+        description.getClassName(),
+        description.getMethodName(),
+        Boolean.toString(failure == null),
+        String.valueOf(System.currentTimeMillis() - startTime),
+        failure == null ? null : failure.getMessage(),
+        failure == null ? null : failure.getTrace());
+  }
+
+  private void write(String... fields) {
+    if (isBroken) {
+      return;
+    }
+
+    StringBuilder record = new StringBuilder();
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        record.append('\t');
+      }
+      if (fields[i] != null) {
+        escape(fields[i], record);
+      }
+    }
+    record.append('\n');
+
+    try {
+      // A single write, so that records from different threads are not interleaved.
+      writer.write(record.toString());
+      writer.flush();
+    } catch (IOException e) {
+      isBroken = true;
+    }
+  }
+
+  private static void escape(String field, StringBuilder out) {
+    for (int i = 0; i < field.length(); i++) {
+      char c = field.charAt(i);
+      switch (c) {
+        case '\\':
+          out.append("\\\\");
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        default:
+          out.append(c);
+          break;
+      }
+    }
+  }
+}
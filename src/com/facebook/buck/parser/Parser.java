@@ -46,6 +46,7 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.ListMultimap;
@@ -125,6 +126,17 @@ public class Parser {
    */
   private final ListMultimap<Path, Path> buildFileDependents;
 
+  /**
+   * If present, the raw rules produced by build files are persisted in a {@link RawRulesSnapshot}
+   * so that unchanged build files need not be executed again by a later instance of Buck with this
+   * version UID.
+   */
+  private final Optional<String> rawRulesSnapshotVersionUid;
+
+  /** Loaded on first use, and reloaded if the default includes change. */
+  @Nullable
+  private RawRulesSnapshot rawRulesSnapshot;
+
   /**
    * Parsers may be reused on different consoles, so need to allow the console to be set.
    * @param console The new console that the Parser should use.
@@ -191,7 +203,8 @@ public class Parser {
             pythonInterpreter,
             buildRuleTypes.getAllDescriptions()),
         tempFilePatterns,
-        ruleKeyBuilderFactory);
+        ruleKeyBuilderFactory,
+        /* rawRulesSnapshotVersionUid */ RawRulesSnapshot.CURRENT_BUCK_VERSION_UID);
   }
 
   /**
@@ -208,6 +221,28 @@ public class Parser {
          ProjectBuildFileParserFactory buildFileParserFactory,
          ImmutableSet<Pattern> tempFilePatterns,
          RuleKeyBuilderFactory ruleKeyBuilderFactory) {
+    this(projectFilesystem,
+        buildRuleTypes,
+        console,
+        buildFileTreeSupplier,
+        buildTargetParser,
+        knownBuildTargets,
+        buildFileParserFactory,
+        tempFilePatterns,
+        ruleKeyBuilderFactory,
+        /* rawRulesSnapshotVersionUid */ Optional.<String>absent());
+  }
+
+  private Parser(ProjectFilesystem projectFilesystem,
+      KnownBuildRuleTypes buildRuleTypes,
+      Console console,
+      InputSupplier<BuildFileTree> buildFileTreeSupplier,
+      BuildTargetParser buildTargetParser,
+      Map<BuildTarget, BuildRuleBuilder<?>> knownBuildTargets,
+      ProjectBuildFileParserFactory buildFileParserFactory,
+      ImmutableSet<Pattern> tempFilePatterns,
+      RuleKeyBuilderFactory ruleKeyBuilderFactory,
+      Optional<String> rawRulesSnapshotVersionUid) {
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
     this.buildRuleTypes = Preconditions.checkNotNull(buildRuleTypes);
     this.console = Preconditions.checkNotNull(console);
@@ -220,6 +255,7 @@ public class Parser {
     this.parsedBuildFiles = ArrayListMultimap.create();
     this.buildFileDependents = ArrayListMultimap.create();
     this.tempFilePatterns = tempFilePatterns;
+    this.rawRulesSnapshotVersionUid = Preconditions.checkNotNull(rawRulesSnapshotVersionUid);
   }
 
   public BuildTargetParser getBuildTargetParser() {
@@ -296,8 +332,7 @@ public class Parser {
     // seed BuildTargets for the traversal.
     eventBus.post(ParseEvent.started(buildTargets));
     DependencyGraph graph = null;
-    try (ProjectBuildFileParser buildFileParser = buildFileParserFactory.createParser(
-        defaultIncludes)) {
+    try (ProjectBuildFileParser buildFileParser = createBuildFileParser(defaultIncludes)) {
       if (!isCacheComplete(defaultIncludes)) {
         Set<File> buildTargetFiles = Sets.newHashSet();
         for (BuildTarget buildTarget : buildTargets) {
@@ -310,6 +345,7 @@ public class Parser {
       }
 
       graph = findAllTransitiveDependencies(buildTargets, defaultIncludes, buildFileParser);
+      saveRawRulesSnapshot(defaultIncludes);
       return graph;
     } finally {
       eventBus.post(ParseEvent.finished(buildTargets, Optional.fromNullable(graph)));
@@ -320,7 +356,7 @@ public class Parser {
   DependencyGraph onlyUseThisWhenTestingToFindAllTransitiveDependencies(
       Iterable<BuildTarget> toExplore,
       final Iterable<String> defaultIncludes) throws IOException {
-    ProjectBuildFileParser parser = buildFileParserFactory.createParser(defaultIncludes);
+    ProjectBuildFileParser parser = createBuildFileParser(defaultIncludes);
     return findAllTransitiveDependencies(toExplore, defaultIncludes, parser);
   }
 
@@ -482,18 +518,21 @@ public class Parser {
       File buildFile,
       Iterable<String> defaultIncludes)
       throws BuildFileParseException, BuildTargetException, IOException {
-    try (ProjectBuildFileParser projectBuildFileParser =
-        buildFileParserFactory.createParser(defaultIncludes)) {
-      return parseBuildFile(buildFile, defaultIncludes, projectBuildFileParser);
+    try (ProjectBuildFileParser projectBuildFileParser = createBuildFileParser(defaultIncludes)) {
+      List<Map<String, Object>> rules =
+          parseBuildFile(buildFile, defaultIncludes, projectBuildFileParser);
+      saveRawRulesSnapshot(defaultIncludes);
+      return rules;
     }
   }
 
   /**
    * @param buildFile the build file to execute to generate build rules if they are not cached.
    * @param defaultIncludes the files to include before executing the build file.
+   * @param buildFileParser created by {@link #createBuildFileParser(Iterable)}.
    * @return a list of raw build rules generated by executing the build file.
    */
-  public List<Map<String,Object>> parseBuildFile(
+  private List<Map<String,Object>> parseBuildFile(
       File buildFile,
       Iterable<String> defaultIncludes,
       ProjectBuildFileParser buildFileParser)
@@ -508,11 +547,75 @@ public class Parser {
             buildFile);
       }
 
-      parseRawRulesInternal(buildFileParser.getAllRulesAndMetaRules(buildFile.getPath()));
+      parseRawRulesInternal(getRawRulesAndMetaRules(buildFile, defaultIncludes, buildFileParser));
     }
     return parsedBuildFiles.get(normalize(buildFile.toPath()));
   }
 
+  /**
+   * @return the raw rules in {@code buildFile}, from the {@link RawRulesSnapshot} if the build file
+   *     and the files it includes are unchanged since it was last executed, and by executing it
+   *     otherwise.
+   */
+  private List<Map<String, Object>> getRawRulesAndMetaRules(
+      File buildFile,
+      Iterable<String> defaultIncludes,
+      ProjectBuildFileParser buildFileParser)
+      throws BuildFileParseException, IOException {
+    Optional<RawRulesSnapshot> snapshot = getRawRulesSnapshot(defaultIncludes);
+    Path buildFilePath = normalize(buildFile.toPath());
+    if (snapshot.isPresent()) {
+      Optional<List<Map<String, Object>>> rules =
+          snapshot.get().getRulesAndMetaRules(buildFilePath);
+      if (rules.isPresent()) {
+        return rules.get();
+      }
+    }
+
+    List<Map<String, Object>> rules = buildFileParser.getAllRulesAndMetaRules(buildFile.getPath());
+    if (snapshot.isPresent()) {
+      snapshot.get().putRulesAndMetaRules(buildFilePath, rules);
+    }
+    return rules;
+  }
+
+  private synchronized Optional<RawRulesSnapshot> getRawRulesSnapshot(
+      Iterable<String> defaultIncludes) {
+    if (!rawRulesSnapshotVersionUid.isPresent()) {
+      return Optional.absent();
+    }
+
+    if (rawRulesSnapshot == null ||
+        !rawRulesSnapshot.getDefaultIncludes().equals(ImmutableList.copyOf(defaultIncludes))) {
+      rawRulesSnapshot = RawRulesSnapshot.load(
+          projectFilesystem,
+          rawRulesSnapshotVersionUid.get(),
+          defaultIncludes);
+    }
+    return Optional.of(rawRulesSnapshot);
+  }
+
+  /**
+   * Every parse starts by creating a {@link ProjectBuildFileParser} here. As build files and the
+   * files that they include may have been edited since the last parse, such as between two commands
+   * run by the Buck daemon, the hashes of the files that the {@link RawRulesSnapshot} has read are
+   * forgotten first.
+   */
+  private ProjectBuildFileParser createBuildFileParser(Iterable<String> defaultIncludes) {
+    Optional<RawRulesSnapshot> snapshot = getRawRulesSnapshot(defaultIncludes);
+    if (snapshot.isPresent()) {
+      snapshot.get().invalidateHashes();
+    }
+    return buildFileParserFactory.createParser(defaultIncludes);
+  }
+
+  private void saveRawRulesSnapshot(Iterable<String> defaultIncludes) throws IOException {
+    Optional<RawRulesSnapshot> snapshot = getRawRulesSnapshot(defaultIncludes);
+    if (snapshot.isPresent() && snapshot.get().isModified()) {
+      snapshot.get().save(projectFilesystem);
+    }
+  }
+
   /**
    * @param rules the raw rule objects to parse.
    */
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.json.BuildFileToJsonParser;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * The raw rules that were produced by executing each build file, persisted in {@code buck-out} so
+ * that a new instance of Buck does not have to execute build files that have not changed since
+ * they were last executed. Executing build files is by far the most expensive part of parsing.
+ * <p>
+ * The rules of a build file are only reused if the SHA-1 of the build file and of every file that
+ * it included is unchanged, if no file has been added to or removed from the directories that it
+ * globbed, and if they were produced with the same default includes by the same version of Buck.
+ */
+public class RawRulesSnapshot {
+
+  @VisibleForTesting
+  static final Path PATH_TO_SNAPSHOT =
+      Paths.get(BuckConstant.BUCK_OUTPUT_DIRECTORY, "parser", "raw_rules.json");
+
+  /**
+   * The version of Buck that is running, which is only known when Buck is run by {@code bin/buck}.
+   * Rules produced by an unknown version cannot be told apart from those of another, so they are
+   * not persisted at all.
+   */
+  static final Optional<String> CURRENT_BUCK_VERSION_UID =
+      Optional.fromNullable(System.getProperty("buck.version_uid"));
+
+  private static final String INCLUDES_META_RULE = "__includes";
+  private static final String GLOB_ROOTS_META_RULE = "__glob_roots";
+
+  private static final String VERSION_KEY = "version";
+  private static final String DEFAULT_INCLUDES_KEY = "includes";
+  private static final String BUILD_FILES_KEY = "buildFiles";
+  private static final String INPUTS_KEY = "inputs";
+  private static final String LISTINGS_KEY = "listings";
+  private static final String RULES_KEY = "rules";
+
+  private final String buckVersionUid;
+  private final ImmutableList<String> defaultIncludes;
+
+  /**
+   * Keyed by the absolute path to the build file. Each value maps {@link #INPUTS_KEY} to the hashes
+   * of the files that the build file read, {@link #LISTINGS_KEY} to the hashes of the listings of
+   * the directories that it globbed, and {@link #RULES_KEY} to the rules that it produced.
+   */
+  private final Map<String, Map<String, Object>> buildFiles;
+
+  /** Hashes of files that have been read since {@link #invalidateHashes()} was last called. */
+  private final Map<String, Optional<String>> hashes;
+
+  /** Hashes of directory listings made since {@link #invalidateHashes()} was last called. */
+  private final Map<String, Optional<String>> listingHashes;
+
+  private boolean isModified;
+
+  @VisibleForTesting
+  RawRulesSnapshot(
+      String buckVersionUid,
+      Iterable<String> defaultIncludes,
+      Map<String, Map<String, Object>> buildFiles) {
+    this.buckVersionUid = Preconditions.checkNotNull(buckVersionUid);
+    this.defaultIncludes = ImmutableList.copyOf(defaultIncludes);
+    this.buildFiles = Maps.newHashMap(buildFiles);
+    this.hashes = Maps.newHashMap();
+    this.listingHashes = Maps.newHashMap();
+    this.isModified = false;
+  }
+
+  /**
+   * Reads the snapshot written by a previous invocation of {@link #save(ProjectFilesystem)}. If
+   * there is no snapshot, it cannot be read, or it was produced with different default includes or
+   * by a version of Buck other than {@code buckVersionUid}, then an empty snapshot is returned.
+   */
+  @SuppressWarnings("unchecked")
+  public static RawRulesSnapshot load(
+      ProjectFilesystem projectFilesystem,
+      String buckVersionUid,
+      Iterable<String> defaultIncludes) {
+    RawRulesSnapshot emptySnapshot = new RawRulesSnapshot(
+        buckVersionUid,
+        defaultIncludes,
+        ImmutableMap.<String, Map<String, Object>>of());
+    Optional<String> contents = projectFilesystem.readFileIfItExists(PATH_TO_SNAPSHOT);
+    if (!contents.isPresent()) {
+      return emptySnapshot;
+    }
+
+    Map<String, Object> snapshot;
+    try {
+      snapshot = new ObjectMapper().readValue(contents.get(), Map.class);
+    } catch (IOException e) {
+      return emptySnapshot;
+    }
+
+    if (!buckVersionUid.equals(snapshot.get(VERSION_KEY)) ||
+        !emptySnapshot.defaultIncludes.equals(snapshot.get(DEFAULT_INCLUDES_KEY)) ||
+        !(snapshot.get(BUILD_FILES_KEY) instanceof Map)) {
+      return emptySnapshot;
+    }
+
+    return new RawRulesSnapshot(
+        buckVersionUid,
+        defaultIncludes,
+        (Map<String, Map<String, Object>>) snapshot.get(BUILD_FILES_KEY));
+  }
+
+  public synchronized void save(ProjectFilesystem projectFilesystem) throws IOException {
+    Map<String, Object> snapshot = ImmutableMap.of(
+        VERSION_KEY, buckVersionUid,
+        DEFAULT_INCLUDES_KEY, defaultIncludes,
+        BUILD_FILES_KEY, buildFiles);
+    projectFilesystem.createParentDirs(PATH_TO_SNAPSHOT);
+    projectFilesystem.writeContentsToPath(
+        new ObjectMapper().writeValueAsString(snapshot),
+        PATH_TO_SNAPSHOT);
+    isModified = false;
+  }
+
+  public synchronized boolean isModified() {
+    return isModified;
+  }
+
+  public ImmutableList<String> getDefaultIncludes() {
+    return defaultIncludes;
+  }
+
+  /**
+   * Forgets the hashes of files that have been read, and of directories that have been listed, so
+   * far. Hashes are remembered so that files that are included by many build files are only read
+   * once, so this must be called whenever the files may have changed, such as at the start of each
+   * command run by the Buck daemon.
+   */
+  public synchronized void invalidateHashes() {
+    hashes.clear();
+    listingHashes.clear();
+  }
+
+  /**
+   * @param buildFile absolute path to a build file.
+   * @return the rules and meta rules produced by executing {@code buildFile}, if none of the files
+   *     that it read have changed since then.
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized Optional<List<Map<String, Object>>> getRulesAndMetaRules(Path buildFile)
+      throws IOException {
+    Map<String, Object> entry = buildFiles.get(buildFile.toString());
+    if (entry == null ||
+        !(entry.get(INPUTS_KEY) instanceof Map) ||
+        !(entry.get(LISTINGS_KEY) instanceof Map) ||
+        !(entry.get(RULES_KEY) instanceof List)) {
+      return Optional.absent();
+    }
+
+    Map<String, String> inputs = (Map<String, String>) entry.get(INPUTS_KEY);
+    for (Map.Entry<String, String> input : inputs.entrySet()) {
+      if (!Objects.equal(Optional.of(input.getValue()), getHash(input.getKey()))) {
+        return Optional.absent();
+      }
+    }
+
+    Map<String, String> listings = (Map<String, String>) entry.get(LISTINGS_KEY);
+    for (Map.Entry<String, String> listing : listings.entrySet()) {
+      if (!Objects.equal(Optional.of(listing.getValue()), getListingHash(listing.getKey()))) {
+        return Optional.absent();
+      }
+    }
+
+    // Round-trip the rules through the parser that reads the output of buck.py, so that they are
+    // made up of exactly the same types as if the build file had been executed.
+    String rules = new ObjectMapper().writeValueAsString(entry.get(RULES_KEY));
+    return Optional.of(new BuildFileToJsonParser(rules).nextRules());
+  }
+
+  /**
+   * Records the rules and meta rules that were produced by executing {@code buildFile}, along with
+   * the hashes of the build file, of the files that it included, and of the listings of the
+   * directories that it globbed.
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized void putRulesAndMetaRules(
+      Path buildFile,
+      List<Map<String, Object>> rulesAndMetaRules) throws IOException {
+    Preconditions.checkNotNull(buildFile);
+    List<String> inputPaths = ImmutableList.of(buildFile.toString());
+    List<String> globRoots = ImmutableList.of();
+    for (Map<String, Object> rule : rulesAndMetaRules) {
+      if (rule.containsKey(INCLUDES_META_RULE)) {
+        inputPaths = (List<String>) rule.get(INCLUDES_META_RULE);
+      }
+      if (rule.containsKey(GLOB_ROOTS_META_RULE)) {
+        globRoots = (List<String>) rule.get(GLOB_ROOTS_META_RULE);
+      }
+    }
+
+    ImmutableMap.Builder<String, String> inputs = ImmutableMap.builder();
+    for (String inputPath : inputPaths) {
+      Optional<String> hash = getHash(inputPath);
+      if (!hash.isPresent()) {
+        // The file has gone away since it was read, so the rules cannot be trusted.
+        buildFiles.remove(buildFile.toString());
+        return;
+      }
+      inputs.put(inputPath, hash.get());
+    }
+
+    ImmutableMap.Builder<String, String> listings = ImmutableMap.builder();
+    for (String globRoot : globRoots) {
+      Optional<String> hash = getListingHash(globRoot);
+      if (!hash.isPresent()) {
+        buildFiles.remove(buildFile.toString());
+        return;
+      }
+      listings.put(globRoot, hash.get());
+    }
+
+    buildFiles.put(buildFile.toString(), ImmutableMap.<String, Object>of(
+        INPUTS_KEY, inputs.build(),
+        LISTINGS_KEY, listings.build(),
+        RULES_KEY, ImmutableList.copyOf(rulesAndMetaRules)));
+    isModified = true;
+  }
+
+  private Optional<String> getHash(String path) throws IOException {
+    Optional<String> hash = hashes.get(path);
+    if (hash == null) {
+      File file = new File(path);
+      hash = file.isFile() ?
+          Optional.of(Files.hash(file, Hashing.sha1()).toString()) :
+          Optional.<String>absent();
+      hashes.put(path, hash);
+    }
+    return hash;
+  }
+
+  /**
+   * @return a hash of the paths of every file under {@code directory}, found the same way that
+   *     {@code glob()} in {@code buck.py} finds them, so that it changes whenever a file that a glob
+   *     could match is added or removed.
+   */
+  private Optional<String> getListingHash(String directory) throws IOException {
+    Optional<String> hash = listingHashes.get(directory);
+    if (hash == null) {
+      final Path root = Paths.get(directory);
+      if (java.nio.file.Files.isDirectory(root)) {
+        final SortedSet<String> paths = Sets.newTreeSet();
+        java.nio.file.Files.walkFileTree(root,
+            EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+            Integer.MAX_VALUE,
+            new SimpleFileVisitor<Path>() {
+              @Override
+              public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isDirectory()) {
+                  paths.add(root.relativize(file).toString());
+                }
+                return FileVisitResult.CONTINUE;
+              }
+
+              @Override
+              public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Symlinks that form a cycle are skipped, as they are by glob().
+                return FileVisitResult.CONTINUE;
+              }
+            });
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (String path : paths) {
+          hasher.putString(path, Charsets.UTF_8).putByte((byte) 0);
+        }
+        hash = Optional.of(hasher.hash().toString());
+      } else {
+        hash = Optional.absent();
+      }
+      listingHashes.put(directory, hash);
+    }
+    return hash;
+  }
+}
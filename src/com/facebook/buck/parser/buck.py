@@ -156,6 +156,8 @@ def symlink_aware_walk(base):
 @provide_for_build
 def glob(includes, excludes=[], build_env=None):
   search_base = build_env['BUILD_FILE_DIRECTORY']
+  # The result depends on which files exist under search_base, not just on the build file.
+  build_env['GLOB_ROOTS'].add(search_base)
 
   # Ensure the user passes lists of strings rather than just a string.
   assert not isinstance(includes, basestring), \
@@ -735,6 +737,7 @@ class BuildFileProcessor:
     build_env['BASE'] = relative_path_to_build_file[:self.len_suffix]
     build_env['BUILD_FILE_DIRECTORY'] = os.path.dirname(build_file)
     build_env['RULES'] = {}
+    build_env['GLOB_ROOTS'] = set()
 
     # Copy BUILD_FILE_SYMBOL_TABLE over.  This is the only dict that we need
     # a sperate copy of since update_lazy_functions will modify it.
@@ -748,7 +751,10 @@ class BuildFileProcessor:
              build_env['BUILD_FILE_SYMBOL_TABLE'])
 
     values = build_env['RULES'].values()
-    values.append({"__includes": [build_file] + build_env['INCLUDES']})
+    meta_rule = {"__includes": [build_file] + build_env['INCLUDES']}
+    if build_env['GLOB_ROOTS']:
+      meta_rule["__glob_roots"] = sorted(build_env['GLOB_ROOTS'])
+    values.append(meta_rule)
     if self.server:
       print json.dumps(values)
     else:
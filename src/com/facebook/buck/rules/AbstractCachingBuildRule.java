@@ -68,6 +68,12 @@ public abstract class AbstractCachingBuildRule extends AbstractBuildRule impleme
    */
   private final SettableFuture<BuildRuleSuccess> buildRuleResult;
 
+  /**
+   * This is the value returned by {@link #buildUntilAbiIsReady(BuildContext)}. It is resolved by
+   * {@link #markAbiReady()} or, failing that, when {@link #buildRuleResult} is.
+   */
+  private final SettableFuture<Void> abiReadyResult;
+
   /** @see Buildable#getInputsToCompareToOutput()  */
   private Iterable<Path> inputsToCompareToOutputs;
 
@@ -76,15 +82,34 @@ public abstract class AbstractCachingBuildRule extends AbstractBuildRule impleme
     this.buildable = Preconditions.checkNotNull(buildable);
     this.hasBuildStarted = new AtomicBoolean(false);
     this.buildRuleResult = SettableFuture.create();
+    this.abiReadyResult = createAbiReadyResult(buildRuleResult);
   }
 
   protected AbstractCachingBuildRule(BuildRuleParams buildRuleParams) {
     super(buildRuleParams);
     this.hasBuildStarted = new AtomicBoolean(false);
     this.buildRuleResult = SettableFuture.create();
+    this.abiReadyResult = createAbiReadyResult(buildRuleResult);
     this.buildable = Preconditions.checkNotNull(getBuildable());
   }
 
+  private static SettableFuture<Void> createAbiReadyResult(
+      ListenableFuture<BuildRuleSuccess> buildRuleResult) {
+    final SettableFuture<Void> abiReadyResult = SettableFuture.create();
+    Futures.addCallback(buildRuleResult, new FutureCallback<BuildRuleSuccess>() {
+      @Override
+      public void onSuccess(BuildRuleSuccess result) {
+        abiReadyResult.set(null);
+      }
+
+      @Override
+      public void onFailure(Throwable failure) {
+        abiReadyResult.setException(failure);
+      }
+    });
+    return abiReadyResult;
+  }
+
   /**
    * This rule is designed to be used for precondition checks in subclasses. For example, before
    * running the tests associated with a build rule, it is reasonable to do a sanity check to
@@ -125,6 +150,39 @@ public abstract class AbstractCachingBuildRule extends AbstractBuildRule impleme
     return buildable.appendDetailsToRuleKey(builder);
   }
 
+  /**
+   * Starts to build this rule, if it has not been started already, like
+   * {@link #build(BuildContext)}.
+   * @return a future that is resolved as soon as rules that only need the ABI of this rule, as
+   *     opposed to all of its output, can be built, which is never later than when the future
+   *     returned by {@link #build(BuildContext)} is resolved.
+   * @see #markAbiReady()
+   */
+  public final ListenableFuture<Void> buildUntilAbiIsReady(BuildContext context) {
+    build(context);
+    return abiReadyResult;
+  }
+
+  /**
+   * May be called by a step of this rule, once everything that rules that only need the ABI of this
+   * rule read from it has been written, so that those rules can start to build while the rest of
+   * this rule's steps run. Such rules do not finish building until this rule has.
+   * <p>
+   * This must not be called until the ABI key of this rule, if it has one, can be read.
+   */
+  protected final void markAbiReady() {
+    abiReadyResult.set(null);
+  }
+
+  /**
+   * @return whether this rule can start to build once every dep has reached
+   *     {@link #markAbiReady()}, rather than once every dep has been built. This is only the case
+   *     for rules that read nothing from their deps other than their ABIs.
+   */
+  protected boolean canBuildAgainstAbisOfDeps(BuildContext context) {
+    return false;
+  }
+
   @Override
   public final ListenableFuture<BuildRuleSuccess> build(final BuildContext context) {
     // We use hasBuildStarted as a lock so that we can minimize how much we need to synchronize.
@@ -141,16 +199,27 @@ public abstract class AbstractCachingBuildRule extends AbstractBuildRule impleme
     try {
       // Invoke every dep's build() method and create an uber-ListenableFuture that represents the
       // successful completion of all deps.
+      boolean canBuildAgainstAbisOfDeps = canBuildAgainstAbisOfDeps(context);
       List<ListenableFuture<BuildRuleSuccess>> builtDeps =
           Lists.newArrayListWithCapacity(getDeps().size());
+      List<ListenableFuture<?>> depsReadyToBuildAgainst =
+          Lists.newArrayListWithCapacity(getDeps().size());
       for (BuildRule dep : getDeps()) {
-        builtDeps.add(dep.build(context));
+        ListenableFuture<BuildRuleSuccess> builtDep = dep.build(context);
+        builtDeps.add(builtDep);
+        if (canBuildAgainstAbisOfDeps && dep instanceof AbstractCachingBuildRule) {
+          depsReadyToBuildAgainst.add(
+              ((AbstractCachingBuildRule) dep).buildUntilAbiIsReady(context));
+        } else {
+          depsReadyToBuildAgainst.add(builtDep);
+        }
       }
-      ListenableFuture<List<BuildRuleSuccess>> allBuiltDeps = Futures.allAsList(builtDeps);
+      final ListenableFuture<List<BuildRuleSuccess>> allBuiltDeps = Futures.allAsList(builtDeps);
 
-      // Schedule this rule to build itself once all of the deps are built.
-      Futures.addCallback(allBuiltDeps,
-          new FutureCallback<List<BuildRuleSuccess>>() {
+      // Schedule this rule to build itself once all of the deps are built, or, if it only needs
+      // their ABIs, once all of their ABIs are ready.
+      Futures.addCallback(Futures.<Object>allAsList(depsReadyToBuildAgainst),
+          new FutureCallback<List<Object>>() {
 
             private final BuckEventBus eventBus = context.getEventBus();
 
@@ -195,7 +264,7 @@ public abstract class AbstractCachingBuildRule extends AbstractBuildRule impleme
             private boolean startOfBuildWasRecordedOnTheEventBus = false;
 
             @Override
-            public void onSuccess(List<BuildRuleSuccess> deps) {
+            public void onSuccess(List<Object> deps) {
               // Record the start of the build.
               eventBus.post(BuildRuleEvent.started(AbstractCachingBuildRule.this));
               startOfBuildWasRecordedOnTheEventBus = true;
@@ -204,7 +273,7 @@ public abstract class AbstractCachingBuildRule extends AbstractBuildRule impleme
                 BuildResult result = buildOnceDepsAreBuilt(
                     context, onDiskBuildInfo, buildInfoRecorder.get());
                 if (result.getStatus() == BuildRuleStatus.SUCCESS) {
-                  recordBuildRuleSuccess(result);
+                  recordBuildRuleSuccessOnceDepsAreBuilt(result);
                 } else {
                   recordBuildRuleFailure(result);
                 }
@@ -213,6 +282,24 @@ public abstract class AbstractCachingBuildRule extends AbstractBuildRule impleme
               }
             }
 
+            /**
+             * A rule that was built against the ABIs of its deps is not done until its deps are,
+             * as rules that depend on it may need all of their output.
+             */
+            private void recordBuildRuleSuccessOnceDepsAreBuilt(final BuildResult result) {
+              Futures.addCallback(allBuiltDeps, new FutureCallback<List<BuildRuleSuccess>>() {
+                @Override
+                public void onSuccess(List<BuildRuleSuccess> deps) {
+                  recordBuildRuleSuccess(result);
+                }
+
+                @Override
+                public void onFailure(Throwable failure) {
+                  recordBuildRuleFailure(new BuildResult(failure));
+                }
+              });
+            }
+
             private void recordBuildRuleSuccess(BuildResult result) {
               // Make sure that all of the local files have the same values they would as if the
               // rule had been built locally.
@@ -264,7 +351,7 @@ public abstract class AbstractCachingBuildRule extends AbstractBuildRule impleme
               buildRuleResult.setException(result.getFailure());
             }
           },
-          context.getExecutor());
+          context.getPrioritizedExecutor(this));
     } catch (Throwable failure) {
       // This is a defensive catch block: if buildRuleResult is never satisfied, then Buck will
       // hang because a callback that is waiting for this rule's future to complete will never be
@@ -24,6 +24,7 @@ import com.facebook.buck.util.AndroidPlatformTarget;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.PriorityThreadPoolExecutor;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
@@ -34,6 +35,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nullable;
 
@@ -48,6 +50,8 @@ public class BuildContext {
   private final Supplier<String> androidBootclasspathSupplier;
   private final BuildDependencies buildDependencies;
   private final Function<SourcePath, Path> sourcePathResolver;
+  private final CriticalPathPrioritizer criticalPathPrioritizer;
+  private final boolean isJavaCompilationBatchingEnabled;
   @Nullable private final Console console;
 
   private BuildContext(
@@ -59,6 +63,8 @@ public class BuildContext {
       BuckEventBus events,
       Supplier<String> androidBootclasspathSupplier,
       BuildDependencies buildDependencies,
+      CriticalPathPrioritizer criticalPathPrioritizer,
+      boolean isJavaCompilationBatchingEnabled,
       @Nullable Console console) {
     this.dependencyGraph = Preconditions.checkNotNull(dependencyGraph);
     this.stepRunner = Preconditions.checkNotNull(stepRunner);
@@ -74,6 +80,8 @@ public class BuildContext {
         return sourcePath.resolve(BuildContext.this);
       }
     };
+    this.criticalPathPrioritizer = Preconditions.checkNotNull(criticalPathPrioritizer);
+    this.isJavaCompilationBatchingEnabled = isJavaCompilationBatchingEnabled;
     this.console = console;
   }
 
@@ -93,6 +101,15 @@ public class BuildContext {
     return stepRunner.getListeningExecutorService();
   }
 
+  /**
+   * @return an {@link Executor} that runs work for {@code rule} on {@link #getExecutor()} ahead of
+   *     queued work for rules whose estimated critical path is shorter.
+   */
+  public Executor getPrioritizedExecutor(BuildRule rule) {
+    return PriorityThreadPoolExecutor.withPriority(getExecutor(),
+        criticalPathPrioritizer.getPriority(rule));
+  }
+
   public JavaPackageFinder getJavaPackageFinder() {
     return javaPackageFinder;
   }
@@ -132,6 +149,14 @@ public class BuildContext {
     return sourcePathResolver;
   }
 
+  /**
+   * @return whether Java libraries with few sources may be compiled together, in which case the
+   *     steps that compile them may wait for each other.
+   */
+  public boolean isJavaCompilationBatchingEnabled() {
+    return isJavaCompilationBatchingEnabled;
+  }
+
   /**
    * Creates an {@link OnDiskBuildInfo}.
    * <p>
@@ -181,6 +206,8 @@ public class BuildContext {
     private BuckEventBus events = null;
     private Supplier<String> androidBootclasspathSupplier = null;
     private BuildDependencies buildDependencies = BuildDependencies.getDefault();
+    private CriticalPathPrioritizer criticalPathPrioritizer = CriticalPathPrioritizer.NONE;
+    private boolean isJavaCompilationBatchingEnabled = false;
     private Console console = null;
 
     private Builder() {}
@@ -198,6 +225,8 @@ public class BuildContext {
           events,
           androidBootclasspathSupplier,
           buildDependencies,
+          criticalPathPrioritizer,
+          isJavaCompilationBatchingEnabled,
           console);
     }
 
@@ -236,6 +265,16 @@ public class BuildContext {
       return this;
     }
 
+    public Builder setCriticalPathPrioritizer(CriticalPathPrioritizer criticalPathPrioritizer) {
+      this.criticalPathPrioritizer = criticalPathPrioritizer;
+      return this;
+    }
+
+    public Builder setJavaCompilationBatchingEnabled(boolean isJavaCompilationBatchingEnabled) {
+      this.isJavaCompilationBatchingEnabled = isJavaCompilationBatchingEnabled;
+      return this;
+    }
+
     public Builder setAndroidBootclasspathForAndroidPlatformTarget(
         Optional<AndroidPlatformTarget> maybeAndroidPlatformTarget) {
       if (maybeAndroidPlatformTarget.isPresent()) {
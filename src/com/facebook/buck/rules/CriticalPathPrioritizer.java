@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.graph.CompactDirectedGraph;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * Ranks build rules by the estimated length of the longest chain of work that remains once the
+ * rule is ready to build: the time to build the rule itself plus the time to build the slowest
+ * chain of rules that transitively depend on it. Building the rules with the longest remaining
+ * chain first keeps long serial chains (javac to dx to apkbuilder, for example) from waiting behind
+ * hundreds of short, independent rules.
+ */
+public class CriticalPathPrioritizer {
+
+  /** Gives every rule the same priority, which preserves first-in-first-out scheduling. */
+  public static final CriticalPathPrioritizer NONE =
+      new CriticalPathPrioritizer(ImmutableMap.<BuildRule, Long>of());
+
+  /**
+   * Used for rules that have never been built locally when there is no history at all. In that
+   * case, the priority of a rule is proportional to the number of rules in its longest chain of
+   * dependents.
+   */
+  private static final long DEFAULT_ESTIMATED_DURATION_MILLIS = 1L;
+
+  private final ImmutableMap<BuildRule, Long> remainingCriticalPathMillis;
+
+  private CriticalPathPrioritizer(ImmutableMap<BuildRule, Long> remainingCriticalPathMillis) {
+    this.remainingCriticalPathMillis = Preconditions.checkNotNull(remainingCriticalPathMillis);
+  }
+
+  /**
+   * @param durationsByRuleName estimated build times, in milliseconds, keyed by the fully qualified
+   *     name of the rule. Rules without an estimate are assumed to take as long as the average rule
+   *     that does have one.
+   */
+  public static CriticalPathPrioritizer create(DependencyGraph graph,
+      Map<String, Long> durationsByRuleName) {
+    long defaultDurationMillis = DEFAULT_ESTIMATED_DURATION_MILLIS;
+    if (!durationsByRuleName.isEmpty()) {
+      long total = 0;
+      for (long duration : durationsByRuleName.values()) {
+        total += duration;
+      }
+      defaultDurationMillis = Math.max(total / durationsByRuleName.size(),
+          DEFAULT_ESTIMATED_DURATION_MILLIS);
+    }
+
+    // The bottom-up order puts every rule after its deps, so walking it backwards visits every rule
+    // after all of the rules that depend on it.
+    CompactDirectedGraph<BuildRule> compactGraph = CompactDirectedGraph.copyOf(graph);
+    int[] order = compactGraph.getBottomUpOrder();
+    long[] criticalPaths = new long[compactGraph.getNodeCount()];
+    ImmutableMap.Builder<BuildRule, Long> builder = ImmutableMap.builder();
+    for (int i = order.length - 1; i >= 0; i--) {
+      int rule = order[i];
+      long longestDependentPath = 0;
+      for (int edge = 0; edge < compactGraph.getIncomingEdgeCount(rule); edge++) {
+        longestDependentPath = Math.max(longestDependentPath,
+            criticalPaths[compactGraph.getIncomingNodeIndex(rule, edge)]);
+      }
+
+      BuildRule buildRule = compactGraph.getNode(rule);
+      Long duration = durationsByRuleName.get(buildRule.getFullyQualifiedName());
+      criticalPaths[rule] =
+          (duration == null ? defaultDurationMillis : duration) + longestDependentPath;
+      builder.put(buildRule, criticalPaths[rule]);
+    }
+
+    return new CriticalPathPrioritizer(builder.build());
+  }
+
+  /**
+   * @return the priority with which the rule should be scheduled once its deps are built. Rules
+   *     with a higher priority should be built first.
+   */
+  public long getPriority(BuildRule rule) {
+    Long priority = remainingCriticalPathMillis.get(rule);
+    return priority == null ? 0L : priority;
+  }
+}
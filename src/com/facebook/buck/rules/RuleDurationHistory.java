@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * How long each build rule took the last few times that it was built locally, keyed by the fully
+ * qualified name of the rule. The history is persisted in {@code buck-out} so that it survives
+ * between invocations of Buck, and is used to estimate how long a rule will take to build before
+ * it has been built.
+ * <p>
+ * Each project has a single history, from {@link #forProject(ProjectFilesystem)}, which is read
+ * from disk the first time it is asked for, and then shared by the build and the listener that
+ * records in it.
+ */
+public class RuleDurationHistory {
+
+  @VisibleForTesting
+  static final Path PATH_TO_HISTORY = Paths.get(BuckConstant.BUCK_LOG_DIR, "rule_durations.json");
+
+  /** Keyed by the root of the project. */
+  private static final ConcurrentMap<Path, RuleDurationHistory> HISTORIES =
+      Maps.newConcurrentMap();
+
+  private final ConcurrentMap<String, Long> durations;
+
+  @VisibleForTesting
+  RuleDurationHistory(Map<String, Long> durations) {
+    this.durations = Maps.newConcurrentMap();
+    this.durations.putAll(durations);
+  }
+
+  /** @return the history of the project, which is loaded if it has not been already. */
+  public static RuleDurationHistory forProject(ProjectFilesystem projectFilesystem) {
+    Path root = projectFilesystem.getRootPath().toAbsolutePath().normalize();
+    RuleDurationHistory history = HISTORIES.get(root);
+    if (history == null) {
+      RuleDurationHistory loaded = load(projectFilesystem);
+      history = HISTORIES.putIfAbsent(root, loaded);
+      if (history == null) {
+        history = loaded;
+      }
+    }
+    return history;
+  }
+
+  /**
+   * Reads the history written by a previous invocation of {@link #save(ProjectFilesystem)}. If
+   * there is no history, or it cannot be read, then an empty history is returned: the history is
+   * only ever used as a hint, so it is not worth failing the build over.
+   */
+  @VisibleForTesting
+  static RuleDurationHistory load(ProjectFilesystem projectFilesystem) {
+    Optional<String> contents = projectFilesystem.readFileIfItExists(PATH_TO_HISTORY);
+    if (!contents.isPresent()) {
+      return new RuleDurationHistory(ImmutableMap.<String, Long>of());
+    }
+
+    Map<String, Long> durations;
+    try {
+      durations = new ObjectMapper().readValue(contents.get(),
+          new TypeReference<Map<String, Long>>() {});
+    } catch (IOException e) {
+      durations = ImmutableMap.of();
+    }
+    return new RuleDurationHistory(durations);
+  }
+
+  public void save(ProjectFilesystem projectFilesystem) throws IOException {
+    projectFilesystem.createParentDirs(PATH_TO_HISTORY);
+    projectFilesystem.writeContentsToPath(
+        new ObjectMapper().writeValueAsString(getDurations()),
+        PATH_TO_HISTORY);
+  }
+
+  /**
+   * Records that the rule with the specified name took {@code durationMillis} to build. The new
+   * measurement is averaged with the previous estimate, if any, so that a single unusually slow
+   * or fast build does not throw off future estimates.
+   */
+  public void recordDuration(String fullyQualifiedName, long durationMillis) {
+    Preconditions.checkNotNull(fullyQualifiedName);
+    Preconditions.checkArgument(durationMillis >= 0);
+    Long previous = durations.putIfAbsent(fullyQualifiedName, durationMillis);
+    while (previous != null &&
+        !durations.replace(fullyQualifiedName, previous, (previous + durationMillis) / 2)) {
+      previous = durations.get(fullyQualifiedName);
+    }
+  }
+
+  public Optional<Long> getDurationMillis(String fullyQualifiedName) {
+    return Optional.fromNullable(durations.get(fullyQualifiedName));
+  }
+
+  public ImmutableMap<String, Long> getDurations() {
+    return ImmutableMap.copyOf(durations);
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * How long each test rule, and each test class, took the last few times that it was run locally.
+ * Test rules are keyed by their fully qualified name and test classes by their name. The history is
+ * persisted in {@code buck-out} so that it survives between invocations of Buck, and is used to
+ * start the slowest tests first.
+ * <p>
+ * Each project has a single history, from {@link #forProject(ProjectFilesystem)}, which is read
+ * from disk the first time it is asked for. Everything that reads the history, or records in it,
+ * shares that instance, so none of them has to read the file again.
+ */
+public class TestDurationHistory {
+
+  @VisibleForTesting
+  static final Path PATH_TO_HISTORY = Paths.get(BuckConstant.BUCK_LOG_DIR, "test_durations.json");
+
+  private static final String TARGETS_KEY = "targets";
+  private static final String CLASSES_KEY = "classes";
+
+  /** Keyed by the root of the project. */
+  private static final ConcurrentMap<Path, TestDurationHistory> HISTORIES =
+      Maps.newConcurrentMap();
+
+  private final ConcurrentMap<String, Long> targetDurations;
+  private final ConcurrentMap<String, Long> classDurations;
+
+  @VisibleForTesting
+  TestDurationHistory(Map<String, Long> targetDurations, Map<String, Long> classDurations) {
+    this.targetDurations = Maps.newConcurrentMap();
+    this.targetDurations.putAll(targetDurations);
+    this.classDurations = Maps.newConcurrentMap();
+    this.classDurations.putAll(classDurations);
+  }
+
+  /** @return the history of the project, which is loaded if it has not been already. */
+  public static TestDurationHistory forProject(ProjectFilesystem projectFilesystem) {
+    Path root = projectFilesystem.getRootPath().toAbsolutePath().normalize();
+    TestDurationHistory history = HISTORIES.get(root);
+    if (history == null) {
+      TestDurationHistory loaded = load(projectFilesystem);
+      history = HISTORIES.putIfAbsent(root, loaded);
+      if (history == null) {
+        history = loaded;
+      }
+    }
+    return history;
+  }
+
+  /**
+   * Reads the history written by a previous invocation of {@link #save(ProjectFilesystem)}. If
+   * there is no history, or it cannot be read, then an empty history is returned: the history is
+   * only ever used as a hint, so it is not worth failing the test run over.
+   */
+  @VisibleForTesting
+  static TestDurationHistory load(ProjectFilesystem projectFilesystem) {
+    Optional<String> contents = projectFilesystem.readFileIfItExists(PATH_TO_HISTORY);
+    Map<String, Map<String, Long>> history = null;
+    if (contents.isPresent()) {
+      try {
+        history = new ObjectMapper().readValue(contents.get(),
+            new TypeReference<Map<String, Map<String, Long>>>() {});
+      } catch (IOException e) {
+        history = null;
+      }
+    }
+
+    if (history == null ||
+        !(history.get(TARGETS_KEY) instanceof Map) ||
+        !(history.get(CLASSES_KEY) instanceof Map)) {
+      return new TestDurationHistory(
+          ImmutableMap.<String, Long>of(),
+          ImmutableMap.<String, Long>of());
+    }
+    return new TestDurationHistory(history.get(TARGETS_KEY), history.get(CLASSES_KEY));
+  }
+
+  public void save(ProjectFilesystem projectFilesystem) throws IOException {
+    Map<String, Map<String, Long>> history = ImmutableMap.of(
+        TARGETS_KEY, getTargetDurations(),
+        CLASSES_KEY, getClassDurations());
+    projectFilesystem.createParentDirs(PATH_TO_HISTORY);
+    projectFilesystem.writeContentsToPath(
+        new ObjectMapper().writeValueAsString(history),
+        PATH_TO_HISTORY);
+  }
+
+  /**
+   * Records how long the test rule that produced {@code results}, and each of its test classes,
+   * took to run. Results that were read from a previous run say nothing about how long this run
+   * took, so they are ignored.
+   * @return whether anything was recorded.
+   */
+  public boolean recordResults(TestResults results) {
+    Preconditions.checkNotNull(results);
+    if (results.getTestCases().isEmpty()) {
+      return false;
+    }
+    for (TestCaseSummary testCase : results.getTestCases()) {
+      if (testCase.isCached()) {
+        return false;
+      }
+    }
+
+    for (TestCaseSummary testCase : results.getTestCases()) {
+      recordDuration(classDurations, testCase.getTestCaseName(), testCase.getTotalTime());
+    }
+    recordDuration(targetDurations,
+        results.getBuildTarget().getFullyQualifiedName(),
+        getDurationMillis(results));
+    return true;
+  }
+
+  /**
+   * The new measurement is averaged with the previous estimate, if any, so that a single unusually
+   * slow or fast run does not throw off future estimates.
+   */
+  private static void recordDuration(
+      ConcurrentMap<String, Long> durations,
+      String name,
+      long durationMillis) {
+    Preconditions.checkArgument(durationMillis >= 0);
+    Long previous = durations.putIfAbsent(name, durationMillis);
+    while (previous != null && !durations.replace(name, previous, (previous + durationMillis) / 2)) {
+      previous = durations.get(name);
+    }
+  }
+
+  /** @return the time taken by all of the test cases in {@code results}, in milliseconds. */
+  public static long getDurationMillis(TestResults results) {
+    long durationMillis = 0;
+    for (TestCaseSummary testCase : results.getTestCases()) {
+      durationMillis += testCase.getTotalTime();
+    }
+    return durationMillis;
+  }
+
+  public Optional<Long> getTargetDurationMillis(String fullyQualifiedName) {
+    return Optional.fromNullable(targetDurations.get(fullyQualifiedName));
+  }
+
+  public Optional<Long> getClassDurationMillis(String testClassName) {
+    return Optional.fromNullable(classDurations.get(testClassName));
+  }
+
+  public ImmutableMap<String, Long> getTargetDurations() {
+    return ImmutableMap.copyOf(targetDurations);
+  }
+
+  public ImmutableMap<String, Long> getClassDurations() {
+    return ImmutableMap.copyOf(classDurations);
+  }
+
+  /**
+   * @return {@code tests}, ordered so that the tests that took longest the last time they were run
+   *     come first. Tests that have never been run are assumed to be slow, so they come before all
+   *     of the others. Otherwise, the order of {@code tests} is preserved.
+   */
+  public <T extends TestRule> ImmutableList<T> sortLongestFirst(Iterable<T> tests) {
+    List<T> sorted = Lists.newArrayList(tests);
+    final Map<String, Long> durations = getTargetDurations();
+    Collections.sort(sorted, new Comparator<T>() {
+      @Override
+      public int compare(T a, T b) {
+        Long durationOfA = durations.get(a.getFullyQualifiedName());
+        Long durationOfB = durations.get(b.getFullyQualifiedName());
+        long valueOfA = durationOfA == null ? Long.MAX_VALUE : durationOfA;
+        long valueOfB = durationOfB == null ? Long.MAX_VALUE : durationOfB;
+        return Long.compare(valueOfB, valueOfA);
+      }
+    });
+    return ImmutableList.copyOf(sorted);
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.test.TestResultSummary;
+import com.google.common.base.Preconditions;
+
+import java.util.Objects;
+
+/**
+ * Posted as each test method starts and finishes, while the rest of the tests of its test rule are
+ * still running. Unlike {@link IndividualTestEvent}, which reports the results of a whole test
+ * rule once it is done, this makes it possible to show progress, and failures, as they happen.
+ */
+public abstract class TestMethodEvent extends AbstractBuckEvent {
+
+  private final String testCaseName;
+  private final String testName;
+
+  private TestMethodEvent(String testCaseName, String testName) {
+    this.testCaseName = Preconditions.checkNotNull(testCaseName);
+    this.testName = Preconditions.checkNotNull(testName);
+  }
+
+  public static Started started(String testCaseName, String testName) {
+    return new Started(testCaseName, testName);
+  }
+
+  public static Finished finished(TestResultSummary result) {
+    return new Finished(result);
+  }
+
+  /** @return the name of the test class. */
+  public String getTestCaseName() {
+    return testCaseName;
+  }
+
+  /** @return the name of the test method. */
+  public String getTestName() {
+    return testName;
+  }
+
+  @Override
+  public boolean eventsArePair(BuckEvent event) {
+    if (!(event instanceof TestMethodEvent)) {
+      return false;
+    }
+
+    TestMethodEvent that = (TestMethodEvent) event;
+    return testCaseName.equals(that.testCaseName) &&
+        testName.equals(that.testName) &&
+        !Objects.equals(getClass(), event.getClass());
+  }
+
+  public static class Started extends TestMethodEvent {
+
+    private Started(String testCaseName, String testName) {
+      super(testCaseName, testName);
+    }
+
+    @Override
+    public String getEventName() {
+      return "TestMethodStarted";
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.format("%s#%s", getTestCaseName(), getTestName());
+    }
+  }
+
+  public static class Finished extends TestMethodEvent {
+
+    private final TestResultSummary result;
+
+    private Finished(TestResultSummary result) {
+      super(result.getTestCaseName(), result.getTestName());
+      this.result = result;
+    }
+
+    public TestResultSummary getResult() {
+      return result;
+    }
+
+    @Override
+    public String getEventName() {
+      return "TestMethodFinished";
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.format("%s %s#%s (%dms)",
+          result.isSuccess() ? "PASS" : "FAIL",
+          getTestCaseName(),
+          getTestName(),
+          result.getTime());
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResults;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Posted once all of the tests of a test run have finished, naming the tests that took the longest
+ * to run. It also projects how long the run would have taken had every test been started in
+ * longest-first order on the threads that were available to it, which is the best that the
+ * scheduler can hope to do: if that projection is dominated by a single test, then splitting that
+ * test up is the only way to make the run faster.
+ * <p>
+ * Tests whose results were cached are not included, as they took no time to run.
+ */
+public class TestStragglersEvent extends AbstractBuckEvent {
+
+  private final ImmutableMap<String, Long> slowestTargets;
+  private final ImmutableMap<String, Long> slowestClasses;
+  private final long totalMillis;
+  private final long projectedCriticalPathMillis;
+  private final int threadCount;
+
+  private TestStragglersEvent(
+      ImmutableMap<String, Long> slowestTargets,
+      ImmutableMap<String, Long> slowestClasses,
+      long totalMillis,
+      long projectedCriticalPathMillis,
+      int threadCount) {
+    this.slowestTargets = Preconditions.checkNotNull(slowestTargets);
+    this.slowestClasses = Preconditions.checkNotNull(slowestClasses);
+    this.totalMillis = totalMillis;
+    this.projectedCriticalPathMillis = projectedCriticalPathMillis;
+    this.threadCount = threadCount;
+  }
+
+  /**
+   * @param completedResults the results of every test that was run.
+   * @param threadCount the number of tests that could be run at the same time.
+   * @param limit the maximum number of test rules, and of test classes, to report.
+   */
+  public static TestStragglersEvent create(
+      List<TestResults> completedResults,
+      int threadCount,
+      int limit) {
+    Preconditions.checkArgument(threadCount >= 1);
+    Preconditions.checkArgument(limit >= 0);
+
+    Map<String, Long> targets = Maps.newHashMap();
+    Map<String, Long> classes = Maps.newHashMap();
+    for (TestResults results : completedResults) {
+      if (isCached(results)) {
+        continue;
+      }
+      targets.put(results.getBuildTarget().getFullyQualifiedName(),
+          TestDurationHistory.getDurationMillis(results));
+      for (TestCaseSummary testCase : results.getTestCases()) {
+        classes.put(testCase.getTestCaseName(), testCase.getTotalTime());
+      }
+    }
+
+    long totalMillis = 0;
+    for (long duration : targets.values()) {
+      totalMillis += duration;
+    }
+
+    return new TestStragglersEvent(
+        getLongest(targets, limit),
+        getLongest(classes, limit),
+        totalMillis,
+        getProjectedCriticalPathMillis(targets.values(), threadCount),
+        threadCount);
+  }
+
+  private static boolean isCached(TestResults results) {
+    for (TestCaseSummary testCase : results.getTestCases()) {
+      if (testCase.isCached()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return the {@code limit} longest durations, longest first. Ties are ordered by name. */
+  private static ImmutableMap<String, Long> getLongest(Map<String, Long> durations, int limit) {
+    List<Map.Entry<String, Long>> entries = Lists.newArrayList(durations.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+      @Override
+      public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+        int result = Long.compare(b.getValue(), a.getValue());
+        return result != 0 ? result : a.getKey().compareTo(b.getKey());
+      }
+    });
+
+    ImmutableMap.Builder<String, Long> longest = ImmutableMap.builder();
+    for (Map.Entry<String, Long> entry : entries.subList(0, Math.min(limit, entries.size()))) {
+      longest.put(entry);
+    }
+    return longest.build();
+  }
+
+  /**
+   * @return how long it takes to run tests with the specified durations on {@code threadCount}
+   *     threads, if each test is started on the first free thread in longest-first order.
+   */
+  static long getProjectedCriticalPathMillis(Iterable<Long> durations, int threadCount) {
+    List<Long> longestFirst = Lists.newArrayList(durations);
+    Collections.sort(longestFirst, Collections.reverseOrder());
+
+    // The time at which each thread becomes free, earliest first.
+    PriorityQueue<Long> threads = new PriorityQueue<>(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      threads.add(0L);
+    }
+    long criticalPathMillis = 0;
+    for (long duration : longestFirst) {
+      long finish = threads.remove() + duration;
+      threads.add(finish);
+      criticalPathMillis = Math.max(criticalPathMillis, finish);
+    }
+    return criticalPathMillis;
+  }
+
+  /** @return the slowest test rules, keyed by fully qualified name, slowest first. */
+  public ImmutableMap<String, Long> getSlowestTargets() {
+    return slowestTargets;
+  }
+
+  /** @return the slowest test classes, keyed by name, slowest first. */
+  public ImmutableMap<String, Long> getSlowestClasses() {
+    return slowestClasses;
+  }
+
+  /** @return the time taken by all of the tests that were run, added together. */
+  public long getTotalMillis() {
+    return totalMillis;
+  }
+
+  public long getProjectedCriticalPathMillis() {
+    return projectedCriticalPathMillis;
+  }
+
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  @Override
+  protected String getEventName() {
+    return "TestStragglers";
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format("%dms of tests projected to take %dms on %d threads",
+        totalMillis,
+        projectedCriticalPathMillis,
+        threadCount);
+  }
+
+  @Override
+  public boolean eventsArePair(BuckEvent event) {
+    return false;
+  }
+}
@@ -19,29 +19,57 @@ package com.facebook.buck.shell;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
-import com.google.common.collect.ImmutableList;
 import com.google.common.io.Files;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 
-public class RunShTestAndRecordResultStep implements Step {
+import javax.annotation.Nullable;
 
-  private String pathToShellScript;
-  private String pathToTestResultFile;
+/**
+ * Runs the script of an {@code sh_test()} and records whether it passed in a JSON file.
+ * <p>
+ * The stdout and stderr of the script are written straight to log files rather than held in
+ * memory, as the scripts that run integration tests can be very chatty, and many of them may run
+ * at once. Only the end of each log, which is where the reason for a failure is usually found, is
+ * included in the recorded result.
+ */
+public class RunShTestAndRecordResultStep implements Step {
 
-  public RunShTestAndRecordResultStep(String pathToShellScript, String pathToTestResultFile) {
+  /** At most this much of the end of each of stdout and stderr is included in the result. */
+  @VisibleForTesting
+  static final int MAX_OUTPUT_TAIL_BYTES = 64 * 1024;
+
+  private final String pathToShellScript;
+  private final String pathToTestResultFile;
+  private final String pathToStdoutLog;
+  private final String pathToStderrLog;
+
+  /**
+   * @param pathToStdoutLog where the stdout of the script is written, relative to the project root.
+   * @param pathToStderrLog where the stderr of the script is written, relative to the project root.
+   */
+  public RunShTestAndRecordResultStep(
+      String pathToShellScript,
+      String pathToTestResultFile,
+      String pathToStdoutLog,
+      String pathToStderrLog) {
     this.pathToShellScript = Preconditions.checkNotNull(pathToShellScript);
     this.pathToTestResultFile = Preconditions.checkNotNull(pathToTestResultFile);
+    this.pathToStdoutLog = Preconditions.checkNotNull(pathToStdoutLog);
+    this.pathToStderrLog = Preconditions.checkNotNull(pathToStderrLog);
   }
 
   @Override
@@ -56,6 +84,7 @@ public class RunShTestAndRecordResultStep implements Step {
 
   @Override
   public int execute(ExecutionContext context) {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
     TestResultSummary summary;
     if (context.getPlatform() == Platform.WINDOWS) {
       // Ignore sh_test on Windows.
@@ -69,48 +98,61 @@ public class RunShTestAndRecordResultStep implements Step {
           /* stdout */ null,
           /* stderr */ null);
     } else {
-      ShellStep test = new ShellStep() {
-        @Override
-        public String getShortName() {
-          return pathToShellScript;
-        }
-
-        @Override
-        protected ImmutableList<String> getShellCommandInternal(
-            ExecutionContext context) {
-          return ImmutableList.of(pathToShellScript);
+      File stdoutLog = filesystem.getFileForRelativePath(pathToStdoutLog);
+      File stderrLog = filesystem.getFileForRelativePath(pathToStderrLog);
+      ProcessBuilder processBuilder = new ProcessBuilder(pathToShellScript)
+          .directory(context.getProjectDirectoryRoot())
+          .redirectOutput(stdoutLog)
+          .redirectError(stderrLog);
+
+      long startTime = System.currentTimeMillis();
+      int exitCode;
+      try {
+        Process process = processBuilder.start();
+        try {
+          exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+          // Buck was killed while the test was running, so the test should not outlive it.
+          process.destroy();
+          Thread.currentThread().interrupt();
+          exitCode = 1;
         }
-
-        @Override
-        protected boolean shouldPrintStderr(Verbosity verbosity) {
-          // Do not stream this output because we want to capture it.
-          return false;
+      } catch (IOException e) {
+        e.printStackTrace(context.getStdErr());
+        exitCode = 1;
+      }
+      long duration = System.currentTimeMillis() - startTime;
+
+      String stdout = readTail(stdoutLog, pathToStdoutLog);
+      String stderr = readTail(stderrLog, pathToStderrLog);
+
+      // If the test has failed and we're not being explicitly quiet, ensure its output gets
+      // printed, as it would be for any other shell command.
+      if (exitCode != 0 && context.getVerbosity() != Verbosity.SILENT) {
+        if (stdout != null) {
+          context.getStdOut().print(stdout);
         }
-
-        @Override
-        protected boolean shouldPrintStdout(Verbosity verbosity) {
-          // Do not stream this output because we want to capture it.
-          return false;
+        if (stderr != null) {
+          context.getStdErr().print(stderr);
         }
-      };
-      int exitCode = test.execute(context);
+      }
 
       // Write test result.
       summary = new TestResultSummary(
           pathToShellScript,
           "sh_test",
           /* isSuccess */ exitCode == 0,
-          test.getDuration(),
+          duration,
           /* message */ null,
           /* stacktrace */ null,
-          test.getStdout(),
-          test.getStderr());
+          stdout,
+          stderr);
     }
 
     ObjectMapper mapper = new ObjectMapper();
     try {
       mapper.writeValue(
-          Files.newWriter(new File(pathToTestResultFile), Charsets.UTF_8),
+          Files.newWriter(filesystem.getFileForRelativePath(pathToTestResultFile), Charsets.UTF_8),
           summary);
     } catch (JsonGenerationException e) {
       Throwables.propagate(e);
@@ -127,4 +169,38 @@ public class RunShTestAndRecordResultStep implements Step {
     return 0;
   }
 
+  /**
+   * @return at most the last {@link #MAX_OUTPUT_TAIL_BYTES} of {@code log}, preceded by a note
+   *     that points at the full log if anything was left out, or {@code null} if the log could not
+   *     be read.
+   */
+  @Nullable
+  @VisibleForTesting
+  static String readTail(File log, String pathToLog) {
+    try (RandomAccessFile file = new RandomAccessFile(log, "r")) {
+      long length = file.length();
+      int tailLength = (int) Math.min(length, MAX_OUTPUT_TAIL_BYTES);
+      byte[] tail = new byte[tailLength];
+      file.seek(length - tailLength);
+      file.readFully(tail);
+
+      if (tailLength == length) {
+        return new String(tail, Charsets.UTF_8);
+      }
+
+      // Don't start in the middle of a multi-byte character: skip the continuation bytes
+      // (10xxxxxx) up to the start of the next one.
+      int start = 0;
+      while (start < tail.length && (tail[start] & 0xC0) == 0x80) {
+        start++;
+      }
+      String contents = new String(tail, start, tail.length - start, Charsets.UTF_8);
+      return String.format("[%d bytes omitted; see %s for the full output]\n%s",
+          length - tailLength + start,
+          pathToLog,
+          contents);
+    } catch (IOException e) {
+      return null;
+    }
+  }
 }
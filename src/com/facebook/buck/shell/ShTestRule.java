@@ -113,7 +113,11 @@ public class ShTestRule extends DoNotUseAbstractBuildable implements TestRule {
     Step mkdirClean = new MakeCleanDirectoryStep(getPathToTestOutputDirectory());
 
     // Return a single command that runs an .sh file with no arguments.
-    Step runTest = new RunShTestAndRecordResultStep(test, getPathToTestOutputResult());
+    Step runTest = new RunShTestAndRecordResultStep(
+        test,
+        getPathToTestOutputResult(),
+        getPathToTestOutputDirectory().resolve("stdout.log").toString(),
+        getPathToTestOutputDirectory().resolve("stderr.log").toString());
 
     return ImmutableList.of(mkdirClean, runTest);
   }
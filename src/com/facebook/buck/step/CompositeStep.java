@@ -39,7 +39,7 @@ public class CompositeStep implements Step, Iterable<Step> {
   @Override
   public int execute(ExecutionContext context) {
     for (Step step : steps) {
-      int exitCode = step.execute(context);
+      int exitCode = executeWithinResources(step, context);
       if (exitCode != 0) {
         return exitCode;
       }
@@ -47,6 +47,23 @@ public class CompositeStep implements Step, Iterable<Step> {
     return 0;
   }
 
+  /**
+   * A {@link StepRunner} only sees this composite, so each heavyweight child must be admitted by
+   * the {@link ResourceScheduler} here, just before it runs, and release its resources as soon as
+   * it is done so that they are not held across its siblings.
+   */
+  private static int executeWithinResources(Step step, ExecutionContext context) {
+    try (ResourceScheduler.Allocation allocation =
+             context.getResourceScheduler().acquireFor(step, context)) {
+      return step.execute(context);
+    } catch (InterruptedException e) {
+      // The build is being cancelled, so the interruption is kept for the caller to see.
+      Thread.currentThread().interrupt();
+      context.logError(e, "Interrupted while waiting to run %s.", step.getShortName());
+      return 1;
+    }
+  }
+
   @Override
   public String getDescription(final ExecutionContext context) {
     return Joiner.on(" && ").join(Iterables.transform(steps,
@@ -75,6 +75,16 @@ public final class DefaultStepRunner implements StepRunner {
       context.getStdErr().println(step.getDescription(context));
     }
 
+    // Heavyweight steps must wait until the machine has room for them, no matter how many threads
+    // are free to run them.
+    ResourceScheduler.Allocation allocation;
+    try {
+      allocation = context.getResourceScheduler().acquireFor(step, context);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw StepFailedException.createForFailingStepWithException(step, e, buildTarget);
+    }
+
     context.postEvent(StepEvent.started(step, step.getDescription(context)));
     int exitCode = 1;
     try {
@@ -82,6 +92,7 @@ public final class DefaultStepRunner implements StepRunner {
     } catch (Throwable t) {
       throw StepFailedException.createForFailingStepWithException(step, t, buildTarget);
     } finally {
+      allocation.close();
       context.postEvent(StepEvent.finished(step, step.getDescription(context), exitCode));
     }
     if (exitCode != 0) {
@@ -42,35 +42,35 @@ public class ExecutionContext {
   private final Optional<File> ndkRoot;
   private final Optional<TargetDevice> targetDevice;
   private final long defaultTestTimeoutMillis;
+  private final int testShardCount;
+  private final int testJvmReuseCount;
   private final boolean isCodeCoverageEnabled;
   private final boolean isDebugEnabled;
+  private final boolean isIncrementalJavaCompilationEnabled;
+  private final boolean isJavaCompilationBatchingEnabled;
   private final ProcessExecutor processExecutor;
   private final BuckEventBus eventBus;
   private final Platform platform;
-
-  private ExecutionContext(
-      ProjectFilesystem projectFilesystem,
-      Console console,
-      Optional<AndroidPlatformTarget> androidPlatformTarget,
-      Optional<File> ndkRoot,
-      Optional<TargetDevice> targetDevice,
-      long defaultTestTimeoutMillis,
-      boolean isCodeCoverageEnabled,
-      boolean isDebugEnabled,
-      BuckEventBus eventBus,
-      Platform platform) {
-    this.verbosity = Preconditions.checkNotNull(console).getVerbosity();
-    this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
-    this.console = Preconditions.checkNotNull(console);
-    this.androidPlatformTarget = Preconditions.checkNotNull(androidPlatformTarget);
-    this.ndkRoot = Preconditions.checkNotNull(ndkRoot);
-    this.targetDevice = Preconditions.checkNotNull(targetDevice);
-    this.defaultTestTimeoutMillis = defaultTestTimeoutMillis;
-    this.isCodeCoverageEnabled = isCodeCoverageEnabled;
-    this.isDebugEnabled = isDebugEnabled;
+  private final ResourceScheduler resourceScheduler;
+
+  private ExecutionContext(Builder builder) {
+    this.verbosity = Preconditions.checkNotNull(builder.console).getVerbosity();
+    this.projectFilesystem = Preconditions.checkNotNull(builder.projectFilesystem);
+    this.console = Preconditions.checkNotNull(builder.console);
+    this.androidPlatformTarget = Preconditions.checkNotNull(builder.androidPlatformTarget);
+    this.ndkRoot = Preconditions.checkNotNull(builder.ndkRoot);
+    this.targetDevice = Preconditions.checkNotNull(builder.targetDevice);
+    this.defaultTestTimeoutMillis = builder.defaultTestTimeoutMillis;
+    this.testShardCount = builder.testShardCount;
+    this.testJvmReuseCount = builder.testJvmReuseCount;
+    this.isCodeCoverageEnabled = builder.isCodeCoverageEnabled;
+    this.isDebugEnabled = builder.isDebugEnabled;
+    this.isIncrementalJavaCompilationEnabled = builder.isIncrementalJavaCompilationEnabled;
+    this.isJavaCompilationBatchingEnabled = builder.isJavaCompilationBatchingEnabled;
     this.processExecutor = new ProcessExecutor(console);
-    this.eventBus = Preconditions.checkNotNull(eventBus);
-    this.platform = Preconditions.checkNotNull(platform);
+    this.eventBus = Preconditions.checkNotNull(builder.eventBus);
+    this.platform = Preconditions.checkNotNull(builder.platform);
+    this.resourceScheduler = Preconditions.checkNotNull(builder.resourceScheduler);
   }
 
   /**
@@ -78,17 +78,10 @@ public class ExecutionContext {
    *    redirected to the provided {@link PrintStream}s.
    */
   public ExecutionContext createSubContext(PrintStream newStdout, PrintStream newStderr) {
-    return new ExecutionContext(
-        getProjectFilesystem(),
-        new Console(console.getVerbosity(), newStdout, newStderr, console.getAnsi()),
-        getAndroidPlatformTargetOptional(),
-        getNdkRoot(),
-        getTargetDeviceOptional(),
-        getDefaultTestTimeoutMillis(),
-        isCodeCoverageEnabled(),
-        isDebugEnabled,
-        eventBus,
-        platform);
+    return builder()
+        .setExecutionContext(this)
+        .setConsole(new Console(console.getVerbosity(), newStdout, newStderr, console.getAnsi()))
+        .build();
   }
 
   public void logError(Throwable error, String msg, Object... formatArgs) {
@@ -135,6 +128,14 @@ public class ExecutionContext {
     return platform;
   }
 
+  /**
+   * @return the scheduler that every {@link ResourceAwareStep} in this build must go through before
+   *     it runs, regardless of which thread pool it runs on.
+   */
+  public ResourceScheduler getResourceScheduler() {
+    return resourceScheduler;
+  }
+
   /**
    * Returns the {@link AndroidPlatformTarget}, if present. If not, throws a
    * {@link NoAndroidSdkException}. Use this when your logic requires the user to specify the
@@ -174,6 +175,22 @@ public class ExecutionContext {
     return defaultTestTimeoutMillis;
   }
 
+  /**
+   * @return the number of JVMs across which the test classes of a single test rule may be split
+   *     when they are run. 1 means that all of them run in the same JVM.
+   */
+  public int getTestShardCount() {
+    return testShardCount;
+  }
+
+  /**
+   * @return the number of test rules that may run, one after another, in the same JVM. 1 means
+   *     that every test rule runs in a JVM of its own.
+   */
+  public int getTestJvmReuseCount() {
+    return testJvmReuseCount;
+  }
+
   public boolean isCodeCoverageEnabled() {
     return isCodeCoverageEnabled;
   }
@@ -182,6 +199,22 @@ public class ExecutionContext {
     return isDebugEnabled;
   }
 
+  /**
+   * @return whether javac steps that support it should only recompile the sources that are
+   *     affected by what has changed since they last ran.
+   */
+  public boolean isIncrementalJavaCompilationEnabled() {
+    return isIncrementalJavaCompilationEnabled;
+  }
+
+  /**
+   * @return whether javac steps that compile only a few sources may be compiled together with
+   *     other such steps that are running at the same time, in a single javac invocation.
+   */
+  public boolean isJavaCompilationBatchingEnabled() {
+    return isJavaCompilationBatchingEnabled;
+  }
+
   public String getPathToAdbExecutable() throws NoAndroidSdkException {
     return getAndroidPlatformTarget().getAdbExecutable().getAbsolutePath();
   }
@@ -202,25 +235,23 @@ public class ExecutionContext {
     private Optional<File> ndkRoot = Optional.absent();
     private Optional<TargetDevice> targetDevice = Optional.absent();
     private long defaultTestTimeoutMillis = 0L;
+    private int testShardCount = 1;
+    private int testJvmReuseCount = 1;
     private boolean isCodeCoverageEnabled = false;
     private boolean isDebugEnabled = false;
+    private boolean isIncrementalJavaCompilationEnabled = false;
+    private boolean isJavaCompilationBatchingEnabled = false;
     private BuckEventBus eventBus = null;
     private Platform platform = null;
+    private ResourceScheduler resourceScheduler = null;
 
     private Builder() {}
 
     public ExecutionContext build() {
-      return new ExecutionContext(
-          projectFilesystem,
-          console,
-          androidPlatformTarget,
-          ndkRoot,
-          targetDevice,
-          defaultTestTimeoutMillis,
-          isCodeCoverageEnabled,
-          isDebugEnabled,
-          eventBus,
-          platform);
+      if (resourceScheduler == null) {
+        resourceScheduler = ResourceScheduler.createForThisMachine();
+      }
+      return new ExecutionContext(this);
     }
 
     public Builder setExecutionContext(ExecutionContext executionContext) {
@@ -230,10 +261,16 @@ public class ExecutionContext {
       setNdkRoot(executionContext.getNdkRoot());
       setTargetDevice(executionContext.getTargetDeviceOptional());
       setDefaultTestTimeoutMillis(executionContext.getDefaultTestTimeoutMillis());
+      setTestShardCount(executionContext.getTestShardCount());
+      setTestJvmReuseCount(executionContext.getTestJvmReuseCount());
       setCodeCoverageEnabled(executionContext.isCodeCoverageEnabled());
       setDebugEnabled(executionContext.isDebugEnabled());
+      setIncrementalJavaCompilationEnabled(
+          executionContext.isIncrementalJavaCompilationEnabled());
+      setJavaCompilationBatchingEnabled(executionContext.isJavaCompilationBatchingEnabled());
       setEventBus(executionContext.getBuckEventBus());
       setPlatform(executionContext.getPlatform());
+      setResourceScheduler(executionContext.getResourceScheduler());
       return this;
     }
 
@@ -270,6 +307,19 @@ public class ExecutionContext {
       return this;
     }
 
+    public Builder setTestShardCount(int testShardCount) {
+      Preconditions.checkArgument(testShardCount >= 1, "There must be at least one test shard.");
+      this.testShardCount = testShardCount;
+      return this;
+    }
+
+    public Builder setTestJvmReuseCount(int testJvmReuseCount) {
+      Preconditions.checkArgument(testJvmReuseCount >= 1,
+          "A JVM must be used for at least one test rule.");
+      this.testJvmReuseCount = testJvmReuseCount;
+      return this;
+    }
+
     public Builder setCodeCoverageEnabled(boolean isCodeCoverageEnabled) {
       this.isCodeCoverageEnabled = isCodeCoverageEnabled;
       return this;
@@ -280,6 +330,17 @@ public class ExecutionContext {
       return this;
     }
 
+    public Builder setIncrementalJavaCompilationEnabled(
+        boolean isIncrementalJavaCompilationEnabled) {
+      this.isIncrementalJavaCompilationEnabled = isIncrementalJavaCompilationEnabled;
+      return this;
+    }
+
+    public Builder setJavaCompilationBatchingEnabled(boolean isJavaCompilationBatchingEnabled) {
+      this.isJavaCompilationBatchingEnabled = isJavaCompilationBatchingEnabled;
+      return this;
+    }
+
     public Builder setEventBus(BuckEventBus eventBus) {
       this.eventBus = Preconditions.checkNotNull(eventBus);
       return this;
@@ -289,5 +350,10 @@ public class ExecutionContext {
       this.platform = Preconditions.checkNotNull(platform);
       return this;
     }
+
+    public Builder setResourceScheduler(ResourceScheduler resourceScheduler) {
+      this.resourceScheduler = Preconditions.checkNotNull(resourceScheduler);
+      return this;
+    }
   }
 }
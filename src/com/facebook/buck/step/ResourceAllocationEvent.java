@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.BuckEvent;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Posted when the {@link ResourceScheduler} admits a {@link ResourceAwareStep}, recording how long
+ * the step had to wait for the resources it needed.
+ */
+@SuppressWarnings("PMD.OverrideBothEqualsAndHashcode")
+public class ResourceAllocationEvent extends AbstractBuckEvent {
+  private final Step step;
+  private final StepResources resources;
+  private final long queuedMillis;
+
+  private ResourceAllocationEvent(Step step, StepResources resources, long queuedMillis) {
+    this.step = Preconditions.checkNotNull(step);
+    this.resources = Preconditions.checkNotNull(resources);
+    this.queuedMillis = queuedMillis;
+  }
+
+  public static ResourceAllocationEvent admitted(Step step,
+      StepResources resources,
+      long queuedMillis) {
+    return new ResourceAllocationEvent(step, resources, queuedMillis);
+  }
+
+  public Step getStep() {
+    return step;
+  }
+
+  public StepResources getResources() {
+    return resources;
+  }
+
+  public long getQueuedMillis() {
+    return queuedMillis;
+  }
+
+  @Override
+  protected String getEventName() {
+    return "ResourceAllocation";
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format("%s (%s) queued for %dms", step.getShortName(), resources, queuedMillis);
+  }
+
+  @Override
+  public boolean eventsArePair(BuckEvent event) {
+    if (!(event instanceof ResourceAllocationEvent)) {
+      return false;
+    }
+    return Objects.equal(getStep(), ((ResourceAllocationEvent) event).getStep());
+  }
+
+  @Override
+  public int hashCode() {
+    return step.hashCode();
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step;
+
+/**
+ * A {@link Step} that is expensive enough, typically because it forks a JVM or another
+ * heavyweight process, that it should only be run once the {@link ResourceScheduler} in the
+ * {@link ExecutionContext} has admitted it.
+ * <p>
+ * Only steps that do the work themselves should implement this interface: a step that is composed
+ * of, or that fans out to, other steps must not, or it will hold resources that its children are
+ * waiting for. {@link CompositeStep} instead admits each of its children as it reaches them.
+ */
+public interface ResourceAwareStep extends Step {
+
+  public StepResources getRequiredResources(ExecutionContext context);
+}
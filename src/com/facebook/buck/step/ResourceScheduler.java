@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admits {@link ResourceAwareStep}s only while the total of the resources that they need stays
+ * within the limits of the machine. There should be one of these per build, shared by every thread
+ * pool that runs steps, so that pools which are nested inside of steps (such as the one that
+ * {@link com.facebook.buck.android.SmartDexingStep} uses to run dx) cannot oversubscribe the
+ * machine between them.
+ * <p>
+ * Steps are admitted in the order in which they asked, so a step that needs a lot of memory is not
+ * starved by a stream of smaller steps.
+ */
+public class ResourceScheduler {
+
+  private final StepResources limits;
+
+  /** Guarded by {@code this}. */
+  private StepResources inUse;
+
+  /** Guarded by {@code this}. Threads that are waiting to be admitted, in the order they asked. */
+  private final Deque<Thread> waiters;
+
+  public ResourceScheduler(StepResources limits) {
+    this.limits = Preconditions.checkNotNull(limits);
+    this.inUse = new StepResources(0, 0L);
+    this.waiters = Lists.newLinkedList();
+  }
+
+  public static ResourceScheduler createForThisMachine() {
+    return new ResourceScheduler(StepResources.forThisMachine());
+  }
+
+  public StepResources getLimits() {
+    return limits;
+  }
+
+  /**
+   * Blocks until {@code requested} resources are available, and then reserves them until the
+   * returned {@link Allocation} is closed.
+   */
+  public Allocation acquire(StepResources requested) throws InterruptedException {
+    StepResources amount = requested.clampTo(limits);
+    long startNanos = System.nanoTime();
+    Thread self = Thread.currentThread();
+
+    synchronized (this) {
+      waiters.addLast(self);
+      try {
+        while (waiters.peekFirst() != self || !inUse.plus(amount).fitsWithin(limits)) {
+          wait();
+        }
+      } finally {
+        waiters.remove(self);
+        // The thread at the head of the queue may have changed, and it may fit.
+        notifyAll();
+      }
+      inUse = inUse.plus(amount);
+    }
+
+    return new Allocation(amount,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+  }
+
+  /**
+   * Blocks until there are resources for {@code step} to execute, if it is a
+   * {@link ResourceAwareStep}, and tells the event bus of {@code context} how long it waited. This
+   * is how everything that executes steps admits them, so that each step is admitted just before
+   * it executes, however it is run.
+   * @return the resources reserved for {@code step}, which must be closed once it has executed.
+   *     For a step that is not resource-aware, nothing is reserved.
+   */
+  public Allocation acquireFor(Step step, ExecutionContext context) throws InterruptedException {
+    if (!(step instanceof ResourceAwareStep)) {
+      return new Allocation(new StepResources(0, 0L), /* queuedMillis */ 0L);
+    }
+
+    StepResources resources = ((ResourceAwareStep) step).getRequiredResources(context);
+    Allocation allocation = acquire(resources);
+    context.postEvent(
+        ResourceAllocationEvent.admitted(step, resources, allocation.getQueuedMillis()));
+    return allocation;
+  }
+
+  private synchronized void release(StepResources amount) {
+    inUse = inUse.minus(amount);
+    notifyAll();
+  }
+
+  /**
+   * Resources that have been reserved by {@link #acquire(StepResources)}.
+   */
+  public class Allocation implements AutoCloseable {
+    private final StepResources amount;
+    private final long queuedMillis;
+    private boolean isReleased;
+
+    private Allocation(StepResources amount, long queuedMillis) {
+      this.amount = amount;
+      this.queuedMillis = queuedMillis;
+      this.isReleased = false;
+    }
+
+    /** @return how long the caller of {@link #acquire(StepResources)} waited to be admitted. */
+    public long getQueuedMillis() {
+      return queuedMillis;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!isReleased) {
+        isReleased = true;
+        release(amount);
+      }
+    }
+  }
+}
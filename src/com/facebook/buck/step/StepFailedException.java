@@ -66,7 +66,9 @@ public class StepFailedException extends Exception {
           step.getShortName(),
           throwable.getMessage());
     }
-    return new StepFailedException(message, step, 1);
+    StepFailedException exception = new StepFailedException(message, step, 1);
+    exception.initCause(throwable);
+    return exception;
   }
 
   public Step getStep() {
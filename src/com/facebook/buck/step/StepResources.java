@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * An amount of machine resources: either what a {@link ResourceAwareStep} needs in order to run,
+ * or what the machine is willing to hand out to all of the steps that are running at once.
+ */
+public final class StepResources {
+
+  /** What a heavyweight step that does not say otherwise is assumed to need. */
+  public static final StepResources ONE_CPU = new StepResources(1, 0L);
+
+  private final int cpuSlots;
+  private final long memoryMegabytes;
+
+  public StepResources(int cpuSlots, long memoryMegabytes) {
+    Preconditions.checkArgument(cpuSlots >= 0, "cpuSlots must be non-negative: %s", cpuSlots);
+    Preconditions.checkArgument(memoryMegabytes >= 0,
+        "memoryMegabytes must be non-negative: %s",
+        memoryMegabytes);
+    this.cpuSlots = cpuSlots;
+    this.memoryMegabytes = memoryMegabytes;
+  }
+
+  /**
+   * @return the resources of the machine that Buck is running on. Memory is not limited by default
+   *     because there is no portable way to find out how much physical memory is available.
+   */
+  public static StepResources forThisMachine() {
+    return new StepResources(Runtime.getRuntime().availableProcessors(), Long.MAX_VALUE);
+  }
+
+  public int getCpuSlots() {
+    return cpuSlots;
+  }
+
+  public long getMemoryMegabytes() {
+    return memoryMegabytes;
+  }
+
+  /**
+   * @return whether {@code this} amount of resources fits within {@code available}.
+   */
+  public boolean fitsWithin(StepResources available) {
+    return cpuSlots <= available.cpuSlots && memoryMegabytes <= available.memoryMegabytes;
+  }
+
+  StepResources plus(StepResources that) {
+    return new StepResources(cpuSlots + that.cpuSlots,
+        saturatedAdd(memoryMegabytes, that.memoryMegabytes));
+  }
+
+  StepResources minus(StepResources that) {
+    Preconditions.checkArgument(that.fitsWithin(this));
+    return new StepResources(cpuSlots - that.cpuSlots, memoryMegabytes - that.memoryMegabytes);
+  }
+
+  /**
+   * @return the largest amount of resources no greater than either {@code this} or {@code limit}.
+   *     A step that needs more than the whole machine is given the whole machine rather than
+   *     waiting forever.
+   */
+  StepResources clampTo(StepResources limit) {
+    return new StepResources(Math.min(cpuSlots, limit.cpuSlots),
+        Math.min(memoryMegabytes, limit.memoryMegabytes));
+  }
+
+  private static long saturatedAdd(long a, long b) {
+    long sum = a + b;
+    return sum < 0 ? Long.MAX_VALUE : sum;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof StepResources)) {
+      return false;
+    }
+    StepResources that = (StepResources) obj;
+    return this.cpuSlots == that.cpuSlots && this.memoryMegabytes == that.memoryMegabytes;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(cpuSlots, memoryMegabytes);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d cpu, %d MB", cpuSlots, memoryMegabytes);
+  }
+}
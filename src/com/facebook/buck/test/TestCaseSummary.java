@@ -18,6 +18,7 @@ package com.facebook.buck.test;
 
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.TimeFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -90,6 +91,12 @@ public class TestCaseSummary {
     return testCaseName;
   }
 
+  /** @return whether these results were read from a previous run rather than produced by this one */
+  @JsonIgnore
+  public boolean isCached() {
+    return isCached;
+  }
+
   /** @return the total time to run all of the tests in this test case, in milliseconds */
   public long getTotalTime() {
     return totalTime;
@@ -18,6 +18,7 @@ package com.facebook.buck.test;
 
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.TimeFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
@@ -69,6 +70,12 @@ public class TestResultSummary {
     this.stdErr = stdErr;
   }
 
+  /** @return the name of the test class. It is already part of the serialized test case. */
+  @JsonIgnore
+  public String getTestCaseName() {
+    return testCaseName;
+  }
+
   public String getTestName() {
     return testName;
   }
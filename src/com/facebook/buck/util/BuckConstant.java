@@ -35,7 +35,13 @@ public class BuckConstant {
 
   public static final String ANNOTATION_DIR = BUCK_OUTPUT_DIRECTORY + "/annotation";
 
-  public static final String BUCK_TRACE_DIR = BUCK_OUTPUT_DIRECTORY + "/log/traces";
+  /**
+   * The relative path to the directory where Buck writes logs and the statistics that it keeps
+   * between invocations, such as how long each build rule took to build.
+   */
+  public static final String BUCK_LOG_DIR = BUCK_OUTPUT_DIRECTORY + "/log";
+
+  public static final String BUCK_TRACE_DIR = BUCK_LOG_DIR + "/traces";
 
   /**
    * This variable is package-private because conceptually, only parsing logic should be concerned
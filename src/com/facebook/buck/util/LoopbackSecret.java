@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * A random secret that Buck gives to a JVM that it starts, through an environment variable, and
+ * that must be sent as the first line of any connection between the two. Only the same user can
+ * read the environment of a process, so a connection from another user, which can reach a loopback
+ * port just as easily, is not trusted with tests to run or believed about their results.
+ * <p>
+ * IMPORTANT! This class is also compiled into the test runner, so it limits itself to types that
+ * are available in both the JDK and Android Java API. See src/com/facebook/buck/junit/BUCK.
+ */
+public final class LoopbackSecret {
+
+  /** How long a connection may take to send the secret before it is dropped. */
+  private static final int HANDSHAKE_TIMEOUT_MILLIS = 10000;
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private LoopbackSecret() {}
+
+  /** @return a new secret, which is safe to pass through an environment variable. */
+  public static String generate() {
+    byte[] bytes = new byte[16];
+    RANDOM.nextBytes(bytes);
+    StringBuilder secret = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      secret.append(String.format("%02x", b & 0xff));
+    }
+    return secret.toString();
+  }
+
+  /**
+   * Reads the first line of {@code socket}, and no more, leaving the rest to be read by the caller.
+   * @return whether it was {@code secret}.
+   * @throws java.net.SocketTimeoutException if the secret was not sent in time.
+   */
+  public static boolean isSentBy(Socket socket, String secret) throws IOException {
+    byte[] expected = (secret + '\n').getBytes("UTF-8");
+    byte[] actual = new byte[expected.length];
+    int originalTimeout = socket.getSoTimeout();
+    socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+    try {
+      InputStream input = socket.getInputStream();
+      int offset = 0;
+      while (offset < actual.length) {
+        int read = input.read(actual, offset, actual.length - offset);
+        if (read == -1) {
+          return false;
+        }
+        offset += read;
+      }
+      return MessageDigest.isEqual(expected, actual);
+    } finally {
+      socket.setSoTimeout(originalTimeout);
+    }
+  }
+}
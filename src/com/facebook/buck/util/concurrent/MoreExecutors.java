@@ -19,6 +19,8 @@ package com.facebook.buck.util.concurrent;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -34,7 +36,7 @@ public class MoreExecutors {
    * A ThreadFactory which gives each thread a meaningful and distinct name.
    * ThreadFactoryBuilder is not used to avoid a dependency on Guava in the junit target.
    */
-  private static class NamedThreadFactory implements ThreadFactory {
+  static class NamedThreadFactory implements ThreadFactory {
 
     private final AtomicInteger threadCount = new AtomicInteger(0);
     private final String threadName;
@@ -70,6 +72,32 @@ public class MoreExecutors {
         /* handler */ new ThreadPoolExecutor.DiscardPolicy());
   }
 
+  /**
+   * Creates a scheduled executor with a single daemon thread, so that tasks that are scheduled far
+   * in the future do not keep the JVM alive. Cancelled tasks are removed from its queue straight
+   * away, so scheduling a task that is nearly always cancelled, such as a timeout, does not leak.
+   *
+   * @return A single-threaded scheduled executor.
+   * @param threadName a thread name prefix used to easily identify threads when debugging.
+   */
+  public static ScheduledExecutorService newSingleDaemonThreadScheduledExecutor(
+      final String threadName) {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+        /* corePoolSize */ 1,
+        new ThreadFactory() {
+          private final ThreadFactory threadFactory = new NamedThreadFactory(threadName);
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread newThread = threadFactory.newThread(r);
+            newThread.setDaemon(true);
+            return newThread;
+          }
+        });
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
   /**
    * Creates a multi-threaded executor with meaningfully named threads.
    * @param threadName a thread name prefix used to easily identify threads when debugging.
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size thread pool whose queued work is ordered by priority rather than by submission
+ * order. Work that is submitted via {@link #withPriority(Executor, long)} is run ahead of queued
+ * work with a lower priority. All other work gets a priority of {@code 0}. Work with equal
+ * priorities is run in the order in which it was submitted, so a pool that is only ever given
+ * unprioritized work behaves exactly like a fixed thread pool.
+ */
+public class PriorityThreadPoolExecutor extends ThreadPoolExecutor {
+
+  private static final long DEFAULT_PRIORITY = 0L;
+
+  private final AtomicLong sequenceNumber = new AtomicLong();
+
+  /**
+   * @param threadName a thread name prefix used to easily identify threads when debugging.
+   * @param threadCount the number of threads that should be created in the pool.
+   */
+  public PriorityThreadPoolExecutor(String threadName, int threadCount) {
+    this(threadCount, new MoreExecutors.NamedThreadFactory(threadName));
+  }
+
+  public PriorityThreadPoolExecutor(int threadCount, ThreadFactory threadFactory) {
+    super(
+        /* corePoolSize */ threadCount,
+        /* maximumPoolSize */ threadCount,
+        /* keepAliveTime */ 0L, TimeUnit.MILLISECONDS,
+        /* workQueue */ new PriorityBlockingQueue<Runnable>(),
+        threadFactory);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    Preconditions.checkNotNull(command);
+    long priority = command instanceof PrioritizedRunnable ?
+        ((PrioritizedRunnable) command).priority :
+        DEFAULT_PRIORITY;
+    super.execute(new QueuedRunnable(command, priority, sequenceNumber.getAndIncrement()));
+  }
+
+  /**
+   * @return an {@link Executor} that passes {@code priority} along with every {@link Runnable} it
+   *     is given to {@code delegate}. If {@code delegate} is not backed by a
+   *     {@link PriorityThreadPoolExecutor}, then the priority is ignored.
+   */
+  public static Executor withPriority(final Executor delegate, final long priority) {
+    Preconditions.checkNotNull(delegate);
+    return new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        delegate.execute(new PrioritizedRunnable(command, priority));
+      }
+    };
+  }
+
+  private static class PrioritizedRunnable implements Runnable {
+    private final Runnable delegate;
+    private final long priority;
+
+    private PrioritizedRunnable(Runnable delegate, long priority) {
+      this.delegate = Preconditions.checkNotNull(delegate);
+      this.priority = priority;
+    }
+
+    @Override
+    public void run() {
+      delegate.run();
+    }
+  }
+
+  private static class QueuedRunnable implements Runnable, Comparable<QueuedRunnable> {
+    private final Runnable delegate;
+    private final long priority;
+    private final long sequenceNumber;
+
+    private QueuedRunnable(Runnable delegate, long priority, long sequenceNumber) {
+      this.delegate = delegate;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+    }
+
+    @Override
+    public void run() {
+      delegate.run();
+    }
+
+    @Override
+    public int compareTo(QueuedRunnable that) {
+      // Higher priorities come first; ties are broken by submission order.
+      if (this.priority != that.priority) {
+        return this.priority > that.priority ? -1 : 1;
+      }
+      return Long.compare(this.sequenceNumber, that.sequenceNumber);
+    }
+  }
+}
@@ -63,13 +63,13 @@ class AppendingZipOutputStream extends CustomZipOutputStream {
   }
 
   @Override
-  protected void actuallyPutNextEntry(ZipEntry entry) throws IOException {
+  protected void actuallyPutNextEntry(ZipEntry entry, boolean isRaw) throws IOException {
     if (throwExceptionsOnDuplicate && !seenNames.add(entry.getName())) {
       // Same exception as ZipOutputStream.
       throw new ZipException("duplicate entry: " + entry.getName());
     }
 
-    currentEntry = new EntryAccounting(clock, entry, currentOffset);
+    currentEntry = new EntryAccounting(clock, entry, currentOffset, isRaw);
     entries.add(currentEntry);
 
     currentOffset += currentEntry.writeLocalFileHeader(delegate);
@@ -20,6 +20,7 @@ import com.google.common.base.Preconditions;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 
@@ -29,6 +30,8 @@ import java.util.zip.ZipException;
  */
 public abstract class CustomZipOutputStream extends OutputStream {
 
+  private static final int RAW_COPY_BUFFER_SIZE = 64 * 1024;
+
   protected final OutputStream delegate;
   private State state;
   private boolean entryOpen;
@@ -39,12 +42,43 @@ public abstract class CustomZipOutputStream extends OutputStream {
   }
 
   public final void putNextEntry(ZipEntry entry) throws IOException {
+    putNextEntry(entry, /* isRaw */ false);
+  }
+
+  /**
+   * Writes a complete entry whose data has already been compressed with the entry's method, such
+   * as an entry read from another zip file with
+   * {@link IndexedZipFile#getCompressedData(IndexedZipFile.Entry)}. The data is copied as it is,
+   * rather than being decompressed and compressed again.
+   *
+   * @param entry The {@link ZipEntry} to write, whose CRC, size and compressed size must be set.
+   * @param compressedData The data of the entry, which is read from its position to its limit.
+   */
+  public final void putRawEntry(ZipEntry entry, ByteBuffer compressedData) throws IOException {
+    Preconditions.checkNotNull(entry);
+    Preconditions.checkArgument(entry.getCrc() != -1 && entry.getSize() != -1,
+        "The CRC and size of %s must be known to copy it as it is.", entry.getName());
+    Preconditions.checkArgument(entry.getCompressedSize() == compressedData.remaining(),
+        "The compressed size of %s does not match its data.", entry.getName());
+
+    putNextEntry(entry, /* isRaw */ true);
+    ByteBuffer data = compressedData.duplicate();
+    byte[] buffer = new byte[Math.min(data.remaining(), RAW_COPY_BUFFER_SIZE)];
+    while (data.hasRemaining()) {
+      int length = Math.min(data.remaining(), buffer.length);
+      data.get(buffer, 0, length);
+      actuallyWrite(buffer, 0, length);
+    }
+    closeEntry();
+  }
+
+  private void putNextEntry(ZipEntry entry, boolean isRaw) throws IOException {
     Preconditions.checkState(state != State.CLOSED, "Stream has been closed.");
     Preconditions.checkNotNull(entry);
 
     state = State.OPEN;
     closeEntry();
-    actuallyPutNextEntry(entry);
+    actuallyPutNextEntry(entry, isRaw);
     entryOpen = true;
   }
 
@@ -54,8 +88,10 @@ public abstract class CustomZipOutputStream extends OutputStream {
    * is also guaranteed that there's no current entry open.
    *
    * @param entry The {@link ZipEntry} to write.
+   * @param isRaw Whether the data that will be written is already compressed, as it is when the
+   *     entry is put by {@link #putRawEntry(ZipEntry, ByteBuffer)}.
    */
-  protected abstract void actuallyPutNextEntry(ZipEntry entry) throws IOException;
+  protected abstract void actuallyPutNextEntry(ZipEntry entry, boolean isRaw) throws IOException;
 
   public final void closeEntry() throws IOException {
     Preconditions.checkState(state != State.CLOSED, "Stream has been closed");
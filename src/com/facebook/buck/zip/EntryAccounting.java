@@ -42,6 +42,11 @@ class EntryAccounting {
 
   private final ZipEntry entry;
   private final Method method;
+  /**
+   * Whether the data written is already compressed, and the entry's CRC, size and compressed size
+   * are already known.
+   */
+  private final boolean isRaw;
   private Hasher crc = Hashing.crc32().newHasher();
   private long offset;
   /*
@@ -66,9 +71,10 @@ class EntryAccounting {
   private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
   private final byte[] buffer = new byte[ARBITRARY_SIZE];
 
-  public EntryAccounting(Clock clock, ZipEntry entry, long currentOffset) {
+  public EntryAccounting(Clock clock, ZipEntry entry, long currentOffset, boolean isRaw) {
     this.entry = Preconditions.checkNotNull(entry);
     this.method = Method.detect(entry.getMethod());
+    this.isRaw = isRaw;
     Preconditions.checkNotNull(clock);
     this.offset = currentOffset;
 
@@ -239,6 +245,11 @@ class EntryAccounting {
   }
 
   public long write(OutputStream out, byte[] b, int off, int len) throws IOException {
+    if (isRaw) {
+      out.write(b, off, len);
+      return len;
+    }
+
     updateCrc(b, off, len);
 
     if (!isDeflated()) {
@@ -265,6 +276,14 @@ class EntryAccounting {
       return 0;
     }
 
+    if (isRaw) {
+      // The compressed data has been written already, and was counted as it was written.
+      deflater.end();
+      byte[] closeBytes = close();
+      out.write(closeBytes);
+      return closeBytes.length;
+    }
+
     deflater.finish();
     while (!deflater.finished()) {
       deflate(out);
@@ -0,0 +1,565 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A read-only view of a zip file. The central directory of the file is parsed into an index of
+ * {@link Entry}s, so an entry can be found without scanning the file, and the compressed bytes of an
+ * entry can be copied to another zip without being inflated and deflated again. The index is cached
+ * and shared by every instance that is opened on the same version of the same file, so a jar that
+ * is on the classpath of many rules is only indexed once.
+ * <p>
+ * The file is memory-mapped, so entries are read straight from the page cache rather than copied
+ * onto the heap first. Buck rewrites jars in place, and touching a mapping of a file that has been
+ * truncated kills the JVM with {@code SIGBUS} (see JDK-7129299), so every read first checks that the
+ * file has not changed since it was indexed, and fails with a {@link ZipException} if it has. For
+ * the same reason, buffers returned by {@link #getCompressedData(Entry)} and streams returned by
+ * {@link #getInputStream(Entry)} should not outlive the instance that they came from.
+ * <p>
+ * Entries can only be read while the instance is open. Zip files that need ZIP64 extensions are
+ * supported, but zip files that span multiple disks are not.
+ */
+public final class IndexedZipFile implements Closeable {
+
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE = 20;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+
+  /** A count or offset with this value is stored in a ZIP64 record instead. */
+  private static final long ZIP64_MAGIC_COUNT = 0xFFFF;
+  private static final long ZIP64_MAGIC_VALUE = 0xFFFFFFFFL;
+
+  /**
+   * The indexes of the zip files that have been opened, by absolute path. Values are soft so that
+   * the indexes of jars that are no longer being read can be collected.
+   */
+  private static final Cache<Path, Index> INDEXES = CacheBuilder.newBuilder()
+      .softValues()
+      .build();
+
+  private final File file;
+  private final FileChannel channel;
+  private final Index index;
+
+  /** All of the file, or {@code null} if it is too large to be mapped as one buffer. */
+  @Nullable
+  private final MappedByteBuffer mapping;
+
+  private volatile boolean isClosed;
+
+  private IndexedZipFile(
+      File file,
+      FileChannel channel,
+      @Nullable MappedByteBuffer mapping,
+      Index index) {
+    this.file = file;
+    this.channel = channel;
+    this.mapping = mapping;
+    this.index = index;
+  }
+
+  /**
+   * @return a newly opened instance for {@code file}, which the caller must {@link #close()}.
+   */
+  public static IndexedZipFile open(File file) throws IOException {
+    Path path = file.toPath().toAbsolutePath().normalize();
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      long length = channel.size();
+      long lastModified = file.lastModified();
+      MappedByteBuffer mapping = length <= Integer.MAX_VALUE ?
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, length) :
+          null;
+
+      Index index = INDEXES.getIfPresent(path);
+      if (index == null || index.length != length || index.lastModified != lastModified) {
+        index = new Index(
+            length,
+            lastModified,
+            readCentralDirectory(file, channel, mapping, length));
+        INDEXES.put(path, index);
+      }
+      return new IndexedZipFile(file, channel, mapping, index);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static ImmutableList<Entry> readCentralDirectory(
+      File file,
+      FileChannel channel,
+      @Nullable MappedByteBuffer mapping,
+      long length) throws IOException {
+    int tailLength = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+    long tailOffset = length - tailLength;
+    ByteBuffer tail = map(channel, mapping, tailOffset, tailLength);
+    int endOfCentralDirectory = findEndOfCentralDirectory(file, tail);
+    long entryCount = tail.getShort(endOfCentralDirectory + 10) & 0xFFFF;
+    long centralDirectorySize = tail.getInt(endOfCentralDirectory + 12) & 0xFFFFFFFFL;
+    long centralDirectoryOffset = tail.getInt(endOfCentralDirectory + 16) & 0xFFFFFFFFL;
+    long centralDirectoryEnd = tailOffset + endOfCentralDirectory;
+
+    if (entryCount == ZIP64_MAGIC_COUNT ||
+        centralDirectorySize == ZIP64_MAGIC_VALUE ||
+        centralDirectoryOffset == ZIP64_MAGIC_VALUE) {
+      // The real values are in the ZIP64 end of central directory record, which is found through
+      // the locator just before the end of central directory record. A zip without a locator just
+      // happens to have one of the values above.
+      long locatorOffset = centralDirectoryEnd - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE;
+      ByteBuffer locator = locatorOffset >= 0 ?
+          map(channel, mapping, locatorOffset, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE) :
+          null;
+      if (locator != null &&
+          locator.getInt(0) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+        long zip64EndOffset = locator.getLong(8);
+        if (zip64EndOffset < 0 ||
+            zip64EndOffset + ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE > locatorOffset) {
+          throw new ZipException("Corrupt ZIP64 end of central directory in " + file);
+        }
+        ByteBuffer zip64End =
+            map(channel, mapping, zip64EndOffset, ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+        if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+          throw new ZipException("Corrupt ZIP64 end of central directory in " + file);
+        }
+        entryCount = zip64End.getLong(32);
+        centralDirectorySize = zip64End.getLong(40);
+        centralDirectoryOffset = zip64End.getLong(48);
+        centralDirectoryEnd = zip64EndOffset;
+      }
+    }
+
+    if (entryCount < 0 ||
+        centralDirectoryOffset < 0 ||
+        centralDirectorySize < 0 ||
+        centralDirectorySize > Integer.MAX_VALUE ||
+        centralDirectoryOffset + centralDirectorySize > centralDirectoryEnd) {
+      throw new ZipException("Corrupt central directory in " + file);
+    }
+
+    ByteBuffer buffer = map(channel, mapping, centralDirectoryOffset, (int) centralDirectorySize);
+    ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+    int offset = 0;
+    for (long i = 0; i < entryCount; i++) {
+      if (offset + CENTRAL_DIRECTORY_HEADER_SIZE > buffer.limit() ||
+          buffer.getInt(offset) != CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+        throw new ZipException("Corrupt central directory in " + file);
+      }
+      int nameLength = buffer.getShort(offset + 28) & 0xFFFF;
+      int extraLength = buffer.getShort(offset + 30) & 0xFFFF;
+      int nameOffset = offset + CENTRAL_DIRECTORY_HEADER_SIZE;
+      if (nameOffset + nameLength + extraLength > buffer.limit()) {
+        throw new ZipException("Corrupt central directory in " + file);
+      }
+
+      int flags = buffer.getShort(offset + 8) & 0xFFFF;
+      int method = buffer.getShort(offset + 10) & 0xFFFF;
+      long dosTime = buffer.getInt(offset + 12) & 0xFFFFFFFFL;
+      long crc = buffer.getInt(offset + 16) & 0xFFFFFFFFL;
+      long compressedSize = buffer.getInt(offset + 20) & 0xFFFFFFFFL;
+      long size = buffer.getInt(offset + 24) & 0xFFFFFFFFL;
+      long localHeaderOffset = buffer.getInt(offset + 42) & 0xFFFFFFFFL;
+
+      if (size == ZIP64_MAGIC_VALUE ||
+          compressedSize == ZIP64_MAGIC_VALUE ||
+          localHeaderOffset == ZIP64_MAGIC_VALUE) {
+        // The ZIP64 extra field holds, in this order, only those values that did not fit.
+        ByteBuffer zip64 = findZip64ExtraField(buffer, nameOffset + nameLength, extraLength);
+        if (zip64 != null) {
+          if (size == ZIP64_MAGIC_VALUE && zip64.remaining() >= 8) {
+            size = zip64.getLong();
+          }
+          if (compressedSize == ZIP64_MAGIC_VALUE && zip64.remaining() >= 8) {
+            compressedSize = zip64.getLong();
+          }
+          if (localHeaderOffset == ZIP64_MAGIC_VALUE && zip64.remaining() >= 8) {
+            localHeaderOffset = zip64.getLong();
+          }
+        }
+      }
+
+      byte[] name = new byte[nameLength];
+      ByteBuffer nameBuffer = buffer.duplicate();
+      nameBuffer.position(nameOffset);
+      nameBuffer.get(name);
+
+      entries.add(new Entry(
+          new String(name, Charsets.UTF_8),
+          flags,
+          method,
+          dosTime,
+          crc,
+          compressedSize,
+          size,
+          localHeaderOffset));
+      int commentLength = buffer.getShort(offset + 32) & 0xFFFF;
+      offset = nameOffset + nameLength + extraLength + commentLength;
+    }
+    return entries.build();
+  }
+
+  private static int findEndOfCentralDirectory(File file, ByteBuffer tail) throws ZipException {
+    for (int offset = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; offset >= 0; offset--) {
+      if (tail.getInt(offset) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+        return offset;
+      }
+    }
+    throw new ZipException("Not a zip file: " + file);
+  }
+
+  /**
+   * @return a little-endian buffer of the data of the ZIP64 extended information extra field among
+   *     the {@code length} bytes of extra fields at {@code offset}, or {@code null} if there is none.
+   */
+  @Nullable
+  private static ByteBuffer findZip64ExtraField(ByteBuffer buffer, int offset, int length) {
+    int end = offset + length;
+    while (offset + 4 <= end) {
+      int dataSize = buffer.getShort(offset + 2) & 0xFFFF;
+      int dataOffset = offset + 4;
+      if (dataOffset + dataSize > end) {
+        return null;
+      }
+      if ((buffer.getShort(offset) & 0xFFFF) == ZIP64_EXTRA_FIELD_ID) {
+        ByteBuffer data = buffer.duplicate();
+        data.limit(dataOffset + dataSize);
+        data.position(dataOffset);
+        return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+      }
+      offset = dataOffset + dataSize;
+    }
+    return null;
+  }
+
+  /**
+   * @return a little-endian buffer of the {@code count} bytes of the file at {@code offset}, which
+   *     is a view of {@code mapping} if the file could be mapped as one buffer.
+   */
+  private static ByteBuffer map(
+      FileChannel channel,
+      @Nullable MappedByteBuffer mapping,
+      long offset,
+      int count) throws IOException {
+    ByteBuffer buffer;
+    if (mapping != null) {
+      buffer = mapping.duplicate();
+      buffer.limit((int) (offset + count));
+      buffer.position((int) offset);
+      buffer = buffer.slice();
+    } else {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, count);
+    }
+    return buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * @return a little-endian buffer of the {@code count} bytes of the file at {@code offset}.
+   */
+  private ByteBuffer read(long offset, int count) throws IOException {
+    Preconditions.checkState(!isClosed, "%s has been closed.", file);
+    if (offset < 0 || offset + count > index.length) {
+      throw new ZipException(String.format("Read past the end of %s", file));
+    }
+    // The index and the offsets in it are only good for the file that was indexed, and the mapping
+    // must not be touched past the end of a file that has been truncated.
+    if (channel.size() != index.length || file.lastModified() != index.lastModified) {
+      throw new ZipException(String.format("%s has changed since it was opened", file));
+    }
+    return map(channel, mapping, offset, count);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /** @return every entry, in the order in which they appear in the central directory. */
+  public ImmutableList<Entry> getEntries() {
+    return index.entries;
+  }
+
+  public Optional<Entry> getEntry(String name) {
+    return Optional.fromNullable(index.entriesByName.get(name));
+  }
+
+  /**
+   * @return a read-only buffer of the bytes of {@code entry} exactly as they are stored in the zip,
+   *     which are compressed unless the entry uses {@link ZipEntry#STORED}.
+   */
+  public ByteBuffer getCompressedData(Entry entry) throws IOException {
+    long localHeaderOffset = entry.getLocalHeaderOffset();
+    if (localHeaderOffset + LOCAL_HEADER_SIZE > index.length) {
+      throw new ZipException(String.format("Corrupt entry %s in %s", entry.getName(), file));
+    }
+    ByteBuffer localHeader = read(localHeaderOffset, LOCAL_HEADER_SIZE);
+    if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      throw new ZipException(String.format("Corrupt entry %s in %s", entry.getName(), file));
+    }
+
+    // The name and extra field in the local header may differ in length from the central
+    // directory's, so the local header has to be read to find where the data starts.
+    int nameLength = localHeader.getShort(26) & 0xFFFF;
+    int extraLength = localHeader.getShort(28) & 0xFFFF;
+    long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    if (entry.getCompressedSize() > Integer.MAX_VALUE ||
+        dataOffset + entry.getCompressedSize() > index.length) {
+      throw new ZipException(String.format("Truncated entry %s in %s", entry.getName(), file));
+    }
+
+    return read(dataOffset, (int) entry.getCompressedSize()).asReadOnlyBuffer();
+  }
+
+  /** @return a stream of the uncompressed contents of {@code entry}. */
+  public InputStream getInputStream(Entry entry) throws IOException {
+    InputStream compressed = new ByteBufferInputStream(getCompressedData(entry));
+    switch (entry.getMethod()) {
+      case ZipEntry.STORED:
+        return compressed;
+
+      case ZipEntry.DEFLATED:
+        // An Inflater that does not expect a zlib header needs a dummy byte after the data.
+        final Inflater inflater = new Inflater(/* nowrap */ true);
+        return new InflaterInputStream(
+            new SequenceInputStream(compressed, new ByteArrayInputStream(new byte[1])),
+            inflater) {
+          private boolean isClosed;
+
+          @Override
+          public void close() throws IOException {
+            if (!isClosed) {
+              isClosed = true;
+              inflater.end();
+              super.close();
+            }
+          }
+        };
+
+      default:
+        throw new ZipException(String.format("Unsupported compression method %d for %s in %s",
+            entry.getMethod(),
+            entry.getName(),
+            file));
+    }
+  }
+
+  /**
+   * Closes the file. Entries cannot be read once this has been called, although the index of the
+   * file stays cached for the next time that it is opened.
+   */
+  @Override
+  public void close() throws IOException {
+    isClosed = true;
+    channel.close();
+  }
+
+  /** The entries of one version of a zip file. */
+  private static class Index {
+    private final long length;
+    private final long lastModified;
+    private final ImmutableList<Entry> entries;
+    private final ImmutableMap<String, Entry> entriesByName;
+
+    private Index(long length, long lastModified, ImmutableList<Entry> entries) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.entries = entries;
+
+      ImmutableMap.Builder<String, Entry> entriesByName = ImmutableMap.builder();
+      Map<String, Entry> seen = Maps.newHashMap();
+      for (Entry entry : entries) {
+        // Like ZipFile, the first of several entries with the same name wins.
+        if (!seen.containsKey(entry.getName())) {
+          seen.put(entry.getName(), entry);
+          entriesByName.put(entry.getName(), entry);
+        }
+      }
+      this.entriesByName = entriesByName.build();
+    }
+  }
+
+  /**
+   * An entry in the central directory of a {@link IndexedZipFile}.
+   */
+  public static class Entry {
+    private final String name;
+    private final int flags;
+    private final int method;
+    private final long dosTime;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+
+    private Entry(
+        String name,
+        int flags,
+        int method,
+        long dosTime,
+        long crc,
+        long compressedSize,
+        long size,
+        long localHeaderOffset) {
+      this.name = name;
+      this.flags = flags;
+      this.method = method;
+      this.dosTime = dosTime;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    /** @return the general purpose bit flags of the entry. */
+    public int getFlags() {
+      return flags;
+    }
+
+    /** @return either {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}. */
+    public int getMethod() {
+      return method;
+    }
+
+    /** @return the modification time of the entry, in MS-DOS format. */
+    public long getDosTime() {
+      return dosTime;
+    }
+
+    public long getCrc() {
+      return crc;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    long getLocalHeaderOffset() {
+      return localHeaderOffset;
+    }
+
+    /** @return a {@link ZipEntry} with the same name, method, time, CRC and sizes. */
+    public ZipEntry toZipEntry() {
+      ZipEntry entry = new ZipEntry(name);
+      entry.setMethod(method);
+      entry.setTime(dosToJavaTime(dosTime));
+      entry.setCrc(crc);
+      entry.setSize(size);
+      entry.setCompressedSize(compressedSize);
+      return entry;
+    }
+
+    private static long dosToJavaTime(long dosTime) {
+      Calendar calendar = Calendar.getInstance();
+      calendar.clear();
+      calendar.set(
+          (int) ((dosTime >> 25) & 0x7f) + 1980,
+          (int) ((dosTime >> 21) & 0x0f) - 1,
+          (int) ((dosTime >> 16) & 0x1f),
+          (int) ((dosTime >> 11) & 0x1f),
+          (int) ((dosTime >> 5) & 0x3f),
+          (int) ((dosTime << 1) & 0x3e));
+      return calendar.getTimeInMillis();
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public long skip(long count) {
+      int skipped = (int) Math.min(count, buffer.remaining());
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
@@ -68,9 +68,9 @@ public class OverwritingZipOutputStream extends CustomZipOutputStream {
   }
 
   @Override
-  protected void actuallyPutNextEntry(ZipEntry entry) throws IOException {
+  protected void actuallyPutNextEntry(ZipEntry entry, boolean isRaw) throws IOException {
     // We calculate the actual offset when closing the stream, so 0 is fine.
-    currentEntry = new EntryAccounting(clock, entry, /* currentOffset */ 0);
+    currentEntry = new EntryAccounting(clock, entry, /* currentOffset */ 0, isRaw);
 
     long md5 = Hashing.md5().hashUnencodedChars(entry.getName()).asLong();
     String name = String.valueOf(md5);
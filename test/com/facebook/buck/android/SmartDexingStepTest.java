@@ -24,7 +24,12 @@ import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.android.SmartDexingStep.DxPseudoRule;
 import com.facebook.buck.android.SmartDexingStep.InputResolver;
+import com.facebook.buck.step.CompositeStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ResourceScheduler;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepResources;
+import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.google.common.base.Charsets;
@@ -45,6 +50,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -133,4 +139,49 @@ public class SmartDexingStepTest {
 
     assertTrue("Matching input hash should be considered cached", rule.checkIsCached());
   }
+
+  /**
+   * The dx step of each pseudo rule is wrapped in a {@link CompositeStep}, which must still wait
+   * for the {@link ResourceScheduler} to admit it.
+   */
+  @Test
+  public void testDxStepOfPseudoRuleWaitsForResources() throws Exception {
+    ResourceScheduler scheduler = new ResourceScheduler(new StepResources(1, 4096L));
+    final ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(tmpDir.getRoot()))
+        .setResourceScheduler(scheduler)
+        .build();
+
+    File testIn = tmpDir.newFolder("classes");
+    File outputFile = new File(tmpDir.getRoot(), "out.dex.jar");
+    final File outputHashFile = new File(tmpDir.getRoot(), "out.dex.jar.hash");
+    DxPseudoRule rule = new DxPseudoRule(context,
+        ImmutableSet.of(testIn.toPath()),
+        outputFile.getPath(),
+        outputHashFile.toPath(),
+        /* optimizeDex */ false);
+    assertFalse(rule.checkIsCached());
+    final Step step = Iterables.getOnlyElement(rule.buildInternal());
+    assertTrue(step instanceof CompositeStep);
+
+    final AtomicInteger exitCode = new AtomicInteger(0);
+    Thread dexer = new Thread() {
+      @Override
+      public void run() {
+        exitCode.set(step.execute(context));
+      }
+    };
+
+    // Another heavyweight step is holding the only CPU slot.
+    try (ResourceScheduler.Allocation allocation = scheduler.acquire(StepResources.ONE_CPU)) {
+      dexer.start();
+      dexer.join(200);
+      assertTrue("dx should not have been admitted", dexer.isAlive());
+      dexer.interrupt();
+      dexer.join();
+    }
+
+    assertEquals(1, exitCode.get());
+    assertFalse(outputHashFile.exists());
+  }
 }
@@ -336,6 +336,37 @@ public class BuckConfigTest {
     assertEquals(ImmutableSet.of("windows", "linux"), config.getDefaultExcludedLabels());
   }
 
+  @Test
+  public void testTestConcurrencyByLabel() throws IOException {
+    assertEquals(
+        ImmutableMap.<String, Integer>of(),
+        new FakeBuckConfig().getTestConcurrencyByLabel());
+
+    Reader reader = new StringReader(Joiner.on('\n').join(
+        "[test]",
+        "label_concurrency = integration:2, device : 1"));
+    BuckConfig config = createWithDefaultFilesystem(reader, null);
+    assertEquals(
+        ImmutableMap.of("integration", 2, "device", 1),
+        config.getTestConcurrencyByLabel());
+  }
+
+  @Test
+  public void testTestConcurrencyByLabelRejectsMalformedEntries() throws IOException {
+    for (String labelConcurrency : ImmutableList.of("integration", "integration:0", "a:b:1")) {
+      Reader reader = new StringReader(Joiner.on('\n').join(
+          "[test]",
+          "label_concurrency = " + labelConcurrency));
+      BuckConfig config = createWithDefaultFilesystem(reader, null);
+      try {
+        config.getTestConcurrencyByLabel();
+        fail("Should have thrown HumanReadableException for " + labelConcurrency);
+      } catch (HumanReadableException e) {
+        assertTrue(e.getMessage().contains(labelConcurrency));
+      }
+    }
+  }
+
   @Test
   public void testIgnorePaths() throws IOException {
     ProjectFilesystem filesystem = EasyMock.createMock(ProjectFilesystem.class);
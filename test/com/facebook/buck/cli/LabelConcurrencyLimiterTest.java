@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+public class LabelConcurrencyLimiterTest {
+
+  @Test
+  public void testOnlyLabelsWithALimitAreLimited() {
+    LabelConcurrencyLimiter limiter =
+        new LabelConcurrencyLimiter(ImmutableMap.of("integration", 2));
+
+    assertTrue(limiter.isLimited(ImmutableSet.of("fast", "integration")));
+    assertFalse(limiter.isLimited(ImmutableSet.of("fast")));
+    assertFalse(limiter.isLimited(ImmutableSet.<String>of()));
+  }
+
+  @Test
+  public void testTestWaitsUntilAnotherTestWithTheSameLabelHasFinished() throws Exception {
+    LabelConcurrencyLimiter limiter =
+        new LabelConcurrencyLimiter(ImmutableMap.of("integration", 1, "device", 2));
+    List<String> started = Lists.newArrayList();
+
+    SettableFuture<String> first = SettableFuture.create();
+    ListenableFuture<String> firstResult =
+        limiter.submit(ImmutableSet.of("integration", "device"), start("first", first, started));
+
+    // Another label is not held up by the first test.
+    SettableFuture<String> other = SettableFuture.create();
+    limiter.submit(ImmutableSet.of("device", "fast"), start("other", other, started));
+
+    SettableFuture<String> second = SettableFuture.create();
+    ListenableFuture<String> secondResult =
+        limiter.submit(ImmutableSet.of("integration"), start("second", second, started));
+    assertEquals(ImmutableList.of("first", "other"), started);
+
+    first.set("first passed");
+    assertEquals("first passed", firstResult.get());
+    assertEquals(ImmutableList.of("first", "other", "second"), started);
+    assertFalse(secondResult.isDone());
+
+    second.set("second passed");
+    assertEquals("second passed", secondResult.get());
+  }
+
+  @Test
+  public void testLabelsAreReleasedWhenATestCannotBeStarted() throws Exception {
+    LabelConcurrencyLimiter limiter =
+        new LabelConcurrencyLimiter(ImmutableMap.of("integration", 1));
+    List<String> started = Lists.newArrayList();
+
+    ListenableFuture<String> broken = limiter.submit(
+        ImmutableSet.of("integration"),
+        new Callable<ListenableFuture<String>>() {
+          @Override
+          public ListenableFuture<String> call() throws IOException {
+            throw new IOException("Could not start.");
+          }
+        });
+    try {
+      broken.get();
+      fail("The test should not have been started.");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+
+    limiter.submit(
+        ImmutableSet.of("integration"),
+        start("next", SettableFuture.<String>create(), started));
+    assertEquals(ImmutableList.of("next"), started);
+  }
+
+  private static Callable<ListenableFuture<String>> start(
+      final String name,
+      final ListenableFuture<String> result,
+      final List<String> started) {
+    return new Callable<ListenableFuture<String>>() {
+      @Override
+      public ListenableFuture<String> call() {
+        started.add(name);
+        return result;
+      }
+    };
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLimitMustBePositive() {
+    new LabelConcurrencyLimiter(ImmutableMap.of("integration", 0));
+  }
+}
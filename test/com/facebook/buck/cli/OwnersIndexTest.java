@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.graph.MutableDirectedGraph;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargetPattern;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleType;
+import com.facebook.buck.rules.DependencyGraph;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.FakeTestRule;
+import com.facebook.buck.rules.TestRule;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class OwnersIndexTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private BuildRule lib;
+  private BuildRule util;
+  private BuildRule app;
+  private TestRule libTest;
+  private TestRule appTest;
+  private OwnersIndex ownersIndex;
+
+  /**
+   * <pre>
+   * libTest -> lib
+   * appTest -> app -> lib
+   * util
+   * </pre>
+   */
+  @Before
+  public void setUp() throws IOException {
+    lib = createRule("//java/lib:lib", "java/lib/Lib.java");
+    util = createRule("//java/lib:util", "java/lib/Util.java");
+    app = createRule("//java/app:app", "java/app/App.java");
+    libTest = createTestRule("//javatests/lib:test");
+    appTest = createTestRule("//javatests/app:test");
+
+    MutableDirectedGraph<BuildRule> graph = new MutableDirectedGraph<>();
+    for (BuildRule rule : ImmutableList.of(lib, util, app, libTest, appTest)) {
+      graph.addNode(rule);
+    }
+    graph.addEdge(libTest, lib);
+    graph.addEdge(app, lib);
+    graph.addEdge(appTest, app);
+
+    tmp.newFolder("java", "lib");
+    tmp.newFile("java/lib/BUCK");
+    ownersIndex = new OwnersIndex(
+        new DependencyGraph(graph),
+        new ProjectFilesystem(tmp.getRoot()));
+  }
+
+  @Test
+  public void testOwnersAreTheRulesThatHaveTheFileAsAnInput() {
+    assertEquals(ImmutableSet.of(lib), ownersIndex.getOwners(Paths.get("java/lib/Lib.java")));
+    assertEquals(ImmutableSet.of(), ownersIndex.getOwners(Paths.get("java/lib/Other.java")));
+  }
+
+  @Test
+  public void testMissingFileIsGuessedToBeOwnedByTheRulesInTheNearestBuildFile() {
+    assertEquals(
+        ImmutableSet.of(lib, util),
+        ownersIndex.guessOwnersOfMissingFile("java/lib/sub/Deleted.java"));
+    assertEquals(
+        ImmutableSet.of(),
+        ownersIndex.guessOwnersOfMissingFile("java/app/Deleted.java"));
+  }
+
+  @Test
+  public void testAffectedTestsAreFoundThroughTransitiveDependents() {
+    assertEquals(
+        ImmutableSortedSet.of(libTest, appTest),
+        ownersIndex.getAffectedTests(ImmutableSet.of(lib)));
+    assertEquals(
+        ImmutableSortedSet.of(appTest),
+        ownersIndex.getAffectedTests(ImmutableSet.of(app)));
+    assertEquals(
+        ImmutableSortedSet.of(libTest),
+        ownersIndex.getAffectedTests(ImmutableSet.<BuildRule>of(libTest)));
+    assertEquals(
+        ImmutableSortedSet.<TestRule>of(),
+        ownersIndex.getAffectedTests(ImmutableSet.of(util)));
+  }
+
+  private static BuildRule createRule(String target, String input) {
+    final ImmutableList<Path> inputs = ImmutableList.of(Paths.get(input));
+    return new FakeBuildRule(BuildRuleType.JAVA_LIBRARY, BuildTargetFactory.newInstance(target)) {
+      @Override
+      public Iterable<Path> getInputs() {
+        return inputs;
+      }
+    };
+  }
+
+  private static TestRule createTestRule(String target) {
+    return new FakeTestRule(BuildRuleType.JAVA_TEST,
+        ImmutableSet.<String>of(),
+        BuildTargetFactory.newInstance(target),
+        ImmutableSortedSet.<BuildRule>of(),
+        ImmutableSet.<BuildTargetPattern>of());
+  }
+}
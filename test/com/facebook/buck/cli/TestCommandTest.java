@@ -59,7 +59,9 @@ import com.google.common.collect.Lists;
 import org.hamcrest.collection.IsIterableContainingInAnyOrder;
 import org.hamcrest.collection.IsIterableContainingInOrder;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.kohsuke.args4j.CmdLineException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -70,6 +72,7 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 
@@ -78,6 +81,9 @@ import javax.xml.parsers.DocumentBuilderFactory;
 
 public class TestCommandTest {
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   private static ImmutableSortedSet<String> pathsFromRoot;
   private static ImmutableSet<String> pathElements;
 
@@ -523,6 +529,51 @@ public class TestCommandTest {
     verify(executionContext, testRule, testRuleKeyFileHelper);
   }
 
+  @Test
+  public void testTestsAffectedByChangedBuildFileOrDeletedFile() throws IOException {
+    TestRule libTest = new FakeTestRule(BuildRuleType.JAVA_TEST,
+        ImmutableSet.<String>of(),
+        BuildTargetFactory.newInstance("//javatests/lib:test"),
+        ImmutableSortedSet.<BuildRule>of(),
+        ImmutableSet.<BuildTargetPattern>of());
+    TestRule otherTest = new FakeTestRule(BuildRuleType.JAVA_TEST,
+        ImmutableSet.<String>of(),
+        BuildTargetFactory.newInstance("//javatests/other:test"),
+        ImmutableSortedSet.<BuildRule>of(),
+        ImmutableSet.<BuildTargetPattern>of());
+    BuildRule lib = new FakeJavaLibraryRule(BuildTargetFactory.newInstance("//java/lib:lib"));
+    MutableDirectedGraph<BuildRule> graph = new MutableDirectedGraph<>();
+    graph.addNode(libTest);
+    graph.addNode(otherTest);
+    graph.addNode(lib);
+    graph.addEdge(libTest, lib);
+
+    tmp.newFolder("java", "lib");
+    tmp.newFile("java/lib/BUCK");
+    tmp.newFile("README");
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmp.getRoot());
+    OwnersIndex ownersIndex = new OwnersIndex(new DependencyGraph(graph), projectFilesystem);
+
+    assertEquals(
+        ImmutableSortedSet.of(libTest),
+        TestCommand.getTestsAffectedByChangedFiles(
+            ownersIndex,
+            ImmutableList.of(Paths.get("java/lib/BUCK")),
+            projectFilesystem));
+    assertEquals(
+        ImmutableSortedSet.of(libTest),
+        TestCommand.getTestsAffectedByChangedFiles(
+            ownersIndex,
+            ImmutableList.of(Paths.get("java/lib/Deleted.java")),
+            projectFilesystem));
+    assertEquals(
+        ImmutableSortedSet.<TestRule>of(),
+        TestCommand.getTestsAffectedByChangedFiles(
+            ownersIndex,
+            ImmutableList.of(Paths.get("README")),
+            projectFilesystem));
+  }
+
   @Test
   public void testIfALabelIsIncludedItShouldNotBeExcluded() throws CmdLineException {
     TestCommandOptions options = new TestCommandOptions(new FakeBuckConfig());
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.DirArtifactCache;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.TestRule;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class TestResultsCacheHelperTest {
+
+  private static final Path OUTPUT_DIR = Paths.get("buck-out/gen/__java_test_test_output__");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testResultsStoredByOneCheckoutAreFetchedByAnother() throws IOException {
+    ArtifactCache artifactCache =
+        new DirArtifactCache(tmp.newFolder("cache"), Optional.<Long>absent());
+    RuleKey ruleKey = new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+
+    File storingRoot = tmp.newFolder("storing");
+    ExecutionContext storingContext = createExecutionContext(storingRoot);
+    File result = new File(storingRoot, OUTPUT_DIR.resolve("com.example.FooTest.xml").toString());
+    Files.createParentDirs(result);
+    Files.write("<testcase name=\"com.example.FooTest\"/>", result, Charsets.UTF_8);
+    new TestResultsCacheHelper(storingContext.getProjectFilesystem(), artifactCache)
+        .storeTestResults(createTestRule(ruleKey, storingContext), storingContext);
+
+    File fetchingRoot = tmp.newFolder("fetching");
+    ExecutionContext fetchingContext = createExecutionContext(fetchingRoot);
+    File staleResult = new File(fetchingRoot, OUTPUT_DIR.resolve("Stale.xml").toString());
+    Files.createParentDirs(staleResult);
+    Files.write("stale", staleResult, Charsets.UTF_8);
+
+    assertTrue(new TestResultsCacheHelper(fetchingContext.getProjectFilesystem(), artifactCache)
+        .fetchTestResults(createTestRule(ruleKey, fetchingContext), fetchingContext));
+    assertEquals(
+        "<testcase name=\"com.example.FooTest\"/>",
+        Files.toString(
+            new File(fetchingRoot, OUTPUT_DIR.resolve("com.example.FooTest.xml").toString()),
+            Charsets.UTF_8));
+    assertFalse("Results of the previous run should be discarded.", staleResult.exists());
+  }
+
+  @Test
+  public void testMissLeavesOutputDirectoryAlone() throws IOException {
+    ArtifactCache artifactCache =
+        new DirArtifactCache(tmp.newFolder("cache"), Optional.<Long>absent());
+    File root = tmp.newFolder("checkout");
+    ExecutionContext context = createExecutionContext(root);
+    File previousResult = new File(root, OUTPUT_DIR.resolve("Previous.xml").toString());
+    Files.createParentDirs(previousResult);
+    Files.write("previous", previousResult, Charsets.UTF_8);
+
+    assertFalse(new TestResultsCacheHelper(context.getProjectFilesystem(), artifactCache)
+        .fetchTestResults(
+            createTestRule(new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb"), context),
+            context));
+    assertTrue(previousResult.exists());
+  }
+
+  @Test
+  public void testKeyDependsOnRuleKeyAndTestTimeout() throws IOException {
+    ExecutionContext context = TestExecutionContext.newInstance();
+    ExecutionContext contextWithTimeout = TestExecutionContext.newBuilder()
+        .setDefaultTestTimeoutMillis(1000L)
+        .build();
+    TestRule test = createTestRule(
+        new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"), context);
+    TestRule changedTest = createTestRule(
+        new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb"), context);
+
+    RuleKey key = TestResultsCacheHelper.getTestResultsKey(test, context);
+    assertEquals(key, TestResultsCacheHelper.getTestResultsKey(test, context));
+    assertNotEquals(key, test.getRuleKey());
+    assertNotEquals(key, TestResultsCacheHelper.getTestResultsKey(changedTest, context));
+    assertNotEquals(key, TestResultsCacheHelper.getTestResultsKey(test, contextWithTimeout));
+  }
+
+  @Test
+  public void testResultsAreNotCachedWhenDebugging() {
+    assertTrue(TestResultsCacheHelper.isCacheable(TestExecutionContext.newInstance()));
+    assertFalse(TestResultsCacheHelper.isCacheable(
+        TestExecutionContext.newBuilder().setDebugEnabled(true).build()));
+    assertFalse(TestResultsCacheHelper.isCacheable(
+        TestExecutionContext.newBuilder().setCodeCoverageEnabled(true).build()));
+  }
+
+  private static ExecutionContext createExecutionContext(File projectRoot) {
+    return TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(projectRoot))
+        .build();
+  }
+
+  private static TestRule createTestRule(RuleKey ruleKey, ExecutionContext context)
+      throws IOException {
+    TestRule test = createNiceMock(TestRule.class);
+    expect(test.getRuleKey()).andStubReturn(ruleKey);
+    expect(test.getFullyQualifiedName()).andStubReturn("//:test");
+    expect(test.getPathToTestOutputDirectory()).andStubReturn(OUTPUT_DIR);
+    expect(test.hasTestResultFiles(context)).andStubReturn(true);
+    replay(test);
+    return test;
+  }
+}
@@ -19,6 +19,7 @@ package com.facebook.buck.event.listener;
 import static org.junit.Assert.assertEquals;
 
 import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.TestStragglersEvent;
 import com.facebook.buck.test.TestCaseSummary;
 import com.facebook.buck.test.TestResultSummary;
 import com.facebook.buck.test.TestResults;
@@ -166,6 +167,55 @@ public class TestResultFormatterTest {
     assertEquals(expected, toString(builder));
   }
 
+  @Test
+  public void shouldReportAFailingTestMethodAsSoonAsItFinishes() {
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+
+    formatter.reportFailedTestMethod(builder, successTest);
+    formatter.reportFailedTestMethod(builder, failingTest);
+
+    assertEquals("FAIL com.example.FooTest#failTest: Unexpected fish found", toString(builder));
+  }
+
+  @Test
+  public void shouldListTheSlowestTests() {
+    TestResults foo = new TestResults(
+        BuildTargetFactory.newInstance("//foo:test"),
+        ImmutableList.of(
+            new TestCaseSummary("com.example.FooTest", ImmutableList.of(successTest)),
+            new TestCaseSummary("com.example.BarTest", ImmutableList.of(failingTest))),
+        /* contacts */ ImmutableSet.<String>of());
+    TestResults baz = new TestResults(
+        BuildTargetFactory.newInstance("//baz:test"),
+        ImmutableList.of(
+            new TestCaseSummary("com.example.BazTest", ImmutableList.of(successTest))),
+        /* contacts */ ImmutableSet.<String>of());
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+
+    formatter.reportStragglers(builder,
+        TestStragglersEvent.create(ImmutableList.of(foo, baz), /* threadCount */ 2, /* limit */ 2));
+
+    String expected = Joiner.on('\n').join(
+        "SLOWEST TESTS (1.2s in total, at best 0.7s on 2 threads)",
+        " 700ms //foo:test",
+        " 500ms //baz:test",
+        " 500ms   com.example.BazTest",
+        " 500ms   com.example.FooTest");
+    assertEquals(expected, toString(builder));
+  }
+
+  @Test
+  public void shouldNotListTheSlowestTestsOfASingleTest() {
+    TestResults results = new TestResults(ImmutableList.of(
+        new TestCaseSummary("com.example.FooTest", ImmutableList.of(successTest))));
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+
+    formatter.reportStragglers(builder,
+        TestStragglersEvent.create(ImmutableList.of(results), /* threadCount */ 2, /* limit */ 2));
+
+    assertEquals("", toString(builder));
+  }
+
   private String toString(ImmutableList.Builder<String> builder) {
     return Joiner.on('\n').join(builder.build());
   }
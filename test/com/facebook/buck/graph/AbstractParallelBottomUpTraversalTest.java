@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class AbstractParallelBottomUpTraversalTest {
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testNodesAreVisitedAfterTheirDeps() throws InterruptedException {
+    MutableDirectedGraph<String> mutableGraph = new MutableDirectedGraph<String>();
+    mutableGraph.addEdge("A", "B");
+    mutableGraph.addEdge("A", "C");
+    mutableGraph.addEdge("B", "D");
+    mutableGraph.addEdge("C", "D");
+    mutableGraph.addNode("E");
+    final DefaultImmutableDirectedAcyclicGraph<String> graph =
+        new DefaultImmutableDirectedAcyclicGraph<String>(mutableGraph);
+
+    final Set<String> visited = Sets.newSetFromMap(Maps.<String, Boolean>newConcurrentMap());
+    AbstractParallelBottomUpTraversal<String, String> traversal =
+        new AbstractParallelBottomUpTraversal<String, String>(graph) {
+      @Override
+      protected String visit(String node, ImmutableList<String> depResults) {
+        assertTrue(visited.containsAll(graph.getOutgoingNodesFor(node)));
+        visited.add(node);
+        return node + "(" + Joiner.on(',').join(depResults) + ")";
+      }
+    };
+
+    ImmutableMap<String, String> results = traversal.traverse(executor);
+    assertEquals(5, results.size());
+    assertEquals("D()", results.get("D"));
+    assertEquals("B(D())", results.get("B"));
+    assertEquals("E()", results.get("E"));
+
+    // The results of the deps are passed in the order in which the graph returns the deps.
+    ImmutableList.Builder<String> expectedDepResults = ImmutableList.builder();
+    for (String dep : graph.getOutgoingNodesFor("A")) {
+      expectedDepResults.add(results.get(dep));
+    }
+    assertEquals("A(" + Joiner.on(',').join(expectedDepResults.build()) + ")", results.get("A"));
+  }
+
+  @Test
+  public void testExceptionThrownByVisitIsPropagated() throws InterruptedException {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<String>();
+    graph.addEdge("A", "B");
+    AbstractParallelBottomUpTraversal<String, String> traversal =
+        new AbstractParallelBottomUpTraversal<String, String>(graph) {
+      @Override
+      protected String visit(String node, ImmutableList<String> depResults) {
+        if ("B".equals(node)) {
+          throw new IllegalStateException("Cannot visit B.");
+        }
+        fail("A should not be visited, as its dep failed.");
+        return node;
+      }
+    };
+
+    try {
+      traversal.traverse(executor);
+      fail("An exception should have been thrown.");
+    } catch (IllegalStateException e) {
+      assertEquals("Cannot visit B.", e.getMessage());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCyclicGraphIsRejected() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<String>();
+    graph.addEdge("A", "B");
+    graph.addEdge("B", "A");
+    graph.addEdge("B", "C");
+    new AbstractParallelBottomUpTraversal<String, String>(graph) {
+      @Override
+      protected String visit(String node, ImmutableList<String> depResults) {
+        return node;
+      }
+    };
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCycleWithNoPathToASinkIsRejected() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<String>();
+    graph.addEdge("A", "B");
+    graph.addEdge("C", "D");
+    graph.addEdge("D", "C");
+    new AbstractParallelBottomUpTraversal<String, String>(graph) {
+      @Override
+      protected String visit(String node, ImmutableList<String> depResults) {
+        return node;
+      }
+    };
+  }
+}
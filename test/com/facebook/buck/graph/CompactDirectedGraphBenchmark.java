@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.google.common.base.Predicates;
+
+import java.util.Random;
+
+/**
+ * Compares traversals of a {@link MutableDirectedGraph} with those of the equivalent
+ * {@link CompactDirectedGraph}. This is not run as part of the tests. Run it with:
+ * <pre>
+ * java -cp build/classes:build/testclasses:lib/guava-15.0.jar \
+ *     com.facebook.buck.graph.CompactDirectedGraphBenchmark [nodes] [edges per node]
+ * </pre>
+ */
+public class CompactDirectedGraphBenchmark {
+
+  private static final int ITERATIONS = 10;
+
+  private CompactDirectedGraphBenchmark() {}
+
+  public static void main(String... args) {
+    int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int edgesPerNode = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+    // Only add edges to nodes with a lower number, so the graph is acyclic.
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<String>();
+    Random random = new Random(0);
+    for (int node = 0; node < nodeCount; node++) {
+      graph.addNode("//node:" + node);
+      for (int edge = 0; node > 0 && edge < edgesPerNode; edge++) {
+        graph.addEdge("//node:" + node, "//node:" + random.nextInt(node));
+      }
+    }
+    DefaultImmutableDirectedAcyclicGraph<String> immutableGraph =
+        new DefaultImmutableDirectedAcyclicGraph<String>(graph);
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      CompactDirectedGraph<String> compactGraph = CompactDirectedGraph.copyOf(immutableGraph);
+      long copied = System.nanoTime();
+      TopologicalSort.sort(immutableGraph, Predicates.<String>alwaysTrue());
+      long sortedImmutable = System.nanoTime();
+      TopologicalSort.sort(compactGraph, Predicates.<String>alwaysTrue());
+      long sortedCompact = System.nanoTime();
+      graph.isAcyclic();
+      long checkedCycles = System.nanoTime();
+
+      System.out.printf(
+          "copy: %d ms, sort (multimap): %d ms, sort (compact): %d ms, find cycles: %d ms\n",
+          (copied - start) / 1000000,
+          (sortedImmutable - copied) / 1000000,
+          (sortedCompact - sortedImmutable) / 1000000,
+          (checkedCycles - sortedCompact) / 1000000);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+public class CompactDirectedGraphTest {
+
+  @Test
+  public void testCopyPreservesNodesAndEdges() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<String>();
+    graph.addEdge("A", "B");
+    graph.addEdge("A", "C");
+    graph.addEdge("B", "C");
+    graph.addNode("D");
+
+    CompactDirectedGraph<String> compactGraph =
+        CompactDirectedGraph.copyOf(ImmutableList.of("A", "B", "C", "D"), graph);
+    assertEquals(4, compactGraph.getNodeCount());
+    assertEquals(3, compactGraph.getEdgeCount());
+    assertEquals(ImmutableList.of("A", "B", "C", "D"), compactGraph.getNodes());
+    assertEquals(1, compactGraph.getIndex("B"));
+    assertEquals(-1, compactGraph.getIndex("E"));
+
+    assertEquals(ImmutableSet.of("B", "C"),
+        ImmutableSet.copyOf(compactGraph.getOutgoingNodesFor("A")));
+    assertEquals(ImmutableSet.of("A", "B"),
+        ImmutableSet.copyOf(compactGraph.getIncomingNodesFor("C")));
+    assertEquals(ImmutableList.of(), compactGraph.getOutgoingNodesFor("E"));
+    assertEquals(ImmutableList.of("A", "D"), compactGraph.getNodesWithNoIncomingEdges());
+    assertEquals(ImmutableList.of("C", "D"), compactGraph.getNodesWithNoOutgoingEdges());
+
+    int c = compactGraph.getIndex("C");
+    assertEquals(2, compactGraph.getIncomingEdgeCount(c));
+    assertEquals(0, compactGraph.getIncomingNodeIndex(c, 0));
+    assertEquals(1, compactGraph.getIncomingNodeIndex(c, 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCopyRejectsEdgesToMissingNodes() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<String>();
+    graph.addEdge("A", "B");
+    CompactDirectedGraph.copyOf(ImmutableList.of("A"), graph);
+  }
+
+  @Test
+  public void testBottomUpOrderVisitsDepsFirst() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<String>();
+    graph.addEdge("A", "B");
+    graph.addEdge("A", "C");
+    graph.addEdge("B", "D");
+    graph.addEdge("C", "D");
+
+    CompactDirectedGraph<String> compactGraph = CompactDirectedGraph.copyOf(graph);
+    assertTrue(compactGraph.isAcyclic());
+    ImmutableList<String> sorted =
+        TopologicalSort.sort(compactGraph, Predicates.<String>alwaysTrue());
+    assertEquals(4, sorted.size());
+    assertEquals("D", sorted.get(0));
+    assertEquals("A", sorted.get(3));
+  }
+
+  @Test
+  public void testFindCycles() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<String>();
+    graph.addEdge("A", "B");
+    graph.addEdge("B", "C");
+    graph.addEdge("C", "A");
+    graph.addEdge("C", "D");
+    graph.addEdge("E", "E");
+    graph.addEdge("F", "D");
+
+    CompactDirectedGraph<String> compactGraph = CompactDirectedGraph.copyOf(graph);
+    assertFalse(compactGraph.isAcyclic());
+    assertEquals(
+        ImmutableSet.of(ImmutableSet.of("A", "B", "C"), ImmutableSet.of("E")),
+        compactGraph.findCycles());
+  }
+
+  @Test
+  public void testFindCyclesInDeepGraphDoesNotOverflowTheStack() {
+    MutableDirectedGraph<Integer> graph = new MutableDirectedGraph<Integer>();
+    int depth = 100000;
+    for (int i = 0; i < depth; i++) {
+      graph.addEdge(i, i + 1);
+    }
+    graph.addEdge(depth, 0);
+
+    ImmutableSet<ImmutableSet<Integer>> cycles = CompactDirectedGraph.copyOf(graph).findCycles();
+    assertEquals(1, cycles.size());
+    assertEquals(depth + 1, cycles.iterator().next().size());
+  }
+}
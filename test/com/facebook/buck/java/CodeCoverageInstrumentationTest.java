@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.DirArtifactCache;
+import com.facebook.buck.rules.NoopArtifactCache;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
+import com.facebook.buck.step.fs.WriteFileStep;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+public class CodeCoverageInstrumentationTest {
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//com/example:lib");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testInstrumentedClassesStoredByOneCheckoutAreFetchedByAnother() throws IOException {
+    ArtifactCache artifactCache =
+        new DirArtifactCache(tmp.newFolder("cache"), Optional.<Long>absent());
+    JavaLibraryRule library =
+        createLibrary(new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"));
+
+    ProjectFilesystem storingFilesystem = new ProjectFilesystem(tmp.newFolder("storing"));
+    writeInstrumentedClasses(storingFilesystem, library);
+    new CodeCoverageInstrumentation(storingFilesystem, artifactCache)
+        .storeInstrumentedClasses(library);
+
+    ProjectFilesystem fetchingFilesystem = new ProjectFilesystem(tmp.newFolder("fetching"));
+    assertTrue(new CodeCoverageInstrumentation(fetchingFilesystem, artifactCache)
+        .isInstrumented(library));
+    assertEquals(
+        "instrumented",
+        Files.toString(
+            fetchingFilesystem.getFileForRelativePath(
+                CodeCoverageInstrumentation.getPathToInstrumentedClasses(TARGET)
+                    .resolve("com/example/Foo.class")),
+            Charsets.UTF_8));
+  }
+
+  @Test
+  public void testInstrumentedClassesAreOnlyReusedForTheSameRuleKey() throws IOException {
+    JavaLibraryRule library =
+        createLibrary(new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"));
+    JavaLibraryRule changedLibrary =
+        createLibrary(new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb"));
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot());
+    CodeCoverageInstrumentation instrumentation =
+        new CodeCoverageInstrumentation(filesystem, new NoopArtifactCache());
+
+    assertFalse(instrumentation.isInstrumented(library));
+    writeInstrumentedClasses(filesystem, library);
+    assertTrue(instrumentation.isInstrumented(library));
+    assertFalse(instrumentation.isInstrumented(changedLibrary));
+    assertNotEquals(
+        CodeCoverageInstrumentation.getInstrumentationKey(library),
+        library.getRuleKey());
+  }
+
+  @Test
+  public void testKeyIsWrittenAfterTheClassesAreInstrumented() throws IOException {
+    JavaLibraryRule library =
+        createLibrary(new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"));
+    CodeCoverageInstrumentation instrumentation = new CodeCoverageInstrumentation(
+        new ProjectFilesystem(tmp.getRoot()),
+        new NoopArtifactCache());
+
+    List<Step> steps = instrumentation.getInstrumentSteps(library);
+
+    assertEquals(3, steps.size());
+    assertTrue(steps.get(0) instanceof MakeCleanDirectoryStep);
+    assertTrue(steps.get(1) instanceof InstrumentStep);
+    assertTrue(steps.get(2) instanceof WriteFileStep);
+  }
+
+  /** Does what running the steps from {@code getInstrumentSteps()} would. */
+  private static void writeInstrumentedClasses(
+      ProjectFilesystem filesystem,
+      JavaLibraryRule library) throws IOException {
+    Path classFile = CodeCoverageInstrumentation.getPathToInstrumentedClasses(TARGET)
+        .resolve("com/example/Foo.class");
+    filesystem.createParentDirs(classFile);
+    filesystem.writeContentsToPath("instrumented", classFile);
+    filesystem.writeContentsToPath(
+        CodeCoverageInstrumentation.getInstrumentationKey(library).toString(),
+        CodeCoverageInstrumentation.getPathToOutputDirectory(TARGET)
+            .resolve(".instrumentation_key"));
+  }
+
+  private static JavaLibraryRule createLibrary(RuleKey ruleKey) throws IOException {
+    JavaLibraryRule library = createNiceMock(JavaLibraryRule.class);
+    expect(library.getRuleKey()).andStubReturn(ruleKey);
+    expect(library.getBuildTarget()).andStubReturn(TARGET);
+    expect(library.getPathToOutputFile()).andStubReturn("buck-out/gen/com/example/lib.jar");
+    replay(library);
+    return library;
+  }
+}
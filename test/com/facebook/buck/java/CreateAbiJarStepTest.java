@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public class CreateAbiJarStepTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testStripToAbiKeepsOnlyWhatJavacNeeds() {
+    byte[] abiClass = CreateAbiJarStep.stripToAbi(createExampleClass());
+
+    final List<String> members = Lists.newArrayList();
+    final List<Object> constants = Lists.newArrayList();
+    final List<String> methodsWithCode = Lists.newArrayList();
+    new ClassReader(abiClass).accept(new ClassVisitor(Opcodes.ASM4) {
+      @Override
+      public FieldVisitor visitField(
+          int access, String name, String desc, String signature, Object value) {
+        members.add(name);
+        if (value != null) {
+          constants.add(value);
+        }
+        return null;
+      }
+
+      @Override
+      public MethodVisitor visitMethod(
+          int access, final String name, String desc, String signature, String[] exceptions) {
+        members.add(name);
+        return new MethodVisitor(Opcodes.ASM4) {
+          @Override
+          public void visitCode() {
+            methodsWithCode.add(name);
+          }
+        };
+      }
+    }, 0);
+
+    assertEquals(ImmutableList.of("CONSTANT", "publicField", "publicMethod"), members);
+    assertEquals(ImmutableList.<Object>of(42), constants);
+    assertTrue("Method bodies should be stripped.", methodsWithCode.isEmpty());
+  }
+
+  @Test
+  public void testClassesThatCannotBeReadAreKeptWhole() throws IOException {
+    // Bytes 6 and 7 of a class file are its major version.
+    byte[] fromTheFuture = readOwnClass();
+    fromTheFuture[6] = (byte) 0x7F;
+
+    assertArrayEquals(fromTheFuture, CreateAbiJarStep.stripToAbi(fromTheFuture));
+  }
+
+  @Test
+  public void testAbiJarHasOnlyClassFiles() throws IOException {
+    File root = tmp.getRoot();
+    File exampleClass = new File(root, "classes/com/example/Example.class");
+    Files.createParentDirs(exampleClass);
+    Files.write(createExampleClass(), exampleClass);
+    Files.write("resource".getBytes(), new File(exampleClass.getParentFile(), "resource.txt"));
+
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(root))
+        .build();
+    CreateAbiJarStep step = new CreateAbiJarStep(Paths.get("classes"), Paths.get("abi.jar"));
+    assertEquals(0, step.execute(context));
+
+    try (ZipFile abiJar = new ZipFile(new File(root, "abi.jar"))) {
+      assertEquals(1, abiJar.size());
+      ZipEntry entry = abiJar.getEntry("com/example/Example.class");
+      assertNotNull(entry);
+      assertTrue(entry.getSize() < exampleClass.length());
+      assertNull(abiJar.getEntry("com/example/resource.txt"));
+    }
+  }
+
+  /**
+   * Equivalent to compiling:
+   * <pre>
+   * public class Example {
+   *   public static final int CONSTANT = 42;
+   *   private static final Object LOCK = new Object();
+   *   public String publicField;
+   *   private int privateField;
+   *   public int publicMethod() { return privateMethod(); }
+   *   private int privateMethod() { return privateField; }
+   * }
+   * </pre>
+   * The class is generated, rather than read from the test's classpath, so that its class file
+   * version is one that ASM can read.
+   */
+  private static byte[] createExampleClass() {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_6,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER,
+        "com/example/Example",
+        /* signature */ null,
+        "java/lang/Object",
+        /* interfaces */ null);
+    writer.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+        "CONSTANT", "I", null, 42).visitEnd();
+    writer.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+        "LOCK", "Ljava/lang/Object;", null, null).visitEnd();
+    writer.visitField(Opcodes.ACC_PUBLIC, "publicField", "Ljava/lang/String;", null, null)
+        .visitEnd();
+    writer.visitField(Opcodes.ACC_PRIVATE, "privateField", "I", null, null).visitEnd();
+
+    MethodVisitor clinit = writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+    clinit.visitCode();
+    clinit.visitTypeInsn(Opcodes.NEW, "java/lang/Object");
+    clinit.visitInsn(Opcodes.DUP);
+    clinit.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+    clinit.visitFieldInsn(Opcodes.PUTSTATIC, "com/example/Example", "LOCK", "Ljava/lang/Object;");
+    clinit.visitInsn(Opcodes.RETURN);
+    clinit.visitMaxs(0, 0);
+    clinit.visitEnd();
+
+    MethodVisitor publicMethod =
+        writer.visitMethod(Opcodes.ACC_PUBLIC, "publicMethod", "()I", null, null);
+    publicMethod.visitCode();
+    publicMethod.visitVarInsn(Opcodes.ALOAD, 0);
+    publicMethod.visitMethodInsn(
+        Opcodes.INVOKESPECIAL, "com/example/Example", "privateMethod", "()I");
+    publicMethod.visitInsn(Opcodes.IRETURN);
+    publicMethod.visitMaxs(0, 0);
+    publicMethod.visitEnd();
+
+    MethodVisitor privateMethod =
+        writer.visitMethod(Opcodes.ACC_PRIVATE, "privateMethod", "()I", null, null);
+    privateMethod.visitCode();
+    privateMethod.visitVarInsn(Opcodes.ALOAD, 0);
+    privateMethod.visitFieldInsn(Opcodes.GETFIELD, "com/example/Example", "privateField", "I");
+    privateMethod.visitInsn(Opcodes.IRETURN);
+    privateMethod.visitMaxs(0, 0);
+    privateMethod.visitEnd();
+
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  private byte[] readOwnClass() throws IOException {
+    try (InputStream input = getClass().getResourceAsStream("CreateAbiJarStepTest.class")) {
+      return ByteStreams.toByteArray(input);
+    }
+  }
+}
@@ -197,9 +197,9 @@ public class DefaultJavaLibraryRuleIntegrationTest {
     String expectedWarning = Joiner.on("\n").join(
       "Rule //:raz builds with its transitive dependencies but not with its first order " +
           "dependencies.",
-      "The following packages were missing:",
-      "Blargh",
-      "Meh",
+      "The following classes were missing:",
+      "com.example.Blargh",
+      "com.example.Meh",
       "Try adding the following deps:",
       "//:foo",
       "//:blargh");
@@ -489,6 +489,7 @@ public class DefaultJavaLibraryRuleTest {
     BuildContext buildContext = EasyMock.createMock(BuildContext.class);
     expect(buildContext.getBuildDependencies()).andReturn(BuildDependencies.FIRST_ORDER_ONLY)
         .times(2);
+    expect(buildContext.isJavaCompilationBatchingEnabled()).andReturn(false);
     JavaPackageFinder javaPackageFinder = EasyMock.createMock(JavaPackageFinder.class);
     expect(buildContext.getJavaPackageFinder()).andReturn(javaPackageFinder);
 
@@ -32,6 +32,8 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSortedSet;
 
+import java.util.Map;
+
 public class FakeJavaLibraryRule extends FakeBuildRule implements JavaLibraryRule {
 
   private final static BuildableProperties OUTPUT_TYPE = new BuildableProperties(LIBRARY);
@@ -79,6 +81,16 @@ public class FakeJavaLibraryRule extends FakeBuildRule implements JavaLibraryRul
     return ImmutableSetMultimap.of((JavaLibraryRule) this, getPathToOutputFile());
   }
 
+  @Override
+  public TransitiveClasspath getTransitiveClasspath() {
+    // Derived from getTransitiveClasspathEntries() so that tests only need to override that.
+    TransitiveClasspath.Builder classpath = TransitiveClasspath.builder();
+    for (Map.Entry<JavaLibraryRule, String> entry : getTransitiveClasspathEntries().entries()) {
+      classpath.put(entry.getKey(), entry.getValue());
+    }
+    return classpath.build();
+  }
+
   @Override
   public String getPathToOutputFile() {
     return BuckConstant.GEN_DIR + "/" +
@@ -19,6 +19,7 @@ package com.facebook.buck.java;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.testutil.MoreAsserts;
@@ -27,6 +28,7 @@ import com.google.common.collect.ImmutableSet;
 
 import org.junit.Test;
 
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Set;
 
@@ -74,4 +76,28 @@ public class GenerateCodeCoverageReportStepTest {
 
     verify(context);
   }
+
+  @Test
+  public void testEveryInputFileIsMergedIntoTheReport() {
+    ExecutionContext context = createMock(ExecutionContext.class);
+    replay(context);
+
+    GenerateCodeCoverageReportStep step = new GenerateCodeCoverageReportStep(
+        ImmutableSet.of("src"),
+        ImmutableSet.of(
+            Paths.get("buck-out/gen/__emma_instr_a__/coverage.em"),
+            Paths.get("buck-out/gen/__emma_instr_b__/coverage.em"),
+            Paths.get("buck-out/gen/__java_test_test_output__/coverage.ec")),
+        "buck-out/gen/output");
+
+    List<String> command = step.getShellCommand(context);
+    int input = command.indexOf("-input");
+    assertEquals(
+        "buck-out/gen/__emma_instr_a__/coverage.em," +
+            "buck-out/gen/__emma_instr_b__/coverage.em," +
+            "buck-out/gen/__java_test_test_output__/coverage.ec",
+        command.get(input + 1));
+
+    verify(context);
+  }
 }
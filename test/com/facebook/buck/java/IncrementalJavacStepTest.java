@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.rules.BuildDependencies;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.MoreFiles;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+
+public class IncrementalJavacStepTest {
+
+  private static final ImmutableSet<String> SRCS =
+      ImmutableSet.of("A.java", "B.java", "C.java", "D.java");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private TestConsole console;
+  private ExecutionContext context;
+
+  @Before
+  public void setUp() throws IOException {
+    console = new TestConsole();
+    context = TestExecutionContext.newBuilder()
+        .setConsole(console)
+        .setProjectFilesystem(new ProjectFilesystem(tmp.getRoot()))
+        .setIncrementalJavaCompilationEnabled(true)
+        .build();
+
+    write("A.java", "package com.example; public class A { public int foo() { return 1; } }");
+    // B uses A.
+    write("B.java", "package com.example; class B { int bar() { return new A().foo(); } }");
+    // D extends A, and C uses A through D.
+    write("C.java", "package com.example; class C { int baz() { return new D().foo(); } }");
+    write("D.java", "package com.example; class D extends A {}");
+  }
+
+  @Test
+  public void testFirstCompilationCompilesEverything() throws IOException {
+    assertEquals(ImmutableSortedSet.of("A", "B", "C", "D"), compileIncrementally());
+    assertSameAsCleanCompilation();
+  }
+
+  @Test
+  public void testUnchangedSourcesAreNotRecompiled() throws IOException {
+    compileIncrementally();
+    assertEquals(ImmutableSortedSet.of(), compileIncrementally());
+    assertSameAsCleanCompilation();
+  }
+
+  @Test
+  public void testChangeToMethodBodyOnlyRecompilesChangedSource() throws IOException {
+    compileIncrementally();
+    write("A.java", "package com.example; public class A { public int foo() { return 2; } }");
+    assertEquals(ImmutableSortedSet.of("A"), compileIncrementally());
+    assertSameAsCleanCompilation();
+  }
+
+  @Test
+  public void testChangeToSignatureRecompilesUsersAndUsersOfSubtypes() throws IOException {
+    compileIncrementally();
+    write("A.java",
+        "package com.example; public class A { public int foo() { return 1; } void qux() {} }");
+    assertEquals(ImmutableSortedSet.of("A", "B", "C", "D"), compileIncrementally());
+    assertSameAsCleanCompilation();
+
+    write("B.java", "package com.example; class B { public int bar() { return 0; } }");
+    assertEquals(ImmutableSortedSet.of("B"), compileIncrementally());
+    assertSameAsCleanCompilation();
+  }
+
+  @Test
+  public void testChangeToConstantRecompilesEverything() throws IOException {
+    write("B.java", "package com.example; class B { static final int VALUE = 1; }");
+    compileIncrementally();
+    write("B.java", "package com.example; class B { static final int VALUE = 2; }");
+    assertEquals(ImmutableSortedSet.of("A", "B", "C", "D"), compileIncrementally());
+    assertSameAsCleanCompilation();
+  }
+
+  @Test
+  public void testNewClassRecompilesEverything() throws IOException {
+    compileIncrementally();
+    write("A.java",
+        "package com.example; public class A { public int foo() { return 1; } } class E {}");
+    assertEquals(ImmutableSortedSet.of("A", "B", "C", "D", "E"), compileIncrementally());
+    assertSameAsCleanCompilation();
+  }
+
+  @Test
+  public void testFailedCompilationIsRecoveredFrom() throws IOException {
+    compileIncrementally();
+    write("A.java", "package com.example; public class A {");
+    assertEquals(1, createIncrementalJavac(Sets.<String>newTreeSet()).execute(context));
+
+    write("A.java", "package com.example; public class A { public int foo() { return 3; } }");
+    assertEquals(ImmutableSortedSet.of("A"), compileIncrementally());
+    assertSameAsCleanCompilation();
+  }
+
+  /**
+   * @return the simple names of the classes that were compiled.
+   */
+  private Set<String> compileIncrementally() throws IOException {
+    Set<String> compiledClasses = Sets.newTreeSet();
+    JavacInMemoryStep javac = createIncrementalJavac(compiledClasses);
+    assertEquals(console.getTextWrittenToStdErr(), 0, javac.execute(context));
+    assertEquals(
+        new Sha1HashCode(Files.readFirstLine(new File(tmp.getRoot(), "abi"), Charsets.UTF_8)),
+        javac.getAbiKey());
+    return compiledClasses;
+  }
+
+  private JavacInMemoryStep createIncrementalJavac(final Set<String> compiledClasses) {
+    return new IncrementalJavacStep(
+        "out",
+        SRCS,
+        /* transitiveClasspathEntries */ ImmutableSet.<String>of(),
+        /* declaredClasspathEntries */ ImmutableSet.<String>of(),
+        JavacOptions.builder().build(),
+        Optional.of("abi"),
+        Optional.<String>absent(),
+        BuildDependencies.FIRST_ORDER_ONLY,
+        Optional.<JavacInMemoryStep.SuggestBuildRules>absent(),
+        "state",
+        new Sha1HashCode("0000000000000000000000000000000000000000")) {
+      @Override
+      protected JavaFileManager decorateFileManager(StandardJavaFileManager fileManager) {
+        return new ForwardingJavaFileManager<JavaFileManager>(
+            super.decorateFileManager(fileManager)) {
+          @Override
+          public JavaFileObject getJavaFileForOutput(
+              Location location,
+              String className,
+              JavaFileObject.Kind kind,
+              FileObject sibling) throws IOException {
+            compiledClasses.add(className.substring(className.lastIndexOf('.') + 1));
+            return super.getJavaFileForOutput(location, className, kind, sibling);
+          }
+        };
+      }
+    };
+  }
+
+  private void assertSameAsCleanCompilation() throws IOException {
+    tmp.newFolder("clean");
+    JavacInMemoryStep javac = new JavacInMemoryStep(
+        "clean",
+        SRCS,
+        /* transitiveClasspathEntries */ ImmutableSet.<String>of(),
+        /* declaredClasspathEntries */ ImmutableSet.<String>of(),
+        JavacOptions.builder().build(),
+        Optional.of("clean_abi"),
+        Optional.<String>absent(),
+        BuildDependencies.FIRST_ORDER_ONLY,
+        Optional.<JavacInMemoryStep.SuggestBuildRules>absent());
+    assertEquals(console.getTextWrittenToStdErr(), 0, javac.execute(context));
+
+    File cleanClasses = new File(tmp.getRoot(), "clean/com/example");
+    File incrementalClasses = new File(tmp.getRoot(), "out/com/example");
+    assertEquals(
+        ImmutableSortedSet.copyOf(cleanClasses.list()),
+        ImmutableSortedSet.copyOf(incrementalClasses.list()));
+    for (String classFile : cleanClasses.list()) {
+      assertArrayEquals(classFile,
+          Files.toByteArray(new File(cleanClasses, classFile)),
+          Files.toByteArray(new File(incrementalClasses, classFile)));
+    }
+    assertEquals(
+        Files.readFirstLine(new File(tmp.getRoot(), "clean_abi"), Charsets.UTF_8),
+        Files.readFirstLine(new File(tmp.getRoot(), "abi"), Charsets.UTF_8));
+
+    MoreFiles.rmdir(tmp.getRoot().toPath().resolve("clean"));
+  }
+
+  private void write(String source, String contents) throws IOException {
+    Files.write(contents, new File(tmp.getRoot(), source), Charsets.UTF_8);
+  }
+}
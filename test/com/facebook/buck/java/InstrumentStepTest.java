@@ -58,4 +58,29 @@ public class InstrumentStepTest {
 
     verify(context);
   }
+
+  @Test
+  public void testInstrumentedClassesAreWrittenToTheOutputDirectory() {
+    ExecutionContext context = createMock(ExecutionContext.class);
+    replay(context);
+
+    InstrumentStep command = new InstrumentStep(
+        "copy",
+        ImmutableSet.of(Paths.get("buck-out/gen/lib__lib_output__/lib.jar")),
+        Paths.get("buck-out/gen/__emma_instr_lib__/classes"),
+        Paths.get("buck-out/gen/__emma_instr_lib__/coverage.em"));
+
+    MoreAsserts.assertListEquals(
+        ImmutableList.of(
+            "java",
+            "-classpath", JUnitStep.PATH_TO_EMMA_JAR,
+            "emma", "instr",
+            "-outmode", "copy",
+            "-outdir", "buck-out/gen/__emma_instr_lib__/classes",
+            "-outfile", "buck-out/gen/__emma_instr_lib__/coverage.em",
+            "-instrpath", "buck-out/gen/lib__lib_output__/lib.jar"),
+        command.getShellCommand(context));
+
+    verify(context);
+  }
 }
@@ -150,4 +150,12 @@ public class JUnitStepTest {
     assertEquals("Debugging. Suspending JVM. Connect a JDWP debugger to port 5005 to proceed.",
         console.getTextWrittenToStdErr().trim());
   }
+
+  @Test
+  public void testMaxHeapSizeIsReadFromTheLastXmxArgument() {
+    assertEquals(0L, JUnitStep.getMaxHeapSizeMegabytes(ImmutableList.of("-ea")));
+    assertEquals(512L, JUnitStep.getMaxHeapSizeMegabytes(ImmutableList.of("-Xmx512m")));
+    assertEquals(2048L, JUnitStep.getMaxHeapSizeMegabytes(ImmutableList.of("-Xmx1G", "-Xmx2g")));
+    assertEquals(1L, JUnitStep.getMaxHeapSizeMegabytes(ImmutableList.of("-Xmx1048576")));
+  }
 }
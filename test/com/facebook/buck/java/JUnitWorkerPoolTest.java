@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TestConsole;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class JUnitWorkerPoolTest {
+
+  private static final String TEST_RUNNER_CLASSES = new File("build/testrunner/classes")
+      .getAbsolutePath();
+
+  private static final ImmutableList<String> CLASSPATH = ImmutableList.of(
+      new File("lib/junit-4.11.jar").getAbsolutePath(),
+      new File("lib/hamcrest-core-1.3.jar").getAbsolutePath(),
+      new File(PassingTest.class.getProtectionDomain().getCodeSource().getLocation().getPath())
+          .getAbsolutePath());
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  /** Run by the pooled JVMs. */
+  public static class PassingTest {
+    @Test
+    public void testPasses() {
+      assertEquals(4, 2 + 2);
+    }
+  }
+
+  @Test
+  public void testJvmIsReusedUntilItHasRunTheMaximumNumberOfTestRules() throws IOException {
+    JUnitWorkerPool pool = new JUnitWorkerPool(/* maxIdleWorkers */ 1);
+    TestConsole console = new TestConsole();
+    List<String> finishedTestClassNames = Lists.newArrayList();
+    List<String> testEvents = Lists.newArrayList();
+
+    assertEquals(0, runPassingTest(pool, console, finishedTestClassNames, testEvents));
+    assertEquals(ImmutableList.of(PassingTest.class.getName()), finishedTestClassNames);
+    assertEquals(ImmutableList.of("Started", "Finished"), testEvents);
+    assertTrue(new File(tmp.getRoot(), PassingTest.class.getName() + ".xml").isFile());
+    assertEquals(1, pool.getIdleWorkerCount());
+
+    // The second test rule is the last that the JVM may run, so it is not returned to the pool.
+    assertEquals(0, runPassingTest(pool, console, finishedTestClassNames, testEvents));
+    assertEquals(2, finishedTestClassNames.size());
+    assertEquals(4, testEvents.size());
+    assertEquals(0, pool.getIdleWorkerCount());
+    assertEquals("", console.getTextWrittenToStdErr());
+  }
+
+  @Test
+  public void testJvmIsNotReusedAfterTheTestsFailToRun() throws IOException {
+    JUnitWorkerPool pool = new JUnitWorkerPool(/* maxIdleWorkers */ 1);
+    TestConsole console = new TestConsole();
+
+    int exitCode = pool.runTests(
+        tmp.getRoot(),
+        ImmutableMap.<String, String>of(),
+        ImmutableList.<String>of(),
+        TEST_RUNNER_CLASSES,
+        /* maxJobsPerWorker */ 10,
+        tmp.getRoot().getAbsolutePath(),
+        /* defaultTestTimeoutMillis */ 0,
+        CLASSPATH,
+        ImmutableList.of("com.example.DoesNotExistTest"),
+        new JUnitWorkerPool.Listener() {
+          @Override
+          public void testClassFinished(String testClassName) {
+            throw new AssertionError(testClassName);
+          }
+
+          @Override
+          public void testEventReceived(String record) {
+            throw new AssertionError(record);
+          }
+        },
+        console.getStdErr());
+
+    assertEquals(1, exitCode);
+    assertTrue(console.getTextWrittenToStdErr().contains("com.example.DoesNotExistTest"));
+    assertEquals(0, pool.getIdleWorkerCount());
+  }
+
+  @Test
+  public void testJvmIsNotReusedForADifferentEnvironment() throws IOException {
+    JUnitWorkerPool pool = new JUnitWorkerPool(/* maxIdleWorkers */ 2);
+    TestConsole console = new TestConsole();
+    List<String> finishedTestClassNames = Lists.newArrayList();
+    List<String> testEvents = Lists.newArrayList();
+
+    assertEquals(0, runPassingTest(
+        pool, ImmutableMap.of("FOO", "1"), console, finishedTestClassNames, testEvents));
+    assertEquals(1, pool.getIdleWorkerCount());
+
+    // Had the idle JVM been reused, it would have run its last test rule and left the pool.
+    assertEquals(0, runPassingTest(
+        pool, ImmutableMap.of("FOO", "2"), console, finishedTestClassNames, testEvents));
+    assertEquals(2, pool.getIdleWorkerCount());
+    assertEquals("", console.getTextWrittenToStdErr());
+  }
+
+  private int runPassingTest(
+      JUnitWorkerPool pool,
+      TestConsole console,
+      List<String> finishedTestClassNames,
+      List<String> testEvents) throws IOException {
+    return runPassingTest(
+        pool, ImmutableMap.<String, String>of(), console, finishedTestClassNames, testEvents);
+  }
+
+  private int runPassingTest(
+      JUnitWorkerPool pool,
+      ImmutableMap<String, String> environment,
+      TestConsole console,
+      final List<String> finishedTestClassNames,
+      final List<String> testEvents) throws IOException {
+    return pool.runTests(
+        tmp.getRoot(),
+        environment,
+        ImmutableList.<String>of(),
+        TEST_RUNNER_CLASSES,
+        /* maxJobsPerWorker */ 2,
+        tmp.getRoot().getAbsolutePath(),
+        /* defaultTestTimeoutMillis */ 0,
+        CLASSPATH,
+        ImmutableList.of(PassingTest.class.getName()),
+        new JUnitWorkerPool.Listener() {
+          @Override
+          public void testClassFinished(String testClassName) {
+            finishedTestClassNames.add(testClassName);
+          }
+
+          @Override
+          public void testEventReceived(String record) {
+            testEvents.add(TestEventStreamReceiver.parse(record).get().getClass().getSimpleName());
+          }
+        },
+        console.getStdErr());
+  }
+}
@@ -18,6 +18,7 @@ package com.facebook.buck.java;
 
 import static java.util.jar.Attributes.Name.IMPLEMENTATION_VERSION;
 import static java.util.jar.Attributes.Name.MANIFEST_VERSION;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -27,7 +28,13 @@ import com.facebook.buck.testutil.Zip;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.zip.CustomZipOutputStream;
 import com.facebook.buck.zip.ZipOutputStreams;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -37,9 +44,14 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.jar.Manifest;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 public class JarDirectoryStepTest {
 
@@ -145,6 +157,65 @@ public class JarDirectoryStepTest {
     }
   }
 
+  @Test
+  public void entriesOfJarsAreCopiedWithoutBeingRecompressed() throws IOException {
+    File tmp = folder.newFolder();
+    byte[] compressible = Strings.repeat("All work and no play. ", 1000).getBytes(Charsets.UTF_8);
+    byte[] stored = "Stored as it is.".getBytes(Charsets.UTF_8);
+
+    // Compress the input with a level other than the one that the output uses by default, so that
+    // recompressing it would change its compressed size.
+    File input = new File(tmp, "input.jar");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(input))) {
+      out.setLevel(Deflater.BEST_SPEED);
+      out.putNextEntry(new ZipEntry("com/example/Compressed.class"));
+      out.write(compressible);
+
+      ZipEntry storedEntry = new ZipEntry("com/example/Stored.class");
+      storedEntry.setMethod(ZipEntry.STORED);
+      storedEntry.setSize(stored.length);
+      storedEntry.setCrc(Hashing.crc32().hashBytes(stored).padToLong());
+      out.putNextEntry(storedEntry);
+      out.write(stored);
+    }
+
+    JarDirectoryStep step = new JarDirectoryStep(
+        "output.jar",
+        ImmutableSet.of("input.jar"),
+        /* main class */ null,
+        /* manifest file */ null);
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(tmp))
+        .build();
+    assertEquals(0, step.execute(context));
+
+    try (ZipFile inputZip = new ZipFile(input);
+         ZipFile outputZip = new ZipFile(new File(tmp, "output.jar"))) {
+      List<String> names = Lists.newArrayList();
+      for (ZipEntry entry : Collections.list(outputZip.entries())) {
+        names.add(entry.getName());
+      }
+      assertEquals(
+          ImmutableList.of(
+              "com/example/Compressed.class",
+              "com/example/Stored.class",
+              "META-INF/MANIFEST.MF"),
+          names);
+
+      for (String name : names.subList(0, 2)) {
+        ZipEntry inputEntry = inputZip.getEntry(name);
+        ZipEntry outputEntry = outputZip.getEntry(name);
+        assertEquals(inputEntry.getMethod(), outputEntry.getMethod());
+        assertEquals(inputEntry.getCrc(), outputEntry.getCrc());
+        assertEquals(inputEntry.getCompressedSize(), outputEntry.getCompressedSize());
+      }
+      assertArrayEquals(compressible, ByteStreams.toByteArray(
+          outputZip.getInputStream(outputZip.getEntry("com/example/Compressed.class"))));
+      assertArrayEquals(stored, ByteStreams.toByteArray(
+          outputZip.getInputStream(outputZip.getEntry("com/example/Stored.class"))));
+    }
+  }
+
   private File createZip(File zipFile, String... fileNames) throws IOException {
     try (Zip zip = new Zip(zipFile, true)) {
       for (String fileName : fileNames) {
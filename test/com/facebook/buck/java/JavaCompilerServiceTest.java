@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import javax.tools.StandardJavaFileManager;
+
+public class JavaCompilerServiceTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testFileManagerIsReusedUntilAJarChanges() throws IOException {
+    File jar = new File(tmp.getRoot(), "lib.jar");
+    writeJar(jar, "1");
+    ImmutableList<File> classpath = ImmutableList.of(jar, tmp.getRoot());
+    JavaCompilerService service = new JavaCompilerService(/* maxIdleFileManagers */ 1);
+
+    StandardJavaFileManager first;
+    try (JavaCompilerService.FileManagerLease lease = service.acquireFileManager(classpath)) {
+      first = lease.getFileManager();
+    }
+    assertEquals(1, service.getIdleFileManagerCount());
+
+    try (JavaCompilerService.FileManagerLease lease = service.acquireFileManager(classpath)) {
+      assertSame(first, lease.getFileManager());
+    }
+
+    // Rewriting the jar with contents of the same size, most likely within the same second, must
+    // still be noticed.
+    writeJar(jar, "2");
+    try (JavaCompilerService.FileManagerLease lease = service.acquireFileManager(classpath)) {
+      assertNotSame(first, lease.getFileManager());
+    }
+  }
+
+  @Test
+  public void testConcurrentLeasesGetDifferentFileManagers() {
+    JavaCompilerService service = new JavaCompilerService(/* maxIdleFileManagers */ 1);
+    ImmutableList<File> classpath = ImmutableList.of();
+    try (JavaCompilerService.FileManagerLease first = service.acquireFileManager(classpath);
+         JavaCompilerService.FileManagerLease second = service.acquireFileManager(classpath)) {
+      assertNotSame(first.getFileManager(), second.getFileManager());
+    }
+
+    // Only one of them is kept once both have been released.
+    assertEquals(1, service.getIdleFileManagerCount());
+  }
+
+  @Test
+  public void testReusedFileManagerWritesToTheOutputDirectoryOfEachCompilation()
+      throws IOException {
+    File source = tmp.newFile("Example.java");
+    Files.write("class Example {}", source, Charsets.UTF_8);
+    JavaCompilerService service = new JavaCompilerService(/* maxIdleFileManagers */ 1);
+
+    for (String outputDirectoryName : ImmutableList.of("first", "second")) {
+      File outputDirectory = tmp.newFolder(outputDirectoryName);
+      List<String> options = ImmutableList.of("-d", outputDirectory.getPath());
+      try (JavaCompilerService.FileManagerLease lease =
+               service.acquireFileManager(ImmutableList.<File>of())) {
+        StandardJavaFileManager fileManager = lease.getFileManager();
+        JavaCompilerService.setLocations(fileManager, options);
+        assertTrue(service.getCompiler().getTask(
+            /* out */ null,
+            fileManager,
+            /* diagnosticListener */ null,
+            options,
+            /* classes */ null,
+            fileManager.getJavaFileObjects(source)).call());
+      }
+      assertTrue(new File(outputDirectory, "Example.class").isFile());
+    }
+    assertEquals(1, service.getIdleFileManagerCount());
+  }
+
+  private static void writeJar(File jar, String contents) throws IOException {
+    try (JarOutputStream output = new JarOutputStream(new FileOutputStream(jar))) {
+      output.putNextEntry(new ZipEntry("com/example/Example.class"));
+      output.write(contents.getBytes("UTF-8"));
+      output.closeEntry();
+    }
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.rules.BuildDependencies;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class JavacBatcherTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private ExecutionContext context;
+
+  @Before
+  public void setUp() {
+    context = TestExecutionContext.newBuilder()
+        .setConsole(new TestConsole())
+        .setProjectFilesystem(new ProjectFilesystem(tmp.getRoot()))
+        .build();
+  }
+
+  @Test
+  public void testStepsCompiledTogetherGetTheSameClassesAndAbiKeysAsOnTheirOwn()
+      throws Exception {
+    write("A.java", "package com.example.a; public class A { class Inner {} }");
+    write("B.java", "package com.example.b; public class B { public int b() { return 1; } }");
+
+    List<Optional<Integer>> exitCodes = compileTogether(
+        createStep("a", "A.java"),
+        createStep("b", "B.java"));
+    assertEquals(ImmutableList.of(Optional.of(0), Optional.of(0)), exitCodes);
+
+    JavacInMemoryStep soloA = createStep("solo_a", "A.java");
+    JavacInMemoryStep soloB = createStep("solo_b", "B.java");
+    assertEquals(0, soloA.execute(context));
+    assertEquals(0, soloB.execute(context));
+
+    assertSameFile("a/com/example/a/A.class", "solo_a/com/example/a/A.class");
+    assertSameFile("a/com/example/a/A$Inner.class", "solo_a/com/example/a/A$Inner.class");
+    assertSameFile("b/com/example/b/B.class", "solo_b/com/example/b/B.class");
+    assertFalse(new File(tmp.getRoot(), "a/com/example/b").exists());
+    assertFalse(new File(tmp.getRoot(), "b/com/example/a").exists());
+    assertSameFile("a_abi/abi", "solo_a_abi/abi");
+    assertSameFile("b_abi/abi", "solo_b_abi/abi");
+  }
+
+  @Test
+  public void testStepsThatUseEachOthersClassesAreNotCompiledTogether() throws Exception {
+    write("A.java", "package com.example; public class A { B b; }");
+    write("B.java", "package com.example; public class B {}");
+
+    List<Optional<Integer>> exitCodes = compileTogether(
+        createStep("a", "A.java"),
+        createStep("b", "B.java"));
+    assertEquals(
+        ImmutableList.of(Optional.<Integer>absent(), Optional.<Integer>absent()),
+        exitCodes);
+    assertFalse(new File(tmp.getRoot(), "a/com/example/A.class").exists());
+    assertFalse(new File(tmp.getRoot(), "b/com/example/B.class").exists());
+  }
+
+  @Test
+  public void testStepsWhoseSourcesImportEachOthersTypesAreNotCompiledTogether()
+      throws Exception {
+    write("A.java", "package com.example.a; import com.example.b.B; public class A {}");
+    write("B.java", "package com.example.b; public class B {}");
+
+    assertNotCompiledTogether();
+  }
+
+  @Test
+  public void testStepsThatInlineEachOthersConstantsAreNotCompiledTogether() throws Exception {
+    write("A.java", "package com.example; public class A { int a = B.B; }");
+    write("B.java", "package com.example; public class B { public static final int B = 1; }");
+
+    assertNotCompiledTogether();
+  }
+
+  @Test
+  public void testStepsThatUseEachOthersSourceAnnotationsAreNotCompiledTogether()
+      throws Exception {
+    write("A.java", "package com.example; @B public class A {}");
+    write("B.java",
+        "package com.example; " +
+        "@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.SOURCE) " +
+        "public @interface B {}");
+
+    assertNotCompiledTogether();
+  }
+
+  @Test
+  public void testStepsThatDoNotCompileTogetherAreLeftToCompileOnTheirOwn() throws Exception {
+    write("A.java", "package com.example; public class A {}");
+    write("B.java", "package com.example; public class B { int x = \"\"; }");
+
+    List<Optional<Integer>> exitCodes = compileTogether(
+        createStep("a", "A.java"),
+        createStep("b", "B.java"));
+    assertEquals(
+        ImmutableList.of(Optional.<Integer>absent(), Optional.<Integer>absent()),
+        exitCodes);
+  }
+
+  @Test
+  public void testAStepOnItsOwnIsLeftToCompileOnItsOwn() throws IOException {
+    write("A.java", "package com.example; public class A {}");
+    JavacBatcher batcher = new JavacBatcher(/* windowMillis */ 0L, /* maxBatchSize */ 2);
+    assertEquals(
+        Optional.<Integer>absent(),
+        batcher.compile(createStep("a", "A.java"), context, ImmutableSet.<String>of()));
+  }
+
+  @Test(timeout = 30000)
+  public void testAStepDoesNotWaitWhenNoOtherStepIsExpected() throws IOException {
+    write("A.java", "package com.example; public class A {}");
+    write("B.java", "package com.example; public class B {}");
+    JavacBatcher batcher = new JavacBatcher(/* windowMillis */ 60000L, /* maxBatchSize */ 2);
+    JavacInMemoryStep a = createStep("a", "A.java");
+    JavacInMemoryStep b = createStep("b", "B.java");
+    batcher.expect(a);
+    batcher.expect(b);
+    batcher.forget(b);
+
+    assertEquals(
+        Optional.<Integer>absent(),
+        batcher.compile(a, context, ImmutableSet.<String>of()));
+  }
+
+  @Test
+  public void testOutputDirectoryAndAbiKeyFileAreNotShared() {
+    assertEquals(
+        ImmutableList.of("-g", "-classpath", "foo.jar", "-Abuck.output_abi_summaries_file=s"),
+        JavacBatcher.getSharedOptions(ImmutableList.of(
+            "-g",
+            "-d", "out",
+            "-classpath", "foo.jar",
+            "-Abuck.output_abi_file=abi",
+            "-Abuck.output_abi_summaries_file=s")));
+  }
+
+  private List<Optional<Integer>> compileTogether(JavacInMemoryStep... steps) throws Exception {
+    final JavacBatcher batcher =
+        new JavacBatcher(/* windowMillis */ 60000L, /* maxBatchSize */ steps.length);
+    for (JavacInMemoryStep step : steps) {
+      batcher.expect(step);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(steps.length);
+    try {
+      ImmutableList.Builder<Future<Optional<Integer>>> futures = ImmutableList.builder();
+      for (final JavacInMemoryStep step : steps) {
+        futures.add(executor.submit(new Callable<Optional<Integer>>() {
+          @Override
+          public Optional<Integer> call() {
+            return batcher.compile(step, context, ImmutableSet.<String>of());
+          }
+        }));
+      }
+
+      ImmutableList.Builder<Optional<Integer>> exitCodes = ImmutableList.builder();
+      for (Future<Optional<Integer>> future : futures.build()) {
+        exitCodes.add(future.get());
+      }
+      return exitCodes.build();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void assertNotCompiledTogether() throws Exception {
+    List<Optional<Integer>> exitCodes = compileTogether(
+        createStep("a", "A.java"),
+        createStep("b", "B.java"));
+    assertEquals(
+        ImmutableList.of(Optional.<Integer>absent(), Optional.<Integer>absent()),
+        exitCodes);
+  }
+
+  private JavacInMemoryStep createStep(String name, String source) throws IOException {
+    tmp.newFolder(name);
+    tmp.newFolder(name + "_abi");
+    return new JavacInMemoryStep(
+        name,
+        ImmutableSet.of(source),
+        /* transitiveClasspathEntries */ ImmutableSet.<String>of(),
+        /* declaredClasspathEntries */ ImmutableSet.<String>of(),
+        JavacOptions.DEFAULTS,
+        Optional.of(name + "_abi/abi"),
+        /* invokingRule */ Optional.<String>absent(),
+        BuildDependencies.TRANSITIVE,
+        Optional.<JavacInMemoryStep.SuggestBuildRules>absent());
+  }
+
+  private void assertSameFile(String expected, String actual) throws IOException {
+    assertArrayEquals(actual,
+        Files.toByteArray(new File(tmp.getRoot(), expected)),
+        Files.toByteArray(new File(tmp.getRoot(), actual)));
+  }
+
+  private void write(String source, String contents) throws IOException {
+    Files.write(contents, new File(tmp.getRoot(), source), Charsets.UTF_8);
+  }
+}
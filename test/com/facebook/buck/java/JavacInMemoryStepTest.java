@@ -16,44 +16,159 @@
 
 package com.facebook.buck.java;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
+import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.event.FakeBuckEventListener;
 import com.facebook.buck.rules.BuildDependencies;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.IdentityPathRelativizer;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.util.environment.Platform;
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
 
 import org.easymock.EasyMockSupport;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
 
 public class JavacInMemoryStepTest extends EasyMockSupport {
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testWarnOnTransitiveReportsClassesReadFromUndeclaredDeps() throws IOException {
+    TestConsole console = new TestConsole();
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setConsole(console)
+        .setProjectFilesystem(new ProjectFilesystem(tmp.getRoot()))
+        .build();
+
+    // meh.jar holds Meh, the bar directory holds Bar, and nothing uses the unused directory.
+    write("Meh.java", "package com.example; public class Meh { public static class Inner {} }");
+    write("Bar.java", "package com.example; public class Bar {}");
+    write("Unused.java", "package com.example; public class Unused {}");
+    compile("meh", "Meh.java");
+    compile("bar", "Bar.java");
+    compile("unused", "Unused.java");
+    assertEquals(0, new JarDirectoryStep("meh.jar",
+        ImmutableSet.of("meh"),
+        /* mainClass */ null,
+        /* manifestFile */ null).execute(context));
+
+    write("Raz.java", "package com.example; public class Raz { Bar bar; Meh.Inner inner; }");
+    final List<ImmutableSet<String>> suggestions = Lists.newArrayList();
+    JavacInMemoryStep javac = new JavacInMemoryStep(
+        "raz",
+        ImmutableSet.of("Raz.java"),
+        /* transitiveClasspathEntries */ ImmutableSet.of("bar", "meh.jar", "unused"),
+        /* declaredClasspathEntries */ ImmutableSet.of("bar"),
+        JavacOptions.DEFAULTS,
+        /* pathToOutputAbiFile */ Optional.<String>absent(),
+        /* invokingRule */ Optional.of("//:raz"),
+        BuildDependencies.WARN_ON_TRANSITIVE,
+        Optional.<JavacInMemoryStep.SuggestBuildRules>of(
+            new JavacInMemoryStep.SuggestBuildRules() {
+              @Override
+              public ImmutableSet<String> suggest(ProjectFilesystem filesystem,
+                  ImmutableSet<String> failedImports) {
+                suggestions.add(failedImports);
+                return ImmutableSet.of("//:meh");
+              }
+            }));
+    tmp.newFolder("raz");
+
+    assertEquals(console.getTextWrittenToStdErr(), 0, javac.execute(context));
+    assertEquals(ImmutableList.of(ImmutableSet.of("com.example.Meh")), suggestions);
+    assertThat(console.getTextWrittenToStdErr(), containsString(Joiner.on("\n").join(
+        "Rule //:raz builds with its transitive dependencies but not with its first order " +
+            "dependencies.",
+        "The following classes were missing:",
+        "com.example.Meh",
+        "Try adding the following deps:",
+        "//:meh")));
+  }
+
   @Test
-  public void testFindFailedImports() throws Exception {
-    String lineSeperator = System.getProperty("line.separator");
-
-    String stderrOutput = Joiner.on(lineSeperator).join(ImmutableList.of(
-        "java/com/foo/bar.java:5: package javax.annotation.concurrent does not exist",
-        "java/com/foo/bar.java:99: error: cannot access com.facebook.Raz",
-        "java/com/foo/bar.java:142: cannot find symbol: class ImmutableSet",
-        "java/com/foo/bar.java:999: you are a clown"));
-
-    ImmutableSet<String> missingImports =
-        JavacInMemoryStep.findFailedImports(stderrOutput);
-    assertEquals(
-        ImmutableSet.of("javax.annotation.concurrent", "com.facebook.Raz", "ImmutableSet"),
-        missingImports);
+  public void testAnnotationProcessingIsTimed() throws IOException {
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    FakeBuckEventListener listener = new FakeBuckEventListener();
+    eventBus.register(listener);
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(tmp.getRoot()))
+        .setEventBus(eventBus)
+        .build();
+
+    // Writing an ABI key runs the ABI writer as an annotation processor.
+    write("Foo.java", "package com.example; public class Foo {}");
+    tmp.newFolder("foo");
+    JavacInMemoryStep javac = new JavacInMemoryStep(
+        "foo",
+        ImmutableSet.of("Foo.java"),
+        /* transitiveClasspathEntries */ ImmutableSet.<String>of(),
+        /* declaredClasspathEntries */ ImmutableSet.<String>of(),
+        JavacOptions.DEFAULTS,
+        /* pathToOutputAbiFile */ Optional.of("foo.abi"),
+        /* invokingRule */ Optional.of("//:foo"),
+        BuildDependencies.TRANSITIVE,
+        Optional.<JavacInMemoryStep.SuggestBuildRules>absent());
+    assertEquals(0, javac.execute(context));
+
+    List<AnnotationProcessingEvent.Operation> startedOperations = Lists.newArrayList();
+    int finishedCount = 0;
+    for (BuckEvent event : listener.getEvents()) {
+      if (event instanceof AnnotationProcessingEvent.Started) {
+        AnnotationProcessingEvent started = (AnnotationProcessingEvent) event;
+        assertEquals("//:foo", started.getBuildRule());
+        startedOperations.add(started.getOperation());
+      } else if (event instanceof AnnotationProcessingEvent.Finished) {
+        finishedCount++;
+      }
+    }
+    assertEquals(AnnotationProcessingEvent.Operation.INIT, startedOperations.get(0));
+    assertTrue(startedOperations.contains(AnnotationProcessingEvent.Operation.PROCESS));
+    assertEquals(startedOperations.size(), finishedCount);
+  }
+
+  private void compile(String outputDirectory, String source) throws IOException {
+    tmp.newFolder(outputDirectory);
+    JavacInMemoryStep javac = new JavacInMemoryStep(
+        outputDirectory,
+        ImmutableSet.of(source),
+        /* transitiveClasspathEntries */ ImmutableSet.<String>of(),
+        /* declaredClasspathEntries */ ImmutableSet.<String>of(),
+        JavacOptions.DEFAULTS,
+        /* pathToOutputAbiFile */ Optional.<String>absent(),
+        /* invokingRule */ Optional.<String>absent(),
+        BuildDependencies.TRANSITIVE,
+        Optional.<JavacInMemoryStep.SuggestBuildRules>absent());
+    assertEquals(0, javac.execute(TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(tmp.getRoot()))
+        .build()));
+  }
+
+  private void write(String source, String contents) throws IOException {
+    Files.write(contents, new File(tmp.getRoot(), source), Charsets.UTF_8);
   }
 
   @Test
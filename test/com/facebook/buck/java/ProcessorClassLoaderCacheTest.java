@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.TypeElement;
+
+public class ProcessorClassLoaderCacheTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testClassLoaderIsReusedUntilAJarChanges() throws IOException {
+    File jar = new File(tmp.getRoot(), "processor.jar");
+    writeJar(jar, "1");
+    List<File> processorPath = ImmutableList.of(jar, tmp.getRoot());
+    ProcessorClassLoaderCache cache = new ProcessorClassLoaderCache(/* maxClassLoaders */ 1);
+    ClassLoader parent = getClass().getClassLoader();
+
+    ClassLoader first;
+    try (ProcessorClassLoaderCache.Lease lease = cache.acquire(processorPath, parent)) {
+      first = lease.getClassLoader();
+    }
+    assertEquals(1, cache.getClassLoaderCount());
+
+    try (ProcessorClassLoaderCache.Lease lease = cache.acquire(processorPath, parent)) {
+      assertSame(first, lease.getClassLoader());
+    }
+
+    // Rewriting the jar with contents of the same size, most likely within the same second, must
+    // still be noticed.
+    writeJar(jar, "2");
+    try (ProcessorClassLoaderCache.Lease lease = cache.acquire(processorPath, parent)) {
+      assertNotSame(first, lease.getClassLoader());
+    }
+    assertNull("The class loader for the old jar should have been closed.",
+        first.getResource("resource.txt"));
+
+    // So must a change to a directory on the processor path.
+    ClassLoader second;
+    try (ProcessorClassLoaderCache.Lease lease = cache.acquire(processorPath, parent)) {
+      second = lease.getClassLoader();
+    }
+    assertTrue(new File(tmp.getRoot(), "generated.txt").createNewFile());
+    try (ProcessorClassLoaderCache.Lease lease = cache.acquire(processorPath, parent)) {
+      assertNotSame(second, lease.getClassLoader());
+    }
+  }
+
+  @Test
+  public void testEvictedClassLoaderIsNotClosedWhileLeased() throws IOException {
+    File firstJar = new File(tmp.getRoot(), "first.jar");
+    File secondJar = new File(tmp.getRoot(), "second.jar");
+    writeJar(firstJar, "1");
+    writeJar(secondJar, "2");
+    ProcessorClassLoaderCache cache = new ProcessorClassLoaderCache(/* maxClassLoaders */ 1);
+    ClassLoader parent = getClass().getClassLoader();
+
+    ProcessorClassLoaderCache.Lease firstLease =
+        cache.acquire(ImmutableList.of(firstJar), parent);
+    ClassLoader first = firstLease.getClassLoader();
+    try (ProcessorClassLoaderCache.Lease secondLease =
+             cache.acquire(ImmutableList.of(secondJar), parent)) {
+      assertNotNull(secondLease.getClassLoader().getResource("resource.txt"));
+    }
+    assertEquals(1, cache.getClassLoaderCount());
+    assertNotNull("An evicted class loader must stay open until it is released.",
+        first.getResource("resource.txt"));
+
+    firstLease.close();
+    assertNull(first.getResource("resource.txt"));
+  }
+
+  @Test
+  public void testLoadProcessorsByNameOrAsServices() throws IOException {
+    File jar = new File(tmp.getRoot(), "processor.jar");
+    writeJar(jar, "1");
+    ProcessorClassLoaderCache cache = new ProcessorClassLoaderCache(/* maxClassLoaders */ 1);
+
+    try (ProcessorClassLoaderCache.Lease lease =
+             cache.acquire(ImmutableList.of(jar), getClass().getClassLoader())) {
+      List<Processor> byName = lease.loadProcessors(
+          Optional.<List<String>>of(ImmutableList.of(FakeProcessor.class.getName())));
+      assertEquals(1, byName.size());
+      assertTrue(byName.get(0) instanceof FakeProcessor);
+
+      boolean foundService = false;
+      for (Processor processor : lease.loadProcessors(Optional.<List<String>>absent())) {
+        foundService |= processor instanceof FakeProcessor;
+      }
+      assertTrue("The processor listed in the jar's services should be loaded.", foundService);
+    }
+  }
+
+  private static void writeJar(File jar, String contents) throws IOException {
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      out.putNextEntry(new ZipEntry("resource.txt"));
+      out.write(contents.getBytes(Charsets.UTF_8));
+      out.closeEntry();
+      out.putNextEntry(new ZipEntry("META-INF/services/" + Processor.class.getName()));
+      out.write(FakeProcessor.class.getName().getBytes(Charsets.UTF_8));
+      out.closeEntry();
+    }
+  }
+
+  public static class FakeProcessor extends AbstractProcessor {
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Test;
+
+public class ShardedJUnitStepTest {
+
+  @Test
+  public void testPartitionBalancesShardsByRecordedDuration() {
+    ImmutableSet<String> testClassNames = ImmutableSet.of("A", "B", "C", "D", "E");
+    ImmutableMap<String, Long> durations = ImmutableMap.of(
+        "A", 90L,
+        "B", 60L,
+        "C", 50L,
+        "D", 30L,
+        "E", 10L);
+
+    // Both shards are expected to take 120ms.
+    assertEquals(
+        ImmutableList.of(
+            ImmutableSortedSet.of("A", "D"),
+            ImmutableSortedSet.of("B", "C", "E")),
+        ShardedJUnitStep.partition(testClassNames, durations, 2));
+  }
+
+  @Test
+  public void testClassesWithoutADurationAreAssumedToTakeTheAverage() {
+    ImmutableSet<String> testClassNames = ImmutableSet.of("A", "B", "New1", "New2");
+    ImmutableMap<String, Long> durations = ImmutableMap.of(
+        "A", 100L,
+        "B", 20L);
+
+    // New1 and New2 are expected to take 60ms each, so together they take as long as A and B.
+    assertEquals(
+        ImmutableList.of(
+            ImmutableSortedSet.of("A", "B"),
+            ImmutableSortedSet.of("New1", "New2")),
+        ShardedJUnitStep.partition(testClassNames, durations, 2));
+  }
+
+  @Test
+  public void testNoShardIsEmpty() {
+    ImmutableSet<String> testClassNames = ImmutableSet.of("A", "B");
+
+    assertEquals(
+        ImmutableList.of(ImmutableSortedSet.of("A"), ImmutableSortedSet.of("B")),
+        ShardedJUnitStep.partition(testClassNames, ImmutableMap.<String, Long>of(), 8));
+  }
+
+  @Test
+  public void testSingleShardHasEveryClass() {
+    ImmutableSet<String> testClassNames = ImmutableSet.of("B", "A", "C");
+
+    assertEquals(
+        ImmutableList.of(ImmutableSortedSet.of("A", "B", "C")),
+        ShardedJUnitStep.partition(testClassNames, ImmutableMap.<String, Long>of("C", 5L), 1));
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.rules.TestMethodEvent;
+import com.facebook.buck.test.TestResultSummary;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class TestEventStreamReceiverTest {
+
+  @Test
+  public void testStartedRecordIsParsed() {
+    Optional<TestMethodEvent> event =
+        TestEventStreamReceiver.parse("TEST_STARTED\tcom.example.FooTest\ttestFoo");
+
+    assertTrue(event.get() instanceof TestMethodEvent.Started);
+    assertEquals("com.example.FooTest", event.get().getTestCaseName());
+    assertEquals("testFoo", event.get().getTestName());
+  }
+
+  @Test
+  public void testFinishedRecordIsParsedAndUnescaped() {
+    Optional<TestMethodEvent> event = TestEventStreamReceiver.parse(
+        "TEST_FINISHED\tcom.example.FooTest\ttestFoo\tfalse\t42\tone\\ttwo\\nthree\\\\\t");
+
+    TestResultSummary result = ((TestMethodEvent.Finished) event.get()).getResult();
+    assertEquals("com.example.FooTest", result.getTestCaseName());
+    assertEquals("testFoo", result.getTestName());
+    assertFalse(result.isSuccess());
+    assertEquals(42L, result.getTime());
+    assertEquals("one\ttwo\nthree\\", result.getMessage());
+    assertNull(result.getStacktrace());
+  }
+
+  @Test
+  public void testMalformedRecordsAreIgnored() {
+    assertFalse(TestEventStreamReceiver.parse("TEST_STARTED\tcom.example.FooTest").isPresent());
+    assertFalse(TestEventStreamReceiver.parse(
+        "TEST_FINISHED\tcom.example.FooTest\ttestFoo\ttrue\tsoon\t\t").isPresent());
+    assertFalse(TestEventStreamReceiver.isRecord("RESULT com.example.FooTest"));
+  }
+
+  @Test
+  public void testRecordsStreamedToTheReceiverArePosted() throws IOException {
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    final List<TestMethodEvent> events = Lists.newArrayList();
+    eventBus.register(new Object() {
+      @Subscribe
+      public void testMethodEvent(TestMethodEvent event) {
+        events.add(event);
+      }
+    });
+
+    try (TestEventStreamReceiver receiver = new TestEventStreamReceiver(eventBus)) {
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), receiver.getPort());
+           Writer writer =
+               new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+        writer.write(receiver.getSecret() + "\n");
+        writer.write("TEST_STARTED\tcom.example.FooTest\ttestFoo\n");
+        writer.write("TEST_FINISHED\tcom.example.FooTest\ttestFoo\ttrue\t7\t\t\n");
+      }
+    }
+
+    assertEquals(2, events.size());
+    assertTrue(events.get(0) instanceof TestMethodEvent.Started);
+    assertTrue(((TestMethodEvent.Finished) events.get(1)).getResult().isSuccess());
+  }
+
+  @Test
+  public void testRecordsFromAConnectionWithoutTheSecretAreIgnored() throws IOException {
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    final List<TestMethodEvent> events = Lists.newArrayList();
+    eventBus.register(new Object() {
+      @Subscribe
+      public void testMethodEvent(TestMethodEvent event) {
+        events.add(event);
+      }
+    });
+
+    try (TestEventStreamReceiver receiver = new TestEventStreamReceiver(eventBus)) {
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), receiver.getPort());
+           Writer writer =
+               new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+        writer.write("TEST_STARTED\tcom.example.FooTest\ttestFoo\n");
+      }
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), receiver.getPort());
+           Writer writer =
+               new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+        writer.write(receiver.getSecret() + "\n");
+        writer.write("TEST_STARTED\tcom.example.BarTest\ttestBar\n");
+      }
+    }
+
+    assertEquals(1, events.size());
+    assertEquals("com.example.BarTest", events.get(0).getTestCaseName());
+  }
+
+  @Test
+  public void testClosingDoesNotWaitForAJvmThatNeverConnected() throws IOException {
+    long start = System.currentTimeMillis();
+    new TestEventStreamReceiver(BuckEventBusFactory.newInstance()).close();
+    assertTrue(System.currentTimeMillis() - start < 1000);
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.model.BuildTarget;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
+
+import org.junit.Test;
+
+public class TransitiveClasspathTest {
+
+  private final JavaLibraryRule a = new FakeJavaLibraryRule(new BuildTarget("//lib", "a"));
+  private final JavaLibraryRule b = new FakeJavaLibraryRule(new BuildTarget("//lib", "b"));
+  private final JavaLibraryRule c = new FakeJavaLibraryRule(new BuildTarget("//lib", "c"));
+  private final JavaLibraryRule d = new FakeJavaLibraryRule(new BuildTarget("//lib", "d"));
+
+  @Test
+  public void testSharedClasspathsAreFlattenedAsIfTheyHadBeenCopied() {
+    TransitiveClasspath classpathD = TransitiveClasspath.builder()
+        .put(d, "d.jar")
+        .build();
+    TransitiveClasspath classpathB = TransitiveClasspath.builder()
+        .addAll(classpathD)
+        .put(b, "b.jar")
+        .build();
+    TransitiveClasspath classpathC = TransitiveClasspath.builder()
+        .put(c, "c.jar")
+        .addAll(classpathD)
+        .put(d, "extra.jar")
+        .build();
+    TransitiveClasspath classpathA = TransitiveClasspath.builder()
+        .addAll(classpathB)
+        .addAll(classpathC)
+        .put(a, "a.jar")
+        .build();
+
+    ImmutableSetMultimap<JavaLibraryRule, String> expected =
+        ImmutableSetMultimap.<JavaLibraryRule, String>builder()
+            .putAll(classpathB.getEntries())
+            .putAll(classpathC.getEntries())
+            .put(a, "a.jar")
+            .build();
+    assertEquals(expected, classpathA.getEntries());
+    assertEquals(
+        ImmutableList.copyOf(expected.entries()),
+        ImmutableList.copyOf(classpathA.getEntries().entries()));
+    assertEquals(
+        ImmutableList.of(d, b, c, a),
+        ImmutableList.copyOf(classpathA.getEntries().keySet()));
+    assertEquals(
+        ImmutableList.of("d.jar", "extra.jar"),
+        ImmutableList.copyOf(classpathA.getEntries().get(d)));
+  }
+
+  @Test
+  public void testPutAllAddsTheEntriesOfAClasspathUnderASingleRule() {
+    TransitiveClasspath exported = TransitiveClasspath.builder()
+        .put(b, "b.jar")
+        .put(c, "c.jar")
+        .build();
+    TransitiveClasspath classpath = TransitiveClasspath.builder()
+        .putAll(a, exported)
+        .put(a, "a.jar")
+        .build();
+
+    assertEquals(
+        ImmutableSetMultimap.of(a, "b.jar", a, "c.jar", a, "a.jar"),
+        classpath.getEntries());
+  }
+
+  @Test
+  public void testPutAllOfASharedClasspathIsFlattenedOncePerRule() {
+    TransitiveClasspath shared = TransitiveClasspath.builder()
+        .put(c, "c.jar")
+        .build();
+    TransitiveClasspath classpathB = TransitiveClasspath.builder()
+        .putAll(b, shared)
+        .addAll(shared)
+        .build();
+    TransitiveClasspath classpath = TransitiveClasspath.builder()
+        .addAll(classpathB)
+        .putAll(a, classpathB)
+        .putAll(b, shared)
+        .build();
+
+    assertEquals(
+        ImmutableList.of(b, c, a),
+        ImmutableList.copyOf(classpath.getEntries().keySet()));
+    assertEquals(
+        ImmutableSetMultimap.of(b, "c.jar", c, "c.jar", a, "c.jar"),
+        classpath.getEntries());
+  }
+
+  @Test
+  public void testEntriesAreOnlyFlattenedOnce() {
+    TransitiveClasspath classpath = TransitiveClasspath.builder()
+        .put(a, "a.jar")
+        .build();
+
+    assertSame(classpath.getEntries(), classpath.getEntries());
+  }
+
+  @Test
+  public void testEmptyClasspathsAreNotKept() {
+    assertSame(TransitiveClasspath.of(), TransitiveClasspath.builder().build());
+    assertSame(
+        TransitiveClasspath.of(),
+        TransitiveClasspath.builder()
+            .addAll(TransitiveClasspath.of())
+            .putAll(a, TransitiveClasspath.of())
+            .build());
+    assertTrue(TransitiveClasspath.of().getEntries().isEmpty());
+  }
+
+  @Test
+  public void testLongChainsOfDepsDoNotOverflowTheStack() {
+    int depth = 100000;
+    TransitiveClasspath classpath = TransitiveClasspath.of();
+    for (int i = 0; i < depth; i++) {
+      classpath = TransitiveClasspath.builder()
+          .addAll(classpath)
+          .put(a, "lib" + i + ".jar")
+          .build();
+    }
+
+    ImmutableSetMultimap<JavaLibraryRule, String> entries = classpath.getEntries();
+    assertEquals(depth, entries.size());
+    assertEquals("lib0.jar", entries.get(a).iterator().next());
+  }
+
+  @Test
+  public void testLongChainsOfExportedDepsDoNotOverflowTheStack() {
+    int depth = 100000;
+    TransitiveClasspath classpath = TransitiveClasspath.of();
+    for (int i = 0; i < depth; i++) {
+      classpath = TransitiveClasspath.builder()
+          .putAll(b, classpath)
+          .put(a, "lib" + i + ".jar")
+          .build();
+    }
+
+    ImmutableSetMultimap<JavaLibraryRule, String> entries = classpath.getEntries();
+    assertEquals(depth, entries.size());
+    assertEquals("lib0.jar", entries.get(b).iterator().next());
+  }
+}
@@ -27,6 +27,7 @@ import com.facebook.buck.testutil.integration.TestDataHelper;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -60,6 +61,16 @@ public class AbiWriterTest {
         AbiWriter.computeAbiKey(ImmutableSortedSet.<String>of()));
   }
 
+  @Test
+  public void summariesSurviveBeingWrittenAndReadBack() throws IOException {
+    File file = temp.newFile("summaries");
+    ImmutableSortedMap<String, String> summaries = ImmutableSortedMap.of(
+        "com.example.A", "class A\n\tmethod foo(\\)\r",
+        "com.example.B", "");
+    AbiWriterProtocol.writeSummaries(summaries, file);
+    assertEquals(summaries, AbiWriterProtocol.readSummaries(file));
+  }
+
   @Test
   public void willCaptureClassName() throws IOException {
     String summary = compile("A.java", Joiner.on("\n").join(
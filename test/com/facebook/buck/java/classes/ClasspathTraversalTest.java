@@ -41,6 +41,7 @@ import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 import java.util.zip.ZipEntry;
@@ -50,14 +51,18 @@ public class ClasspathTraversalTest {
   @Rule
   public TemporaryFolder tempDir = new TemporaryFolder();
 
-  private static Collection<FileLike> traverse(Collection<File> files) throws IOException {
-    Collection<Path> paths = FluentIterable.from(files)
+  private static Collection<Path> toPaths(Collection<File> files) {
+    return FluentIterable.from(files)
         .transform(new Function<File, Path>() {
       @Override
       public Path apply(File file) {
         return file.toPath();
       }
     }).toList();
+  }
+
+  private static Collection<FileLike> traverse(Collection<File> files) throws IOException {
+    Collection<Path> paths = toPaths(files);
     final ImmutableList.Builder<FileLike> completeList = ImmutableList.builder();
     ClasspathTraverser traverser = new DefaultClasspathTraverser();
     traverser.traverse(new ClasspathTraversal(paths) {
@@ -70,15 +75,20 @@ public class ClasspathTraversalTest {
   }
 
   private static void verifyFileLike(int expectedFiles, File... paths) throws IOException {
-    int fileLikeCount = 0;
-    for (FileLike fileLike : traverse(Lists.newArrayList(paths))) {
-      String contents = CharStreams.toString(
-          CharStreams.newReaderSupplier(new FileLikeInputSupplier(fileLike),
-              Charsets.UTF_8));
-      assertEquals("Relative file-like path mismatch", contents, fileLike.getRelativePath());
-      fileLikeCount++;
-    }
-    assertEquals(expectedFiles, fileLikeCount);
+    final AtomicInteger fileLikeCount = new AtomicInteger();
+    ClasspathTraverser traverser = new DefaultClasspathTraverser();
+    traverser.traverse(new ClasspathTraversal(toPaths(Lists.newArrayList(paths))) {
+      @Override
+      public void visit(FileLike fileLike) throws IOException {
+        // An entry of a zip can only be read while the traversal is visiting it.
+        String contents = CharStreams.toString(
+            CharStreams.newReaderSupplier(new FileLikeInputSupplier(fileLike),
+                Charsets.UTF_8));
+        assertEquals("Relative file-like path mismatch", contents, fileLike.getRelativePath());
+        fileLikeCount.incrementAndGet();
+      }
+    });
+    assertEquals(expectedFiles, fileLikeCount.get());
   }
 
   @Test
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class DelegateRunNotifierTest {
+
+  public static class SomeTest {
+    @Test
+    public void testNothing() {}
+  }
+
+  @Test
+  public void testTestThatExceedsTheTimeoutIsFailedAndReportedStraightAway() throws Exception {
+    Result result = new Result();
+    RunNotifier notifier = new RunNotifier();
+    notifier.addListener(result.createListener());
+    final CountDownLatch hasTimedOut = new CountDownLatch(1);
+    DelegateRunNotifier wrapper = new DelegateRunNotifier(
+        new BlockJUnit4ClassRunner(SomeTest.class),
+        notifier,
+        /* defaultTestTimeoutMillis */ 50L,
+        new Runnable() {
+          @Override
+          public void run() {
+            hasTimedOut.countDown();
+          }
+        });
+
+    Description description = Description.createTestDescription(SomeTest.class, "testNothing");
+    wrapper.fireTestStarted(description);
+
+    assertTrue(hasTimedOut.await(10, TimeUnit.SECONDS));
+    assertTrue(wrapper.hasTestThatExceededTimeout());
+    assertEquals(1, result.getRunCount());
+    assertEquals(1, result.getFailureCount());
+    assertEquals(
+        "test timed out after 50 milliseconds",
+        result.getFailures().get(0).getMessage());
+
+    // Updates to the status of the test that timed out are ignored.
+    wrapper.fireTestFinished(description);
+    assertEquals(1, result.getRunCount());
+  }
+
+  @Test
+  public void testTimeoutIsCancelledWhenTheTestFinishes() throws Exception {
+    Result result = new Result();
+    RunNotifier notifier = new RunNotifier();
+    notifier.addListener(result.createListener());
+    final CountDownLatch hasTimedOut = new CountDownLatch(1);
+    DelegateRunNotifier wrapper = new DelegateRunNotifier(
+        new BlockJUnit4ClassRunner(SomeTest.class),
+        notifier,
+        /* defaultTestTimeoutMillis */ 50L,
+        new Runnable() {
+          @Override
+          public void run() {
+            hasTimedOut.countDown();
+          }
+        });
+
+    Description description = Description.createTestDescription(SomeTest.class, "testNothing");
+    wrapper.fireTestStarted(description);
+    wrapper.fireTestFinished(description);
+
+    assertFalse(hasTimedOut.await(200, TimeUnit.MILLISECONDS));
+    assertFalse(wrapper.hasTestThatExceededTimeout());
+    assertEquals(1, result.getRunCount());
+    assertTrue(result.wasSuccessful());
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.Collections;
+import java.util.List;
+
+public class DelegateRunnerWithTimeoutTest {
+
+  /** The threads on which the tests of the runners below were run. */
+  private static final List<Thread> testThreads =
+      Collections.synchronizedList(Lists.<Thread>newArrayList());
+
+  public static class FirstTest {
+    @Test
+    public void testRecordsThread() {
+      testThreads.add(Thread.currentThread());
+    }
+  }
+
+  public static class SecondTest {
+    @Test
+    public void testRecordsThread() {
+      testThreads.add(Thread.currentThread());
+    }
+  }
+
+  /**
+   * Robolectric requires that every test is run on the thread on which its runtime was loaded,
+   * so the tests of every runner must be run on the same thread.
+   */
+  @Test
+  public void testTestsOfDifferentRunnersAreRunOnTheSameThread() throws Exception {
+    testThreads.clear();
+    Result result = new Result();
+    RunNotifier notifier = new RunNotifier();
+    notifier.addListener(result.createListener());
+
+    new DelegateRunnerWithTimeout(new BlockJUnit4ClassRunner(FirstTest.class), 10000L)
+        .run(notifier);
+    new DelegateRunnerWithTimeout(new BlockJUnit4ClassRunner(SecondTest.class), 10000L)
+        .run(notifier);
+
+    assertEquals(2, result.getRunCount());
+    assertTrue(result.wasSuccessful());
+    assertEquals(2, testThreads.size());
+    assertEquals(testThreads.get(0), testThreads.get(1));
+    assertFalse(testThreads.get(0).equals(Thread.currentThread()));
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Splitter;
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+
+import java.io.StringWriter;
+import java.util.List;
+
+public class TestEventStreamListenerTest {
+
+  /** Run by {@link #testRecordsAreWrittenAsEachTestStartsAndFinishes()}. */
+  public static class OneFailingTest {
+    @Test
+    public void testFails() {
+      throw new IllegalStateException("line one\n\tline two\\");
+    }
+  }
+
+  @Test
+  public void testRecordsAreWrittenAsEachTestStartsAndFinishes() {
+    StringWriter writer = new StringWriter();
+    JUnitCore core = new JUnitCore();
+    core.addListener(new TestEventStreamListener(writer));
+    core.run(OneFailingTest.class);
+
+    List<String> records = Splitter.on('\n').omitEmptyStrings().splitToList(writer.toString());
+    assertEquals(2, records.size());
+    assertEquals(
+        "TEST_STARTED\t" + OneFailingTest.class.getName() + "\ttestFails",
+        records.get(0));
+
+    List<String> fields = Splitter.on('\t').splitToList(records.get(1));
+    assertEquals(7, fields.size());
+    assertEquals("TEST_FINISHED", fields.get(0));
+    assertEquals(OneFailingTest.class.getName(), fields.get(1));
+    assertEquals("testFails", fields.get(2));
+    assertEquals("false", fields.get(3));
+    assertEquals("line one\\n\\tline two\\\\", fields.get(5));
+    assertTrue(fields.get(6).startsWith("java.lang.IllegalStateException"));
+  }
+}
@@ -431,12 +431,9 @@ public class ParserTest extends EasyMockSupport {
   }
 
   // TODO(jimp/devjasta): clean up the horrible ProjectBuildFileParserFactory mess.
-  private void parseBuildFile(File buildFile, Parser parser,
-                              ProjectBuildFileParserFactory buildFileParserFactory)
+  private void parseBuildFile(File buildFile, Parser parser)
       throws BuildFileParseException, BuildTargetException, IOException {
-    parser.parseBuildFile(buildFile,
-        /* defaultIncludes */ ImmutableList.<String>of(),
-        buildFileParserFactory.createParser(/* commonIncludes */ Lists.<String>newArrayList()));
+    parser.parseBuildFile(buildFile, /* defaultIncludes */ ImmutableList.<String>of());
   }
 
   @Test
@@ -447,14 +444,14 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(testBuildFile, StandardWatchEventKinds.ENTRY_CREATE);
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -468,14 +465,14 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(testBuildFile, StandardWatchEventKinds.ENTRY_MODIFY);
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -489,14 +486,14 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(testBuildFile, StandardWatchEventKinds.ENTRY_DELETE);
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -510,14 +507,14 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(includedByBuildFile, StandardWatchEventKinds.ENTRY_CREATE);
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -531,14 +528,14 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(includedByBuildFile, StandardWatchEventKinds.ENTRY_MODIFY);
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -552,14 +549,14 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(includedByBuildFile, StandardWatchEventKinds.ENTRY_DELETE);
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -573,7 +570,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(includedByIncludeFile,
@@ -581,7 +578,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -595,7 +592,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(includedByIncludeFile,
@@ -603,7 +600,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -617,7 +614,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(includedByIncludeFile,
@@ -625,7 +622,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -639,7 +636,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(defaultIncludeFile,
@@ -647,7 +644,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -661,7 +658,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(defaultIncludeFile,
@@ -669,7 +666,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -684,7 +681,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(defaultIncludeFile,
@@ -692,7 +689,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -707,7 +704,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(tempDir.newFile("java/com/facebook/SomeClass.java"),
@@ -715,7 +712,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -729,7 +726,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(tempDir.newFile("java/com/facebook/SomeClass.java"),
@@ -737,7 +734,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call did not repopulate the cache.
     assertEquals("Should have not invalidated cache.", 1, buildFileParserFactory.calls);
@@ -752,7 +749,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(tempDir.newFile("java/com/facebook/SomeClass.java"),
@@ -760,7 +757,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
@@ -775,7 +772,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(tempDir.newFile("java/com/facebook/MumbleSwp.Java.swp"),
@@ -783,7 +780,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should not have invalidated cache.", 1, buildFileParserFactory.calls);
@@ -797,7 +794,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(tempDir.newFile("java/com/facebook/MumbleSwp.Java.swp"),
@@ -805,7 +802,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should not have invalidated cache.", 1, buildFileParserFactory.calls);
@@ -819,7 +816,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(tempDir.newFile("java/com/facebook/MumbleSwp.Java.swp"),
@@ -827,7 +824,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call repopulated the cache.
     assertEquals("Should not have invalidated cache.", 1, buildFileParserFactory.calls);
@@ -841,7 +838,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(tempDir.newFile("SomeClass.java__backup"),
@@ -849,7 +846,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call did not repopulate the cache.
     assertEquals("Should have not invalidated cache.", 1, buildFileParserFactory.calls);
@@ -863,7 +860,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(tempDir.newFile("SomeClass.java__backup"),
@@ -871,7 +868,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call did not repopulate the cache.
     assertEquals("Should have not invalidated cache.", 1, buildFileParserFactory.calls);
@@ -885,7 +882,7 @@ public class ParserTest extends EasyMockSupport {
     Parser parser = createParser(emptyBuildTargets());
 
     // Call parseBuildFile to populate the cache.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Process event.
     WatchEvent<Path> event = createPathEvent(tempDir.newFile("SomeClass.java__backup"),
@@ -893,7 +890,7 @@ public class ParserTest extends EasyMockSupport {
     parser.onFileSystemChange(event);
 
     // Call parseBuildFile to request cached rules.
-    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+    parseBuildFile(testBuildFile, parser);
 
     // Test that the second parseBuildFile call did not repopulate the cache.
     assertEquals("Should have not invalidated cache.", 1, buildFileParserFactory.calls);
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+public class RawRulesSnapshotTest {
+
+  private static final String BUCK_VERSION_UID = "test-version";
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testRulesAreReusedUntilAnInputChanges() throws IOException {
+    File buildFile = tmp.newFile("BUCK");
+    File includedFile = tmp.newFile("DEFS");
+    Files.write("java_library(name = 'lib')", buildFile, Charsets.UTF_8);
+    Files.write("# Definitions.", includedFile, Charsets.UTF_8);
+    Path buildFilePath = buildFile.toPath();
+
+    List<Map<String, Object>> rules = createRules(buildFile, includedFile);
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot());
+    ImmutableList<String> includes = ImmutableList.of("//DEFS");
+    RawRulesSnapshot snapshot = RawRulesSnapshot.load(filesystem, BUCK_VERSION_UID, includes);
+    assertFalse(snapshot.getRulesAndMetaRules(buildFilePath).isPresent());
+
+    snapshot.putRulesAndMetaRules(buildFilePath, rules);
+    assertTrue(snapshot.isModified());
+    snapshot.save(filesystem);
+    assertFalse(snapshot.isModified());
+
+    // Rules read back from disk are the same as the ones produced by buck.py, down to their types.
+    RawRulesSnapshot reloadedSnapshot = RawRulesSnapshot.load(filesystem, BUCK_VERSION_UID, includes);
+    assertEquals(Optional.of(rules), reloadedSnapshot.getRulesAndMetaRules(buildFilePath));
+
+    // The snapshot is only valid for the default includes that it was produced with.
+    assertFalse(RawRulesSnapshot.load(filesystem, BUCK_VERSION_UID, ImmutableList.<String>of())
+        .getRulesAndMetaRules(buildFilePath)
+        .isPresent());
+
+    // Nor is it valid for another version of Buck.
+    assertFalse(RawRulesSnapshot.load(filesystem, "other-version", includes)
+        .getRulesAndMetaRules(buildFilePath)
+        .isPresent());
+
+    // Changing a file that the build file included means that the build file must be executed.
+    Files.append("\n# More definitions.", includedFile, Charsets.UTF_8);
+    reloadedSnapshot.invalidateHashes();
+    assertFalse(reloadedSnapshot.getRulesAndMetaRules(buildFilePath).isPresent());
+  }
+
+  @Test
+  public void testRulesAreNotReusedOnceAGlobbedDirectoryChanges() throws IOException {
+    File buildFile = tmp.newFile("BUCK");
+    File includedFile = tmp.newFile("DEFS");
+    File srcDir = tmp.newFolder("src");
+    Files.write("java_library(name = 'lib', srcs = glob(['**/*.java']))", buildFile,
+        Charsets.UTF_8);
+    Files.write("# Definitions.", includedFile, Charsets.UTF_8);
+    tmp.newFile("src/Lib.java");
+    Path buildFilePath = buildFile.toPath();
+
+    List<Map<String, Object>> rules = ImmutableList.of(
+        createRules(buildFile, includedFile).get(0),
+        ImmutableMap.<String, Object>of(
+            "__includes",
+            ImmutableList.of(buildFile.getAbsolutePath(), includedFile.getAbsolutePath()),
+            "__glob_roots",
+            ImmutableList.of(tmp.getRoot().getAbsolutePath())));
+    RawRulesSnapshot snapshot =
+        RawRulesSnapshot.load(
+            new ProjectFilesystem(tmp.getRoot()),
+            BUCK_VERSION_UID,
+            ImmutableList.of("//DEFS"));
+    snapshot.putRulesAndMetaRules(buildFilePath, rules);
+    assertEquals(Optional.of(rules), snapshot.getRulesAndMetaRules(buildFilePath));
+
+    // Adding a file under the directory that was globbed may change the result of the glob, even
+    // though the build file and the files that it included are unchanged.
+    new File(srcDir, "Other.java").createNewFile();
+    snapshot.invalidateHashes();
+    assertFalse(snapshot.getRulesAndMetaRules(buildFilePath).isPresent());
+  }
+
+  @Test
+  public void testCorruptSnapshotIsIgnored() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot());
+    filesystem.createParentDirs(RawRulesSnapshot.PATH_TO_SNAPSHOT);
+    filesystem.writeContentsToPath("{not json", RawRulesSnapshot.PATH_TO_SNAPSHOT);
+
+    RawRulesSnapshot snapshot =
+        RawRulesSnapshot.load(filesystem, BUCK_VERSION_UID, ImmutableList.<String>of());
+    assertFalse(snapshot.getRulesAndMetaRules(tmp.getRoot().toPath().resolve("BUCK")).isPresent());
+  }
+
+  private static List<Map<String, Object>> createRules(File buildFile, File includedFile) {
+    Map<String, Object> rule = Maps.newHashMap();
+    rule.put("type", "java_library");
+    rule.put("name", "lib");
+    rule.put("buck.base_path", "");
+    rule.put("srcs", ImmutableList.of("Lib.java"));
+    rule.put("export_deps", Boolean.FALSE);
+    rule.put("source", null);
+    rule.put("timeout", 100L);
+    Map<String, Object> includesMetaRule = ImmutableMap.<String, Object>of(
+        "__includes",
+        ImmutableList.of(buildFile.getAbsolutePath(), includedFile.getAbsolutePath()));
+    return ImmutableList.of(rule, includesMetaRule);
+  }
+}
@@ -17,10 +17,12 @@
 package com.facebook.buck.rules;
 
 import static com.facebook.buck.event.TestEventConfigerator.configureTestEvent;
+import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.event.BuckEvent;
@@ -49,6 +51,7 @@ import com.google.common.collect.Lists;
 import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 
 import org.easymock.Capture;
@@ -66,7 +69,11 @@ import java.nio.file.Paths;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -183,7 +190,8 @@ public class AbstractCachingBuildRuleTest extends EasyMockSupport {
         .andReturn(CacheResult.MISS);
 
     // Set the requisite expectations to build the rule.
-    expect(context.getExecutor()).andReturn(MoreExecutors.sameThreadExecutor());
+    expect(context.getPrioritizedExecutor(cachingRule))
+        .andReturn(MoreExecutors.sameThreadExecutor());
     expect(context.getEventBus()).andReturn(buckEventBus).anyTimes();
     context.logBuildInfo("[BUILDING %s]", "//src/com/facebook/orca:orca");
     StepRunner stepRunner = createMock(StepRunner.class);
@@ -273,7 +281,8 @@ public class AbstractCachingBuildRuleTest extends EasyMockSupport {
     buildInfoRecorder.writeMetadataToDisk();
 
     expect(buildContext.createOnDiskBuildInfoFor(buildTarget)).andReturn(onDiskBuildInfo);
-    expect(buildContext.getExecutor()).andReturn(MoreExecutors.sameThreadExecutor());
+    expect(buildContext.getPrioritizedExecutor(buildRule))
+        .andReturn(MoreExecutors.sameThreadExecutor());
     expect(buildContext.getEventBus()).andReturn(buckEventBus).anyTimes();
 
     replayAll();
@@ -371,6 +380,130 @@ public class AbstractCachingBuildRuleTest extends EasyMockSupport {
   // TODO(mbolin): Test that when the value in the success file does not agree with the current
   // value, the rule is rebuilt and the result is written back to the cache.
 
+  /**
+   * A rule that only needs the ABIs of its deps should start to build as soon as its deps have
+   * marked their ABIs as ready, but should not finish until its deps have.
+   */
+  @Test
+  public void testRuleThatOnlyNeedsAbisOfDepsStartsOnceTheyAreReady()
+      throws IOException, InterruptedException, ExecutionException, StepFailedException {
+    final CountDownLatch dependentStarted = new CountDownLatch(1);
+    final CountDownLatch depMayFinish = new CountDownLatch(1);
+
+    List<Step> depSteps = Lists.newArrayList();
+    final BuildableAbstractCachingBuildRule dep = createRule(
+        new BuildTarget("//src/com/facebook/orca", "dep"),
+        ImmutableSet.<BuildRule>of(),
+        ImmutableList.of(Paths.get("/dev/null")),
+        depSteps,
+        /* pathToOutputFile */ null,
+        /* canBuildAgainstAbisOfDeps */ false);
+    depSteps.add(new AbstractExecutionStep("abi") {
+      @Override
+      public int execute(ExecutionContext context) {
+        dep.markAbiReady();
+        return 0;
+      }
+    });
+    depSteps.add(new AbstractExecutionStep("jar") {
+      @Override
+      public int execute(ExecutionContext context) {
+        try {
+          return depMayFinish.await(5, TimeUnit.SECONDS) ? 0 : 1;
+        } catch (InterruptedException e) {
+          return 1;
+        }
+      }
+    });
+
+    AbstractCachingBuildRule dependent = createRule(
+        buildTarget,
+        ImmutableSet.<BuildRule>of(dep),
+        ImmutableList.of(Paths.get("/dev/null")),
+        ImmutableList.<Step>of(new AbstractExecutionStep("javac") {
+          @Override
+          public int execute(ExecutionContext context) {
+            dependentStarted.countDown();
+            return 0;
+          }
+        }),
+        /* pathToOutputFile */ null,
+        /* canBuildAgainstAbisOfDeps */ true);
+
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+    BuildContext context = createBuildContextThatRunsStepsOn(executor);
+    replayAll();
+
+    ListenableFuture<BuildRuleSuccess> result = dependent.build(context);
+    assertTrue("The dependent should start once the ABI of its dep is ready.",
+        dependentStarted.await(5, TimeUnit.SECONDS));
+    assertFalse("The dependent should not finish before its dep.", result.isDone());
+
+    depMayFinish.countDown();
+    assertEquals(BuildRuleSuccess.Type.BUILT_LOCALLY, result.get().getType());
+    assertTrue(dep.build(context).isDone());
+    executor.shutdown();
+    verifyAll();
+  }
+
+  private BuildContext createBuildContextThatRunsStepsOn(ListeningExecutorService executor) {
+    BuildContext context = createNiceMock(BuildContext.class);
+    expect(context.getPrioritizedExecutor(anyObject(BuildRule.class)))
+        .andReturn(executor).anyTimes();
+    expect(context.getEventBus()).andReturn(BuckEventBusFactory.newInstance()).anyTimes();
+    expect(context.createOnDiskBuildInfoFor(anyObject(BuildTarget.class)))
+        .andReturn(new FakeOnDiskBuildInfo()).anyTimes();
+
+    BuildInfoRecorder buildInfoRecorder = createNiceMock(BuildInfoRecorder.class);
+    expect(buildInfoRecorder.fetchArtifactForBuildable(
+            anyObject(File.class),
+            anyObject(ArtifactCache.class)))
+        .andReturn(CacheResult.MISS).anyTimes();
+    expect(context.createBuildInfoRecorder(
+            anyObject(BuildTarget.class),
+            anyObject(RuleKey.class),
+            anyObject(RuleKey.class)))
+        .andReturn(buildInfoRecorder).anyTimes();
+    expect(context.getArtifactCache()).andReturn(createNiceMock(ArtifactCache.class)).anyTimes();
+
+    // A mock would serialize the steps of different rules, which must be able to run at once.
+    StepRunner stepRunner = new StepRunner() {
+      @Override
+      public void runStep(Step step) throws StepFailedException {
+        if (step.execute(/* context */ null) != 0) {
+          throw new StepFailedException("Failed: " + step.getShortName(),
+              step,
+              /* exitCode */ 1);
+        }
+      }
+
+      @Override
+      public void runStepForBuildTarget(Step step, BuildTarget buildTarget)
+          throws StepFailedException {
+        runStep(step);
+      }
+
+      @Override
+      public <T> ListenableFuture<T> runStepsAndYieldResult(
+          List<Step> steps, Callable<T> interpretResults, BuildTarget buildTarget) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void runStepsInParallelAndWait(List<Step> steps) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public ListeningExecutorService getListeningExecutorService() {
+        throw new UnsupportedOperationException();
+      }
+    };
+    expect(context.getStepRunner()).andReturn(stepRunner).anyTimes();
+    return context;
+  }
+
   // TODO(mbolin): Test that a failure when executing the build steps is propagated appropriately.
 
   // TODO(mbolin): Test what happens when the cache's methods throw an exception.
@@ -380,6 +513,21 @@ public class AbstractCachingBuildRuleTest extends EasyMockSupport {
       Iterable<Path> inputs,
       List<Step> buildSteps,
       @Nullable String pathToOutputFile) {
+    return createRule(buildTarget,
+        deps,
+        inputs,
+        buildSteps,
+        pathToOutputFile,
+        /* canBuildAgainstAbisOfDeps */ false);
+  }
+
+  private static BuildableAbstractCachingBuildRule createRule(
+      BuildTarget buildTarget,
+      ImmutableSet<BuildRule> deps,
+      Iterable<Path> inputs,
+      List<Step> buildSteps,
+      @Nullable String pathToOutputFile,
+      final boolean canBuildAgainstAbisOfDeps) {
     Comparator<BuildRule> comparator = RetainOrderComparator.createComparator(deps);
     ImmutableSortedSet<BuildRule> sortedDeps = ImmutableSortedSet.copyOf(comparator, deps);
 
@@ -401,7 +549,12 @@ public class AbstractCachingBuildRuleTest extends EasyMockSupport {
     return new BuildableAbstractCachingBuildRule(buildRuleParams,
         inputs,
         pathToOutputFile,
-        buildSteps);
+        buildSteps) {
+      @Override
+      protected boolean canBuildAgainstAbisOfDeps(BuildContext context) {
+        return canBuildAgainstAbisOfDeps;
+      }
+    };
   }
 
   private static class BuildableAbstractCachingBuildRule extends DoNotUseAbstractBuildable
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.graph.MutableDirectedGraph;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargetPattern;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Test;
+
+public class CriticalPathPrioritizerTest {
+
+  /**
+   * <pre>
+   *         //:apk
+   *        /      \
+   *   //:dex    //:small
+   *      |
+   *   //:javac
+   * </pre>
+   */
+  @Test
+  public void testRulesOnTheLongestChainOfDependentsHaveTheHighestPriority() {
+    BuildRule javac = createRule("//:javac");
+    BuildRule dex = createRule("//:dex", javac);
+    BuildRule small = createRule("//:small");
+    BuildRule apk = createRule("//:apk", dex, small);
+    DependencyGraph graph = createGraph(apk, dex, small, javac);
+
+    CriticalPathPrioritizer prioritizer = CriticalPathPrioritizer.create(graph,
+        ImmutableMap.of(
+            "//:javac", 100L,
+            "//:dex", 50L,
+            "//:small", 10L,
+            "//:apk", 20L));
+
+    assertEquals(20L, prioritizer.getPriority(apk));
+    assertEquals(70L, prioritizer.getPriority(dex));
+    assertEquals(30L, prioritizer.getPriority(small));
+    assertEquals(170L, prioritizer.getPriority(javac));
+  }
+
+  @Test
+  public void testRulesWithoutHistoryAreEstimatedFromTheAverage() {
+    BuildRule leaf = createRule("//:leaf");
+    BuildRule root = createRule("//:root", leaf);
+    DependencyGraph graph = createGraph(root, leaf);
+
+    CriticalPathPrioritizer prioritizer = CriticalPathPrioritizer.create(graph,
+        ImmutableMap.of("//:root", 40L, "//:unrelated", 20L));
+
+    assertEquals(40L, prioritizer.getPriority(root));
+    assertEquals("//:leaf should be assumed to take the average of 30ms.",
+        70L,
+        prioritizer.getPriority(leaf));
+  }
+
+  @Test
+  public void testWithoutHistoryDeeperRulesComeFirst() {
+    BuildRule leaf = createRule("//:leaf");
+    BuildRule middle = createRule("//:middle", leaf);
+    BuildRule root = createRule("//:root", middle);
+    DependencyGraph graph = createGraph(root, middle, leaf);
+
+    CriticalPathPrioritizer prioritizer = CriticalPathPrioritizer.create(graph,
+        ImmutableMap.<String, Long>of());
+
+    assertTrue(prioritizer.getPriority(leaf) > prioritizer.getPriority(middle));
+    assertTrue(prioritizer.getPriority(middle) > prioritizer.getPriority(root));
+    assertEquals(0L, CriticalPathPrioritizer.NONE.getPriority(leaf));
+  }
+
+  private static BuildRule createRule(String name, BuildRule... deps) {
+    return new FakeBuildRule(BuildRuleType.GENRULE,
+        BuildTargetFactory.newInstance(name),
+        ImmutableSortedSet.copyOf(deps),
+        ImmutableSet.<BuildTargetPattern>of());
+  }
+
+  private static DependencyGraph createGraph(BuildRule... rules) {
+    MutableDirectedGraph<BuildRule> graph = new MutableDirectedGraph<>();
+    for (BuildRule rule : rules) {
+      graph.addNode(rule);
+      for (BuildRule dep : rule.getDeps()) {
+        graph.addEdge(rule, dep);
+      }
+    }
+    return new DependencyGraph(graph);
+  }
+}
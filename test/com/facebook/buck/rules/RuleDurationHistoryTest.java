@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+public class RuleDurationHistoryTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testRecordedDurationsAreAveragedWithThePreviousEstimate() {
+    RuleDurationHistory history = new RuleDurationHistory(ImmutableMap.<String, Long>of());
+    assertEquals(Optional.<Long>absent(), history.getDurationMillis("//:lib"));
+
+    history.recordDuration("//:lib", 100);
+    assertEquals(Optional.of(100L), history.getDurationMillis("//:lib"));
+
+    history.recordDuration("//:lib", 300);
+    assertEquals(Optional.of(200L), history.getDurationMillis("//:lib"));
+  }
+
+  @Test
+  public void testHistoryRoundTripsThroughBuckOut() throws IOException {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmp.getRoot());
+    assertTrue("A missing history should be treated as empty.",
+        RuleDurationHistory.load(projectFilesystem).getDurations().isEmpty());
+
+    RuleDurationHistory history = new RuleDurationHistory(ImmutableMap.of("//:a", 5L));
+    history.recordDuration("//:b", 7);
+    history.save(projectFilesystem);
+
+    assertEquals(ImmutableMap.of("//:a", 5L, "//:b", 7L),
+        RuleDurationHistory.load(projectFilesystem).getDurations());
+  }
+
+  @Test
+  public void testHistoryOfAProjectIsShared() {
+    RuleDurationHistory history =
+        RuleDurationHistory.forProject(new ProjectFilesystem(tmp.getRoot()));
+    history.recordDuration("//:lib", 100);
+
+    RuleDurationHistory shared =
+        RuleDurationHistory.forProject(new ProjectFilesystem(tmp.getRoot()));
+    assertSame(history, shared);
+    assertEquals(Optional.of(100L), shared.getDurationMillis("//:lib"));
+  }
+
+  @Test
+  public void testUnreadableHistoryIsTreatedAsEmpty() throws IOException {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmp.getRoot());
+    projectFilesystem.createParentDirs(RuleDurationHistory.PATH_TO_HISTORY);
+    projectFilesystem.writeContentsToPath("not json", RuleDurationHistory.PATH_TO_HISTORY);
+
+    assertTrue(RuleDurationHistory.load(projectFilesystem).getDurations().isEmpty());
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargetPattern;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+public class TestDurationHistoryTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testTargetAndClassDurationsAreRecorded() {
+    TestDurationHistory history = createEmptyHistory();
+    TestResults results = createResults("//foo:test",
+        createTestCase("com.example.FooTest", 100),
+        createTestCase("com.example.BarTest", 300));
+
+    assertTrue(history.recordResults(results));
+    assertEquals(Optional.of(400L), history.getTargetDurationMillis("//foo:test"));
+    assertEquals(Optional.of(100L), history.getClassDurationMillis("com.example.FooTest"));
+    assertEquals(Optional.of(300L), history.getClassDurationMillis("com.example.BarTest"));
+
+    // A second run is averaged with the first.
+    history.recordResults(createResults("//foo:test",
+        createTestCase("com.example.FooTest", 300),
+        createTestCase("com.example.BarTest", 300)));
+    assertEquals(Optional.of(500L), history.getTargetDurationMillis("//foo:test"));
+    assertEquals(Optional.of(200L), history.getClassDurationMillis("com.example.FooTest"));
+  }
+
+  @Test
+  public void testCachedResultsAreNotRecorded() {
+    TestDurationHistory history = createEmptyHistory();
+    TestResults results = createResults("//foo:test",
+        TestCaseSummary.TO_CACHED_TRANSFORMATION.apply(
+            createTestCase("com.example.FooTest", 100)));
+
+    assertFalse(history.recordResults(results));
+    assertTrue(history.getTargetDurations().isEmpty());
+    assertTrue(history.getClassDurations().isEmpty());
+  }
+
+  @Test
+  public void testTestsThatTookLongestOrHaveNeverRunAreSortedFirst() {
+    TestDurationHistory history = new TestDurationHistory(
+        ImmutableMap.of("//:fast", 10L, "//:slow", 1000L, "//:medium", 100L),
+        ImmutableMap.<String, Long>of());
+
+    ImmutableList<TestRule> sorted = history.sortLongestFirst(ImmutableList.of(
+        createTestRule("//:fast"),
+        createTestRule("//:new1"),
+        createTestRule("//:medium"),
+        createTestRule("//:slow"),
+        createTestRule("//:new2")));
+
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    for (TestRule test : sorted) {
+      names.add(test.getFullyQualifiedName());
+    }
+    assertEquals(
+        ImmutableList.of("//:new1", "//:new2", "//:slow", "//:medium", "//:fast"),
+        names.build());
+  }
+
+  @Test
+  public void testHistoryRoundTripsThroughBuckOut() throws IOException {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmp.getRoot());
+    TestDurationHistory empty = TestDurationHistory.load(projectFilesystem);
+    assertTrue("A missing history should be treated as empty.",
+        empty.getTargetDurations().isEmpty() && empty.getClassDurations().isEmpty());
+
+    TestDurationHistory history = createEmptyHistory();
+    history.recordResults(createResults("//foo:test", createTestCase("com.example.FooTest", 7)));
+    history.save(projectFilesystem);
+
+    TestDurationHistory loaded = TestDurationHistory.load(projectFilesystem);
+    assertEquals(ImmutableMap.of("//foo:test", 7L), loaded.getTargetDurations());
+    assertEquals(ImmutableMap.of("com.example.FooTest", 7L), loaded.getClassDurations());
+  }
+
+  @Test
+  public void testHistoryOfAProjectIsShared() {
+    TestDurationHistory history =
+        TestDurationHistory.forProject(new ProjectFilesystem(tmp.getRoot()));
+    history.recordResults(createResults("//foo:test", createTestCase("com.example.FooTest", 7)));
+
+    TestDurationHistory shared =
+        TestDurationHistory.forProject(new ProjectFilesystem(tmp.getRoot()));
+    assertSame(history, shared);
+    assertEquals(ImmutableMap.of("com.example.FooTest", 7L), shared.getClassDurations());
+  }
+
+  @Test
+  public void testUnreadableHistoryIsTreatedAsEmpty() throws IOException {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmp.getRoot());
+    projectFilesystem.createParentDirs(TestDurationHistory.PATH_TO_HISTORY);
+    projectFilesystem.writeContentsToPath("[]", TestDurationHistory.PATH_TO_HISTORY);
+
+    assertTrue(TestDurationHistory.load(projectFilesystem).getTargetDurations().isEmpty());
+  }
+
+  private static TestDurationHistory createEmptyHistory() {
+    return new TestDurationHistory(
+        ImmutableMap.<String, Long>of(),
+        ImmutableMap.<String, Long>of());
+  }
+
+  static TestCaseSummary createTestCase(String testCaseName, long durationMillis) {
+    return new TestCaseSummary(testCaseName, ImmutableList.of(new TestResultSummary(
+        testCaseName,
+        "testSomething",
+        /* isSuccess */ true,
+        durationMillis,
+        /* message */ null,
+        /* stacktrace */ null,
+        /* stdOut */ null,
+        /* stdErr */ null)));
+  }
+
+  static TestResults createResults(String target, TestCaseSummary... testCases) {
+    return new TestResults(
+        BuildTargetFactory.newInstance(target),
+        ImmutableList.copyOf(testCases),
+        /* contacts */ ImmutableSet.<String>of());
+  }
+
+  private static TestRule createTestRule(String target) {
+    return new FakeTestRule(BuildRuleType.JAVA_TEST,
+        ImmutableSet.<String>of(),
+        BuildTargetFactory.newInstance(target),
+        ImmutableSortedSet.<BuildRule>of(),
+        ImmutableSet.<BuildTargetPattern>of());
+  }
+}
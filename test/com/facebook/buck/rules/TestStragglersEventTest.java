@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static com.facebook.buck.rules.TestDurationHistoryTest.createResults;
+import static com.facebook.buck.rules.TestDurationHistoryTest.createTestCase;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.test.TestCaseSummary;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+public class TestStragglersEventTest {
+
+  @Test
+  public void testSlowestTestsAreReportedSlowestFirst() {
+    TestStragglersEvent event = TestStragglersEvent.create(
+        ImmutableList.of(
+            createResults("//:a",
+                createTestCase("com.example.A1Test", 100),
+                createTestCase("com.example.A2Test", 50)),
+            createResults("//:b", createTestCase("com.example.BTest", 400)),
+            createResults("//:c", createTestCase("com.example.CTest", 20)),
+            createResults("//:cached",
+                TestCaseSummary.TO_CACHED_TRANSFORMATION.apply(
+                    createTestCase("com.example.CachedTest", 1000)))),
+        /* threadCount */ 2,
+        /* limit */ 2);
+
+    assertEquals(ImmutableList.of("//:b", "//:a"),
+        event.getSlowestTargets().keySet().asList());
+    assertEquals(ImmutableMap.of("//:b", 400L, "//:a", 150L), event.getSlowestTargets());
+    assertEquals(ImmutableList.of("com.example.BTest", "com.example.A1Test"),
+        event.getSlowestClasses().keySet().asList());
+    assertEquals(570L, event.getTotalMillis());
+    assertEquals(400L, event.getProjectedCriticalPathMillis());
+  }
+
+  @Test
+  public void testProjectedCriticalPathStartsTheLongestTestsFirst() {
+    // Longest-first on two threads: {7, 3, 2} and {6, 4}, rather than the 13ms that results from
+    // running the tests in the order given.
+    assertEquals(12L, TestStragglersEvent.getProjectedCriticalPathMillis(
+        ImmutableList.of(2L, 3L, 4L, 6L, 7L), 2));
+    assertEquals(22L, TestStragglersEvent.getProjectedCriticalPathMillis(
+        ImmutableList.of(2L, 3L, 4L, 6L, 7L), 1));
+    assertEquals(7L, TestStragglersEvent.getProjectedCriticalPathMillis(
+        ImmutableList.of(2L, 3L, 4L, 6L, 7L), 8));
+    assertEquals(0L, TestStragglersEvent.getProjectedCriticalPathMillis(
+        ImmutableList.<Long>of(), 4));
+  }
+}
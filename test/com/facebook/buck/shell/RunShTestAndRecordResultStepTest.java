@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.util.environment.Platform;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class RunShTestAndRecordResultStepTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testOutputIsWrittenToLogsAndOnlyItsTailIsRecorded() throws IOException {
+    assumeTrue(Platform.detect() != Platform.WINDOWS);
+
+    int lineCount = 2 * RunShTestAndRecordResultStep.MAX_OUTPUT_TAIL_BYTES / 10;
+    File script = tmp.newFile("test.sh");
+    Files.write(
+        "#!/bin/sh\n" +
+        "i=0\n" +
+        "while [ $i -lt " + lineCount + " ]; do echo 123456789; i=$((i+1)); done\n" +
+        "echo 'the reason' 1>&2\n" +
+        "exit 1\n",
+        script,
+        Charsets.UTF_8);
+    assertTrue(script.setExecutable(true));
+
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(tmp.getRoot()))
+        .build();
+    RunShTestAndRecordResultStep step = new RunShTestAndRecordResultStep(
+        script.getAbsolutePath(),
+        "result.json",
+        "stdout.log",
+        "stderr.log");
+
+    assertEquals(0, step.execute(context));
+
+    assertEquals(lineCount * 10, new File(tmp.getRoot(), "stdout.log").length());
+    TestResultSummary summary = new ObjectMapper().readValue(
+        new File(tmp.getRoot(), "result.json"),
+        TestResultSummary.class);
+    assertFalse(summary.isSuccess());
+    assertEquals("the reason\n", summary.getStdErr());
+    String stdout = summary.getStdOut();
+    assertTrue(stdout, stdout.startsWith(String.format(
+        "[%d bytes omitted; see stdout.log for the full output]\n",
+        lineCount * 10 - RunShTestAndRecordResultStep.MAX_OUTPUT_TAIL_BYTES)));
+    assertTrue(stdout.endsWith("123456789\n"));
+  }
+
+  @Test
+  public void testReadTail() throws IOException {
+    File log = tmp.newFile("log");
+    Files.write("short", log, Charsets.UTF_8);
+    assertEquals("short", RunShTestAndRecordResultStep.readTail(log, "log"));
+
+    Files.write(
+        "x" + Strings.repeat("y", RunShTestAndRecordResultStep.MAX_OUTPUT_TAIL_BYTES),
+        log,
+        Charsets.UTF_8);
+    assertEquals(
+        "[1 bytes omitted; see log for the full output]\n" +
+            Strings.repeat("y", RunShTestAndRecordResultStep.MAX_OUTPUT_TAIL_BYTES),
+        RunShTestAndRecordResultStep.readTail(log, "log"));
+
+    // The tail would start with the last byte of the two-byte "\u00e9", so it is left out, too.
+    Files.write(
+        "\u00e9" + Strings.repeat("y", RunShTestAndRecordResultStep.MAX_OUTPUT_TAIL_BYTES - 1),
+        log,
+        Charsets.UTF_8);
+    assertEquals(
+        "[2 bytes omitted; see log for the full output]\n" +
+            Strings.repeat("y", RunShTestAndRecordResultStep.MAX_OUTPUT_TAIL_BYTES - 1),
+        RunShTestAndRecordResultStep.readTail(log, "log"));
+
+    assertNull(RunShTestAndRecordResultStep.readTail(new File(tmp.getRoot(), "missing"), "x"));
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ResourceSchedulerTest {
+
+  @Test
+  public void testStepIsBlockedUntilResourcesAreReleased() throws InterruptedException {
+    final ResourceScheduler scheduler = new ResourceScheduler(new StepResources(2, 1024L));
+    ResourceScheduler.Allocation first = scheduler.acquire(new StepResources(1, 768L));
+
+    final CountDownLatch admitted = new CountDownLatch(1);
+    Thread second = new Thread() {
+      @Override
+      public void run() {
+        try (ResourceScheduler.Allocation allocation =
+                 scheduler.acquire(new StepResources(1, 512L))) {
+          admitted.countDown();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    second.start();
+
+    // There is a free CPU slot, but not enough memory.
+    assertFalse(admitted.await(100, TimeUnit.MILLISECONDS));
+    first.close();
+    assertTrue(admitted.await(5, TimeUnit.SECONDS));
+    second.join();
+  }
+
+  @Test
+  public void testRequestsLargerThanTheLimitsAreClamped() throws InterruptedException {
+    ResourceScheduler scheduler = new ResourceScheduler(new StepResources(1, 1024L));
+    // Otherwise, this would block forever.
+    scheduler.acquire(new StepResources(4, 4096L)).close();
+    scheduler.acquire(StepResources.ONE_CPU).close();
+  }
+
+  @Test
+  public void testStepsThatAreNotResourceAwareAreNotBlocked() throws InterruptedException {
+    ResourceScheduler scheduler = new ResourceScheduler(new StepResources(1, 1024L));
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setResourceScheduler(scheduler)
+        .build();
+    try (ResourceScheduler.Allocation all = scheduler.acquire(new StepResources(1, 1024L))) {
+      // Otherwise, this would block forever.
+      scheduler.acquireFor(new FakeStep("fake", "fake", 0), context).close();
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PriorityThreadPoolExecutorTest {
+
+  @Test
+  public void testQueuedWorkRunsInPriorityOrderWithTiesBrokenBySubmissionOrder()
+      throws InterruptedException {
+    PriorityThreadPoolExecutor executor = new PriorityThreadPoolExecutor(getClass().getName(), 1);
+    final List<String> order = Collections.synchronizedList(Lists.<String>newArrayList());
+
+    // Occupy the only thread so that everything else is queued.
+    final CountDownLatch blocker = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          blocker.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+
+    executor.execute(createRecorder(order, "unprioritized"));
+    PriorityThreadPoolExecutor.withPriority(executor, 5).execute(createRecorder(order, "five-a"));
+    PriorityThreadPoolExecutor.withPriority(executor, 10).execute(createRecorder(order, "ten"));
+    PriorityThreadPoolExecutor.withPriority(executor, 5).execute(createRecorder(order, "five-b"));
+    executor.execute(createRecorder(order, "unprioritized-2"));
+
+    blocker.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+    assertEquals(
+        ImmutableList.of("ten", "five-a", "five-b", "unprioritized", "unprioritized-2"),
+        order);
+  }
+
+  @Test
+  public void testPriorityIsIgnoredByOrdinaryExecutors() {
+    final List<String> order = Lists.newArrayList();
+    PriorityThreadPoolExecutor.withPriority(sameThreadExecutor(), 10)
+        .execute(createRecorder(order, "ran"));
+    assertEquals(ImmutableList.of("ran"), order);
+  }
+
+  private static Runnable createRecorder(final List<String> order, final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        order.add(name);
+      }
+    };
+  }
+}
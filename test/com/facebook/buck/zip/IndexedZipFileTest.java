@@ -0,0 +1,188 @@
+/*
+ * Copyright 2013-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+public class IndexedZipFileTest {
+
+  private static final byte[] STORED_CONTENTS = "stored".getBytes();
+  private static final byte[] DEFLATED_CONTENTS = Strings.repeat("deflated ", 100).getBytes();
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testReadsStoredAndDeflatedEntries() throws IOException {
+    File zip = createZip("example.zip");
+
+    try (IndexedZipFile zipFile = IndexedZipFile.open(zip)) {
+      assertEquals(3, zipFile.getEntries().size());
+      assertEquals("dir/", zipFile.getEntries().get(0).getName());
+      assertTrue(zipFile.getEntries().get(0).isDirectory());
+
+      IndexedZipFile.Entry stored = zipFile.getEntry("dir/stored.txt").get();
+      assertEquals(ZipEntry.STORED, stored.getMethod());
+      assertEquals(STORED_CONTENTS.length, stored.getSize());
+      assertArrayEquals(STORED_CONTENTS, read(zipFile, stored));
+
+      IndexedZipFile.Entry deflated = zipFile.getEntry("deflated.txt").get();
+      assertEquals(ZipEntry.DEFLATED, deflated.getMethod());
+      assertTrue(deflated.getCompressedSize() < deflated.getSize());
+      assertArrayEquals(DEFLATED_CONTENTS, read(zipFile, deflated));
+      CRC32 crc = new CRC32();
+      crc.update(DEFLATED_CONTENTS);
+      assertEquals(crc.getValue(), deflated.getCrc());
+
+      assertFalse(zipFile.getEntry("missing.txt").isPresent());
+    }
+  }
+
+  @Test
+  public void testCompressedDataOfStoredEntryIsItsContents() throws IOException {
+    File zip = createZip("example.zip");
+
+    try (IndexedZipFile zipFile = IndexedZipFile.open(zip)) {
+      ByteBuffer data = zipFile.getCompressedData(zipFile.getEntry("dir/stored.txt").get());
+      byte[] bytes = new byte[data.remaining()];
+      data.get(bytes);
+      assertArrayEquals(STORED_CONTENTS, bytes);
+    }
+  }
+
+  @Test
+  public void testEntriesCannotBeReadAfterTheZipFileIsClosed() throws IOException {
+    File zip = createZip("closed.zip");
+
+    IndexedZipFile zipFile = IndexedZipFile.open(zip);
+    IndexedZipFile.Entry stored = zipFile.getEntry("dir/stored.txt").get();
+    zipFile.close();
+    try {
+      read(zipFile, stored);
+      fail("Reading an entry of a zip file that has been closed should fail.");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().contains("has been closed"));
+    }
+  }
+
+  @Test
+  public void testIndexIsSharedByInstancesOfTheSameFile() throws IOException {
+    File zip = createZip("shared.zip");
+
+    try (IndexedZipFile first = IndexedZipFile.open(zip)) {
+      try (IndexedZipFile second = IndexedZipFile.open(zip)) {
+        assertSame(first.getEntries(), second.getEntries());
+        assertArrayEquals(STORED_CONTENTS, read(second, second.getEntry("dir/stored.txt").get()));
+      }
+      assertArrayEquals(DEFLATED_CONTENTS, read(first, first.getEntry("deflated.txt").get()));
+    }
+  }
+
+  @Test
+  public void testReadsZip64ZipFile() throws IOException {
+    // ZipOutputStream writes the ZIP64 end of central directory record once there are too many
+    // entries to count in the ordinary one.
+    int entryCount = 0x10000;
+    File zip = tmp.newFile("zip64.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      for (int i = 0; i < entryCount - 1; i++) {
+        out.putNextEntry(new ZipEntry("empty" + i));
+      }
+      out.putNextEntry(new ZipEntry("deflated.txt"));
+      out.write(DEFLATED_CONTENTS);
+    }
+
+    try (IndexedZipFile zipFile = IndexedZipFile.open(zip)) {
+      assertEquals(entryCount, zipFile.getEntries().size());
+      assertArrayEquals(DEFLATED_CONTENTS, read(zipFile, zipFile.getEntry("deflated.txt").get()));
+    }
+  }
+
+  @Test
+  public void testZipFileThatChangesWhileOpenIsNotRead() throws IOException {
+    File zip = createZip("changed.zip");
+
+    try (IndexedZipFile original = IndexedZipFile.open(zip)) {
+      // Rewrite the file in place, as Buck does with the jars that it builds.
+      try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+        out.putNextEntry(new ZipEntry("other.txt"));
+        out.write(STORED_CONTENTS);
+      }
+
+      try {
+        read(original, original.getEntry("deflated.txt").get());
+        fail("Reading an entry of a zip file that has changed should fail.");
+      } catch (ZipException e) {
+        assertTrue(e.getMessage().contains("has changed since it was opened"));
+      }
+
+      try (IndexedZipFile changed = IndexedZipFile.open(zip)) {
+        assertTrue(changed.getEntry("other.txt").isPresent());
+        assertFalse(changed.getEntry("deflated.txt").isPresent());
+      }
+    }
+  }
+
+  private File createZip(String name) throws IOException {
+    File zip = tmp.newFile(name);
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      out.putNextEntry(new ZipEntry("dir/"));
+
+      ZipEntry stored = new ZipEntry("dir/stored.txt");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(STORED_CONTENTS.length);
+      CRC32 crc = new CRC32();
+      crc.update(STORED_CONTENTS);
+      stored.setCrc(crc.getValue());
+      out.putNextEntry(stored);
+      out.write(STORED_CONTENTS);
+
+      out.putNextEntry(new ZipEntry("deflated.txt"));
+      out.write(DEFLATED_CONTENTS);
+    }
+    return zip;
+  }
+
+  private static byte[] read(IndexedZipFile zipFile, IndexedZipFile.Entry entry)
+      throws IOException {
+    try (InputStream input = zipFile.getInputStream(entry)) {
+      return ByteStreams.toByteArray(input);
+    }
+  }
+}